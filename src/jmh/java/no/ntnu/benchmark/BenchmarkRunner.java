@@ -0,0 +1,60 @@
+package no.ntnu.benchmark;
+
+import java.io.IOException;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks, taking the same options as the JMH launcher, but with settings which make
+ * the results of two runs comparable unless told otherwise: the results are written as JSON to
+ * {@value #DEFAULT_RESULT_FILE}, which records the JVM, its arguments and the parameters with
+ * every score, and the heap is collected between iterations, so that the garbage of one
+ * iteration isn't collected during the next. To compare two releases, run the same benchmarks on
+ * both, for example:
+ * java -jar target/benchmarks.jar -rff results-1.2.json, and diff or plot the two files.
+ */
+public class BenchmarkRunner {
+  /** The file the results are written to, unless another is given with -rff. */
+  public static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+  private BenchmarkRunner() {
+  }
+
+  /**
+   * Run the benchmarks.
+   *
+   * @param args The options of the JMH launcher, and which benchmarks to run, all when none are
+   *             given. See -h for the options.
+   * @throws CommandLineOptionException When the options are invalid
+   * @throws RunnerException            When a benchmark fails
+   * @throws IOException                When the launcher can't print what was asked for
+   */
+  public static void main(String[] args)
+      throws CommandLineOptionException, RunnerException, IOException {
+    CommandLineOptions commandLine = new CommandLineOptions(args);
+    if (commandLine.shouldHelp() || commandLine.shouldList()
+        || commandLine.shouldListWithParams() || commandLine.shouldListProfilers()
+        || commandLine.shouldListResultFormats()) {
+      // Nothing to run, the launcher prints what was asked for
+      Main.main(args);
+    } else {
+      ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+      if (!commandLine.getResultFormat().hasValue()) {
+        options.resultFormat(ResultFormatType.JSON);
+      }
+      if (!commandLine.getResult().hasValue()) {
+        options.result(DEFAULT_RESULT_FILE);
+      }
+      if (!commandLine.shouldDoGC().hasValue()) {
+        options.shouldDoGC(true);
+      }
+      new Runner(options.build()).run();
+    }
+  }
+}
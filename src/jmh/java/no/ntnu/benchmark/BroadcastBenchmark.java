@@ -0,0 +1,93 @@
+package no.ntnu.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.server.OutboundMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares encoding a broadcast once per recipient (what writing the message through a
+ * PrintWriter per client does) with encoding it once and handing every recipient a read-only
+ * view. Run with the GC profiler to see the allocation per broadcast:
+ * java -jar target/benchmarks.jar BroadcastBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+  private static final int IMAGE_BYTES = 52 * 1024;
+
+  @Param({"100"})
+  public int controlPanels;
+
+  @Param({"sensorData", "cameraImage"})
+  public String messageType;
+
+  private String message;
+  // Every recipient's writer copies through its own chunk buffer, as ClientHandler does
+  private byte[][] writerChunks;
+
+  /** Create the message to broadcast. */
+  @Setup
+  public void createMessage() {
+    if (messageType.equals("cameraImage")) {
+      byte[] image = new byte[IMAGE_BYTES];
+      for (int i = 0; i < image.length; ++i) {
+        image[i] = (byte) (i * 31);
+      }
+      message = "sendCameraImage-1;" + java.util.Base64.getEncoder().encodeToString(image);
+    } else {
+      message = "updateSensorData-1;Temperature=27.41 °C,Temperature=26.9 °C,Humidity=80.33 %,";
+    }
+    writerChunks = new byte[controlPanels][8192];
+  }
+
+  /**
+   * Every recipient encodes the message on its own.
+   *
+   * @param blackhole Consumes the written bytes
+   */
+  @Benchmark
+  public void encodePerRecipient(Blackhole blackhole) {
+    for (int i = 0; i < controlPanels; ++i) {
+      byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+      write(ByteBuffer.wrap(bytes), writerChunks[i], blackhole);
+    }
+  }
+
+  /**
+   * The message is encoded once, every recipient writes its own view of the shared bytes.
+   *
+   * @param blackhole Consumes the written bytes
+   */
+  @Benchmark
+  public void encodeOnce(Blackhole blackhole) {
+    OutboundMessage outboundMessage = new OutboundMessage(message);
+    for (int i = 0; i < controlPanels; ++i) {
+      write(outboundMessage.getBytes(), writerChunks[i], blackhole);
+    }
+  }
+
+  private static void write(ByteBuffer bytes, byte[] chunk, Blackhole blackhole) {
+    while (bytes.hasRemaining()) {
+      int length = Math.min(chunk.length, bytes.remaining());
+      bytes.get(chunk, 0, length);
+      blackhole.consume(chunk);
+    }
+  }
+}
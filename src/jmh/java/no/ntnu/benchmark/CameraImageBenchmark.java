@@ -0,0 +1,61 @@
+package no.ntnu.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.greenhouse.CameraImageCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares getting the base64 camera image of a node by reading and encoding the file every
+ * time, as a control panel joining used to cause for every node, with getting it from the cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CameraImageBenchmark {
+  private final Path image = Path.of("images/camera1.jpg");
+  private CameraImageCache cache;
+
+  /** Create the cache. */
+  @Setup
+  public void createCache() {
+    cache = new CameraImageCache(CameraImageCache.DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * Read the image file and encode it.
+   *
+   * @return The encoded image
+   * @throws IOException When the file can't be read
+   */
+  @Benchmark
+  public String readAndEncode() throws IOException {
+    return Base64.getEncoder().encodeToString(Files.readAllBytes(image));
+  }
+
+  /**
+   * Get the encoded image from the cache, which checks that the file hasn't changed.
+   *
+   * @return The encoded image
+   * @throws IOException When the file can't be read
+   */
+  @Benchmark
+  public String cached() throws IOException {
+    return cache.get(image).getBase64();
+  }
+}
@@ -0,0 +1,93 @@
+package no.ntnu.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import no.ntnu.server.OutboundMessage;
+import no.ntnu.server.OutboundQueue;
+import no.ntnu.server.OverflowPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Queues the updates of many nodes for a control panel which has stopped reading, with and
+ * without conflation, and prints what the panel would have to catch up on afterwards: without
+ * conflation the queue fills up and old updates are dropped, with conflation it holds one update
+ * per node and actuator. The time is the cost of queueing one message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class ConflationBenchmark {
+  private static final int MAX_QUEUED_MESSAGES = 100000;
+  private static final long MAX_QUEUED_BYTES = 16L * 1024 * 1024;
+  // Every this many messages is an actuator update
+  private static final int ACTUATOR_UPDATE_INTERVAL = 10;
+
+  @Param({"10000"})
+  public int nodes;
+
+  @Param({"false", "true"})
+  public boolean conflating;
+
+  private OutboundMessage[] messages;
+  private OutboundQueue queue;
+  private long offered;
+
+  /** Create the messages the nodes send, a few versions of each. */
+  @Setup
+  public void createMessages() {
+    messages = new OutboundMessage[nodes * 4];
+    for (int i = 0; i < messages.length; ++i) {
+      int node = i % nodes;
+      if (i % ACTUATOR_UPDATE_INTERVAL == 0) {
+        messages[i] = new OutboundMessage("actuatorUpdated-" + node + ";" + (node * 3) + "="
+            + (i % 2 == 0));
+      } else {
+        messages[i] = new OutboundMessage("updateSensorData-" + node + ";Temperature="
+            + (20 + i % 7) + ".5 °C,Humidity=" + (70 + i % 5) + ".25 %,");
+      }
+    }
+  }
+
+  /** Create an empty queue for the panel. */
+  @Setup(Level.Iteration)
+  public void createQueue() {
+    queue = new OutboundQueue(MAX_QUEUED_MESSAGES, MAX_QUEUED_BYTES, OverflowPolicy.DROP_OLDEST);
+    queue.setConflating(conflating);
+    offered = 0;
+  }
+
+  /** Print what the panel would have to catch up on. */
+  @TearDown(Level.Iteration)
+  public void printBacklog() {
+    System.out.println();
+    System.out.println("Offered: " + offered + ", queued: " + queue.getQueuedMessages()
+        + " messages, " + queue.getQueuedBytes() + " bytes, dropped: "
+        + queue.getDroppedMessages() + ", replaced: " + queue.getReplacedMessages()
+        + ", closed: " + queue.isClosed());
+  }
+
+  /**
+   * Queue the next update.
+   *
+   * @return Whether the queue accepted it
+   */
+  @Benchmark
+  public boolean offer() {
+    OutboundMessage message = messages[(int) (offered++ % messages.length)];
+    return queue.offer(message);
+  }
+}
@@ -0,0 +1,136 @@
+package no.ntnu.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import no.ntnu.controlpanel.ControlPanelLogic;
+import no.ntnu.controlpanel.SensorActuatorNodeInfo;
+import no.ntnu.greenhouse.SensorReading;
+import no.ntnu.gui.controlpanel.TcpControlpanelNodeClient;
+import no.ntnu.listeners.controlpanel.GreenhouseEventListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Stress test of the event delivery in the control panel client: feeds sensor data to the client
+ * at a fixed rate and checks that every update is delivered to the logic, in order per node, while
+ * the number of threads stays flat. Fails when it doesn't. The time is the time until the last
+ * update has been delivered.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(1)
+public class EventDispatcherBenchmark {
+  private static final int NODES = 100;
+  private static final int BATCHES_PER_SECOND = 100;
+  // Allowed growth in threads, for JIT compiler and GC threads starting during the run
+  private static final int THREAD_SLACK = 4;
+
+  @Param({"10000"})
+  public int updatesPerSecond;
+
+  @Param({"5"})
+  public int seconds;
+
+  /**
+   * Feed the updates and wait until they have been delivered.
+   *
+   * @return The number of delivered updates
+   * @throws InterruptedException If interrupted while waiting
+   */
+  @Benchmark
+  public long feedSensorData() throws InterruptedException {
+    ControlPanelLogic logic = new ControlPanelLogic();
+    DeliveryCounter counter = new DeliveryCounter();
+    logic.addListener(counter);
+    TcpControlpanelNodeClient client = new TcpControlpanelNodeClient("127.0.0.1", 1, logic);
+
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    // The shared dispatcher thread is started by the first event
+    client.advertiseSensorData("0;Temperature=20.0 °C,");
+    int threadsBefore = threads.getThreadCount();
+    threads.resetPeakThreadCount();
+
+    long total = (long) updatesPerSecond * seconds;
+    int perBatch = updatesPerSecond / BATCHES_PER_SECOND;
+    long batchInterval = TimeUnit.SECONDS.toNanos(1) / BATCHES_PER_SECOND;
+    long nextBatch = System.nanoTime();
+    long sent = 0;
+    while (sent < total) {
+      for (int i = 0; i < perBatch && sent < total; ++i, ++sent) {
+        int node = (int) (sent % NODES) + 1;
+        long sequence = sent / NODES;
+        client.advertiseSensorData(node + ";Temperature=" + sequence + ".0 °C,");
+      }
+      nextBatch += batchInterval;
+      LockSupport.parkNanos(nextBatch - System.nanoTime());
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (counter.delivered.get() < total + 1 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    int peakThreads = threads.getPeakThreadCount();
+    System.out.println();
+    System.out.println("Threads before: " + threadsBefore + ", peak: " + peakThreads
+        + ", delivered: " + counter.delivered.get() + "/" + (total + 1)
+        + ", out of order: " + counter.outOfOrder.get());
+    if (peakThreads > threadsBefore + THREAD_SLACK) {
+      throw new IllegalStateException("Thread count grew from " + threadsBefore + " to "
+          + peakThreads);
+    }
+    if (counter.delivered.get() != total + 1 || counter.outOfOrder.get() > 0) {
+      throw new IllegalStateException("Updates lost or delivered out of order");
+    }
+    return counter.delivered.get();
+  }
+
+  /**
+   * Counts the delivered sensor updates, and checks that every node delivers the values it was
+   * sent, one after the other.
+   */
+  private static class DeliveryCounter implements GreenhouseEventListener {
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong outOfOrder = new AtomicLong();
+    private final long[] nextValues = new long[NODES + 1];
+
+    @Override
+    public void onSensorData(int nodeId, List<SensorReading> sensors) {
+      // Node 0 only gets the update starting the dispatcher
+      if (nodeId > 0 && sensors.get(0).getValue() != nextValues[nodeId]++) {
+        outOfOrder.incrementAndGet();
+      }
+      delivered.incrementAndGet();
+    }
+
+    @Override
+    public void onNodeAdded(SensorActuatorNodeInfo nodeInfo) {
+    }
+
+    @Override
+    public void onNodeRemoved(int nodeId) {
+    }
+
+    @Override
+    public void onActuatorStateChanged(int nodeId, int actuatorId, boolean isOn) {
+    }
+
+    @Override
+    public void onPictureTaken(int nodeId, byte[] image) {
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package no.ntnu.benchmark;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.tools.AsyncAppender;
+import no.ntnu.tools.LogLevel;
+import no.ntnu.tools.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Logs a received sensor data message from four threads, as the client handlers of the server
+ * do: printed right away to a stream which writes every line, as System.out does; appended to an
+ * {@link AsyncAppender} writing to such a stream; and through the {@link Logger} at debug level
+ * while only information messages are logged. The streams write to a temporary file, so that the
+ * console itself isn't measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class LoggerBenchmark {
+  // Not a constant, so that the concatenation isn't done by the compiler
+  private String message =
+      "updateSensorData-17;Temperature=27.15 °C,Temperature=26.84 °C,Humidity=81.02 %";
+
+  private Path file;
+  private PrintStream stream;
+  private AsyncAppender appender;
+
+  /** Open the stream to a temporary file and create the appender. */
+  @Setup
+  public void openStream() throws IOException {
+    file = Files.createTempFile("logger-benchmark", ".log");
+    stream = new PrintStream(new FileOutputStream(file.toFile()), true);
+    appender = new AsyncAppender(8192, stream, stream);
+    Logger.setLevel(LogLevel.INFO);
+  }
+
+  /** Print the number of messages the appender dropped, and delete the file. */
+  @TearDown
+  public void closeStream() throws IOException {
+    appender.flush();
+    System.out.println();
+    System.out.println("Appender dropped " + appender.getDroppedCount() + " messages");
+    stream.close();
+    Files.delete(file);
+  }
+
+  /** Print the message right away. */
+  @Benchmark
+  public void synchronous() {
+    stream.println("Received: " + message);
+  }
+
+  /**
+   * Append the message to the appender.
+   *
+   * @return True when it was appended, false when dropped
+   */
+  @Benchmark
+  public boolean asynchronous() {
+    return appender.append("Received: " + message + System.lineSeparator(), false);
+  }
+
+  /** Log the message at a level which is not logged. */
+  @Benchmark
+  public void disabled() {
+    Logger.debug(() -> "Received: " + message);
+  }
+}
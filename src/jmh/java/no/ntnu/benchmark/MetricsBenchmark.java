@@ -0,0 +1,103 @@
+package no.ntnu.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import no.ntnu.tools.Counter;
+import no.ntnu.tools.LatencyHistogram;
+import no.ntnu.tools.MetricsRegistry;
+import no.ntnu.tools.MetricsSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Records metrics from four threads at once, as the client handlers of the server do: adding the
+ * size of a message to a shared count, through a {@link Counter} and through a single
+ * {@link AtomicLong}; recording the time taken to handle a command in a {@link LatencyHistogram};
+ * and reading the clock with {@link System#nanoTime()}, which the server does twice for every
+ * duration it records. Also takes snapshots of a registry with about as many metrics as the
+ * server has.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class MetricsBenchmark {
+  private static final int COMMANDS = 12;
+
+  private final AtomicLong atomicCount = new AtomicLong();
+  private MetricsRegistry registry;
+  private Counter counter;
+  private LatencyHistogram histogram;
+  // Not constants, so that the additions aren't folded by the compiler
+  private long messageSize = 39;
+  private long duration = 23_600;
+
+  /** Create a registry with about as many metrics as the server has. */
+  @Setup
+  public void createRegistry() {
+    registry = new MetricsRegistry();
+    counter = registry.counter("bytes.in");
+    histogram = registry.histogram("command.updateSensorData");
+    for (int i = 0; i < COMMANDS; ++i) {
+      registry.histogram("command." + i).record(i * 1000L);
+      registry.counter("counter." + i).add(i);
+      int value = i;
+      registry.gauge("gauge." + i, () -> value);
+    }
+  }
+
+  /** Add to the striped counter. */
+  @Benchmark
+  public void stripedCounter() {
+    counter.add(messageSize);
+  }
+
+  /**
+   * Add to a single atomic count, which all the threads contend for.
+   *
+   * @return The new count
+   */
+  @Benchmark
+  public long atomicCounter() {
+    return atomicCount.addAndGet(messageSize);
+  }
+
+  /** Record a duration in the histogram. */
+  @Benchmark
+  public void histogram() {
+    histogram.record(duration);
+  }
+
+  /**
+   * Read the clock.
+   *
+   * @return The time
+   */
+  @Benchmark
+  public long clock() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Take a snapshot of the registry.
+   *
+   * @return The snapshot
+   */
+  @Benchmark
+  @Threads(1)
+  public MetricsSnapshot snapshot() {
+    return registry.snapshot();
+  }
+}
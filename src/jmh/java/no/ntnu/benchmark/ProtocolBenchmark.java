@@ -0,0 +1,105 @@
+package no.ntnu.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.greenhouse.SensorReading;
+import no.ntnu.protocol.BinaryCodec;
+import no.ntnu.protocol.FrameReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares sending sensor data in the text protocol with sending it in binary frames: the time to
+ * encode a message on the node and read it back into sensor readings on the control panel. The
+ * size of both encodings is printed at setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+  @Param({"3", "12"})
+  public int sensorCount;
+
+  private List<SensorReading> readings;
+
+  /** Create the sensor readings to send. */
+  @Setup
+  public void createReadings() {
+    readings = new ArrayList<>();
+    for (int i = 0; i < sensorCount; ++i) {
+      if (i % 2 == 0) {
+        readings.add(new SensorReading("Temperature", 20 + i * 0.37, "°C"));
+      } else {
+        readings.add(new SensorReading("Humidity", 70 + i * 0.53, "%"));
+      }
+    }
+    System.out.println();
+    System.out.println("Text: " + encodeText().length + " bytes, binary: "
+        + BinaryCodec.encodeSensorData(42, readings).length + " bytes");
+  }
+
+  /**
+   * Format the readings as a text line and split it back into readings, as the clients do.
+   *
+   * @return The parsed readings
+   */
+  @Benchmark
+  public List<SensorReading> text() {
+    String line = new String(encodeText(), StandardCharsets.UTF_8).trim();
+    String specification = line.split("-")[1];
+    String[] parts = specification.split(";");
+    Integer.parseInt(parts[0]);
+    List<SensorReading> parsed = new ArrayList<>();
+    for (String reading : parts[1].split(",")) {
+      String[] assignmentParts = reading.split("=");
+      String[] valueParts = assignmentParts[1].split(" ");
+      parsed.add(new SensorReading(assignmentParts[0], Double.parseDouble(valueParts[0]),
+          valueParts[1]));
+    }
+    return parsed;
+  }
+
+  /**
+   * Encode the readings as a binary frame and read them back.
+   *
+   * @return The decoded readings
+   */
+  @Benchmark
+  public List<SensorReading> binary() {
+    byte[] frame = BinaryCodec.encodeSensorData(42, readings);
+    // Skip the length prefix, as the stream reading the frame does
+    int start = 0;
+    while ((frame[start++] & 0x80) != 0) {
+      // Continuation byte
+    }
+    FrameReader reader = new FrameReader(ByteBuffer.wrap(frame, start, frame.length - start));
+    reader.readVarint();
+    return BinaryCodec.readSensorReadings(reader);
+  }
+
+  private byte[] encodeText() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("updateSensorData-").append(42).append(";");
+    for (SensorReading reading : readings) {
+      builder.append(reading.getType()).append("=").append(reading.getValue()).append(" ")
+          .append(reading.getUnit()).append(",");
+    }
+    builder.append("\n");
+    return builder.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
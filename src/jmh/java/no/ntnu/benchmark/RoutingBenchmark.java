@@ -0,0 +1,132 @@
+package no.ntnu.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.greenhouse.SensorReading;
+import no.ntnu.protocol.BinaryCodec;
+import no.ntnu.server.ClientConnection;
+import no.ntnu.server.TcpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Routes commands through the {@link TcpServer} to many control panels, from receiving the
+ * command to the messages being taken off the queues of the recipients: sensor data from a node
+ * to every panel, and an actuator command from a panel to the node. The clients are connected in
+ * process, without sockets, so the time is the work of the server alone: parsing, the node state
+ * cache, the metrics and queueing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark {
+  private static final int NODE_ID = 1;
+
+  @Param({"10", "100", "1000"})
+  public int controlPanels;
+
+  private final TcpServer server = TcpServer.getInstance();
+  private final List<InProcessConnection> clients = new ArrayList<>();
+  private InProcessConnection node;
+  private InProcessConnection panel;
+  private String sensorData;
+  private String actuatorCommand;
+
+  /** Connect the node and the panels, which subscribe to all nodes, as they do by default. */
+  @Setup
+  public void connectClients() {
+    node = connect("setNodeType-SensorActuator");
+    node.receive("setId-" + NODE_ID);
+    for (int i = 0; i < controlPanels; ++i) {
+      panel = connect("setNodeType-ControlPanel");
+    }
+    List<SensorReading> readings = List.of(new SensorReading("temperature", 21.37, "°C"),
+        new SensorReading("temperature", 22.05, "°C"), new SensorReading("humidity", 71.4, "%"));
+    sensorData = BinaryCodec.formatSensorData(NODE_ID, readings);
+    actuatorCommand = "controlPanelUpdateActuator-" + NODE_ID + ";2=true";
+  }
+
+  private InProcessConnection connect(String nodeType) {
+    InProcessConnection client = new InProcessConnection(server);
+    server.addClient(client);
+    client.receive(nodeType);
+    clients.add(client);
+    return client;
+  }
+
+  /** Disconnect all the clients. */
+  @TearDown
+  public void disconnectClients() {
+    for (InProcessConnection client : clients) {
+      server.removeClient(client);
+    }
+    clients.clear();
+  }
+
+  /**
+   * Route sensor data from the node to all the panels.
+   *
+   * @return The number of messages the last panel has taken so far
+   */
+  @Benchmark
+  public long routeSensorData() {
+    node.receive(sensorData);
+    return panel.taken;
+  }
+
+  /**
+   * Route an actuator command from a panel to the node.
+   *
+   * @return The number of messages the node has taken so far
+   */
+  @Benchmark
+  public long routeActuatorCommand() {
+    panel.receive(actuatorCommand);
+    return node.taken;
+  }
+
+  /**
+   * A client connected in process, which takes every message off its queue as soon as it is
+   * queued, as a writer which keeps up would.
+   */
+  private static class InProcessConnection extends ClientConnection {
+    private long taken = 0;
+
+    private InProcessConnection(TcpServer server) {
+      super(server);
+    }
+
+    private void receive(String command) {
+      handleInput(command);
+    }
+
+    @Override
+    protected void onMessageQueued() {
+      while (outboundQueue.poll() != null) {
+        ++taken;
+      }
+    }
+
+    @Override
+    protected void disconnect() {
+    }
+
+    @Override
+    public void stopHandler() {
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package no.ntnu.benchmark;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.greenhouse.DeviceFactory;
+import no.ntnu.greenhouse.Sensor;
+import no.ntnu.greenhouse.SensorBank;
+import no.ntnu.greenhouse.SensorReading;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Advances every sensor of a large greenhouse once: with one object per sensor holding its own
+ * reading, as the sensors were kept before the sensor bank, through the {@link Sensor} views of
+ * the bank one at a time, and with the bank advancing all of them in a tight loop. Half of the
+ * sensors measure temperature and half humidity.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class SensorBankBenchmark {
+  @Param({"1000000"})
+  public int sensors;
+
+  private List<ObjectSensor> objectSensors;
+  private SensorBank bank;
+  private List<Sensor> views;
+
+  /** Create the sensors in both layouts. */
+  @Setup
+  public void createSensors() {
+    objectSensors = new LinkedList<>();
+    bank = new SensorBank();
+    views = new ArrayList<>(sensors);
+    Sensor temperature = DeviceFactory.createTemperatureSensor();
+    Sensor humidity = DeviceFactory.createHumiditySensor();
+    for (int i = 0; i < sensors / 2; ++i) {
+      objectSensors.add(new ObjectSensor(temperature));
+      objectSensors.add(new ObjectSensor(humidity));
+    }
+    views.addAll(bank.add(temperature, sensors / 2).createSensors());
+    views.addAll(bank.add(humidity, sensors / 2).createSensors());
+  }
+
+  /** Advance one object per sensor. */
+  @Benchmark
+  public void objectPerSensor() {
+    for (ObjectSensor sensor : objectSensors) {
+      sensor.addRandomNoise();
+    }
+  }
+
+  /** Advance the sensors of the bank one view at a time. */
+  @Benchmark
+  public void bankViews() {
+    for (Sensor sensor : views) {
+      sensor.addRandomNoise();
+    }
+  }
+
+  /** Advance all the sensors of the bank in one loop per sensor type. */
+  @Benchmark
+  public void bank() {
+    bank.addRandomNoise();
+  }
+
+  /**
+   * A sensor as it was kept before the sensor bank: an object with its range, wrapping a reading
+   * object with the value, and getting its noise from {@link Math#random()}.
+   */
+  private static class ObjectSensor {
+    private final SensorReading reading;
+    private final double min;
+    private final double max;
+
+    private ObjectSensor(Sensor template) {
+      reading = new SensorReading(template.getType(), template.getReading().getValue(),
+          template.getUnit());
+      min = template.getMin();
+      max = template.getMax();
+    }
+
+    private void addRandomNoise() {
+      double onePercentOfRange = (max - min) / 100.0;
+      double noise = Math.random() * onePercentOfRange * 2 - onePercentOfRange;
+      double newValue = Math.round((reading.getValue() + noise) * 100.0) / 100.0;
+      if (newValue < min) {
+        newValue = min;
+      } else if (newValue > max) {
+        newValue = max;
+      }
+      reading.setValue(newValue);
+    }
+  }
+}
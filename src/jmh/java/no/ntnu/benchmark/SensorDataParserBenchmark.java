@@ -0,0 +1,106 @@
+package no.ntnu.benchmark;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.controlpanel.SensorDataParser;
+import no.ntnu.greenhouse.SensorReading;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the split-based parsing of sensor data the control panel used to do with
+ * {@link SensorDataParser}. Run with the GC profiler to see the allocation per message:
+ * java -jar target/benchmarks.jar SensorDataParserBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SensorDataParserBenchmark {
+  private static final int NODES = 16;
+
+  @Param({"3", "12"})
+  public int sensorCount;
+
+  private String[] specifications;
+  private int next = 0;
+  private final SensorDataParser parser = new SensorDataParser();
+  private List<SensorReading> parsedReadings;
+  private final SensorDataParser.Handler handler = (nodeId, readings) -> parsedReadings = readings;
+
+  /**
+   * Create messages from a few nodes, as a control panel receives them. The values have two
+   * decimals, as the sensors round them.
+   */
+  @Setup
+  public void createMessages() {
+    specifications = new String[NODES];
+    for (int node = 0; node < NODES; ++node) {
+      StringBuilder builder = new StringBuilder();
+      builder.append(node + 1).append(';');
+      for (int i = 0; i < sensorCount; ++i) {
+        if (i % 2 == 0) {
+          builder.append("Temperature=").append(round(20 + (node + i) * 0.37)).append(" °C,");
+        } else {
+          builder.append("Humidity=").append(round(70 + (node + i) * 0.53)).append(" %,");
+        }
+      }
+      specifications[node] = builder.toString();
+    }
+  }
+
+  /**
+   * Parse with String.split, as TcpControlpanelNodeClient used to.
+   *
+   * @param blackhole Consumes the readings
+   */
+  @Benchmark
+  public void split(Blackhole blackhole) {
+    String specification = nextSpecification();
+    String[] parts = specification.split(";");
+    int nodeId = Integer.parseInt(parts[0]);
+    List<SensorReading> readings = new LinkedList<>();
+    for (String reading : parts[1].split(",")) {
+      String[] assignmentParts = reading.split("=");
+      String[] valueParts = assignmentParts[1].split(" ");
+      readings.add(new SensorReading(assignmentParts[0], Double.parseDouble(valueParts[0]),
+          valueParts[1]));
+    }
+    blackhole.consume(nodeId);
+    blackhole.consume(readings);
+  }
+
+  /**
+   * Parse with the cursor-based parser.
+   *
+   * @return The readings
+   */
+  @Benchmark
+  public List<SensorReading> cursor() {
+    parser.parse(nextSpecification(), 0, handler);
+    return parsedReadings;
+  }
+
+  private static double round(double value) {
+    return Math.round(value * 100.0) / 100.0;
+  }
+
+  private String nextSpecification() {
+    String specification = specifications[next];
+    next = (next + 1) % NODES;
+    return specification;
+  }
+}
@@ -0,0 +1,116 @@
+package no.ntnu.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.greenhouse.DeviceFactory;
+import no.ntnu.greenhouse.Sensor;
+import no.ntnu.greenhouse.SensorReading;
+import no.ntnu.protocol.BinaryCodec;
+import no.ntnu.protocol.SensorDeltaEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sends the sensor data of many nodes as text lines, as binary frames with all the readings, and
+ * as changes since the previous update, and prints the bytes per update and the bandwidth the
+ * server would receive with every node sending an update every five seconds, as the simulated
+ * nodes do. Every node has the sensors of the default greenhouse (two temperature sensors and one
+ * humidity sensor), changing with the same noise as the simulation. The time is the cost of
+ * encoding one update.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class SensorDeltaBenchmark {
+  private static final double UPDATES_PER_NODE_PER_SECOND = 1 / 5.0;
+
+  @Param({"10000"})
+  public int nodes;
+
+  @Param({"text", "binary", "delta"})
+  public String encoding;
+
+  private List<List<Sensor>> sensors;
+  private SensorDeltaEncoder[] encoders;
+  private int nextNode = 0;
+  private long updates;
+  private long bytes;
+
+  /** Create the sensors of every node, and an encoder per node for the delta encoding. */
+  @Setup
+  public void createNodes() {
+    sensors = new ArrayList<>();
+    encoders = new SensorDeltaEncoder[nodes];
+    for (int i = 0; i < nodes; ++i) {
+      List<Sensor> nodeSensors = new ArrayList<>();
+      nodeSensors.add(DeviceFactory.createTemperatureSensor());
+      nodeSensors.add(DeviceFactory.createTemperatureSensor());
+      nodeSensors.add(DeviceFactory.createHumiditySensor());
+      sensors.add(nodeSensors);
+      encoders[i] = new SensorDeltaEncoder();
+    }
+  }
+
+  /** Start counting the bytes again. */
+  @Setup(Level.Iteration)
+  public void resetCounters() {
+    updates = 0;
+    bytes = 0;
+  }
+
+  /** Print the bytes per update and the bandwidth for all the nodes. */
+  @TearDown(Level.Iteration)
+  public void printBandwidth() {
+    double bytesPerUpdate = (double) bytes / updates;
+    double bytesPerSecond = bytesPerUpdate * nodes * UPDATES_PER_NODE_PER_SECOND;
+    System.out.println();
+    System.out.printf("%s: %.1f bytes per update, %.1f KB/s for %d nodes%n", encoding,
+        bytesPerUpdate, bytesPerSecond / 1024, nodes);
+  }
+
+  /**
+   * Update the sensors of the next node and encode its sensor data.
+   *
+   * @return The number of bytes to send
+   */
+  @Benchmark
+  public int encodeUpdate() {
+    int node = nextNode;
+    nextNode = (nextNode + 1) % nodes;
+    List<SensorReading> readings = new ArrayList<>();
+    for (Sensor sensor : sensors.get(node)) {
+      sensor.addRandomNoise();
+      readings.add(sensor.getReading());
+    }
+    int size = 0;
+    if (encoding.equals("text")) {
+      size = BinaryCodec.formatSensorData(node, readings).getBytes(StandardCharsets.UTF_8).length
+          + 1;
+    } else if (encoding.equals("binary")) {
+      size = BinaryCodec.encodeSensorData(node, readings).length;
+    } else {
+      for (byte[] frame : encoders[node].encode(node, readings)) {
+        size += frame.length;
+      }
+    }
+    ++updates;
+    bytes += size;
+    return size;
+  }
+}
@@ -0,0 +1,119 @@
+package no.ntnu.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.controlpanel.SensorHistoryStore;
+import no.ntnu.greenhouse.DeviceFactory;
+import no.ntnu.greenhouse.SensorReading;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fills the sensor history of the control panel with a day of readings every five seconds from
+ * many nodes with the sensors of the default greenhouse, averaged into one-minute slots, and
+ * prints the memory it takes. Then records the readings of one more update, and looks back at the
+ * day of one sensor: all the samples, a summary, and the samples reduced to one every five
+ * minutes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx1g"})
+public class SensorHistoryBenchmark {
+  private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+  private static final long SAMPLE_MILLIS = 5000;
+
+  @Param({"3334"})
+  public int nodes;
+
+  private SensorHistoryStore history;
+  private List<List<SensorReading>> readings;
+  private long now;
+  private long nextTime;
+  private int nextNode = 0;
+
+  /** Fill the history with a day of readings of every node. */
+  @Setup
+  public void fillHistory() {
+    readings = new ArrayList<>();
+    for (int i = 0; i < nodes; ++i) {
+      List<SensorReading> nodeReadings = new ArrayList<>();
+      nodeReadings.add(DeviceFactory.createTemperatureSensor().getReading());
+      nodeReadings.add(DeviceFactory.createTemperatureSensor().getReading());
+      nodeReadings.add(DeviceFactory.createHumiditySensor().getReading());
+      readings.add(nodeReadings);
+    }
+    Runtime runtime = Runtime.getRuntime();
+    System.gc();
+    long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+    history = new SensorHistoryStore();
+    now = System.currentTimeMillis();
+    for (long time = now - DAY_MILLIS; time < now; time += SAMPLE_MILLIS) {
+      for (int node = 0; node < nodes; ++node) {
+        history.record(node, readings.get(node), time);
+      }
+    }
+    nextTime = now;
+    System.gc();
+    long used = runtime.totalMemory() - runtime.freeMemory() - usedBefore;
+    System.out.println();
+    System.out.printf("History of %d sensors: %d MB%n", nodes * 3, used / (1024 * 1024));
+  }
+
+  /**
+   * Record the readings of the next node.
+   *
+   * @return The store
+   */
+  @Benchmark
+  public SensorHistoryStore recordUpdate() {
+    history.record(nextNode, readings.get(nextNode), nextTime);
+    nextNode = (nextNode + 1) % nodes;
+    if (nextNode == 0) {
+      nextTime += SAMPLE_MILLIS;
+    }
+    return history;
+  }
+
+  /**
+   * Get the samples of one sensor for the last day.
+   *
+   * @return The samples
+   */
+  @Benchmark
+  public SensorHistoryStore.Samples samplesOfDay() {
+    return history.getSamples(0, 0, now - DAY_MILLIS, now);
+  }
+
+  /**
+   * Get the lowest, highest and average value of one sensor for the last day.
+   *
+   * @return The summary
+   */
+  @Benchmark
+  public SensorHistoryStore.Summary summarizeDay() {
+    return history.summarize(0, 0, now - DAY_MILLIS, now);
+  }
+
+  /**
+   * Get the values of one sensor for the last day, one every five minutes.
+   *
+   * @return The downsampled samples
+   */
+  @Benchmark
+  public SensorHistoryStore.Samples downsampleDay() {
+    return history.downsample(0, 0, now - DAY_MILLIS, now, 5 * 60 * 1000);
+  }
+}
@@ -0,0 +1,131 @@
+package no.ntnu.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.server.ServerMode;
+import no.ntnu.server.TcpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the ways the server can handle its clients. Every invocation connects a number of
+ * clients, lets each of them do one request/response round trip while all of them stay connected,
+ * and disconnects them again. The number of live threads and the used heap while all the clients
+ * are connected are printed at the end of the trial.
+ * The VIRTUAL_THREADS mode requires running the benchmark on Java 21 or newer. Raise the
+ * open file limit (ulimit -n) before running with tens of thousands of connections.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xss512k"})
+public class ServerModeBenchmark {
+  private static final int PORT = 10120;
+  private static final byte[] REQUEST = "ping\n".getBytes(StandardCharsets.UTF_8);
+
+  @Param({"THREAD_PER_CLIENT", "VIRTUAL_THREADS", "NIO"})
+  public ServerMode mode;
+
+  @Param({"2000"})
+  public int connections;
+
+  private TcpServer server;
+  private int peakThreads;
+  private long peakUsedHeap;
+
+  /**
+   * Start the server in the benchmarked mode.
+   *
+   * @throws InterruptedException If interrupted while waiting for the server to start
+   */
+  @Setup(Level.Trial)
+  public void startServer() throws InterruptedException {
+    server = TcpServer.getInstance();
+    server.setMode(mode);
+    Thread serverThread = new Thread(() -> server.startServer(PORT), "server");
+    serverThread.setDaemon(true);
+    serverThread.start();
+    waitForServer();
+  }
+
+  private static void waitForServer() throws InterruptedException {
+    boolean started = false;
+    while (!started) {
+      try {
+        new Socket("127.0.0.1", PORT).close();
+        started = true;
+      } catch (IOException e) {
+        Thread.sleep(10);
+      }
+    }
+  }
+
+  /** Stop the server and report the resource usage. */
+  @TearDown(Level.Trial)
+  public void stopServer() {
+    server.stopServer();
+    System.out.println();
+    System.out.println(mode + ": " + connections + " connections, peak " + peakThreads
+        + " live threads, peak " + (peakUsedHeap / (1024 * 1024)) + " MB used heap");
+  }
+
+  /**
+   * Connect all the clients, do one round trip for each of them, then disconnect them.
+   *
+   * @return The number of responses received
+   * @throws IOException If the communication fails
+   */
+  @Benchmark
+  public int connectAndRoundTrip() throws IOException {
+    Socket[] sockets = new Socket[connections];
+    int responses = 0;
+    try {
+      for (int i = 0; i < connections; ++i) {
+        sockets[i] = new Socket("127.0.0.1", PORT);
+        OutputStream out = sockets[i].getOutputStream();
+        out.write(REQUEST);
+        out.flush();
+      }
+      for (Socket socket : sockets) {
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        if (reader.readLine() != null) {
+          responses++;
+        }
+      }
+      recordResourceUsage();
+    } finally {
+      for (Socket socket : sockets) {
+        if (socket != null) {
+          socket.close();
+        }
+      }
+    }
+    return responses;
+  }
+
+  private void recordResourceUsage() {
+    peakThreads = Math.max(peakThreads, ManagementFactory.getThreadMXBean().getThreadCount());
+    Runtime runtime = Runtime.getRuntime();
+    peakUsedHeap = Math.max(peakUsedHeap, runtime.totalMemory() - runtime.freeMemory());
+  }
+}
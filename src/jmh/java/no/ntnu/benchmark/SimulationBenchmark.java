@@ -0,0 +1,61 @@
+package no.ntnu.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import no.ntnu.greenhouse.Actuator;
+import no.ntnu.greenhouse.DeviceFactory;
+import no.ntnu.greenhouse.SensorActuatorNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The work of a simulated node, at different numbers of sensors, half of them measuring
+ * temperature and half humidity: generating new sensor values, as the node does every sensing
+ * period, and applying the impact of a window on the sensors, as the node does when an actuator
+ * is turned on or off. The impact is applied by an open and a closed window in turn, so that the
+ * values stay where they are.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimulationBenchmark {
+  @Param({"3", "30", "300"})
+  public int sensorCount;
+
+  private SensorActuatorNode node;
+  private Actuator openWindow;
+  private Actuator closedWindow;
+
+  /** Create the node and its windows. */
+  @Setup
+  public void createNode() {
+    node = DeviceFactory.createNode(sensorCount - sensorCount / 2, sensorCount / 2, 0, 0, 0);
+    openWindow = DeviceFactory.createWindow(node.getId());
+    openWindow.turnOn();
+    closedWindow = DeviceFactory.createWindow(node.getId());
+  }
+
+  /** Generate new values for all the sensors of the node. */
+  @Benchmark
+  public void generateNewSensorValues() {
+    node.generateNewSensorValues();
+  }
+
+  /** Apply the impact of opening a window and of closing it again. */
+  @Benchmark
+  public void applyImpact() {
+    openWindow.applyImpact(node);
+    closedWindow.applyImpact(node);
+  }
+}
@@ -0,0 +1,112 @@
+package no.ntnu.benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import no.ntnu.greenhouse.DeviceFactory;
+import no.ntnu.greenhouse.SensorActuatorNode;
+import no.ntnu.greenhouse.SimulationScheduler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Stress test of the simulation scheduler: starts a large number of nodes and checks that every
+ * one of them generates new sensor values within one sensing period, while the number of threads
+ * stays flat. Fails when it doesn't. The time is the time until every node has reported.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(1)
+public class SimulationSchedulerBenchmark {
+  // One sensing period of the nodes, plus margin
+  private static final long TIMEOUT_MILLIS = 10000;
+  // Allowed growth in threads, for JIT compiler and GC threads starting during the run
+  private static final int THREAD_SLACK = 4;
+
+  @Param({"20000"})
+  public int nodeCount;
+
+  /**
+   * Start the nodes and wait until each of them has generated sensor values.
+   *
+   * @return The number of sensor updates
+   * @throws InterruptedException If interrupted while waiting
+   */
+  @Benchmark
+  public long startNodes() throws InterruptedException {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    SimulationScheduler scheduler = SimulationScheduler.getInstance();
+    PrintStream console = System.out;
+    // The nodes log every reading; keep that out of the result
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    AtomicIntegerArray reported = new AtomicIntegerArray(nodeCount);
+    AtomicLong updates = new AtomicLong();
+    AtomicLong reportedNodes = new AtomicLong();
+    List<SensorActuatorNode> nodes = new ArrayList<>(nodeCount);
+    int threadsBefore;
+    int peakThreads;
+    try {
+      for (int i = 0; i < nodeCount; ++i) {
+        SensorActuatorNode node = DeviceFactory.createNode(1, 1, 1, 1, 1);
+        int index = i;
+        node.addSensorListener(sensors -> {
+          updates.incrementAndGet();
+          if (reported.getAndSet(index, 1) == 0) {
+            reportedNodes.incrementAndGet();
+          }
+        });
+        nodes.add(node);
+      }
+      // Let the scheduler start its threads before counting
+      nodes.get(0).start();
+      Thread.sleep(100);
+      threadsBefore = threads.getThreadCount();
+      threads.resetPeakThreadCount();
+
+      for (SensorActuatorNode node : nodes) {
+        node.start();
+      }
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+      while (reportedNodes.get() < nodeCount && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      peakThreads = threads.getPeakThreadCount();
+      for (SensorActuatorNode node : nodes) {
+        node.stop();
+      }
+    } finally {
+      System.setOut(console);
+    }
+
+    System.out.println();
+    System.out.println("Threads before: " + threadsBefore + ", peak: " + peakThreads
+        + ", nodes reported: " + reportedNodes.get() + "/" + nodeCount
+        + ", updates: " + updates.get()
+        + ", tasks left after stop: " + scheduler.getScheduledTaskCount());
+    if (peakThreads > threadsBefore + THREAD_SLACK) {
+      throw new IllegalStateException("Thread count grew from " + threadsBefore + " to "
+          + peakThreads);
+    }
+    if (reportedNodes.get() != nodeCount) {
+      throw new IllegalStateException("Not every node generated sensor values");
+    }
+    return updates.get();
+  }
+}
@@ -0,0 +1,112 @@
+package no.ntnu.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import no.ntnu.greenhouse.DeviceFactory;
+import no.ntnu.greenhouse.Sensor;
+import no.ntnu.greenhouse.SensorReading;
+import no.ntnu.protocol.BinaryCodec;
+import no.ntnu.server.OutboundMessage;
+import no.ntnu.server.StreamRecorder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Records bursts of sensor data from nodes with the sensors of the default greenhouse (three
+ * readings per update), and waits until the recorder has written them, giving the time per update
+ * all the way to the segment files, including creating the message as the server does. The
+ * messages arrived either as text, which the recorder encodes to binary, or as binary frames,
+ * which it writes as they are. The recorder uses small segments, so that the time includes
+ * starting new ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamRecorderBenchmark {
+  private static final int BURST = 10000;
+  private static final int SEGMENT_BYTES = 4 * 1024 * 1024;
+
+  @Param({"text", "binary"})
+  public String arrivedAs;
+
+  private Path directory;
+  private StreamRecorder recorder;
+  private String[] texts;
+  private byte[][] frames;
+  private long recorded = 0;
+
+  /** Create the updates and start a recorder writing to a temporary directory. */
+  @Setup(Level.Trial)
+  public void startRecorder() throws IOException {
+    texts = new String[BURST];
+    frames = new byte[BURST][];
+    for (int node = 0; node < BURST; ++node) {
+      List<SensorReading> readings = new ArrayList<>();
+      for (Sensor sensor : List.of(DeviceFactory.createTemperatureSensor(),
+          DeviceFactory.createTemperatureSensor(), DeviceFactory.createHumiditySensor())) {
+        readings.add(sensor.getReading());
+      }
+      texts[node] = BinaryCodec.formatSensorData(node, readings);
+      if (arrivedAs.equals("binary")) {
+        frames[node] = BinaryCodec.encodeSensorData(node, readings);
+      }
+    }
+    directory = Files.createTempDirectory("recorder-benchmark");
+    recorder = new StreamRecorder(directory, SEGMENT_BYTES,
+        StreamRecorder.DEFAULT_SEGMENT_MILLIS, StreamRecorder.DEFAULT_QUEUE_CAPACITY);
+    recorder.start();
+  }
+
+  /** Stop the recorder, print how much was dropped and delete the segments. */
+  @TearDown(Level.Trial)
+  public void stopRecorder() throws IOException {
+    recorder.close();
+    System.out.println();
+    System.out.printf("%d updates recorded, %d dropped%n", recorder.getWrittenCount(),
+        recorder.getDroppedCount());
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  /**
+   * Record a burst of updates, one from every node, and wait until they have been written.
+   *
+   * @return The number of updates written so far
+   */
+  @Benchmark
+  @OperationsPerInvocation(BURST)
+  public long recordBurst() {
+    for (int i = 0; i < BURST; ++i) {
+      recorder.record(new OutboundMessage(texts[i], frames[i], false));
+    }
+    recorded += BURST;
+    while (recorder.getWrittenCount() + recorder.getDroppedCount() < recorded) {
+      Thread.onSpinWait();
+    }
+    return recorder.getWrittenCount();
+  }
+}
@@ -0,0 +1,115 @@
+package no.ntnu.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.server.ClientConnection;
+import no.ntnu.server.SubscriptionIndex;
+import no.ntnu.server.TcpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares finding the recipients of an update from a node by asking every control panel whether
+ * it is subscribed to the node with looking them up in the {@link SubscriptionIndex}. Every panel
+ * shows a single node, as the GUI does with its selected tab.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubscriptionBenchmark {
+  @Param({"1000"})
+  public int controlPanels;
+
+  @Param({"1000"})
+  public int nodes;
+
+  private final List<ClientConnection> panels = new ArrayList<>();
+  private final SubscriptionIndex subscriptions = new SubscriptionIndex();
+  private int nextNode = 0;
+
+  /** Connect the panels, and subscribe each of them to one node. */
+  @Setup
+  public void subscribePanels() {
+    for (int i = 0; i < controlPanels; ++i) {
+      ClientConnection panel = new IdleConnection();
+      panels.add(panel);
+      subscriptions.addPanel(panel);
+      subscriptions.unsubscribeFromAll(panel);
+      subscriptions.subscribe(panel, i % nodes);
+    }
+  }
+
+  /**
+   * Ask every panel whether it wants the update.
+   *
+   * @return The number of recipients
+   */
+  @Benchmark
+  public int scanAllPanels() {
+    int nodeId = nextNode();
+    int recipients = 0;
+    for (ClientConnection panel : panels) {
+      if (subscriptions.isSubscribed(panel, nodeId)) {
+        ++recipients;
+      }
+    }
+    return recipients;
+  }
+
+  /**
+   * Look the recipients up in the index.
+   *
+   * @return The number of recipients
+   */
+  @Benchmark
+  public int lookUpSubscribers() {
+    int nodeId = nextNode();
+    int recipients = 0;
+    for (ClientConnection panel : subscriptions.getAllNodesSubscribers()) {
+      ++recipients;
+    }
+    for (ClientConnection panel : subscriptions.getSubscribers(nodeId)) {
+      ++recipients;
+    }
+    return recipients;
+  }
+
+  private int nextNode() {
+    nextNode = (nextNode + 1) % nodes;
+    return nextNode;
+  }
+
+  /**
+   * A connection which never sends anything, standing in for a control panel.
+   */
+  private static class IdleConnection extends ClientConnection {
+    private IdleConnection() {
+      super(TcpServer.getInstance());
+    }
+
+    @Override
+    protected void onMessageQueued() {
+    }
+
+    @Override
+    protected void disconnect() {
+    }
+
+    @Override
+    public void stopHandler() {
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package no.ntnu.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.controlpanel.ControlPanelLogic;
+import no.ntnu.controlpanel.SensorActuatorNodeInfo;
+import no.ntnu.controlpanel.SensorDataParser;
+import no.ntnu.greenhouse.SensorReading;
+import no.ntnu.gui.controlpanel.TcpControlpanelNodeClient;
+import no.ntnu.protocol.BinaryCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The text protocol messages the clients handle most: formatting the sensor data of a node as the
+ * node does when sending it, parsing it as the control panel does when receiving it, and parsing
+ * the "nodeAdded" message of a node with as many actuators as sensors into the node information
+ * the control panel shows. Nothing is sent; the client is only used for its parsing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextMessageBenchmark {
+  private static final String SENSOR_DATA_PREFIX = "updateSensorData-";
+  private static final String[] ACTUATOR_TYPES = {"window", "fan", "heater"};
+
+  @Param({"3", "12"})
+  public int sensorCount;
+
+  private final SensorDataParser parser = new SensorDataParser();
+  private final SensorDataParser.Handler handler = (nodeId, sensors) -> parsed = sensors;
+  private List<SensorReading> parsed;
+  private List<SensorReading> readings;
+  private String sensorData;
+  private String nodeSpecification;
+  private TcpControlpanelNodeClient client;
+
+  /** Create the readings and messages of a node. */
+  @Setup
+  public void createMessages() {
+    readings = new ArrayList<>();
+    StringBuilder specification = new StringBuilder("42;");
+    for (int i = 0; i < sensorCount; ++i) {
+      if (i % 2 == 0) {
+        readings.add(new SensorReading("temperature", 20 + i * 0.37, "°C"));
+      } else {
+        readings.add(new SensorReading("humidity", 70 + i * 0.53, "%"));
+      }
+      specification.append(ACTUATOR_TYPES[i % ACTUATOR_TYPES.length]).append('_').append(i + 1)
+          .append(' ');
+    }
+    sensorData = BinaryCodec.formatSensorData(42, readings);
+    nodeSpecification = specification.toString().trim();
+    client = new TcpControlpanelNodeClient("127.0.0.1", 10020, new ControlPanelLogic());
+  }
+
+  /**
+   * Format the readings as the node sends them.
+   *
+   * @return The message
+   */
+  @Benchmark
+  public String formatSensorData() {
+    return BinaryCodec.formatSensorData(42, readings);
+  }
+
+  /**
+   * Parse the readings as the control panel receives them.
+   *
+   * @return The parsed readings
+   */
+  @Benchmark
+  public List<SensorReading> parseSensorData() {
+    parser.parse(sensorData, SENSOR_DATA_PREFIX.length(), handler);
+    return parsed;
+  }
+
+  /**
+   * Parse the actuators of a node as the control panel does when the node is added.
+   *
+   * @return The node information
+   */
+  @Benchmark
+  public SensorActuatorNodeInfo parseNodeAdded() {
+    return client.createSensorNodeInfoFrom(nodeSpecification);
+  }
+}
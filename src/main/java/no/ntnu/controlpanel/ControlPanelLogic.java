@@ -7,6 +7,7 @@ import no.ntnu.greenhouse.SensorReading;
 import no.ntnu.listeners.common.ActuatorListener;
 import no.ntnu.listeners.common.CommunicationChannelListener;
 import no.ntnu.listeners.controlpanel.GreenhouseEventListener;
+import no.ntnu.listeners.controlpanel.NodeViewListener;
 import no.ntnu.tools.Logger;
 
 /**
@@ -22,10 +23,33 @@ import no.ntnu.tools.Logger;
 public class ControlPanelLogic implements GreenhouseEventListener, ActuatorListener,
     CommunicationChannelListener {
   private final List<GreenhouseEventListener> listeners = new LinkedList<>();
+  private final List<NodeViewListener> viewListeners = new LinkedList<>();
+  private final SensorHistoryStore sensorHistory = new SensorHistoryStore();
+  private final SensorTracer sensorTracer;
 
   private CommunicationChannel communicationChannel;
   private CommunicationChannelListener communicationChannelListener;
 
+  /**
+   * Create the logic of a control panel, with a tracer of its own.
+   */
+  public ControlPanelLogic() {
+    this(new SensorTracer());
+  }
+
+  /**
+   * Create the logic of a control panel which records the latencies of traced sensor data in the
+   * given tracer, which may be shared by several panels running in the same process.
+   *
+   * @param sensorTracer The tracer
+   */
+  public ControlPanelLogic(SensorTracer sensorTracer) {
+    if (sensorTracer == null) {
+      throw new IllegalArgumentException("Sensor tracer cannot be null");
+    }
+    this.sensorTracer = sensorTracer;
+  }
+
   /**
    * Set the channel over which control commands will be sent to sensor/actuator nodes.
    *
@@ -44,6 +68,25 @@ public class ControlPanelLogic implements GreenhouseEventListener, ActuatorListe
     this.communicationChannelListener = listener;
   }
 
+  /**
+   * Get the history of the sensor readings received. The history of a node is kept after the
+   * node has been removed, as it may come back.
+   *
+   * @return The sensor history
+   */
+  public SensorHistoryStore getSensorHistory() {
+    return sensorHistory;
+  }
+
+  /**
+   * Get the latencies of the traced sensor data received, from the nodes to the screen.
+   *
+   * @return The tracer
+   */
+  public SensorTracer getSensorTracer() {
+    return sensorTracer;
+  }
+
   /**
    * Add an event listener.
    *
@@ -55,6 +98,35 @@ public class ControlPanelLogic implements GreenhouseEventListener, ActuatorListe
     }
   }
 
+  /**
+   * Add a listener of which nodes are shown.
+   *
+   * @param listener The listener who will be notified when nodes are shown and hidden
+   */
+  public void addNodeViewListener(NodeViewListener listener) {
+    if (!viewListeners.contains(listener)) {
+      viewListeners.add(listener);
+    }
+  }
+
+  /**
+   * Notify all view listeners that a node is shown.
+   *
+   * @param nodeId The ID of the node
+   */
+  public void nodeShown(int nodeId) {
+    viewListeners.forEach(listener -> listener.onNodeShown(nodeId));
+  }
+
+  /**
+   * Notify all view listeners that a node is no longer shown.
+   *
+   * @param nodeId The ID of the node
+   */
+  public void nodeHidden(int nodeId) {
+    viewListeners.forEach(listener -> listener.onNodeHidden(nodeId));
+  }
+
   /**
    * Notify all listeners that a new node has been added to the network.
    *
@@ -72,17 +144,20 @@ public class ControlPanelLogic implements GreenhouseEventListener, ActuatorListe
    */
   @Override
   public void onNodeRemoved(int nodeId) {
+    sensorTracer.forgetNode(nodeId);
     listeners.forEach(listener -> listener.onNodeRemoved(nodeId));
   }
 
   /**
-   * Notify all listeners that a sensor reading has been received.
+   * Record the sensor readings in the history and notify all listeners that they have been
+   * received.
    *
    * @param nodeId The ID of the node that sent the reading
    * @param sensors The list of sensor readings
    */
   @Override
   public void onSensorData(int nodeId, List<SensorReading> sensors) {
+    sensorHistory.record(nodeId, sensors, System.currentTimeMillis());
     listeners.forEach(listener -> listener.onSensorData(nodeId, sensors));
   }
 
@@ -99,8 +174,8 @@ public class ControlPanelLogic implements GreenhouseEventListener, ActuatorListe
   }
 
   @Override
-  public void onPictureTaken(int nodeId, String data) {
-    listeners.forEach(listener -> listener.onPictureTaken(nodeId, data));
+  public void onPictureTaken(int nodeId, byte[] image) {
+    listeners.forEach(listener -> listener.onPictureTaken(nodeId, image));
   }
 
   @Override
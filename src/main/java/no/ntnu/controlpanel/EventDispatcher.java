@@ -0,0 +1,202 @@
+package no.ntnu.controlpanel;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.tools.Logger;
+
+/**
+ * Delivers the events received from the server to the control panel logic, right away or after a
+ * delay, on a single shared thread.
+ *
+ * <p>Events about the same node are delivered in the order they were submitted, also when a
+ * delayed event is followed by an immediate one: every node has a queue of pending events, and an
+ * event is never due before the one ahead of it. Events about different nodes don't wait for each
+ * other.
+ *
+ * <p>The price of the order is that an immediate event waits behind the delayed events of its node.
+ * In the control panel client, the actuator updates, images and removal of a node therefore wait
+ * for the sensor data of the node received before them, which is delayed by a second.
+ *
+ * <p>Shutting down stops the dispatcher from taking new events, while the ones already submitted
+ * are still delivered when they are due.
+ */
+public class EventDispatcher {
+  private static EventDispatcher instance;
+
+  private final ScheduledExecutorService executor;
+  // The nodes with pending events
+  private final Map<Integer, NodeEvents> pendingNodes = new HashMap<>();
+  // Guarded by this, like the pending nodes
+  private boolean shutdown = false;
+
+  /**
+   * Create a dispatcher with its own thread.
+   *
+   * @param threadName The name of the thread delivering the events
+   */
+  public EventDispatcher(String threadName) {
+    this.executor = new ScheduledThreadPoolExecutor(1, task -> {
+      Thread thread = new Thread(task, threadName);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Get the dispatcher shared by all the control panel clients.
+   *
+   * @return The shared dispatcher
+   */
+  public static synchronized EventDispatcher getInstance() {
+    if (instance == null) {
+      instance = new EventDispatcher("control-panel-events");
+    }
+    return instance;
+  }
+
+  /**
+   * Deliver an event as soon as the earlier events about the same node have been delivered.
+   * Ignored once the dispatcher has been shut down.
+   *
+   * @param nodeId The ID of the node the event is about
+   * @param event  Delivers the event
+   */
+  public void execute(int nodeId, Runnable event) {
+    schedule(nodeId, event, 0);
+  }
+
+  /**
+   * Deliver an event after a delay, and after the earlier events about the same node. Ignored once
+   * the dispatcher has been shut down.
+   *
+   * @param nodeId      The ID of the node the event is about
+   * @param event       Delivers the event
+   * @param delayMillis The delay in milliseconds
+   */
+  public void schedule(int nodeId, Runnable event, long delayMillis) {
+    if (event == null) {
+      throw new IllegalArgumentException("Event cannot be null");
+    }
+    long dueTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(delayMillis, 0));
+    NodeEvents node;
+    boolean startDelivery;
+    synchronized (this) {
+      if (shutdown) {
+        return;
+      }
+      node = pendingNodes.get(nodeId);
+      if (node == null) {
+        node = new NodeEvents(nodeId);
+        pendingNodes.put(nodeId, node);
+      }
+      PendingEvent last = node.events.peekLast();
+      if (last != null && last.dueTime - dueTime > 0) {
+        dueTime = last.dueTime;
+      }
+      node.events.addLast(new PendingEvent(dueTime, event));
+      startDelivery = !node.deliveryScheduled;
+      node.deliveryScheduled = true;
+    }
+    if (startDelivery) {
+      scheduleDelivery(node, dueTime - System.nanoTime());
+    }
+  }
+
+  private void scheduleDelivery(NodeEvents node, long delayNanos) {
+    executor.schedule(() -> deliverDueEvents(node), delayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Deliver the events of a node which are due, in order. Runs on the dispatcher thread.
+   *
+   * @param node The node
+   */
+  private void deliverDueEvents(NodeEvents node) {
+    while (true) {
+      Runnable event;
+      synchronized (this) {
+        PendingEvent next = node.events.peekFirst();
+        if (next == null) {
+          node.deliveryScheduled = false;
+          pendingNodes.remove(node.nodeId);
+          stopWhenDone();
+          return;
+        }
+        long wait = next.dueTime - System.nanoTime();
+        if (wait > 0) {
+          scheduleDelivery(node, wait);
+          return;
+        }
+        node.events.pollFirst();
+        event = next.event;
+      }
+      deliver(event);
+    }
+  }
+
+  private static void deliver(Runnable event) {
+    try {
+      event.run();
+    } catch (RuntimeException e) {
+      Logger.error("Error delivering event: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Stop taking new events. The events already submitted are still delivered when they are due,
+   * after which the thread of the dispatcher ends.
+   */
+  public synchronized void shutdown() {
+    shutdown = true;
+    stopWhenDone();
+  }
+
+  /**
+   * Wait for the events submitted before the shutdown to be delivered.
+   *
+   * @param timeoutMillis The longest time to wait, in milliseconds
+   * @return True when all the events have been delivered, false when the time ran out first
+   * @throws InterruptedException When interrupted while waiting
+   */
+  public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+    return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /** Stop the executor once shut down and no events are pending. Called while holding this. */
+  private void stopWhenDone() {
+    if (shutdown && pendingNodes.isEmpty()) {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * The pending events of one node, in the order they are to be delivered.
+   */
+  private static class NodeEvents {
+    private final int nodeId;
+    private final ArrayDeque<PendingEvent> events = new ArrayDeque<>();
+    // True while a delivery is scheduled on the executor, so there is at most one per node
+    private boolean deliveryScheduled = false;
+
+    private NodeEvents(int nodeId) {
+      this.nodeId = nodeId;
+    }
+  }
+
+  /**
+   * An event waiting to be delivered.
+   */
+  private static class PendingEvent {
+    private final long dueTime;
+    private final Runnable event;
+
+    private PendingEvent(long dueTime, Runnable event) {
+      this.dueTime = dueTime;
+      this.event = event;
+    }
+  }
+}
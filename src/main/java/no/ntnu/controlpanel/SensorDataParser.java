@@ -0,0 +1,248 @@
+package no.ntnu.controlpanel;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import no.ntnu.greenhouse.SensorReading;
+
+/**
+ * Parses the sensor data sent by the nodes, on the format
+ * "[nodeId];[type]=[value] [unit],[type]=[value] [unit],...", in a single pass over the text. The
+ * readings end at the end of the text, or at a ';' followed by more fields, such as a trace.
+ *
+ * <p>The parser is made for parsing the same kind of message over and over: the sensor types and
+ * units are looked up among the ones seen before instead of being cut out as new strings, and
+ * every node has a buffer of readings which is updated in place. Once the buffers and strings of
+ * a node exist, parsing its messages creates no new strings, arrays or readings. The price is that
+ * the delivered list belongs to the parser: it shows the latest readings of the node, and changes
+ * when the next message from the node is parsed. Readings which are kept, or passed on to another
+ * thread, must be copied with {@link #copyReadings(List)} first.
+ *
+ * <p>A parser is meant to be used by a single thread, the one reading from the server.
+ */
+public class SensorDataParser {
+  // Protects against a flood of made-up types filling the table
+  private static final int MAX_INTERNED_STRINGS = 256;
+  // Powers of ten which are exact as doubles
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+  // Digits which always fit in the 53 bits of a double mantissa
+  private static final int MAX_EXACT_DIGITS = 15;
+
+  private final List<String> internedStrings = new ArrayList<>();
+  private final Map<Integer, ReadingBuffer> buffers = new HashMap<>();
+
+  /**
+   * Receives the parsed readings.
+   */
+  @FunctionalInterface
+  public interface Handler {
+    /**
+     * Called with the readings of a message.
+     *
+     * @param nodeId  The ID of the node the readings come from
+     * @param sensors The readings. The list is reused for the next message from the same node.
+     */
+    void accept(int nodeId, List<SensorReading> sensors);
+  }
+
+  /**
+   * Parse the sensor data of a message and pass it on.
+   *
+   * @param text     The text containing the sensor data
+   * @param start    Where in the text the sensor data (the node ID) starts
+   * @param handler  Receives the readings
+   * @throws IllegalArgumentException When the sensor data is malformed
+   */
+  public void parse(String text, int start, Handler handler) {
+    int separator = text.indexOf(';', start);
+    if (separator < 0) {
+      throw new IllegalArgumentException("Incorrect specification format: " + text);
+    }
+    int end = indexOf(text, ';', separator + 1, text.length());
+    int nodeId = parseNodeId(text, start, separator);
+    ReadingBuffer readings = buffers.get(nodeId);
+    if (readings == null) {
+      readings = new ReadingBuffer();
+      buffers.put(nodeId, readings);
+    }
+    int count = 0;
+    int position = separator + 1;
+    while (position < end) {
+      int readingEnd = indexOf(text, ',', position, end);
+      if (readingEnd > position) {
+        parseReading(text, position, readingEnd, readings, count++);
+      }
+      position = readingEnd + 1;
+    }
+    readings.size = count;
+    handler.accept(nodeId, readings);
+  }
+
+  /**
+   * Copy parsed readings into a list of their own, which the parser doesn't change. Needed before
+   * the readings leave the thread parsing them, since the parser overwrites its buffer with the
+   * next message from the node.
+   *
+   * @param readings The readings passed to a {@link Handler}
+   * @return An immutable copy of the readings
+   */
+  public static List<SensorReading> copyReadings(List<SensorReading> readings) {
+    SensorReading[] copies = new SensorReading[readings.size()];
+    for (int i = 0; i < copies.length; ++i) {
+      SensorReading reading = readings.get(i);
+      copies[i] = new SensorReading(reading.getType(), reading.getValue(), reading.getUnit());
+    }
+    return List.of(copies);
+  }
+
+  /**
+   * Forget the buffer of a node, for example when the node has been removed.
+   *
+   * @param nodeId The ID of the node
+   */
+  public void forgetNode(int nodeId) {
+    buffers.remove(nodeId);
+  }
+
+  private void parseReading(String text, int start, int end, ReadingBuffer readings, int index) {
+    int equals = indexOf(text, '=', start, end);
+    int space = indexOf(text, ' ', equals + 1, end);
+    if (equals == end || space == end) {
+      throw new IllegalArgumentException(
+          "Invalid sensor reading specified: " + text.substring(start, end));
+    }
+    String type = intern(text, start, equals);
+    double value = parseDouble(text, equals + 1, space);
+    String unit = intern(text, space + 1, end);
+    readings.set(index, type, value, unit);
+  }
+
+  private static int parseNodeId(String text, int start, int end) {
+    if (start == end || end - start > 9) {
+      throw new IllegalArgumentException("Invalid node ID: " + text.substring(start, end));
+    }
+    int id = 0;
+    for (int i = start; i < end; ++i) {
+      int digit = text.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        throw new IllegalArgumentException("Invalid node ID: " + text.substring(start, end));
+      }
+      id = id * 10 + digit;
+    }
+    return id;
+  }
+
+  /**
+   * Parse a decimal number. Plain numbers with up to 15 significant digits, which is what the
+   * nodes send, are parsed directly: the digits and the power of ten are both exact doubles, so a
+   * single division gives the correctly rounded result, the same as Double.parseDouble. Anything
+   * else (exponents, more digits, NaN) is left to Double.parseDouble.
+   */
+  private static double parseDouble(String text, int start, int end) {
+    int i = start;
+    boolean negative = i < end && text.charAt(i) == '-';
+    if (negative) {
+      i++;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int fractionDigits = 0;
+    boolean point = false;
+    boolean simple = i < end;
+    for (; i < end && simple; ++i) {
+      char c = text.charAt(i);
+      if (c >= '0' && c <= '9') {
+        mantissa = mantissa * 10 + (c - '0');
+        if (mantissa != 0) {
+          digits++;
+        }
+        if (point) {
+          fractionDigits++;
+        }
+      } else if (c == '.' && !point) {
+        point = true;
+      } else {
+        simple = false;
+      }
+    }
+    simple = simple && digits <= MAX_EXACT_DIGITS && fractionDigits < POWERS_OF_TEN.length
+        && !(point && end - start == 1 + (negative ? 1 : 0));
+    double value;
+    if (simple) {
+      value = mantissa / POWERS_OF_TEN[fractionDigits];
+      if (negative) {
+        value = -value;
+      }
+    } else {
+      try {
+        value = Double.parseDouble(text.substring(start, end));
+      } catch (NumberFormatException e) {
+        throw new NumberFormatException("Invalid sensor value: " + text.substring(start, end));
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Find a string equal to a part of the text among the strings seen before, adding it when it is
+   * new.
+   */
+  private String intern(String text, int start, int end) {
+    int length = end - start;
+    for (String interned : internedStrings) {
+      if (interned.length() == length && text.regionMatches(start, interned, 0, length)) {
+        return interned;
+      }
+    }
+    String value = text.substring(start, end);
+    if (internedStrings.size() < MAX_INTERNED_STRINGS) {
+      internedStrings.add(value);
+    }
+    return value;
+  }
+
+  private static int indexOf(String text, char c, int start, int end) {
+    int index = text.indexOf(c, start);
+    return index < 0 || index > end ? end : index;
+  }
+
+  /**
+   * The readings of one node, updated in place by each message from it.
+   */
+  private static class ReadingBuffer extends AbstractList<SensorReading> {
+    private final List<SensorReading> readings = new ArrayList<>();
+    private int size = 0;
+
+    private void set(int index, String type, double value, String unit) {
+      if (index < readings.size()) {
+        SensorReading reading = readings.get(index);
+        // Interned, so the same type and unit are the same objects
+        if (reading.getType() == type && reading.getUnit() == unit) {
+          reading.setValue(value);
+        } else {
+          readings.set(index, new SensorReading(type, value, unit));
+        }
+      } else {
+        readings.add(new SensorReading(type, value, unit));
+      }
+    }
+
+    @Override
+    public SensorReading get(int index) {
+      if (index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+      }
+      return readings.get(index);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+}
@@ -0,0 +1,550 @@
+package no.ntnu.controlpanel;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import no.ntnu.greenhouse.SensorReading;
+
+/**
+ * Keeps the recent history of every sensor, identified by the node ID and the position of the
+ * sensor in the sensor data of the node, for looking back at how the values have changed.
+ *
+ * <p>Every sensor has a ring buffer of primitive arrays with one sample per time slot of
+ * {@link #getSlotSeconds()} seconds: the readings arriving within a slot are averaged into its
+ * sample, so a buffer covers the same stretch of time however often the readings come. A buffer
+ * holds at most {@link #getCapacity()} slots; when it is full, the oldest slot gives way to the
+ * newest. The times are kept to the second and the values to the hundredth, four bytes each, so a
+ * sensor takes at most eight bytes per slot. With the defaults, a day of one-minute slots, that is
+ * 11.25 KB per sensor, and 180 MB for the largest number of sensors. A buffer starts small and
+ * grows as its slots are filled, so a sensor which has only been seen for a while takes less.
+ *
+ * <p>Samples are recorded by one thread and may be queried by others at the same time.
+ */
+public class SensorHistoryStore {
+  /** The length of the time slots by default, in seconds. */
+  public static final int DEFAULT_SLOT_SECONDS = 60;
+
+  /** The number of slots kept per sensor by default: a day of one-minute slots. */
+  public static final int DEFAULT_CAPACITY = 24 * 60 * 60 / DEFAULT_SLOT_SECONDS;
+
+  /** The number of sensors kept track of by default. */
+  public static final int DEFAULT_MAX_SENSORS = 16384;
+
+  private static final int INITIAL_BUFFER_SIZE = 64;
+  private static final double SCALE = 100;
+
+  private final int slotSeconds;
+  private final int capacity;
+  private final int maxSensors;
+  // The times are stored as seconds since this one, so they fit an int for 68 years
+  private final long baseSeconds;
+  private final Map<Integer, NodeHistory> nodes = new ConcurrentHashMap<>();
+  private int sensorCount = 0;
+
+  /**
+   * Create a store keeping a day of one-minute slots, for up to {@link #DEFAULT_MAX_SENSORS}
+   * sensors.
+   */
+  public SensorHistoryStore() {
+    this(DEFAULT_SLOT_SECONDS, DEFAULT_CAPACITY, DEFAULT_MAX_SENSORS);
+  }
+
+  /**
+   * Create a store. It takes at most eight bytes per slot and sensor, capacity * maxSensors * 8
+   * bytes in total.
+   *
+   * @param slotSeconds The length of the time slots, in seconds
+   * @param capacity    The largest number of slots kept per sensor
+   * @param maxSensors  The largest number of sensors kept track of. The readings of sensors beyond
+   *                    this are not recorded.
+   */
+  public SensorHistoryStore(int slotSeconds, int capacity, int maxSensors) {
+    if (slotSeconds <= 0) {
+      throw new IllegalArgumentException("Slot length must be positive");
+    }
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    if (maxSensors <= 0) {
+      throw new IllegalArgumentException("Maximum number of sensors must be positive");
+    }
+    this.slotSeconds = slotSeconds;
+    this.capacity = capacity;
+    this.maxSensors = maxSensors;
+    this.baseSeconds = System.currentTimeMillis() / 1000;
+  }
+
+  /**
+   * Get the length of the time slots, each holding the average of the readings within it.
+   *
+   * @return The length of a slot, in seconds
+   */
+  public int getSlotSeconds() {
+    return slotSeconds;
+  }
+
+  /**
+   * Get the largest number of slots kept per sensor.
+   *
+   * @return The capacity of every buffer
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Record the readings of a node. The values are copied, so the list may be reused afterwards.
+   *
+   * @param nodeId     The ID of the node
+   * @param readings   The readings of all the sensors of the node, in the order they were sent
+   * @param timeMillis The time of the readings, in milliseconds since the epoch
+   */
+  public void record(int nodeId, List<SensorReading> readings, long timeMillis) {
+    int time = toStoredTime(timeMillis);
+    NodeHistory node = nodes.computeIfAbsent(nodeId, id -> new NodeHistory());
+    for (int i = 0; i < readings.size(); ++i) {
+      SensorReading reading = readings.get(i);
+      SensorHistory sensor = node.getOrCreate(i, reading);
+      if (sensor != null) {
+        sensor.add(time, toStoredValue(reading.getValue()));
+      }
+    }
+  }
+
+  /**
+   * Get the number of sensors of a node with a history.
+   *
+   * @param nodeId The ID of the node
+   * @return The number of sensors, zero for an unknown node
+   */
+  public int getSensorCount(int nodeId) {
+    NodeHistory node = nodes.get(nodeId);
+    return node != null ? node.size() : 0;
+  }
+
+  /**
+   * Get the samples of a sensor within a time range.
+   *
+   * @param nodeId      The ID of the node
+   * @param sensorIndex The position of the sensor in the sensor data of the node
+   * @param fromMillis  The start of the range, inclusive, in milliseconds since the epoch
+   * @param toMillis    The end of the range, exclusive
+   * @return The samples, oldest first. Empty when the sensor is unknown.
+   */
+  public Samples getSamples(int nodeId, int sensorIndex, long fromMillis, long toMillis) {
+    SensorHistory sensor = getSensor(nodeId, sensorIndex);
+    return sensor != null ? sensor.getSamples(fromMillis, toMillis) : Samples.EMPTY;
+  }
+
+  /**
+   * Get the number of samples, the lowest, highest and average value of a sensor within a time
+   * range.
+   *
+   * @param nodeId      The ID of the node
+   * @param sensorIndex The position of the sensor in the sensor data of the node
+   * @param fromMillis  The start of the range, inclusive, in milliseconds since the epoch
+   * @param toMillis    The end of the range, exclusive
+   * @return The summary, with a count of zero when there are no samples in the range
+   */
+  public Summary summarize(int nodeId, int sensorIndex, long fromMillis, long toMillis) {
+    SensorHistory sensor = getSensor(nodeId, sensorIndex);
+    return sensor != null ? sensor.summarize(fromMillis, toMillis) : Summary.EMPTY;
+  }
+
+  /**
+   * Get the samples of a sensor within a time range, reduced to one sample per interval: the
+   * average of the samples in it, at the start of the interval. Intervals without samples are
+   * left out. Useful for drawing a long range with a limited number of points.
+   *
+   * @param nodeId         The ID of the node
+   * @param sensorIndex    The position of the sensor in the sensor data of the node
+   * @param fromMillis     The start of the range, inclusive, in milliseconds since the epoch
+   * @param toMillis       The end of the range, exclusive
+   * @param intervalMillis The length of every interval, starting at fromMillis
+   * @return The averages, oldest first
+   */
+  public Samples downsample(int nodeId, int sensorIndex, long fromMillis, long toMillis,
+                            long intervalMillis) {
+    if (intervalMillis <= 0) {
+      throw new IllegalArgumentException("Interval must be positive");
+    }
+    SensorHistory sensor = getSensor(nodeId, sensorIndex);
+    return sensor != null
+        ? sensor.downsample(fromMillis, toMillis, intervalMillis) : Samples.EMPTY;
+  }
+
+  /**
+   * Forget the history of a node.
+   *
+   * @param nodeId The ID of the node
+   */
+  public void forgetNode(int nodeId) {
+    NodeHistory node = nodes.remove(nodeId);
+    if (node != null) {
+      releaseSensors(node.size());
+    }
+  }
+
+  private SensorHistory getSensor(int nodeId, int sensorIndex) {
+    NodeHistory node = nodes.get(nodeId);
+    return node != null ? node.get(sensorIndex) : null;
+  }
+
+  private synchronized boolean reserveSensor() {
+    boolean reserved = sensorCount < maxSensors;
+    if (reserved) {
+      ++sensorCount;
+    }
+    return reserved;
+  }
+
+  private synchronized void releaseSensors(int count) {
+    sensorCount -= count;
+  }
+
+  private int toStoredTime(long timeMillis) {
+    long seconds = Math.floorDiv(timeMillis, 1000) - baseSeconds;
+    return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, seconds));
+  }
+
+  private long toMillis(int storedTime) {
+    return (baseSeconds + storedTime) * 1000;
+  }
+
+  /**
+   * Convert a time range to a range of stored times, which are whole seconds.
+   */
+  private long[] toStoredRange(long fromMillis, long toMillis) {
+    return new long[] {
+        -Math.floorDiv(-fromMillis, 1000) - baseSeconds,
+        -Math.floorDiv(-toMillis, 1000) - baseSeconds
+    };
+  }
+
+  private static int toStoredValue(double value) {
+    long scaled = Math.round(value * SCALE);
+    return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, scaled));
+  }
+
+  private static double toValue(int storedValue) {
+    return storedValue / SCALE;
+  }
+
+  /**
+   * The sensors of one node, by their position in the sensor data.
+   */
+  private class NodeHistory {
+    private volatile SensorHistory[] sensors = new SensorHistory[0];
+
+    private int size() {
+      return sensors.length;
+    }
+
+    private SensorHistory get(int index) {
+      SensorHistory[] current = sensors;
+      return index >= 0 && index < current.length ? current[index] : null;
+    }
+
+    /**
+     * Get the history of a sensor, starting a new one when there is none or when the sensor at
+     * the position has changed type or unit.
+     *
+     * @return The history, or null when there is no room for more sensors
+     */
+    private synchronized SensorHistory getOrCreate(int index, SensorReading reading) {
+      SensorHistory sensor = get(index);
+      if (sensor == null || !sensor.type.equals(reading.getType())
+          || !sensor.unit.equals(reading.getUnit())) {
+        if (sensor != null || (index == sensors.length && reserveSensor())) {
+          sensor = new SensorHistory(reading.getType(), reading.getUnit());
+          SensorHistory[] grown = sensors;
+          if (index == grown.length) {
+            grown = Arrays.copyOf(grown, index + 1);
+          }
+          grown[index] = sensor;
+          sensors = grown;
+        } else {
+          sensor = null;
+        }
+      }
+      return sensor;
+    }
+  }
+
+  /**
+   * The ring buffer of one sensor.
+   */
+  private class SensorHistory {
+    private final String type;
+    private final String unit;
+    private int[] times = new int[Math.min(INITIAL_BUFFER_SIZE, capacity)];
+    private int[] values = new int[times.length];
+    // The position of the oldest sample
+    private int start = 0;
+    private int size = 0;
+    // The sum and number of the readings in the newest slot, for averaging them
+    private long slotSum = 0;
+    private int slotCount = 0;
+
+    private SensorHistory(String type, String unit) {
+      this.type = type;
+      this.unit = unit;
+    }
+
+    private synchronized void add(int time, int value) {
+      // The slots start at whole multiples of their length since the epoch, such as every minute
+      int slot = (int) (Math.floorDiv(baseSeconds + time, slotSeconds) * slotSeconds - baseSeconds);
+      // A reading from before the newest slot, when the clock is turned back, goes into it too,
+      // so the times stay in order
+      if (size > 0 && slot <= times[position(size - 1)]) {
+        slotSum += value;
+        ++slotCount;
+        values[position(size - 1)] = (int) Math.round((double) slotSum / slotCount);
+      } else {
+        addSlot(slot, value);
+      }
+    }
+
+    private void addSlot(int time, int value) {
+      slotSum = value;
+      slotCount = 1;
+      if (size == times.length && size < capacity) {
+        grow();
+      }
+      if (size < times.length) {
+        times[position(size)] = time;
+        values[position(size)] = value;
+        ++size;
+      } else {
+        times[start] = time;
+        values[start] = value;
+        start = position(1);
+      }
+    }
+
+    private void grow() {
+      int length = (int) Math.min(capacity, times.length * 2L);
+      int[] grownTimes = new int[length];
+      int[] grownValues = new int[length];
+      for (int i = 0; i < size; ++i) {
+        grownTimes[i] = times[position(i)];
+        grownValues[i] = values[position(i)];
+      }
+      times = grownTimes;
+      values = grownValues;
+      start = 0;
+    }
+
+    /**
+     * Get the position in the arrays of the sample with the given age order.
+     *
+     * @param i The number of samples older than it
+     */
+    private int position(int i) {
+      int position = start + i;
+      return position < times.length ? position : position - times.length;
+    }
+
+    /**
+     * Find the first sample at or after a stored time.
+     *
+     * @return The number of samples before it
+     */
+    private int firstAtOrAfter(long time) {
+      int low = 0;
+      int high = size;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (times[position(middle)] < time) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+
+    private synchronized Samples getSamples(long fromMillis, long toMillis) {
+      long[] range = toStoredRange(fromMillis, toMillis);
+      int first = firstAtOrAfter(range[0]);
+      int end = firstAtOrAfter(range[1]);
+      int count = Math.max(0, end - first);
+      long[] sampleTimes = new long[count];
+      double[] sampleValues = new double[count];
+      for (int i = 0; i < count; ++i) {
+        int position = position(first + i);
+        sampleTimes[i] = toMillis(times[position]);
+        sampleValues[i] = toValue(values[position]);
+      }
+      return new Samples(type, unit, sampleTimes, sampleValues);
+    }
+
+    private synchronized Summary summarize(long fromMillis, long toMillis) {
+      long[] range = toStoredRange(fromMillis, toMillis);
+      int first = firstAtOrAfter(range[0]);
+      int end = firstAtOrAfter(range[1]);
+      int min = Integer.MAX_VALUE;
+      int max = Integer.MIN_VALUE;
+      long sum = 0;
+      for (int i = first; i < end; ++i) {
+        int value = values[position(i)];
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        sum += value;
+      }
+      int count = Math.max(0, end - first);
+      return count > 0
+          ? new Summary(count, toValue(min), toValue(max), sum / SCALE / count) : Summary.EMPTY;
+    }
+
+    private synchronized Samples downsample(long fromMillis, long toMillis, long intervalMillis) {
+      long[] range = toStoredRange(fromMillis, toMillis);
+      int first = firstAtOrAfter(range[0]);
+      int end = firstAtOrAfter(range[1]);
+      int maxIntervals = (int) Math.min(Math.max(0, end - first),
+          Math.max(1, (toMillis - fromMillis + intervalMillis - 1) / intervalMillis));
+      long[] sampleTimes = new long[maxIntervals];
+      double[] sampleValues = new double[maxIntervals];
+      int count = 0;
+      int i = first;
+      while (i < end) {
+        long interval = (toMillis(times[position(i)]) - fromMillis) / intervalMillis;
+        long sum = 0;
+        int inInterval = 0;
+        while (i < end
+            && (toMillis(times[position(i)]) - fromMillis) / intervalMillis == interval) {
+          sum += values[position(i)];
+          ++inInterval;
+          ++i;
+        }
+        sampleTimes[count] = fromMillis + Math.max(0, interval) * intervalMillis;
+        sampleValues[count] = sum / SCALE / inInterval;
+        ++count;
+      }
+      return new Samples(type, unit, Arrays.copyOf(sampleTimes, count),
+          Arrays.copyOf(sampleValues, count));
+    }
+  }
+
+  /**
+   * Samples of one sensor, in primitive arrays.
+   */
+  public static class Samples {
+    private static final Samples EMPTY = new Samples("", "", new long[0], new double[0]);
+
+    private final String type;
+    private final String unit;
+    private final long[] times;
+    private final double[] values;
+
+    private Samples(String type, String unit, long[] times, double[] values) {
+      this.type = type;
+      this.unit = unit;
+      this.times = times;
+      this.values = values;
+    }
+
+    /**
+     * Get the type of the sensor.
+     *
+     * @return The sensor type, empty for an unknown sensor
+     */
+    public String getType() {
+      return type;
+    }
+
+    /**
+     * Get the unit of the values.
+     *
+     * @return The unit, empty for an unknown sensor
+     */
+    public String getUnit() {
+      return unit;
+    }
+
+    /**
+     * Get the number of samples.
+     *
+     * @return The number of samples
+     */
+    public int size() {
+      return times.length;
+    }
+
+    /**
+     * Get the time of a sample.
+     *
+     * @param index The index of the sample, zero for the oldest
+     * @return The time, in milliseconds since the epoch, to the second
+     */
+    public long getTime(int index) {
+      return times[index];
+    }
+
+    /**
+     * Get the value of a sample.
+     *
+     * @param index The index of the sample, zero for the oldest
+     * @return The value, to the hundredth
+     */
+    public double getValue(int index) {
+      return values[index];
+    }
+  }
+
+  /**
+   * The number of samples, the lowest, highest and average value within a time range.
+   */
+  public static class Summary {
+    private static final Summary EMPTY = new Summary(0, Double.NaN, Double.NaN, Double.NaN);
+
+    private final int count;
+    private final double min;
+    private final double max;
+    private final double average;
+
+    private Summary(int count, double min, double max, double average) {
+      this.count = count;
+      this.min = min;
+      this.max = max;
+      this.average = average;
+    }
+
+    /**
+     * Get the number of samples.
+     *
+     * @return The number of samples in the range
+     */
+    public int getCount() {
+      return count;
+    }
+
+    /**
+     * Get the lowest value.
+     *
+     * @return The lowest value, NaN when there are no samples
+     */
+    public double getMin() {
+      return min;
+    }
+
+    /**
+     * Get the highest value.
+     *
+     * @return The highest value, NaN when there are no samples
+     */
+    public double getMax() {
+      return max;
+    }
+
+    /**
+     * Get the average value.
+     *
+     * @return The average value, NaN when there are no samples
+     */
+    public double getAverage() {
+      return average;
+    }
+  }
+}
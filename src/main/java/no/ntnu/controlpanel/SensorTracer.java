@@ -0,0 +1,121 @@
+package no.ntnu.controlpanel;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import no.ntnu.protocol.SensorTrace;
+import no.ntnu.tools.LatencyHistogram;
+import no.ntnu.tools.MetricsRegistry;
+
+/**
+ * Records how long traced sensor data takes from a node to the screen of the control panel, hop
+ * by hop, in histograms of a {@link MetricsRegistry}:
+ * <ul>
+ *   <li>trace.nodeToServer: from the node taking the readings to the server handling them</li>
+ *   <li>trace.server: from the server handling the readings to queuing them for the panels</li>
+ *   <li>trace.serverToPanel: from the server queuing the readings to the panel receiving them</li>
+ *   <li>trace.panelDelay: from the panel receiving the readings to passing them on to the logic,
+ *   which includes the deliberate delay of the panel</li>
+ *   <li>trace.render: from passing the readings on to the GUI having shown them, only recorded by
+ *   panels with a GUI</li>
+ *   <li>trace.toDispatch and trace.total: from the node taking the readings to the panel passing
+ *   them on, and to the GUI having shown them</li>
+ * </ul>
+ *
+ * <p>Data traced by the node only, without the timestamps of the server, is counted in the totals
+ * but not in the hops through the server. The timestamps of the node and the server come from
+ * their own clocks, so the hops between machines include the difference between the clocks.
+ */
+public class SensorTracer {
+  private final MetricsRegistry metrics = new MetricsRegistry();
+  private final LatencyHistogram nodeToServer = metrics.histogram("trace.nodeToServer");
+  private final LatencyHistogram server = metrics.histogram("trace.server");
+  private final LatencyHistogram serverToPanel = metrics.histogram("trace.serverToPanel");
+  private final LatencyHistogram panelDelay = metrics.histogram("trace.panelDelay");
+  private final LatencyHistogram render = metrics.histogram("trace.render");
+  private final LatencyHistogram toDispatch = metrics.histogram("trace.toDispatch");
+  private final LatencyHistogram total = metrics.histogram("trace.total");
+  // The traces passed on to the logic and not yet shown, by node. Only the latest of a node is
+  // kept, so the map holds at most one trace per node.
+  private final ConcurrentMap<Integer, Dispatched> pending = new ConcurrentHashMap<>();
+
+  /**
+   * Get the registry the latencies are recorded in.
+   *
+   * @return The registry, for taking snapshots of the latencies
+   */
+  public MetricsRegistry getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Record the hops of traced sensor data which is being passed on to the logic, now.
+   *
+   * @param nodeId         The ID of the node the readings come from
+   * @param trace          The trace the readings arrived with
+   * @param receivedMicros When the panel received the readings, from {@link SensorTrace#nowMicros()}
+   */
+  public void dispatched(int nodeId, SensorTrace trace, long receivedMicros) {
+    long now = SensorTrace.nowMicros();
+    long origin = trace.getStamp(SensorTrace.ORIGIN);
+    if (trace.getStampCount() > SensorTrace.SERVER_FORWARDED) {
+      long serverReceived = trace.getStamp(SensorTrace.SERVER_RECEIVED);
+      long serverForwarded = trace.getStamp(SensorTrace.SERVER_FORWARDED);
+      record(nodeToServer, origin, serverReceived);
+      record(server, serverReceived, serverForwarded);
+      record(serverToPanel, serverForwarded, receivedMicros);
+    }
+    record(panelDelay, receivedMicros, now);
+    record(toDispatch, origin, now);
+    pending.put(nodeId, new Dispatched(origin, now));
+  }
+
+  /**
+   * Check whether sensor data from a node has been passed on to the logic and not yet shown.
+   *
+   * @param nodeId The ID of the node
+   * @return True when the GUI should call {@link #rendered(int)} once it has shown the data
+   */
+  public boolean isPending(int nodeId) {
+    return pending.containsKey(nodeId);
+  }
+
+  /**
+   * Record that the GUI has shown the latest sensor data of a node, now.
+   *
+   * @param nodeId The ID of the node
+   */
+  public void rendered(int nodeId) {
+    Dispatched dispatched = pending.remove(nodeId);
+    if (dispatched != null) {
+      long now = SensorTrace.nowMicros();
+      record(render, dispatched.dispatchedMicros, now);
+      record(total, dispatched.originMicros, now);
+    }
+  }
+
+  /**
+   * Forget the pending trace of a node, for example when the node has been removed.
+   *
+   * @param nodeId The ID of the node
+   */
+  public void forgetNode(int nodeId) {
+    pending.remove(nodeId);
+  }
+
+  private static void record(LatencyHistogram histogram, long fromMicros, long toMicros) {
+    histogram.record((toMicros - fromMicros) * 1000);
+  }
+
+  /**
+   * When traced sensor data was taken and passed on to the logic.
+   */
+  private static class Dispatched {
+    private final long originMicros;
+    private final long dispatchedMicros;
+
+    private Dispatched(long originMicros, long dispatchedMicros) {
+      this.originMicros = originMicros;
+      this.dispatchedMicros = dispatchedMicros;
+    }
+  }
+}
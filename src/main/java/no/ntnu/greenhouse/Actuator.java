@@ -1,7 +1,6 @@
 package no.ntnu.greenhouse;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 import no.ntnu.listeners.common.ActuatorListener;
 
 /**
@@ -31,9 +30,14 @@ public class Actuator {
   private final int id;
 
   /**
-   * The impacts of this actuator on the sensors.
+   * The {@link SensorTypes} IDs of the sensor types this actuator has an impact on.
    */
-  private Map<String, Double> impacts = new HashMap<>();
+  private int[] impactTypeIds = new int[0];
+
+  /**
+   * The impact on each of the sensor types in {@link #impactTypeIds}.
+   */
+  private double[] impactValues = new double[0];
 
   /**
    * The listener which will be notified when actuator state changes.
@@ -96,7 +100,18 @@ public class Actuator {
    *                       same node by +2 degrees".
    */
   public void setImpact(String sensorType, double diffWhenActive) {
-    impacts.put(sensorType, diffWhenActive);
+    int typeId = SensorTypes.getId(sensorType);
+    int index = 0;
+    while (index < impactTypeIds.length && impactTypeIds[index] != typeId) {
+      ++index;
+    }
+    // New arrays every time, as clones share them
+    int[] typeIds = Arrays.copyOf(impactTypeIds, Math.max(index + 1, impactTypeIds.length));
+    double[] values = Arrays.copyOf(impactValues, typeIds.length);
+    typeIds[index] = typeId;
+    values[index] = diffWhenActive;
+    impactTypeIds = typeIds;
+    impactValues = values;
   }
 
   /**
@@ -115,9 +130,9 @@ public class Actuator {
    */
   public Actuator createClone() {
     Actuator a = new Actuator(type, nodeId);
-    // Note - we pass a reference to the same map! This should not be problem, as long as we
-    // don't modify the impacts AFTER creating the template
-    a.impacts = impacts;
+    // The arrays are shared, setImpact() replaces them instead of changing them
+    a.impactTypeIds = impactTypeIds;
+    a.impactValues = impactValues;
     return a;
   }
 
@@ -150,13 +165,12 @@ public class Actuator {
    * @param node The sensor node to be affected by this actuator.
    */
   public void applyImpact(SensorActuatorNode node) {
-    for (Map.Entry<String, Double> impactEntry : impacts.entrySet()) {
-      String sensorType = impactEntry.getKey();
-      double impact = impactEntry.getValue();
+    for (int i = 0; i < impactTypeIds.length; ++i) {
+      double impact = impactValues[i];
       if (!on) {
         impact = -impact;
       }
-      node.applyActuatorImpact(sensorType, impact);
+      node.applyActuatorImpact(impactTypeIds[i], impact);
     }
   }
 
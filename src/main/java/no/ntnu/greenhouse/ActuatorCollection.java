@@ -3,7 +3,6 @@ package no.ntnu.greenhouse;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import no.ntnu.tools.Logger;
 
 /**
  * A collection of actuators of different types.
@@ -16,13 +15,17 @@ public class ActuatorCollection implements Iterable<Actuator> {
   private final Map<Integer, Actuator> actuators = new HashMap<>();
 
   /**
-   * Print a short info about all the actuators. Usable for debugging. Does NOT print a newline!
+   * Get a short info about all the actuators. Usable for debugging.
+   *
+   * @return The type, ID and state of every actuator, each one preceded by a space
    */
-  public void debugPrint() {
+  public String describe() {
+    StringBuilder description = new StringBuilder();
     for (Actuator actuator : actuators.values()) {
-      Logger.infoNoNewline(" " + actuator.getType() + "[" + actuator.getId() + "]"
-          + (actuator.isOn() ? " ON" : " off"));
+      description.append(' ').append(actuator.getType()).append('[').append(actuator.getId())
+          .append(']').append(actuator.isOn() ? " ON" : " off");
     }
+    return description.toString();
   }
 
   /**
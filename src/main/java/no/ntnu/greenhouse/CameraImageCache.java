@@ -0,0 +1,159 @@
+package no.ntnu.greenhouse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the camera images of the nodes in memory, both as raw bytes and encoded as base64, so
+ * that sending an image doesn't mean reading and encoding the file again. Nodes using the same
+ * image file share one copy.
+ *
+ * <p>An image is read again when the modification time or size of its file has changed. The
+ * cache holds at most a given number of bytes; when a new image doesn't fit, the least recently
+ * used images are evicted. An image larger than the whole cache is returned without being kept.
+ */
+public class CameraImageCache {
+  /** The size of the shared cache, in bytes. */
+  public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+  private static CameraImageCache instance;
+
+  private final long maxBytes;
+  // In access order, the least recently used first
+  private final LinkedHashMap<Path, CameraImage> images = new LinkedHashMap<>(16, 0.75f, true);
+  private long cachedBytes = 0;
+
+  /**
+   * Create a cache.
+   *
+   * @param maxBytes The largest number of bytes the cached images may take together
+   */
+  public CameraImageCache(long maxBytes) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("Cache size must be positive: " + maxBytes);
+    }
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Get the cache shared by all the nodes of the simulation.
+   *
+   * @return The shared cache
+   */
+  public static synchronized CameraImageCache getInstance() {
+    if (instance == null) {
+      instance = new CameraImageCache(DEFAULT_MAX_BYTES);
+    }
+    return instance;
+  }
+
+  /**
+   * Get an image, reading it from the file when it isn't cached or the file has changed.
+   *
+   * @param file The image file
+   * @return The image
+   * @throws IOException When the file can't be read
+   */
+  public synchronized CameraImage get(Path file) throws IOException {
+    Path key = file.toAbsolutePath().normalize();
+    BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+    long modified = attributes.lastModifiedTime().toMillis();
+    CameraImage image = images.get(key);
+    if (image == null || image.modified != modified || image.fileSize != attributes.size()) {
+      if (image != null) {
+        remove(key);
+      }
+      image = new CameraImage(Files.readAllBytes(key), modified, attributes.size());
+      if (image.getWeight() <= maxBytes) {
+        evictUntilFree(image.getWeight());
+        images.put(key, image);
+        cachedBytes += image.getWeight();
+      }
+    }
+    return image;
+  }
+
+  private void remove(Path key) {
+    CameraImage removed = images.remove(key);
+    if (removed != null) {
+      cachedBytes -= removed.getWeight();
+    }
+  }
+
+  private void evictUntilFree(long needed) {
+    Iterator<Map.Entry<Path, CameraImage>> eldest = images.entrySet().iterator();
+    while (cachedBytes + needed > maxBytes && eldest.hasNext()) {
+      cachedBytes -= eldest.next().getValue().getWeight();
+      eldest.remove();
+    }
+  }
+
+  /**
+   * Get the number of bytes the cached images take.
+   *
+   * @return The number of bytes
+   */
+  public synchronized long getCachedBytes() {
+    return cachedBytes;
+  }
+
+  /**
+   * Get the number of cached images.
+   *
+   * @return The number of images
+   */
+  public synchronized int size() {
+    return images.size();
+  }
+
+  /**
+   * A camera image, as read from its file.
+   */
+  public static class CameraImage {
+    private final byte[] bytes;
+    private final String base64;
+    private final long modified;
+    private final long fileSize;
+
+    private CameraImage(byte[] bytes, long modified, long fileSize) {
+      this.bytes = bytes;
+      this.base64 = Base64.getEncoder().encodeToString(bytes);
+      this.modified = modified;
+      this.fileSize = fileSize;
+    }
+
+    /**
+     * Get the raw image. The array is shared by everyone using the image, and must not be
+     * modified.
+     *
+     * @return The bytes of the image file
+     */
+    public byte[] getBytes() {
+      return bytes;
+    }
+
+    /**
+     * Get the image encoded as base64.
+     *
+     * @return The encoded image
+     */
+    public String getBase64() {
+      return base64;
+    }
+
+    /**
+     * Get the memory the image takes in the cache: the raw bytes plus the base64 text.
+     *
+     * @return The number of bytes
+     */
+    long getWeight() {
+      return (long) bytes.length + base64.length();
+    }
+  }
+}
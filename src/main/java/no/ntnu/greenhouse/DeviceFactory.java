@@ -13,6 +13,7 @@ public class DeviceFactory {
   private static final double NORMAL_GREENHOUSE_HUMIDITY = 80;
   private static final String HUMIDITY_UNIT = "%";
   private static final String SENSOR_TYPE_TEMPERATURE = "Temperature";
+  private static final String SENSOR_TYPE_HUMIDITY = "Humidity";
 
   private static int nextNodeId = 1;
 
@@ -90,7 +91,7 @@ public class DeviceFactory {
    * @return A typical humidity sensor which can be used as a template
    */
   public static Sensor createHumiditySensor() {
-    return new Sensor("Humidity", MIN_HUMIDITY, MAX_HUMIDITY,
+    return new Sensor(SENSOR_TYPE_HUMIDITY, MIN_HUMIDITY, MAX_HUMIDITY,
         randomize(NORMAL_GREENHOUSE_HUMIDITY, 5.0), HUMIDITY_UNIT);
   }
 
@@ -103,7 +104,7 @@ public class DeviceFactory {
   public static Actuator createWindow(int nodeId) {
     Actuator actuator = new Actuator("Window", nodeId);
     actuator.setImpact(SENSOR_TYPE_TEMPERATURE, -5.0);
-    actuator.setImpact("humidity", -10.0);
+    actuator.setImpact(SENSOR_TYPE_HUMIDITY, -10.0);
     return actuator;
   }
 
@@ -1,7 +1,6 @@
 package no.ntnu.greenhouse;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 import no.ntnu.tools.Logger;
 
 /**
@@ -9,7 +8,8 @@ import no.ntnu.tools.Logger;
  * Note: this class is used only for debugging, you can remove it in your final project!
  */
 public class PeriodicSwitch {
-  private final Timer timer;
+  private final SimulationScheduler scheduler;
+  private volatile ScheduledFuture<?> task;
   private final SensorActuatorNode node;
   private final int actuatorId;
   private final long delay;
@@ -28,31 +28,31 @@ public class PeriodicSwitch {
     this.actuatorId = actuatorId;
     this.delay = m;
     this.name = name;
-
-    timer = new Timer(name);
+    this.scheduler = SimulationScheduler.getInstance();
   }
 
   /**
    * Start the periodic actuator toggling.
    */
   public void start() {
-    timer.scheduleAtFixedRate(new TimerTask() {
-      @Override
-      public void run() {
-        Logger.info(" > " + name + ": toggle actuator " + actuatorId + " on node " + node.getId());
-        if (node.isRunning()) {
-          try {
-            node.toggleActuator(actuatorId);
-          } catch (Exception e) {
-            Logger.error("Failed to toggle an actuator: " + e.getMessage());
-            timer.cancel();
-          }
-        } else {
-          Logger.info("   Node stopped, stopping the switch");
-          timer.cancel();
-        }
+    if (task == null) {
+      task = scheduler.scheduleAtFixedRate(this::toggle, delay, delay);
+    }
+  }
+
+  private void toggle() {
+    Logger.info(" > " + name + ": toggle actuator " + actuatorId + " on node " + node.getId());
+    if (node.isRunning()) {
+      try {
+        node.toggleActuator(actuatorId);
+      } catch (Exception e) {
+        Logger.error("Failed to toggle an actuator: " + e.getMessage());
+        cancel();
       }
-    }, delay, delay);
+    } else {
+      Logger.info("   Node stopped, stopping the switch");
+      cancel();
+    }
   }
 
   /**
@@ -60,6 +60,13 @@ public class PeriodicSwitch {
    */
   public void stop() {
     Logger.info("-- Stopping " + this.name);
-    timer.cancel();
+    cancel();
+  }
+
+  private void cancel() {
+    ScheduledFuture<?> scheduled = task;
+    if (scheduled != null) {
+      scheduled.cancel(false);
+    }
   }
 }
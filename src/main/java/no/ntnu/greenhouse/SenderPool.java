@@ -0,0 +1,141 @@
+package no.ntnu.greenhouse;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import no.ntnu.tools.Logger;
+
+/**
+ * Writes what the nodes of the simulation send to the server, for all the nodes on a small shared
+ * pool of threads, so that the tasks of the {@link SimulationScheduler} never block on the
+ * network. Every node has a {@link SerialSender} of its own: its sends are written one at a time,
+ * in the order they were passed in, by whichever thread of the pool is free.
+ *
+ * <p>The number of threads follows the number of processors, with a minimum of four, not the
+ * number of nodes. A node whose connection blocks holds one of the threads until the write goes
+ * through, while the other nodes go on with the rest.
+ */
+public class SenderPool {
+  private static final int MIN_THREADS = 4;
+  // Sends run in one go before a sender lets the other nodes have the thread
+  private static final int MAX_SENDS_PER_TURN = 16;
+
+  private static SenderPool instance;
+
+  private final ExecutorService executor;
+
+  /**
+   * Create a pool with its own threads.
+   *
+   * @param threadCount The number of threads writing the sends
+   */
+  public SenderPool(int threadCount) {
+    if (threadCount <= 0) {
+      throw new IllegalArgumentException("A sender pool needs at least one thread");
+    }
+    AtomicInteger threadNumber = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>(), task -> {
+          Thread thread = new Thread(task, "sender-" + threadNumber.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  /**
+   * Get the pool shared by all the nodes of the simulation.
+   *
+   * @return The shared pool
+   */
+  public static synchronized SenderPool getInstance() {
+    if (instance == null) {
+      instance = new SenderPool(
+          Math.max(MIN_THREADS, Runtime.getRuntime().availableProcessors()));
+    }
+    return instance;
+  }
+
+  /**
+   * Create a sender for one node.
+   *
+   * @return A sender writing on the threads of this pool
+   */
+  public SerialSender createSender() {
+    return new SerialSender();
+  }
+
+  /** Stop the pool. Sends which haven't started yet are dropped. */
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * The sends of one node, run one at a time in the order they were passed in.
+   */
+  public class SerialSender {
+    private final Queue<Runnable> sends = new ConcurrentLinkedQueue<>();
+    // True while a turn of this sender is queued or running in the pool
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile boolean shutdown = false;
+
+    private SerialSender() {
+    }
+
+    /**
+     * Queue a send, to be run after the ones queued before it. Ignored once the sender has been
+     * shut down.
+     *
+     * @param send The send to run
+     */
+    public void execute(Runnable send) {
+      if (send == null) {
+        throw new IllegalArgumentException("Send cannot be null");
+      }
+      if (!shutdown) {
+        sends.add(send);
+        schedule();
+      }
+    }
+
+    /**
+     * Stop taking new sends. The ones already queued are still run.
+     */
+    public void shutdown() {
+      shutdown = true;
+    }
+
+    private void schedule() {
+      if (scheduled.compareAndSet(false, true)) {
+        executor.execute(this::runTurn);
+      }
+    }
+
+    private void runTurn() {
+      int sent = 0;
+      Runnable send = sends.poll();
+      while (send != null) {
+        runLogged(send);
+        sent++;
+        send = sent < MAX_SENDS_PER_TURN ? sends.poll() : null;
+      }
+      scheduled.set(false);
+      // Sends queued while the flag was still set are picked up here
+      if (!sends.isEmpty()) {
+        schedule();
+      }
+    }
+  }
+
+  private static void runLogged(Runnable send) {
+    try {
+      send.run();
+    } catch (RuntimeException e) {
+      Logger.error("Error sending to the server: " + e.getMessage());
+    }
+  }
+}
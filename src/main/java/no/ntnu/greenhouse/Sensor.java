@@ -1,15 +1,17 @@
 package no.ntnu.greenhouse;
 
 /**
- * A sensor which can sense the environment in a specific way.
+ * A sensor which can sense the environment in a specific way. The value and range of the sensor
+ * are kept in a {@link SensorBank}; a sensor is a view of its position there.
  */
 public class Sensor {
+  private final SensorBank.Column column;
+  private final int index;
   private final SensorReading reading;
-  private final double min;
-  private final double max;
 
   /**
-   * Create a sensor.
+   * Create a sensor. The sensor has storage of its own, outside the shared bank, which suits
+   * templates. Clones are added to the shared bank.
    *
    * @param type    The type of the sensor. Examples: "temperature", "humidity"
    * @param min     Minimum allowed value
@@ -18,10 +20,20 @@ public class Sensor {
    * @param unit    The measurement unit. Examples: "%", "C", "lux"
    */
   public Sensor(String type, double min, double max, double current, String unit) {
-    this.reading = new SensorReading(type, current, unit);
-    this.min = min;
-    this.max = max;
-    ensureValueBoundsAndPrecision(current);
+    this(new SensorBank.Column(type, unit, 0), 0);
+    column.add(min, max, current, 1);
+  }
+
+  /**
+   * Create a view of a sensor in a bank.
+   *
+   * @param column The arrays of the sensor type
+   * @param index  The position of the sensor in the arrays
+   */
+  Sensor(SensorBank.Column column, int index) {
+    this.column = column;
+    this.index = index;
+    this.reading = new ReadingView(column, index);
   }
 
   /**
@@ -30,71 +42,59 @@ public class Sensor {
    * @return The type of the sensor
    */
   public String getType() {
-    return reading.getType();
+    return column.getType();
   }
 
   /**
-   * Get the current sensor reading.
+   * Returns the measurement unit of the sensor.
    *
-   * @return The current sensor reading (value)
+   * @return The unit of the sensor
    */
-  public SensorReading getReading() {
-    return reading;
+  public String getUnit() {
+    return column.getUnit();
   }
 
   /**
-   * Create a clone of this sensor.
+   * Returns the minimum allowed value.
    *
-   * @return A clone of this sensor, where all the fields are the same
+   * @return The minimum value
    */
-  public Sensor createClone() {
-    return new Sensor(this.reading.getType(), this.min, this.max,
-        this.reading.getValue(), this.reading.getUnit());
+  public double getMin() {
+    return column.getMin(index);
   }
 
   /**
-   * Add a random noise to the sensors to simulate realistic values.
+   * Returns the maximum allowed value.
+   *
+   * @return The maximum value
    */
-  public void addRandomNoise() {
-    double newValue = this.reading.getValue() + generateRealisticNoise();
-    ensureValueBoundsAndPrecision(newValue);
+  public double getMax() {
+    return column.getMax(index);
   }
 
   /**
-   * Set the value of the sensor.
+   * Get the current sensor reading.
    *
-   * @param newValue The new value to set
+   * @return The current sensor reading (value), a view which always shows the current value
    */
-  private void ensureValueBoundsAndPrecision(double newValue) {
-    newValue = roundToTwoDecimals(newValue);
-    if (newValue < min) {
-      newValue = min;
-    } else if (newValue > max) {
-      newValue = max;
-    }
-    reading.setValue(newValue);
+  public SensorReading getReading() {
+    return reading;
   }
 
   /**
-   * Round a double value to two decimal places.
+   * Create a clone of this sensor, in the shared sensor bank.
    *
-   * @param value The value to round
-   * @return The rounded value
+   * @return A clone of this sensor, where all the fields are the same
    */
-  private double roundToTwoDecimals(double value) {
-    return Math.round(value * 100.0) / 100.0;
+  public Sensor createClone() {
+    return SensorBank.getInstance().add(this, 1).createSensors().get(0);
   }
 
   /**
-   * Generate realistic noise for the sensor values.
-   *
-   * @return The noise to add to the sensor value
+   * Add a random noise to the sensors to simulate realistic values.
    */
-  private double generateRealisticNoise() {
-    final double wholeRange = max - min;
-    final double onePercentOfRange = wholeRange / 100.0;
-    final double zeroToTwoPercent = Math.random() * onePercentOfRange * 2;
-    return zeroToTwoPercent - onePercentOfRange; // In the range [-1%..+1%]
+  public void addRandomNoise() {
+    column.addRandomNoise(index, index + 1);
   }
 
   /**
@@ -103,8 +103,7 @@ public class Sensor {
    * @param impact The impact to apply - the delta for the value
    */
   public void applyImpact(double impact) {
-    double newValue = this.reading.getValue() + impact;
-    ensureValueBoundsAndPrecision(newValue);
+    column.applyImpact(index, index + 1, impact);
   }
 
   /**
@@ -116,4 +115,28 @@ public class Sensor {
   public String toString() {
     return reading.toString();
   }
+
+  /**
+   * A reading which reads and writes the value in the bank.
+   */
+  private static class ReadingView extends SensorReading {
+    private final SensorBank.Column column;
+    private final int index;
+
+    private ReadingView(SensorBank.Column column, int index) {
+      super(column.getType(), 0, column.getUnit());
+      this.column = column;
+      this.index = index;
+    }
+
+    @Override
+    public double getValue() {
+      return column.getValue(index);
+    }
+
+    @Override
+    public void setValue(double newValue) {
+      column.setValue(index, newValue);
+    }
+  }
 }
@@ -1,15 +1,12 @@
 package no.ntnu.greenhouse;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Base64;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 import no.ntnu.listeners.common.ActuatorListener;
 import no.ntnu.listeners.common.CommunicationChannelListener;
 import no.ntnu.listeners.greenhouse.NodeStateListener;
@@ -22,16 +19,23 @@ import no.ntnu.tools.Logger;
 public class SensorActuatorNode implements ActuatorListener, CommunicationChannelListener {
   // How often to generate new sensor values, in seconds.
   private static final long SENSING_DELAY = 5000;
+  private static final String DEFAULT_CAMERA_IMAGE = "images/camera1.jpg";
   private final int id;
 
-  private final List<Sensor> sensors = new LinkedList<>();
+  private final List<Sensor> sensors = new ArrayList<>();
+  // The same sensors, as ranges of the sensor bank
+  private final List<SensorBank.Range> sensorRanges = new ArrayList<>();
+  // The same ranges again, indexed by the ID of their sensor type
+  private final List<List<SensorBank.Range>> rangesByType = new ArrayList<>();
   private final ActuatorCollection actuators = new ActuatorCollection();
 
   private final List<SensorListener> sensorListeners = new LinkedList<>();
   private final List<ActuatorListener> actuatorListeners = new LinkedList<>();
   private final List<NodeStateListener> stateListeners = new LinkedList<>();
 
-  Timer sensorReadingTimer;
+  private final SimulationScheduler scheduler;
+  private ScheduledFuture<?> sensorReadingTask;
+  private Path cameraImage = Path.of(DEFAULT_CAMERA_IMAGE);
 
   private boolean running;
   private final Random random = new Random();
@@ -43,7 +47,21 @@ public class SensorActuatorNode implements ActuatorListener, CommunicationChanne
    * @param id A unique ID of the node
    */
   public SensorActuatorNode(int id) {
+    this(id, SimulationScheduler.getInstance());
+  }
+
+  /**
+   * Create a sensor/actuator node which generates its sensor values on the given scheduler.
+   *
+   * @param id        A unique ID of the node
+   * @param scheduler The scheduler running the periodic sensor reading
+   */
+  public SensorActuatorNode(int id, SimulationScheduler scheduler) {
+    if (scheduler == null) {
+      throw new IllegalArgumentException("Scheduler cannot be null");
+    }
     this.id = id;
+    this.scheduler = scheduler;
     this.running = false;
   }
 
@@ -59,9 +77,9 @@ public class SensorActuatorNode implements ActuatorListener, CommunicationChanne
   /**
    * Add sensors to the node.
    *
-   * @param template The template to use for the sensors. The template will be cloned.
-   *                 This template defines the type of sensors, the value range, value
-   *                 generation algorithms, etc.
+   * @param template The template to use for the sensors. The template will be cloned into the
+   *                 shared {@link SensorBank}. This template defines the type of sensors, the
+   *                 value range, value generation algorithms, etc.
    * @param n        The number of sensors to add to the node.
    */
   public void addSensors(Sensor template, int n) {
@@ -76,9 +94,13 @@ public class SensorActuatorNode implements ActuatorListener, CommunicationChanne
       throw new IllegalArgumentException("Can't add a negative number of sensors");
     }
 
-    for (int i = 0; i < n; ++i) {
-      sensors.add(template.createClone());
+    SensorBank.Range range = SensorBank.getInstance().add(template, n);
+    sensorRanges.add(range);
+    while (rangesByType.size() <= range.getTypeId()) {
+      rangesByType.add(new ArrayList<>());
     }
+    rangesByType.get(range.getTypeId()).add(range);
+    sensors.addAll(range.createSensors());
   }
 
   /**
@@ -104,18 +126,38 @@ public class SensorActuatorNode implements ActuatorListener, CommunicationChanne
   }
 
   /**
-   * Returns camera image as base64.
+   * Set the image file the camera of the node takes its pictures from.
+   *
+   * @param file The image file
    */
-  public String getCameraImageAsBase64() {
-    String filePath = "images/camera1.jpg";
+  public void setCameraImage(Path file) {
+    if (file == null) {
+      throw new IllegalArgumentException("Camera image cannot be null");
+    }
+    this.cameraImage = file;
+  }
+
+  /**
+   * Returns the camera image. The image is read from the shared cache, so nodes with the same
+   * image don't read the file again.
+   *
+   * @return The camera image
+   */
+  public CameraImageCache.CameraImage getCameraImage() {
     try {
-      byte[] imageBytes = Files.readAllBytes(new File(filePath).toPath());
-      return Base64.getEncoder().encodeToString(imageBytes);
+      return CameraImageCache.getInstance().get(cameraImage);
     } catch (IOException e) {
       throw new RuntimeException("Error reading image file", e);
     }
   }
 
+  /**
+   * Returns camera image as base64.
+   */
+  public String getCameraImageAsBase64() {
+    return getCameraImage().getBase64();
+  }
+
 
   /**
    * Register a new listener for actuator updates.
@@ -173,26 +215,22 @@ public class SensorActuatorNode implements ActuatorListener, CommunicationChanne
   }
 
   /**
-   * Start generating new sensor values periodically.
+   * Start generating new sensor values periodically. The random start delay spreads the readings
+   * of the nodes over the period.
    */
   private void startPeriodicSensorReading() {
-    sensorReadingTimer = new Timer();
-    TimerTask newSensorValueTask = new TimerTask() {
-      @Override
-      public void run() {
-        generateNewSensorValues();
-      }
-    };
     long randomStartDelay = random.nextLong(SENSING_DELAY);
-    sensorReadingTimer.scheduleAtFixedRate(newSensorValueTask, randomStartDelay, SENSING_DELAY);
+    sensorReadingTask = scheduler.scheduleAtFixedRate(
+        this::generateNewSensorValues, randomStartDelay, SENSING_DELAY);
   }
 
   /**
    * Stop generating new sensor values periodically.
    */
   private void stopPeriodicSensorReading() {
-    if (sensorReadingTimer != null) {
-      sensorReadingTimer.cancel();
+    if (sensorReadingTask != null) {
+      sensorReadingTask.cancel(false);
+      sensorReadingTask = null;
     }
   }
 
@@ -200,31 +238,31 @@ public class SensorActuatorNode implements ActuatorListener, CommunicationChanne
    * Generate new sensor values and send a notification to all listeners.
    */
   public void generateNewSensorValues() {
-    Logger.infoNoNewline("Node #" + id);
     addRandomNoiseToSensors();
     notifySensorChanges();
-    debugPrint();
+    Logger.debug(this::describeState);
   }
 
   /**
-   * Add random noise to all sensors.
+   * Add random noise to all sensors, one range of the sensor bank at a time.
    */
   private void addRandomNoiseToSensors() {
-    for (Sensor sensor : sensors) {
-      sensor.addRandomNoise();
+    for (SensorBank.Range range : sensorRanges) {
+      range.addRandomNoise();
     }
   }
 
   /**
-   * Print the current state of the node to the console.
+   * Describe the current state of the node, for the log.
+   *
+   * @return The sensor readings and the actuator states, on one line
    */
-  private void debugPrint() {
+  private String describeState() {
+    StringBuilder state = new StringBuilder("Node #").append(id);
     for (Sensor sensor : sensors) {
-      Logger.infoNoNewline(" " + sensor.getReading().getFormatted());
+      state.append(' ').append(sensor.getReading().getFormatted());
     }
-    Logger.infoNoNewline(" :");
-    actuators.debugPrint();
-    Logger.info("");
+    return state.append(" :").append(actuators.describe()).toString();
   }
 
   /**
@@ -312,13 +350,24 @@ public class SensorActuatorNode implements ActuatorListener, CommunicationChanne
   /**
    * An actuator has been turned on or off. Apply an impact from it to all sensors of given type.
    *
-   * @param sensorType The type of sensors affected
+   * @param sensorType The type of sensors affected, in any case
    * @param impact     The impact to apply
    */
   public void applyActuatorImpact(String sensorType, double impact) {
-    for (Sensor sensor : sensors) {
-      if (sensor.getType().equals(sensorType)) {
-        sensor.applyImpact(impact);
+    applyActuatorImpact(SensorTypes.getId(sensorType), impact);
+  }
+
+  /**
+   * An actuator has been turned on or off. Apply an impact from it to all sensors of given type.
+   * Only the sensors of that type are visited.
+   *
+   * @param sensorTypeId The {@link SensorTypes} ID of the type of sensors affected
+   * @param impact       The impact to apply
+   */
+  public void applyActuatorImpact(int sensorTypeId, double impact) {
+    if (sensorTypeId >= 0 && sensorTypeId < rangesByType.size()) {
+      for (SensorBank.Range range : rangesByType.get(sensorTypeId)) {
+        range.applyImpact(impact);
       }
     }
   }
@@ -0,0 +1,299 @@
+package no.ntnu.greenhouse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Holds the values of many sensors in primitive arrays, one set of arrays per sensor type, instead
+ * of one object per sensor. The sensors of a type are advanced in a tight loop over the arrays,
+ * which is what makes simulating a greenhouse with a million sensors affordable. {@link Sensor}
+ * and {@link SensorReading} objects are views of a position in the arrays, for the code working
+ * with single sensors.
+ *
+ * <p>The arrays are split into pages of {@link #PAGE_SIZE} sensors, which never move once
+ * allocated: adding sensors only adds pages, so it doesn't disturb sensors being updated at the
+ * same time. Sensors are never removed.
+ */
+public class SensorBank {
+  /** The number of sensors in one page of the arrays. */
+  public static final int PAGE_SIZE = 4096;
+
+  private static final int PAGE_SHIFT = Integer.numberOfTrailingZeros(PAGE_SIZE);
+  private static SensorBank instance;
+
+  private final Map<String, Column> columns = new ConcurrentHashMap<>();
+
+  /**
+   * Create an empty bank. The nodes of the simulation share the one from {@link #getInstance()}.
+   */
+  public SensorBank() {
+  }
+
+  /**
+   * Get the bank shared by all the nodes of the simulation.
+   *
+   * @return The shared bank
+   */
+  public static synchronized SensorBank getInstance() {
+    if (instance == null) {
+      instance = new SensorBank();
+    }
+    return instance;
+  }
+
+  /**
+   * Add sensors which are copies of a template.
+   *
+   * @param template The template, giving the type, unit, range and current value
+   * @param count    The number of sensors to add
+   * @return The added sensors, next to each other in the arrays
+   */
+  public Range add(Sensor template, int count) {
+    if (template == null) {
+      throw new IllegalArgumentException("Sensor template is missing");
+    }
+    if (count <= 0) {
+      throw new IllegalArgumentException("Can't add a negative number of sensors");
+    }
+    Column column = columns.computeIfAbsent(template.getType() + '\n' + template.getUnit(),
+        key -> new Column(template.getType(), template.getUnit(), PAGE_SHIFT));
+    int first = column.add(template.getMin(), template.getMax(), template.getReading().getValue(),
+        count);
+    return new Range(column, first, count);
+  }
+
+  /**
+   * Add random noise to every sensor in the bank, as {@link Sensor#addRandomNoise()} does for a
+   * single one.
+   */
+  public void addRandomNoise() {
+    for (Column column : columns.values()) {
+      column.addRandomNoise(0, column.size());
+    }
+  }
+
+  /**
+   * Get the number of sensors in the bank.
+   *
+   * @return The number of sensors
+   */
+  public int size() {
+    int size = 0;
+    for (Column column : columns.values()) {
+      size += column.size();
+    }
+    return size;
+  }
+
+  /**
+   * Round a value to two decimal places and keep it within a range, as every sensor value is.
+   *
+   * @param value The value
+   * @param min   The smallest allowed value
+   * @param max   The largest allowed value
+   * @return The value to store
+   */
+  static double boundAndRound(double value, double min, double max) {
+    double rounded = Math.round(value * 100.0) / 100.0;
+    return Math.max(min, Math.min(max, rounded));
+  }
+
+  /**
+   * Sensors next to each other in the arrays of one type, such as the sensors of that type on a
+   * node.
+   */
+  public static class Range {
+    private final Column column;
+    private final int first;
+    private final int count;
+
+    private Range(Column column, int first, int count) {
+      this.column = column;
+      this.first = first;
+      this.count = count;
+    }
+
+    /**
+     * Get the sensor type.
+     *
+     * @return The type of all the sensors in the range
+     */
+    public String getType() {
+      return column.type;
+    }
+
+    /**
+     * Get the ID of the sensor type.
+     *
+     * @return The {@link SensorTypes} ID of all the sensors in the range
+     */
+    public int getTypeId() {
+      return column.typeId;
+    }
+
+    /**
+     * Create a view of every sensor in the range.
+     *
+     * @return The sensors
+     */
+    public List<Sensor> createSensors() {
+      List<Sensor> sensors = new ArrayList<>(count);
+      for (int i = 0; i < count; ++i) {
+        sensors.add(new Sensor(column, first + i));
+      }
+      return sensors;
+    }
+
+    /** Add random noise to every sensor in the range. */
+    public void addRandomNoise() {
+      column.addRandomNoise(first, first + count);
+    }
+
+    /**
+     * Apply an external impact, such as from an actuator, to every sensor in the range.
+     *
+     * @param impact The change of the values
+     */
+    public void applyImpact(double impact) {
+      column.applyImpact(first, first + count, impact);
+    }
+  }
+
+  /**
+   * The arrays of one sensor type, with one entry per sensor: the value and the allowed range.
+   */
+  static class Column {
+    private final String type;
+    private final int typeId;
+    private final String unit;
+    private final int pageShift;
+    private final int pageMask;
+    // Replaced by a larger copy when full, the pages themselves are never copied
+    private volatile Page[] pages = new Page[0];
+    private volatile int size = 0;
+
+    /**
+     * Create an empty column.
+     *
+     * @param type      The sensor type
+     * @param unit      The unit of the values
+     * @param pageShift The number of sensors in a page, as a power of two
+     */
+    Column(String type, String unit, int pageShift) {
+      this.type = type;
+      this.typeId = SensorTypes.getId(type);
+      this.unit = unit;
+      this.pageShift = pageShift;
+      this.pageMask = (1 << pageShift) - 1;
+    }
+
+    String getType() {
+      return type;
+    }
+
+    String getUnit() {
+      return unit;
+    }
+
+    int size() {
+      return size;
+    }
+
+    /**
+     * Add sensors with the same range and value.
+     *
+     * @return The index of the first added sensor
+     */
+    synchronized int add(double min, double max, double value, int count) {
+      int first = size;
+      int needed = (first + count + pageMask) >>> pageShift;
+      if (needed > pages.length) {
+        Page[] grown = Arrays.copyOf(pages, Math.max(needed, pages.length * 2));
+        for (int i = pages.length; i < grown.length; ++i) {
+          grown[i] = new Page(1 << pageShift);
+        }
+        pages = grown;
+      }
+      double bounded = boundAndRound(value, min, max);
+      for (int i = first; i < first + count; ++i) {
+        Page page = pages[i >>> pageShift];
+        int offset = i & pageMask;
+        page.min[offset] = min;
+        page.max[offset] = max;
+        page.values[offset] = bounded;
+      }
+      size = first + count;
+      return first;
+    }
+
+    double getValue(int index) {
+      return pages[index >>> pageShift].values[index & pageMask];
+    }
+
+    void setValue(int index, double value) {
+      pages[index >>> pageShift].values[index & pageMask] = value;
+    }
+
+    double getMin(int index) {
+      return pages[index >>> pageShift].min[index & pageMask];
+    }
+
+    double getMax(int index) {
+      return pages[index >>> pageShift].max[index & pageMask];
+    }
+
+    /**
+     * Add noise of up to one percent of the range, up or down, to the sensors in an index range.
+     */
+    void addRandomNoise(int from, int to) {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      Page[] current = pages;
+      int index = from;
+      while (index < to) {
+        Page page = current[index >>> pageShift];
+        int offset = index & pageMask;
+        int end = Math.min(to - index, page.values.length - offset) + offset;
+        double[] values = page.values;
+        double[] min = page.min;
+        double[] max = page.max;
+        for (int i = offset; i < end; ++i) {
+          // Between minus and plus one percent of the range
+          double noise = (random.nextDouble() - 0.5) * (max[i] - min[i]) * 0.02;
+          values[i] = boundAndRound(values[i] + noise, min[i], max[i]);
+        }
+        index += end - offset;
+      }
+    }
+
+    /**
+     * Add the same change to the sensors in an index range.
+     */
+    void applyImpact(int from, int to, double impact) {
+      for (int i = from; i < to; ++i) {
+        Page page = pages[i >>> pageShift];
+        int offset = i & pageMask;
+        page.values[offset] = boundAndRound(page.values[offset] + impact, page.min[offset],
+            page.max[offset]);
+      }
+    }
+  }
+
+  /**
+   * One page of the arrays of a column.
+   */
+  private static class Page {
+    private final double[] values;
+    private final double[] min;
+    private final double[] max;
+
+    private Page(int size) {
+      values = new double[size];
+      min = new double[size];
+      max = new double[size];
+    }
+  }
+}
@@ -3,7 +3,9 @@ package no.ntnu.greenhouse;
 import java.util.Objects;
 
 /**
- * Represents one sensor reading (value).
+ * Represents one sensor reading (value). The readings of simulated sensors are views which read
+ * the value from the {@link SensorBank}, so the value is always accessed through
+ * {@link #getValue()}.
  */
 public class SensorReading {
   private final String type;
@@ -66,7 +68,7 @@ public class SensorReading {
    */
   @Override
   public String toString() {
-    return "{ type=" + type + ", value=" + value + ", unit=" + unit + " }";
+    return "{ type=" + type + ", value=" + getValue() + ", unit=" + unit + " }";
   }
 
   /**
@@ -75,7 +77,7 @@ public class SensorReading {
    * @return The sensor reading and the unit
    */
   public String getFormatted() {
-    return value + unit;
+    return getValue() + unit;
   }
 
   /**
@@ -89,11 +91,11 @@ public class SensorReading {
     if (this == o) {
       return true;
     }
-    if (o == null || getClass() != o.getClass()) {
+    if (!(o instanceof SensorReading)) {
       return false;
     }
     SensorReading that = (SensorReading) o;
-    return Double.compare(value, that.value) == 0
+    return Double.compare(getValue(), that.getValue()) == 0
         && Objects.equals(type, that.type)
         && Objects.equals(unit, that.unit);
   }
@@ -105,6 +107,6 @@ public class SensorReading {
    */
   @Override
   public int hashCode() {
-    return Objects.hash(type, value, unit);
+    return Objects.hash(type, getValue(), unit);
   }
 }
@@ -0,0 +1,43 @@
+package no.ntnu.greenhouse;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Gives every sensor type an integer ID, so that sensors and actuator impacts can be matched by
+ * comparing numbers instead of strings. Types which differ only in case, such as "humidity" and
+ * "Humidity", get the same ID.
+ */
+public class SensorTypes {
+  private static final Map<String, Integer> ids = new HashMap<>();
+
+  /**
+   * Constructing the class is not allowed.
+   */
+  private SensorTypes() {
+  }
+
+  /**
+   * Get the ID of a sensor type. A type seen for the first time gets the next free ID. The IDs
+   * are looked up when sensors and actuators are created, not when they are used.
+   *
+   * @param type The sensor type. Example: "temperature"
+   * @return The ID of the type, from zero and up
+   */
+  public static synchronized int getId(String type) {
+    if (type == null) {
+      throw new IllegalArgumentException("Sensor type missing");
+    }
+    return ids.computeIfAbsent(type.toLowerCase(Locale.ROOT), key -> ids.size());
+  }
+
+  /**
+   * Get the number of sensor types which have an ID.
+   *
+   * @return The number of types, which is one more than the largest ID
+   */
+  public static synchronized int count() {
+    return ids.size();
+  }
+}
@@ -0,0 +1,107 @@
+package no.ntnu.greenhouse;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import no.ntnu.tools.Logger;
+
+/**
+ * Runs the periodic tasks of the simulation, such as generating new sensor values and toggling
+ * actuators, for all the nodes on a small shared pool of threads, instead of one thread per task.
+ * The number of threads follows the number of processors, not the number of nodes, so the tasks
+ * must not block: the node clients write what the tasks produce on the {@link SenderPool}.
+ *
+ * <p>A task which throws an exception is logged and keeps running, so one failing node doesn't
+ * stop the others or its own later runs.
+ */
+public class SimulationScheduler {
+  private static SimulationScheduler instance;
+
+  private final ScheduledThreadPoolExecutor executor;
+
+  /**
+   * Create a scheduler with its own threads.
+   *
+   * @param threadCount The number of threads running the tasks
+   */
+  public SimulationScheduler(int threadCount) {
+    if (threadCount <= 0) {
+      throw new IllegalArgumentException("A scheduler needs at least one thread");
+    }
+    AtomicInteger threadNumber = new AtomicInteger();
+    this.executor = new ScheduledThreadPoolExecutor(threadCount, task -> {
+      Thread thread = new Thread(task, "simulation-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    // Stopped nodes shouldn't leave their tasks behind in the queue
+    this.executor.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * Get the scheduler shared by all the nodes of the simulation.
+   *
+   * @return The shared scheduler
+   */
+  public static synchronized SimulationScheduler getInstance() {
+    if (instance == null) {
+      instance = new SimulationScheduler(Runtime.getRuntime().availableProcessors());
+    }
+    return instance;
+  }
+
+  /**
+   * Run a task periodically, at a fixed rate. Runs of the same task never overlap.
+   *
+   * @param task               The task to run
+   * @param initialDelayMillis The delay before the first run, in milliseconds
+   * @param periodMillis       The time between the start of two runs, in milliseconds
+   * @return The scheduled task, for cancelling it
+   */
+  public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelayMillis,
+                                                long periodMillis) {
+    if (task == null) {
+      throw new IllegalArgumentException("Task cannot be null");
+    }
+    if (periodMillis <= 0) {
+      throw new IllegalArgumentException("Period must be positive: " + periodMillis);
+    }
+    return executor.scheduleAtFixedRate(() -> runLogged(task),
+        Math.max(initialDelayMillis, 0), periodMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Run a task once, as soon as a thread is free.
+   *
+   * @param task The task to run
+   */
+  public void execute(Runnable task) {
+    if (task == null) {
+      throw new IllegalArgumentException("Task cannot be null");
+    }
+    executor.execute(() -> runLogged(task));
+  }
+
+  private static void runLogged(Runnable task) {
+    try {
+      task.run();
+    } catch (RuntimeException e) {
+      Logger.error("Error in a simulation task: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Get the number of tasks waiting for their next run.
+   *
+   * @return The number of scheduled tasks
+   */
+  public int getScheduledTaskCount() {
+    return executor.getQueue().size();
+  }
+
+  /** Stop the scheduler, cancelling all the tasks. */
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+}
@@ -1,35 +1,58 @@
 package no.ntnu.greenhouse;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.Socket;
 import java.nio.file.Files;
 import java.sql.SQLOutput;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import no.ntnu.listeners.common.ActuatorListener;
 import no.ntnu.listeners.greenhouse.NodeStateListener;
 import no.ntnu.listeners.greenhouse.SensorListener;
+import no.ntnu.protocol.BinaryCodec;
+import no.ntnu.protocol.ProtocolConnection;
+import no.ntnu.protocol.SensorDeltaEncoder;
+import no.ntnu.protocol.SensorTrace;
+import no.ntnu.tools.Backoff;
+import no.ntnu.tools.Logger;
 
 /**
  * A TCP client for a node to connect a sensor/actuator.
  */
 public class TcpSensorActuatorNodeClient
     implements SensorListener, ActuatorListener, NodeStateListener {
+  private static final long RECONNECT_INITIAL_DELAY_MILLIS = 100;
+  private static final long RECONNECT_MAX_DELAY_MILLIS = 10000;
 
   private boolean running;
   private Socket socket;
-  private PrintWriter writer;
-  private BufferedReader reader;
+  private volatile ProtocolConnection connection;
+  // Replaced before every new connection, since it holds what the server knows
+  private volatile SensorDeltaEncoder sensorEncoder = new SensorDeltaEncoder();
+  private boolean binaryProtocol = true;
+  private boolean deltaSensorData = true;
+  private boolean tracing = SensorTrace.isEnabled();
   private String ip;
   private int port;
   private final SensorActuatorNode node;
   private boolean stopped = false;
+  private final AtomicInteger nextTransferId = new AtomicInteger();
+  private final AtomicBoolean imageSendScheduled = new AtomicBoolean(false);
+  // The images requested and not sent yet, counting the one being sent
+  private final AtomicInteger imagesToSend = new AtomicInteger();
+  private final AtomicInteger connectionFailures = new AtomicInteger();
+  // Writes the updates of the simulation, so that its shared threads never block on the network
+  private final SenderPool.SerialSender sender = SenderPool.getInstance().createSender();
+  private final AtomicReference<PendingSensorData> pendingSensorData = new AtomicReference<>();
+  private final Backoff reconnectBackoff =
+      new Backoff(RECONNECT_INITIAL_DELAY_MILLIS, RECONNECT_MAX_DELAY_MILLIS);
 
   /**
    * Creates a new TCP client for a node to connect to a server.
@@ -56,12 +79,44 @@ public class TcpSensorActuatorNodeClient
     node.addStateListener(this);
   }
 
+  /**
+   * Set whether the client asks the server for the binary protocol when connecting. Must be
+   * called before the client is started.
+   *
+   * @param binaryProtocol True to use binary frames (the default), false to stay with text
+   */
+  public void setBinaryProtocol(boolean binaryProtocol) {
+    this.binaryProtocol = binaryProtocol;
+  }
+
+  /**
+   * Set whether sensor data is sent as changes since the previous update, when using the binary
+   * protocol. Must be called before the client is started.
+   *
+   * @param deltaSensorData True to send changes (the default), false to send all the readings
+   *                        every time
+   */
+  public void setDeltaSensorData(boolean deltaSensorData) {
+    this.deltaSensorData = deltaSensorData;
+  }
+
+  /**
+   * Set whether sensor data is sent with a trace, for measuring the time it takes to reach the
+   * control panels. Off by default, unless the system property
+   * {@value SensorTrace#ENABLED_PROPERTY} is true.
+   *
+   * @param tracing True to stamp every sensor update with the time its readings were taken
+   */
+  public void setTracing(boolean tracing) {
+    this.tracing = tracing;
+  }
+
   /**
    * Starts the TCP client and connects to the server.
    */
   public void run() {
     startConnection();
-    sendImageToServer();
+    scheduleImageSend();
     running = true;
     while (running) {
       receiveCommand();
@@ -77,41 +132,57 @@ public class TcpSensorActuatorNodeClient
       try {
         if (socket != null) {
           socket.close();
-          System.out.println("Attempting reconnect");
+          Logger.info("Attempting reconnect");
         }
-        Thread.sleep(2000);
         this.socket = new Socket(this.ip, this.port);
-        this.writer = new PrintWriter(this.socket.getOutputStream(), true);
-        this.reader = new BufferedReader(new InputStreamReader(this.socket.getInputStream()));
-        connected = true;
-        System.out.println(node.getId() + "connected to server");
+        this.sensorEncoder = new SensorDeltaEncoder();
+        this.connection =
+            new ProtocolConnection(this.socket.getInputStream(), this.socket.getOutputStream());
         sendId();
         sendNodeType();
+        List<String> received = List.of();
+        if (binaryProtocol) {
+          received = connection.negotiateBinary();
+        }
+        connected = true;
+        reconnectBackoff.reset();
+        Logger.info(node.getId() + "connected to server");
         sendNodeActuatorData();
+        received.forEach(this::handleInput);
       } catch (IOException e) {
-        System.out.println("Error connecting to server");
-      } catch (InterruptedException e) {
-        System.out.println("Error sleeping thread");
+        Logger.error("Error connecting to server");
+        connectionFailures.incrementAndGet();
+        waitBeforeReconnect();
       }
     }
   }
 
+  /**
+   * Wait before trying to connect again, longer after every failed attempt.
+   */
+  private void waitBeforeReconnect() {
+    try {
+      reconnectBackoff.await();
+    } catch (InterruptedException e) {
+      Logger.error("Interrupted while reconnecting, giving up");
+      Thread.currentThread().interrupt();
+      stopped = true;
+    }
+  }
+
   /**
    * Receives a command from the server.
    */
   private void receiveCommand() {
     try {
-      String command = reader.readLine();
-      if (command != null) {
-        handleInput(command);
-      }
+      handleInput(connection.readCommand());
     } catch (IOException e) {
-      System.out.println("Error reading command: " + e.getMessage());
+      Logger.error("Error reading command: " + e.getMessage());
       if (running) {
         startConnection();
       }
     } catch (NullPointerException e) {
-      System.out.println("Reader is null");
+      Logger.error("Reader is null");
     }
   }
 
@@ -121,7 +192,7 @@ public class TcpSensorActuatorNodeClient
    * @param command The command to handle
    */
   private void handleInput(String command) {
-    System.out.println("Received: " + command);
+    Logger.debug(() -> "Received: " + command);
     String[] parts = command.split("-");
     switch (parts[0]) {
       case "controlPanelUpdateActuator":
@@ -129,7 +200,7 @@ public class TcpSensorActuatorNodeClient
         break;
       case "controlPanelAdded":
         sendNodeActuatorData();
-        sendImageToServer();
+        scheduleImageSend();
         break;
       default:
         throw new RuntimeException("Unknown command: " + command);
@@ -185,24 +256,56 @@ public class TcpSensorActuatorNodeClient
   }
 
   /**
-   * Sends the updated sensor data to the server.
+   * Sends the updated sensor data to the server, in the background. When the connection falls
+   * behind, readings which haven't been sent yet are replaced by the newer ones.
    */
   private void sendUpdatedSensorData() {
-    StringBuilder builder = new StringBuilder();
-    builder.append("updateSensorData-");
-    builder.append(node.getId());
-    builder.append(";");
-    List<Sensor> sensors = node.getSensors();
-    for (Sensor sensor : sensors) {
-      SensorReading reading = sensor.getReading();
-      builder.append(reading.getType());
-      builder.append("=");
-      builder.append(reading.getValue());
-      builder.append(" ");
-      builder.append(reading.getUnit());
-      builder.append(",");
+    // Called right after the readings are taken, which is where the trace starts
+    SensorTrace trace = tracing ? SensorTrace.start() : null;
+    List<SensorReading> readings = new ArrayList<>();
+    for (Sensor sensor : node.getSensors()) {
+      readings.add(sensor.getReading());
+    }
+    if (pendingSensorData.getAndSet(new PendingSensorData(readings, trace)) == null) {
+      sendInBackground(this::sendPendingSensorData);
+    }
+  }
+
+  /**
+   * Sends the latest sensor data which hasn't been sent yet. Runs on the sender pool.
+   */
+  private void sendPendingSensorData() {
+    PendingSensorData pending = pendingSensorData.getAndSet(null);
+    ProtocolConnection current = connection;
+    if (current != null && current.isBinary()) {
+      sendSensorDataFrame(current, pending.readings, pending.trace);
+    } else {
+      sendCommand(BinaryCodec.formatSensorData(node.getId(), pending.readings, pending.trace));
+    }
+  }
+
+  /**
+   * Sends the sensor data as binary frames, either as the changes since the previous update or
+   * with the values as raw doubles instead of text.
+   *
+   * @param current  The connection to send the frames on
+   * @param readings The readings of all the sensors of the node
+   * @param trace    The trace of the readings, or null when they aren't traced
+   */
+  private void sendSensorDataFrame(ProtocolConnection current, List<SensorReading> readings,
+                                   SensorTrace trace) {
+    try {
+      if (deltaSensorData) {
+        // Read after the connection, so it is never older than the connection
+        for (byte[] frame : sensorEncoder.encode(node.getId(), readings, trace)) {
+          current.sendFrame(frame);
+        }
+      } else {
+        current.sendFrame(BinaryCodec.encodeSensorData(node.getId(), readings, trace));
+      }
+    } catch (IOException e) {
+      Logger.error("Error sending command: " + e.getMessage());
     }
-    sendCommand(builder.toString());
   }
 
   /**
@@ -221,14 +324,37 @@ public class TcpSensorActuatorNodeClient
     return actuatorCounts;
   }
 
+  /**
+   * Get the number of attempts to connect to the server which have failed so far, including the
+   * attempts to reconnect after losing the connection.
+   *
+   * @return The number of failed attempts
+   */
+  public int getConnectionFailures() {
+    return connectionFailures.get();
+  }
+
   /**
    * Stops the client.
    */
   public void stop() {
     this.running = false;
     this.stopped = true;
+    sender.shutdown();
+  }
+
+  /**
+   * Send to the server on the shared {@link SenderPool}, so that the caller, such as a task of
+   * the simulation, only touches memory. The sends are written in the order they are passed in,
+   * and dropped once the client has been stopped.
+   *
+   * @param send The send to run
+   */
+  private void sendInBackground(Runnable send) {
+    sender.execute(send);
   }
 
+
   /**
    * Send a command to the server.
    *
@@ -237,12 +363,13 @@ public class TcpSensorActuatorNodeClient
    */
   private boolean sendCommand(String command) {
     boolean sent = false;
-    if (writer != null && reader != null) {
+    ProtocolConnection current = connection;
+    if (current != null) {
       try {
-        writer.println(command);
+        current.send(command);
         sent = true;
       } catch (Exception e) {
-        System.out.println("Error sending command: " + e.getMessage());
+        Logger.error("Error sending command: " + e.getMessage());
       }
     }
     return sent;
@@ -277,26 +404,100 @@ public class TcpSensorActuatorNodeClient
     builder.append(actuator.getId());
     builder.append("=");
     builder.append(actuator.isOn());
-    sendCommand(builder.toString());
+    String command = builder.toString();
+    sendInBackground(() -> sendCommand(command));
+  }
+
+  /**
+   * Send the camera image to the server in the background, so that the thread reading from the
+   * server can go on. Requests arriving while an image is waiting to be sent are served by that
+   * image.
+   */
+  private void scheduleImageSend() {
+    if (imageSendScheduled.compareAndSet(false, true)) {
+      queueImage();
+    }
   }
 
   /**
-   * Sends the camera image to the server.
+   * Sends the camera image to the server, in the background.
    */
   public void sendImageToServer() {
+    queueImage();
+  }
+
+  /**
+   * Queue the sending of a camera image. The images are sent one at a time, since the server puts
+   * together one image of a node at a time.
+   */
+  private void queueImage() {
+    if (imagesToSend.getAndIncrement() == 0) {
+      sendInBackground(this::sendImage);
+    }
+  }
+
+  /**
+   * Sends the camera image to the server. Runs on the sender pool.
+   */
+  private void sendImage() {
+    // The image read now serves the requests so far
+    imageSendScheduled.set(false);
+    ProtocolConnection current = connection;
+    if (current != null && current.isBinary()) {
+      byte[] image = node.getCameraImage().getBytes();
+      int transferId = nextTransferId.getAndIncrement() & Integer.MAX_VALUE;
+      sendImageChunk(current, image, transferId, 0);
+    } else {
+      String base64 = node.getCameraImageAsBase64();
+
+      StringBuilder builder = new StringBuilder();
+      builder.append("sendCameraImage-");
+      builder.append(node.getId());
+      builder.append(";");
+      builder.append(base64);
+      sendCommand(builder.toString());
+      imageSent();
+    }
+  }
+
+  /**
+   * Sends a chunk of the camera image as raw bytes, and queues the next chunk behind whatever has
+   * been queued in the meantime. Each chunk is a frame and a send of its own, so sensor data and
+   * actuator updates are sent between the chunks instead of waiting for the whole image. An image
+   * whose connection has been replaced is abandoned, since the new connection hasn't seen its
+   * first chunks.
+   *
+   * @param current    The connection to send the chunks on
+   * @param image      The image
+   * @param transferId The ID of the transfer of the image
+   * @param offset     Where in the image the chunk starts
+   */
+  private void sendImageChunk(ProtocolConnection current, byte[] image, int transferId,
+                              int offset) {
+    boolean last = true;
     try {
-      Thread.sleep(2000);
-    } catch (InterruptedException e) {
-      throw new RuntimeException(e);
+      current.sendFrame(BinaryCodec.encodeImageChunk(node.getId(), transferId, image, offset));
+      int next = offset + BinaryCodec.IMAGE_CHUNK_SIZE;
+      last = next >= image.length || current != connection;
+      if (!last) {
+        sendInBackground(() -> sendImageChunk(current, image, transferId, next));
+      }
+    } catch (IOException e) {
+      Logger.error("Error sending command: " + e.getMessage());
+    } finally {
+      if (last) {
+        imageSent();
+      }
     }
-    String base64 = node.getCameraImageAsBase64();
+  }
 
-    StringBuilder builder = new StringBuilder();
-    builder.append("sendCameraImage-");
-    builder.append(node.getId());
-    builder.append(";");
-    builder.append(base64);
-    sendCommand(builder.toString());
+  /**
+   * Start on the next image once an image has been sent or abandoned.
+   */
+  private void imageSent() {
+    if (imagesToSend.decrementAndGet() > 0) {
+      sendInBackground(this::sendImage);
+    }
   }
 
   @Override
@@ -312,4 +513,17 @@ public class TcpSensorActuatorNodeClient
   private void sendNodeRemoved() {
     sendCommand("nodeRemoved-" + node.getId());
   }
+
+  /**
+   * Sensor readings waiting for the sender pool.
+   */
+  private static class PendingSensorData {
+    private final List<SensorReading> readings;
+    private final SensorTrace trace;
+
+    private PendingSensorData(List<SensorReading> readings, SensorTrace trace) {
+      this.readings = readings;
+      this.trace = trace;
+    }
+  }
 }
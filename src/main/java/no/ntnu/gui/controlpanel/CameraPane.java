@@ -41,11 +41,10 @@ public class CameraPane extends TitledPane {
   /**
    * Add an image to the camera pane.
    *
-   * @param data The image data
+   * @param data The image file, as raw bytes
    */
-  public void addImage(String data) {
-    byte[] decoded = java.util.Base64.getDecoder().decode(data);
-    Image image = new Image(new ByteArrayInputStream(decoded));
+  public void addImage(byte[] data) {
+    Image image = new Image(new ByteArrayInputStream(data));
     setContent(new HBox(new javafx.scene.image.ImageView(image)));
   }
 
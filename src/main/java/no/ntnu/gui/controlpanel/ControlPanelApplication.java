@@ -17,6 +17,7 @@ import javafx.stage.Stage;
 import no.ntnu.controlpanel.CommunicationChannel;
 import no.ntnu.controlpanel.ControlPanelLogic;
 import no.ntnu.controlpanel.SensorActuatorNodeInfo;
+import no.ntnu.controlpanel.SensorTracer;
 import no.ntnu.greenhouse.Actuator;
 import no.ntnu.greenhouse.SensorReading;
 import no.ntnu.gui.common.ActuatorPane;
@@ -107,10 +108,15 @@ public class ControlPanelApplication extends Application implements GreenhouseEv
 
   @Override
   public void onSensorData(int nodeId, List<SensorReading> sensors) {
-    Logger.info("Sensor data from node " + nodeId);
+    Logger.debug(() -> "Sensor data from node " + nodeId);
     SensorPane sensorPane = sensorPanes.get(nodeId);
     if (sensorPane != null) {
       sensorPane.update(sensors);
+      SensorTracer tracer = logic.getSensorTracer();
+      if (tracer.isPending(nodeId)) {
+        // Runs after the label updates posted by the pane
+        Platform.runLater(() -> tracer.rendered(nodeId));
+      }
     } else {
       Logger.error("No sensor section for node " + nodeId);
     }
@@ -139,16 +145,17 @@ public class ControlPanelApplication extends Application implements GreenhouseEv
   }
 
   @Override
-  public void onPictureTaken(int nodeId, String data) {
+  public void onPictureTaken(int nodeId, byte[] image) {
     Logger.info("Picture taken from node " + nodeId);
-    CameraPane cameraPane = cameraPanes.get(nodeId);
-    if (cameraPane != null) {
-      Platform.runLater(() -> {
-        cameraPane.addImage(data);
-      });
-    } else {
-      Logger.error("No camera section for node " + nodeId);
-    }
+    // Looked up on the UI thread, after the tab of a node added just before has been created
+    Platform.runLater(() -> {
+      CameraPane cameraPane = cameraPanes.get(nodeId);
+      if (cameraPane != null) {
+        cameraPane.addImage(image);
+      } else {
+        Logger.error("No camera section for node " + nodeId);
+      }
+    });
   }
 
   private Actuator getStoredActuator(int nodeId, int actuatorId) {
@@ -174,6 +181,8 @@ public class ControlPanelApplication extends Application implements GreenhouseEv
   private void addNodeTab(SensorActuatorNodeInfo nodeInfo) {
     if (nodeTabPane == null) {
       nodeTabPane = new TabPane();
+      nodeTabPane.getSelectionModel().selectedItemProperty().addListener(
+          (observable, hiddenTab, shownTab) -> onTabSelected(hiddenTab, shownTab));
       mainScene.setRoot(nodeTabPane);
     }
     Tab nodeTab = nodeTabs.get(nodeInfo.getId());
@@ -186,8 +195,24 @@ public class ControlPanelApplication extends Application implements GreenhouseEv
     }
   }
 
+  /**
+   * Tell the logic which node is shown when another tab is selected.
+   *
+   * @param hiddenTab The tab which was selected before, or null
+   * @param shownTab  The tab which is selected now, or null
+   */
+  private void onTabSelected(Tab hiddenTab, Tab shownTab) {
+    if (hiddenTab != null) {
+      logic.nodeHidden((Integer) hiddenTab.getUserData());
+    }
+    if (shownTab != null) {
+      logic.nodeShown((Integer) shownTab.getUserData());
+    }
+  }
+
   private Tab createNodeTab(SensorActuatorNodeInfo nodeInfo) {
     Tab tab = new Tab("Node " + nodeInfo.getId());
+    tab.setUserData(nodeInfo.getId());
     SensorPane sensorPane = createEmptySensorPane();
     System.out.println("NodeInfo: " + nodeInfo.getId());
     sensorPanes.put(nodeInfo.getId(), sensorPane);
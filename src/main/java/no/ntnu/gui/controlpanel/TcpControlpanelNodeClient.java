@@ -1,33 +1,65 @@
 package no.ntnu.gui.controlpanel;
 
-import static no.ntnu.tools.Parser.parseDoubleOrError;
+import no.ntnu.tools.Logger;
 import static no.ntnu.tools.Parser.parseIntegerOrError;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.Socket;
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.util.Base64;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import no.ntnu.controlpanel.ControlPanelLogic;
+import no.ntnu.controlpanel.EventDispatcher;
 import no.ntnu.controlpanel.SensorActuatorNodeInfo;
+import no.ntnu.controlpanel.SensorDataParser;
+import no.ntnu.controlpanel.SensorTracer;
 import no.ntnu.greenhouse.Actuator;
 import no.ntnu.greenhouse.SensorReading;
 import no.ntnu.listeners.controlpanel.GreenhouseEventListener;
+import no.ntnu.listeners.controlpanel.NodeViewListener;
+import no.ntnu.protocol.BinaryCodec;
+import no.ntnu.protocol.FrameReader;
+import no.ntnu.protocol.ImageAssembler;
+import no.ntnu.protocol.ImageChunk;
+import no.ntnu.protocol.Opcode;
+import no.ntnu.protocol.ProtocolConnection;
+import no.ntnu.protocol.SensorTrace;
+import no.ntnu.tools.Backoff;
 
 /** A TCP client for a control panel node. */
-public class TcpControlpanelNodeClient implements GreenhouseEventListener {
+public class TcpControlpanelNodeClient implements GreenhouseEventListener, NodeViewListener {
+  private static final String SENSOR_DATA_PREFIX = "updateSensorData-";
+  // Delay before new nodes and sensor data are shown
+  private static final long EVENT_DELAY_MILLIS = 1000;
+  private static final long RECONNECT_INITIAL_DELAY_MILLIS = 100;
+  private static final long RECONNECT_MAX_DELAY_MILLIS = 10000;
+
   ControlPanelLogic logic;
   String ip;
   int port;
   Socket socket;
-  PrintWriter writer;
-  BufferedReader reader;
+  volatile ProtocolConnection connection;
   boolean running;
   boolean stopped = false;
+  boolean binaryProtocol = true;
+  boolean conflation = false;
+  boolean shownNodesOnly = false;
+  // The nodes shown by the control panel, subscribed to again after reconnecting
+  private final Set<Integer> shownNodes = ConcurrentHashMap.newKeySet();
+  private final SensorDataParser sensorDataParser = new SensorDataParser();
+  private final EventDispatcher dispatcher = EventDispatcher.getInstance();
+  // The trace of the sensor data being parsed, only used by the thread reading from the server
+  private SensorTrace parsedTrace;
+  // The parser reuses its readings for the next message, so the dispatched ones are a copy
+  private final SensorDataParser.Handler sensorDataHandler = (nodeId, sensors) ->
+      scheduleSensorData(nodeId, SensorDataParser.copyReadings(sensors), parsedTrace);
+  private final ImageAssembler imageAssembler = new ImageAssembler();
+  private final AtomicInteger connectionFailures = new AtomicInteger();
+  private final Backoff reconnectBackoff =
+      new Backoff(RECONNECT_INITIAL_DELAY_MILLIS, RECONNECT_MAX_DELAY_MILLIS);
 
   /**
    * Create a new TCP client for a control panel node.
@@ -50,6 +82,40 @@ public class TcpControlpanelNodeClient implements GreenhouseEventListener {
     this.ip = ip;
     this.port = port;
     logic.addListener(this);
+    logic.addNodeViewListener(this);
+  }
+
+  /**
+   * Set whether the client asks the server for the binary protocol when connecting. Must be
+   * called before the client is started.
+   *
+   * @param binaryProtocol True to use binary frames (the default), false to stay with text
+   */
+  public void setBinaryProtocol(boolean binaryProtocol) {
+    this.binaryProtocol = binaryProtocol;
+  }
+
+  /**
+   * Set whether the server may conflate the messages to this panel: when the panel falls behind,
+   * it then gets only the latest sensor data of each node and the latest state of each actuator,
+   * instead of every update in between. Must be called before the client is started.
+   *
+   * @param conflation True to let the server conflate, false to get every update (the default)
+   */
+  public void setConflation(boolean conflation) {
+    this.conflation = conflation;
+  }
+
+  /**
+   * Set whether the client only gets the updates of the nodes the control panel is showing, by
+   * subscribing to them as they are shown. Other nodes are still added and removed. Must be
+   * called before the client is started.
+   *
+   * @param shownNodesOnly True to subscribe to the shown nodes only, false to get the updates of
+   *                       all nodes (the default)
+   */
+  public void setShownNodesOnly(boolean shownNodesOnly) {
+    this.shownNodesOnly = shownNodesOnly;
   }
 
   /** Starts the TCP client and connects to the server. */
@@ -68,41 +134,127 @@ public class TcpControlpanelNodeClient implements GreenhouseEventListener {
       try {
         if (socket != null) {
           socket.close();
-          System.out.println("Attempting reconnect");
+          Logger.info("Attempting reconnect");
         }
-        Thread.sleep(2000);
         socket = new Socket(ip, port);
-        writer = new PrintWriter(socket.getOutputStream(), true);
-        reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        connection = new ProtocolConnection(socket.getInputStream(), socket.getOutputStream());
         sendCommand("setNodeType-ControlPanel");
+        if (conflation) {
+          sendCommand("setConflation-true");
+        }
+        if (shownNodesOnly) {
+          sendSubscriptions();
+        }
+        List<String> received = List.of();
+        if (binaryProtocol) {
+          received = connection.negotiateBinary();
+        }
         sendCommand("controlPanelAdded");
         connected = true;
-        System.out.println("Connected to the server.");
+        reconnectBackoff.reset();
+        Logger.info("Connected to the server.");
+        received.forEach(this::handleInput);
       } catch (IOException e) {
-        System.out.println("Error connecting to server: " + e.getMessage());
-      } catch (InterruptedException e) {
-        System.out.println("Error sleeping: " + e.getMessage());
+        Logger.error("Error connecting to server: " + e.getMessage());
+        connectionFailures.incrementAndGet();
+        waitBeforeReconnect();
       }
     }
   }
 
+  /** Subscribe to the shown nodes only, instead of all nodes. */
+  private void sendSubscriptions() {
+    sendCommand("unsubscribe-*");
+    if (!shownNodes.isEmpty()) {
+      StringBuilder command = new StringBuilder("subscribe-");
+      for (int nodeId : shownNodes) {
+        command.append(nodeId).append(',');
+      }
+      command.setLength(command.length() - 1);
+      sendCommand(command.toString());
+    }
+  }
+
+  /** Wait before trying to connect again, longer after every failed attempt. */
+  private void waitBeforeReconnect() {
+    try {
+      reconnectBackoff.await();
+    } catch (InterruptedException e) {
+      Logger.error("Interrupted while reconnecting, giving up");
+      Thread.currentThread().interrupt();
+      stopped = true;
+    }
+  }
+
   /** Receives a command from the server. */
   private void receiveCommand() {
     try {
-      if (reader != null) {
-        String command = reader.readLine();
-        if (command != null) {
-          handleInput(command);
+      ProtocolConnection current = connection;
+      if (current != null) {
+        if (current.isBinary()) {
+          handleFrame(current.readFrame());
+        } else {
+          handleInput(current.readLine());
         }
       }
 
     } catch (IOException e) {
-      System.out.println("Error reading command: " + e.getMessage());
+      Logger.error("Error reading command: " + e.getMessage());
       if (running) {
         startConnection();
       }
     } catch (NullPointerException e) {
-      System.out.println("Reader is null");
+      Logger.error("Reader is null");
+    }
+  }
+
+  /**
+   * Handles a binary frame from the server. Sensor data is read straight into sensor readings and
+   * images into raw bytes, everything else is handled as the corresponding text command.
+   *
+   * @param payload The payload of the frame, starting with the opcode
+   * @throws IOException When the frame is malformed
+   */
+  private void handleFrame(ByteBuffer payload) throws IOException {
+    int nodeId = -1;
+    List<SensorReading> sensors = null;
+    SensorTrace trace = null;
+    ImageChunk chunk = null;
+    byte[] image = null;
+    String command = null;
+    try {
+      FrameReader frame = new FrameReader(payload.duplicate());
+      if (frame.getOpcode() == Opcode.UPDATE_SENSOR_DATA) {
+        nodeId = frame.readVarint();
+        sensors = BinaryCodec.readSensorReadings(frame);
+        trace = SensorTrace.read(frame);
+      } else if (frame.getOpcode() == Opcode.IMAGE_CHUNK) {
+        chunk = BinaryCodec.readImageChunk(frame);
+      } else if (frame.getOpcode() == Opcode.SEND_CAMERA_IMAGE) {
+        nodeId = frame.readVarint();
+        image = frame.readRemainingBytes();
+      } else {
+        command = BinaryCodec.decode(payload);
+      }
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Malformed frame: " + e.getMessage());
+    }
+    // The messages are only built when debugging, since this runs for every frame
+    int senderId = chunk != null ? chunk.getNodeId() : nodeId;
+    if (sensors != null) {
+      Logger.debug(() -> "Received: sensor data from node " + senderId);
+      scheduleSensorData(senderId, sensors, trace);
+    } else if (chunk != null) {
+      byte[] assembled = imageAssembler.add(chunk);
+      if (assembled != null) {
+        Logger.debug(() -> "Received: image from node " + senderId);
+        advertisePicture(senderId, assembled);
+      }
+    } else if (image != null) {
+      Logger.debug(() -> "Received: image from node " + senderId);
+      advertisePicture(senderId, image);
+    } else {
+      handleInput(command);
     }
   }
 
@@ -112,31 +264,44 @@ public class TcpControlpanelNodeClient implements GreenhouseEventListener {
    * @param inputLine The input to handle
    */
   private void handleInput(String inputLine) {
-    System.out.println("Received: " + inputLine);
+    Logger.debug(() -> "Received: " + inputLine);
+    if (inputLine.startsWith(SENSOR_DATA_PREFIX)) {
+      // By far the most frequent message, parsed without splitting it up first
+      parseSensorData(inputLine, SENSOR_DATA_PREFIX.length());
+    } else {
+      handleCommand(inputLine);
+    }
+  }
+
+  /**
+   * Handles a command from the server, other than sensor data.
+   *
+   * @param inputLine The command to handle
+   */
+  private void handleCommand(String inputLine) {
     List<String> inputParts = List.of(inputLine.split("-"));
     switch (inputParts.get(0)) {
       case "nodeAdded":
         spawnNode(inputParts.get(1));
         break;
-      case "updateSensorData":
-        advertiseSensorData(inputParts.get(1));
-        break;
       case "actuatorUpdated":
         advertiseActuatorChange(inputParts.get(1));
         break;
       case "nodeRemoved":
         int nodeId =
             parseIntegerOrError(inputParts.get(1), "Invalid node ID: " + inputParts.get(1));
-        logic.onNodeRemoved(nodeId);
+        sensorDataParser.forgetNode(nodeId);
+        imageAssembler.forgetNode(nodeId);
+        dispatcher.execute(nodeId, () -> logic.onNodeRemoved(nodeId));
         break;
       case "sendCameraImage":
         String[] nodeIdAsString = inputParts.get(1).split(";");
         int nodeId2 = parseIntegerOrError(
             nodeIdAsString[0], "Invalid node ID: " + inputParts.get(1));
-        logic.onPictureTaken(nodeId2, nodeIdAsString[1]);
+        advertisePicture(nodeId2, Base64.getDecoder().decode(nodeIdAsString[1]));
         break;
       default:
-        System.out.println("Unknown command: " + inputParts.get(0));
+        Logger.error("Unknown command: " + inputParts.get(0));
     }
   }
 
@@ -151,57 +316,44 @@ public class TcpControlpanelNodeClient implements GreenhouseEventListener {
     if (specification == null || specification.isEmpty()) {
       throw new IllegalArgumentException("Sensor specification can't be empty");
     }
-    String[] parts = specification.split(";");
-    if (parts.length != 2) {
-      throw new IllegalArgumentException("Incorrect specification format: " + specification);
-    }
-    int nodeId = parseIntegerOrError(parts[0], "Invalid node ID:" + parts[0]);
-    List<SensorReading> sensors = parseSensors(parts[1]);
-    Timer timer = new Timer();
-    timer.schedule(
-        new TimerTask() {
-          @Override
-          public void run() {
-            logic.onSensorData(nodeId, sensors);
-          }
-        },
-        1000L);
+    parseSensorData(specification, 0);
   }
 
   /**
-   * Parse the sensor readings from the specification.
+   * Parse sensor data, with the trace it may end with, and schedule it.
    *
-   * @param sensorInfo The sensor information to parse
-   * @return A list of sensor readings
+   * @param text  The text containing the sensor data
+   * @param start Where in the text the sensor data (the node ID) starts
    */
-  private List<SensorReading> parseSensors(String sensorInfo) {
-    List<SensorReading> readings = new LinkedList<>();
-    String[] readingInfo = sensorInfo.split(",");
-    for (String reading : readingInfo) {
-      readings.add(parseReading(reading));
+  private void parseSensorData(String text, int start) {
+    try {
+      parsedTrace = SensorTrace.parse(text);
+    } catch (IllegalArgumentException e) {
+      Logger.debug(() -> "Ignoring malformed trace: " + e.getMessage());
+      parsedTrace = null;
     }
-    return readings;
+    sensorDataParser.parse(text, start, sensorDataHandler);
   }
 
   /**
-   * Parse a sensor reading from a string.
+   * Pass new sensor readings on to the logic after a given delay. Traced readings are recorded in
+   * the {@link SensorTracer} of the logic as they are passed on.
    *
-   * @param reading The reading to parse
-   * @return A sensor reading
+   * @param nodeId  The ID of the node the readings come from
+   * @param sensors The sensor readings
+   * @param trace   The trace the readings arrived with, or null when they aren't traced
    */
-  private SensorReading parseReading(String reading) {
-    String[] assignmentParts = reading.split("=");
-    if (assignmentParts.length != 2) {
-      throw new IllegalArgumentException("Invalid sensor reading specified: " + reading);
-    }
-    String[] valueParts = assignmentParts[1].split(" ");
-    if (valueParts.length != 2) {
-      throw new IllegalArgumentException("Invalid sensor value/unit: " + reading);
+  private void scheduleSensorData(int nodeId, List<SensorReading> sensors, SensorTrace trace) {
+    if (trace == null) {
+      dispatcher.schedule(nodeId, () -> logic.onSensorData(nodeId, sensors), EVENT_DELAY_MILLIS);
+    } else {
+      long receivedMicros = SensorTrace.nowMicros();
+      SensorTracer tracer = logic.getSensorTracer();
+      dispatcher.schedule(nodeId, () -> {
+        tracer.dispatched(nodeId, trace, receivedMicros);
+        logic.onSensorData(nodeId, sensors);
+      }, EVENT_DELAY_MILLIS);
     }
-    String sensorType = assignmentParts[0];
-    double value = parseDoubleOrError(valueParts[0], "Invalid sensor value: " + valueParts[0]);
-    String unit = valueParts[1];
-    return new SensorReading(sensorType, value, unit);
   }
 
   /**
@@ -213,25 +365,20 @@ public class TcpControlpanelNodeClient implements GreenhouseEventListener {
    */
   public void spawnNode(String specification) {
     SensorActuatorNodeInfo nodeInfo = createSensorNodeInfoFrom(specification);
-    Timer timer = new Timer();
-    timer.schedule(
-        new TimerTask() {
-          @Override
-          public void run() {
-            System.out.println("Spawning node " + specification);
-            logic.onNodeAdded(nodeInfo);
-          }
-        },
-        1000L);
+    dispatcher.schedule(nodeInfo.getId(), () -> {
+      Logger.info("Spawning node " + specification);
+      logic.onNodeAdded(nodeInfo);
+    }, EVENT_DELAY_MILLIS);
   }
 
   /**
-   * Create a sensor/actuator node information from a specification.
+   * Create a sensor/actuator node information from a specification. The actuators report their
+   * changes to the logic of the control panel.
    *
-   * @param specification The specification of the node
+   * @param specification The specification of the node, as in {@link #spawnNode(String)}
    * @return A sensor/actuator node information
    */
-  private SensorActuatorNodeInfo createSensorNodeInfoFrom(String specification) {
+  public SensorActuatorNodeInfo createSensorNodeInfoFrom(String specification) {
     if (specification == null || specification.isEmpty()) {
       throw new IllegalArgumentException("Node specification can't be empty");
     }
@@ -302,8 +449,18 @@ public class TcpControlpanelNodeClient implements GreenhouseEventListener {
     sendActuatorChange(nodeId, actuatorId, isOn);
   }
 
+  /**
+   * Pass a camera image on to the logic.
+   *
+   * @param nodeId The ID of the node with the camera
+   * @param image  The image file, as raw bytes
+   */
+  private void advertisePicture(int nodeId, byte[] image) {
+    dispatcher.execute(nodeId, () -> logic.onPictureTaken(nodeId, image));
+  }
+
   private void sendActuatorChange(int nodeId, int actuatorId, boolean isOn) {
-    logic.onActuatorStateChanged(nodeId, actuatorId, isOn);
+    dispatcher.execute(nodeId, () -> logic.onActuatorStateChanged(nodeId, actuatorId, isOn));
   }
 
   /**
@@ -314,12 +471,13 @@ public class TcpControlpanelNodeClient implements GreenhouseEventListener {
    */
   private boolean sendCommand(String command) {
     boolean sent = false;
-    if (writer != null && reader != null) {
+    ProtocolConnection current = connection;
+    if (current != null) {
       try {
-        writer.println(command);
+        current.send(command);
         sent = true;
       } catch (Exception e) {
-        System.out.println("Error sending command: " + e.getMessage());
+        Logger.error("Error sending command: " + e.getMessage());
       }
     }
     return sent;
@@ -370,10 +528,46 @@ public class TcpControlpanelNodeClient implements GreenhouseEventListener {
   }
 
   @Override
-  public void onPictureTaken(int nodeId, String data) {
+  public void onPictureTaken(int nodeId, byte[] image) {
 
   }
 
+  /**
+   * Called when the control panel shows a node. Subscribes to its updates, when only the shown
+   * nodes are to be updated.
+   *
+   * @param nodeId The ID of the node
+   */
+  @Override
+  public void onNodeShown(int nodeId) {
+    if (shownNodesOnly && shownNodes.add(nodeId)) {
+      sendCommand("subscribe-" + nodeId);
+    }
+  }
+
+  /**
+   * Called when the control panel no longer shows a node. Unsubscribes from its updates, when
+   * only the shown nodes are to be updated.
+   *
+   * @param nodeId The ID of the node
+   */
+  @Override
+  public void onNodeHidden(int nodeId) {
+    if (shownNodesOnly && shownNodes.remove(nodeId)) {
+      sendCommand("unsubscribe-" + nodeId);
+    }
+  }
+
+  /**
+   * Get the number of attempts to connect to the server which have failed so far, including the
+   * attempts to reconnect after losing the connection.
+   *
+   * @return The number of failed attempts
+   */
+  public int getConnectionFailures() {
+    return connectionFailures.get();
+  }
+
   /** Stops the client. */
   public void stop() {
     this.running = false;
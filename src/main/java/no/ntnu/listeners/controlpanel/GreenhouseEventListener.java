@@ -46,8 +46,11 @@ public interface GreenhouseEventListener {
 
   /**
    * This event is fired when a camera takes a picture.
+   *
+   * @param nodeId ID of the node with the camera
+   * @param image  The image file, as raw bytes
    */
-  void onPictureTaken(int nodeId, String data);
+  void onPictureTaken(int nodeId, byte[] image);
 
 
 }
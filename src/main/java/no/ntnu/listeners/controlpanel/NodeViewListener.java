@@ -0,0 +1,21 @@
+package no.ntnu.listeners.controlpanel;
+
+/**
+ * Listener of which nodes the user of a control panel is looking at, for example to only ask the
+ * server for the updates of those nodes.
+ */
+public interface NodeViewListener {
+  /**
+   * This event is fired when a node is shown, such as when its tab is selected.
+   *
+   * @param nodeId ID of the node
+   */
+  void onNodeShown(int nodeId);
+
+  /**
+   * This event is fired when a node is no longer shown.
+   *
+   * @param nodeId ID of the node
+   */
+  void onNodeHidden(int nodeId);
+}
@@ -0,0 +1,495 @@
+package no.ntnu.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import no.ntnu.controlpanel.ControlPanelLogic;
+import no.ntnu.controlpanel.SensorActuatorNodeInfo;
+import no.ntnu.controlpanel.SensorTracer;
+import no.ntnu.greenhouse.Actuator;
+import no.ntnu.greenhouse.DeviceFactory;
+import no.ntnu.greenhouse.SensorActuatorNode;
+import no.ntnu.greenhouse.SensorReading;
+import no.ntnu.greenhouse.TcpSensorActuatorNodeClient;
+import no.ntnu.gui.controlpanel.TcpControlpanelNodeClient;
+import no.ntnu.listeners.controlpanel.GreenhouseEventListener;
+import no.ntnu.server.TcpServer;
+import no.ntnu.tools.Counter;
+import no.ntnu.tools.LatencyHistogram;
+import no.ntnu.tools.Logger;
+import no.ntnu.tools.MetricsRegistry;
+import no.ntnu.tools.MetricsSnapshot;
+import no.ntnu.tools.VirtualThreads;
+
+/**
+ * Puts load on a greenhouse server with many simulated sensor/actuator nodes and control panels,
+ * without a GUI, to find out how much the server can take. The nodes and panels are the real
+ * clients, connected over TCP, but instead of the periodic sensing of the simulation the nodes
+ * send their sensor data and camera images at the rates given, and the panels turn actuators of
+ * random nodes on and off at the rate given.
+ *
+ * <p>The clients are connected one by one over the ramp-up time, then the load runs for the
+ * duration given. The throughput is counted from the start of the load until the data sent has
+ * had time to arrive: what the nodes and panels sent, what the nodes applied, and what the panels
+ * received. The sensor data is traced, so the latencies of its hops are recorded by a
+ * {@link SensorTracer} shared by the panels, and the round trip of an actuator command, from the
+ * panel sending it to a panel receiving the update of the node, is recorded as
+ * actuator.roundTrip. The panels pass the events of a node on in order, so the round trip
+ * includes the time the update waits behind sensor data which the panel delays on purpose.
+ */
+public class LoadGenerator {
+  // Longer than the delay of the panels before they pass sensor data on
+  private static final long SETTLE_MILLIS = 2000;
+  private static final long SERVER_CHECK_MILLIS = 1000;
+
+  private String host = "127.0.0.1";
+  private int port = TcpServer.PORT_NUMBER;
+  private int nodeCount = 10;
+  private int panelCount = 2;
+  private int sensorsPerNode = 4;
+  private int actuatorsPerNode = 3;
+  private double sensorRate = 1;
+  private double actuatorRate = 0.5;
+  private double imageRate = 0;
+  private boolean binaryProtocol = true;
+  private int rampUpSeconds = 5;
+  private int durationSeconds = 30;
+  private int progressSeconds = 5;
+  private ServerProcess server;
+
+  private final MetricsRegistry metrics = new MetricsRegistry();
+  private final Counter sensorSent = metrics.counter("sensor.sent");
+  private final Counter sensorReceived = metrics.counter("sensor.received");
+  private final Counter actuatorSent = metrics.counter("actuator.sent");
+  private final Counter actuatorApplied = metrics.counter("actuator.applied");
+  private final Counter actuatorReceived = metrics.counter("actuator.received");
+  private final Counter imageSent = metrics.counter("image.sent");
+  private final Counter imageReceived = metrics.counter("image.received");
+  private final LatencyHistogram actuatorRoundTrip = metrics.histogram("actuator.roundTrip");
+  private final SensorTracer tracer = new SensorTracer();
+  private final List<SimulatedNode> nodes = new ArrayList<>();
+  private final List<TcpControlpanelNodeClient> panels = new ArrayList<>();
+  // The latest command sent to each actuator, by node and actuator ID, until its update arrives
+  private final ConcurrentMap<Long, PendingCommand> pendingCommands = new ConcurrentHashMap<>();
+  private ScheduledThreadPoolExecutor executor;
+
+  /**
+   * Set the server to connect to, when it isn't run by the generator.
+   *
+   * @param host The address of the server
+   * @param port The port of the server
+   */
+  public void setAddress(String host, int port) {
+    if (host == null) {
+      throw new IllegalArgumentException("Host cannot be null");
+    }
+    if (port < 0 || port > 65535) {
+      throw new IllegalArgumentException("Invalid port number: " + port);
+    }
+    this.host = host;
+    this.port = port;
+  }
+
+  /**
+   * Set the server process the load is put on. Its threads and heap are reported, and the load
+   * stops early if it exits. The generator connects to it on the local host.
+   *
+   * @param server The server, started already
+   */
+  public void setServer(ServerProcess server) {
+    this.server = server;
+    setAddress("127.0.0.1", TcpServer.PORT_NUMBER);
+  }
+
+  /**
+   * Set the number of clients.
+   *
+   * @param nodeCount  The number of sensor/actuator nodes (10 by default)
+   * @param panelCount The number of control panels (2 by default)
+   */
+  public void setClientCounts(int nodeCount, int panelCount) {
+    if (nodeCount < 0 || panelCount < 0) {
+      throw new IllegalArgumentException("Client counts cannot be negative");
+    }
+    this.nodeCount = nodeCount;
+    this.panelCount = panelCount;
+  }
+
+  /**
+   * Set the devices of every node.
+   *
+   * @param sensors   The number of sensors, half of them temperature sensors and half humidity
+   *                  sensors (4 by default)
+   * @param actuators The number of actuators, windows, fans and heaters in turn (3 by default)
+   */
+  public void setDevicesPerNode(int sensors, int actuators) {
+    if (sensors < 0 || actuators < 0) {
+      throw new IllegalArgumentException("Device counts cannot be negative");
+    }
+    this.sensorsPerNode = sensors;
+    this.actuatorsPerNode = actuators;
+  }
+
+  /**
+   * Set how often every node sends its sensor data.
+   *
+   * @param perSecond Updates per second per node, or zero for none (1 by default)
+   */
+  public void setSensorRate(double perSecond) {
+    this.sensorRate = checkRate(perSecond);
+  }
+
+  /**
+   * Set how often every panel sends an actuator command.
+   *
+   * @param perSecond Commands per second per panel, or zero for none (0.5 by default)
+   */
+  public void setActuatorRate(double perSecond) {
+    this.actuatorRate = checkRate(perSecond);
+  }
+
+  /**
+   * Set how often every node sends its camera image, on top of the image sent on connecting.
+   *
+   * @param perSecond Images per second per node, or zero for none (the default)
+   */
+  public void setImageRate(double perSecond) {
+    this.imageRate = checkRate(perSecond);
+  }
+
+  private static double checkRate(double perSecond) {
+    if (perSecond < 0 || Double.isNaN(perSecond)) {
+      throw new IllegalArgumentException("Invalid rate: " + perSecond);
+    }
+    return perSecond;
+  }
+
+  /**
+   * Set whether the clients use the binary protocol.
+   *
+   * @param binaryProtocol True for binary frames (the default), false for text
+   */
+  public void setBinaryProtocol(boolean binaryProtocol) {
+    this.binaryProtocol = binaryProtocol;
+  }
+
+  /**
+   * Set how long the test takes.
+   *
+   * @param rampUpSeconds   The time over which the clients are connected (5 by default)
+   * @param durationSeconds The time the load runs once they are connected (30 by default)
+   * @param progressSeconds The time between two progress messages (5 by default)
+   */
+  public void setTimes(int rampUpSeconds, int durationSeconds, int progressSeconds) {
+    if (rampUpSeconds < 0 || durationSeconds <= 0 || progressSeconds <= 0) {
+      throw new IllegalArgumentException("Invalid test times");
+    }
+    this.rampUpSeconds = rampUpSeconds;
+    this.durationSeconds = durationSeconds;
+    this.progressSeconds = progressSeconds;
+  }
+
+  /**
+   * Run the test: connect the clients, put the load on the server, and disconnect the clients.
+   *
+   * @return The report of the test
+   * @throws InterruptedException When interrupted while waiting for the test to end
+   */
+  public LoadReport run() throws InterruptedException {
+    Logger.info("Connecting " + nodeCount + " nodes and " + panelCount + " control panels to "
+        + host + ":" + port);
+    executor = createExecutor();
+    connectClients();
+    metrics.gauge("connections.failed", this::countConnectionFailures);
+    Thread.sleep(SETTLE_MILLIS);
+
+    Logger.info("Running the load for " + durationSeconds + " s");
+    MetricsSnapshot start = metrics.snapshot();
+    long startNanos = System.nanoTime();
+    List<ScheduledFuture<?>> tasks = scheduleLoad();
+    metrics.startSnapshots(progressSeconds * 1000L, this::logProgress);
+    awaitEnd(startNanos + TimeUnit.SECONDS.toNanos(durationSeconds));
+    for (ScheduledFuture<?> task : tasks) {
+      task.cancel(false);
+    }
+    long elapsedNanos = System.nanoTime() - startNanos;
+    Thread.sleep(SETTLE_MILLIS);
+    metrics.stopSnapshots();
+
+    LoadReport report = new LoadReport(describe(), elapsedNanos, start, metrics.snapshot(),
+        tracer.getMetrics().snapshot(), server);
+    disconnectClients();
+    return report;
+  }
+
+  private static ScheduledThreadPoolExecutor createExecutor() {
+    AtomicInteger threadNumber = new AtomicInteger();
+    return new ScheduledThreadPoolExecutor(Runtime.getRuntime().availableProcessors(), task -> {
+      Thread thread = new Thread(task, "load-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Create and connect the clients, the panels first, spread over the ramp-up time. Every client
+   * runs on a thread of its own, a virtual one when the JVM supports it.
+   */
+  private void connectClients() throws InterruptedException {
+    ThreadFactory threads = createClientThreadFactory();
+    int clientCount = nodeCount + panelCount;
+    long intervalNanos = clientCount == 0 ? 0
+        : TimeUnit.SECONDS.toNanos(rampUpSeconds) / clientCount;
+    long startNanos = System.nanoTime();
+    for (int i = 0; i < clientCount; ++i) {
+      long waitNanos = startNanos + i * intervalNanos - System.nanoTime();
+      if (waitNanos > 0) {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      }
+      if (i < panelCount) {
+        TcpControlpanelNodeClient panel = createPanel();
+        panels.add(panel);
+        threads.newThread(panel::run).start();
+      } else {
+        SimulatedNode node = createNode();
+        nodes.add(node);
+        threads.newThread(node.client::run).start();
+      }
+    }
+  }
+
+  private static ThreadFactory createClientThreadFactory() {
+    ThreadFactory factory;
+    if (VirtualThreads.isSupported()) {
+      factory = VirtualThreads.createFactory("load-client-");
+    } else {
+      AtomicInteger threadNumber = new AtomicInteger();
+      factory = task -> {
+        Thread thread = new Thread(task, "load-client-" + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      };
+    }
+    return factory;
+  }
+
+  private TcpControlpanelNodeClient createPanel() {
+    ControlPanelLogic logic = new ControlPanelLogic(tracer);
+    logic.addListener(new PanelListener());
+    TcpControlpanelNodeClient client = new TcpControlpanelNodeClient(host, port, logic);
+    client.setBinaryProtocol(binaryProtocol);
+    return client;
+  }
+
+  private SimulatedNode createNode() {
+    int temperatureSensors = sensorsPerNode - sensorsPerNode / 2;
+    int windows = (actuatorsPerNode + 2) / 3;
+    int fans = (actuatorsPerNode + 1) / 3;
+    int heaters = actuatorsPerNode / 3;
+    SensorActuatorNode node = DeviceFactory.createNode(temperatureSensors, sensorsPerNode / 2,
+        windows, fans, heaters);
+    node.addActuatorListener((nodeId, actuator) -> actuatorApplied.increment());
+    TcpSensorActuatorNodeClient client = new TcpSensorActuatorNodeClient(host, port, node);
+    client.setBinaryProtocol(binaryProtocol);
+    client.setTracing(true);
+    return new SimulatedNode(node, client);
+  }
+
+  /**
+   * Schedule the sensor data and images of every node and the actuator commands of every panel,
+   * each at a random offset within its period, so that the clients don't all send at once.
+   *
+   * @return The scheduled tasks
+   */
+  private List<ScheduledFuture<?>> scheduleLoad() {
+    List<ScheduledFuture<?>> tasks = new ArrayList<>();
+    for (SimulatedNode node : nodes) {
+      if (sensorRate > 0) {
+        tasks.add(scheduleAtRate(sensorRate, () -> {
+          node.node.generateNewSensorValues();
+          sensorSent.increment();
+        }));
+      }
+      if (imageRate > 0) {
+        tasks.add(scheduleAtRate(imageRate, () -> {
+          node.client.sendImageToServer();
+          imageSent.increment();
+        }));
+      }
+    }
+    if (actuatorRate > 0 && actuatorsPerNode > 0 && !nodes.isEmpty()) {
+      for (TcpControlpanelNodeClient panel : panels) {
+        tasks.add(scheduleAtRate(actuatorRate, () -> sendActuatorCommand(panel)));
+      }
+    }
+    return tasks;
+  }
+
+  private ScheduledFuture<?> scheduleAtRate(double perSecond, Runnable task) {
+    long periodMicros = Math.max(Math.round(1_000_000 / perSecond), 1);
+    long initialDelayMicros = ThreadLocalRandom.current().nextLong(periodMicros);
+    return executor.scheduleAtFixedRate(() -> {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        // An exception would stop the task for the rest of the test
+        Logger.error("Error generating load: " + e.getMessage());
+      }
+    }, initialDelayMicros, periodMicros, TimeUnit.MICROSECONDS);
+  }
+
+  /**
+   * Send a command from a panel which switches a random actuator of a random node.
+   *
+   * @param panel The panel sending the command
+   */
+  private void sendActuatorCommand(TcpControlpanelNodeClient panel) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    SimulatedNode node = nodes.get(random.nextInt(nodes.size()));
+    Actuator actuator = node.actuators.get(random.nextInt(node.actuators.size()));
+    boolean isOn = !actuator.isOn();
+    pendingCommands.put(commandKey(node.node.getId(), actuator.getId()),
+        new PendingCommand(isOn, System.nanoTime()));
+    panel.onActuatorStateChanged(node.node.getId(), actuator.getId(), isOn);
+    actuatorSent.increment();
+  }
+
+  private static long commandKey(int nodeId, int actuatorId) {
+    return ((long) nodeId << 32) | (actuatorId & 0xffffffffL);
+  }
+
+  /**
+   * Wait until the load has run its time, or until the server has exited.
+   *
+   * @param endNanos When the load should end, from {@link System#nanoTime()}
+   */
+  private void awaitEnd(long endNanos) throws InterruptedException {
+    long remainingNanos = endNanos - System.nanoTime();
+    boolean serverAlive = true;
+    while (remainingNanos > 0 && serverAlive) {
+      TimeUnit.NANOSECONDS.sleep(
+          Math.min(remainingNanos, TimeUnit.MILLISECONDS.toNanos(SERVER_CHECK_MILLIS)));
+      serverAlive = server == null || server.isAlive();
+      remainingNanos = endNanos - System.nanoTime();
+    }
+    if (!serverAlive) {
+      Logger.error("The server has exited with code " + server.getExitCode()
+          + ", stopping the load");
+    }
+  }
+
+  private long countConnectionFailures() {
+    long failures = 0;
+    for (SimulatedNode node : nodes) {
+      failures += node.client.getConnectionFailures();
+    }
+    for (TcpControlpanelNodeClient panel : panels) {
+      failures += panel.getConnectionFailures();
+    }
+    return failures;
+  }
+
+  private void logProgress(MetricsSnapshot snapshot) {
+    StringBuilder progress = new StringBuilder("Sent ")
+        .append(snapshot.getCounter("sensor.sent")).append(" sensor updates, ")
+        .append(snapshot.getCounter("actuator.sent")).append(" actuator commands, ")
+        .append(snapshot.getCounter("image.sent")).append(" images; panels received ")
+        .append(snapshot.getCounter("sensor.received")).append(", ")
+        .append(snapshot.getCounter("actuator.received")).append(", ")
+        .append(snapshot.getCounter("image.received")).append("; ")
+        .append(snapshot.getGauge("connections.failed")).append(" connection failures");
+    if (server != null) {
+      progress.append("; server threads ").append(server.getLatest("jvm.threads"))
+          .append(", heap ").append(LoadReport.formatMegabytes(server.getLatest("jvm.heap.used")));
+    }
+    Logger.info(progress.toString());
+  }
+
+  private String describe() {
+    return nodeCount + " nodes with " + sensorsPerNode + " sensors and " + actuatorsPerNode
+        + " actuators, " + panelCount + " control panels, "
+        + (binaryProtocol ? "binary" : "text") + " protocol; per node " + sensorRate
+        + " sensor updates/s and " + imageRate + " images/s, per panel " + actuatorRate
+        + " actuator commands/s";
+  }
+
+  private void disconnectClients() {
+    executor.shutdownNow();
+    for (TcpControlpanelNodeClient panel : panels) {
+      panel.stop();
+    }
+    for (SimulatedNode node : nodes) {
+      node.client.stop();
+    }
+  }
+
+  /**
+   * A node of the test, with its client.
+   */
+  private static class SimulatedNode {
+    private final SensorActuatorNode node;
+    private final TcpSensorActuatorNodeClient client;
+    private final List<Actuator> actuators = new ArrayList<>();
+
+    private SimulatedNode(SensorActuatorNode node, TcpSensorActuatorNodeClient client) {
+      this.node = node;
+      this.client = client;
+      for (Actuator actuator : node.getActuators()) {
+        actuators.add(actuator);
+      }
+    }
+  }
+
+  /**
+   * An actuator command waiting for the update of the node.
+   */
+  private static class PendingCommand {
+    private final boolean isOn;
+    private final long sentNanos;
+
+    private PendingCommand(boolean isOn, long sentNanos) {
+      this.isOn = isOn;
+      this.sentNanos = sentNanos;
+    }
+  }
+
+  /**
+   * Counts what a panel receives, and records the round trip of the actuator commands.
+   */
+  private class PanelListener implements GreenhouseEventListener {
+    @Override
+    public void onNodeAdded(SensorActuatorNodeInfo nodeInfo) {
+    }
+
+    @Override
+    public void onNodeRemoved(int nodeId) {
+    }
+
+    @Override
+    public void onSensorData(int nodeId, List<SensorReading> sensors) {
+      sensorReceived.increment();
+    }
+
+    @Override
+    public void onActuatorStateChanged(int nodeId, int actuatorId, boolean isOn) {
+      actuatorReceived.increment();
+      long key = commandKey(nodeId, actuatorId);
+      PendingCommand pending = pendingCommands.get(key);
+      if (pending != null && pending.isOn == isOn && pendingCommands.remove(key, pending)) {
+        actuatorRoundTrip.recordSince(pending.sentNanos);
+      }
+    }
+
+    @Override
+    public void onPictureTaken(int nodeId, byte[] image) {
+      imageReceived.increment();
+    }
+  }
+}
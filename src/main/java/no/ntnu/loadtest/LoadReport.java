@@ -0,0 +1,150 @@
+package no.ntnu.loadtest;
+
+import java.util.Map;
+import no.ntnu.tools.LatencyHistogram;
+import no.ntnu.tools.MetricsSnapshot;
+
+/**
+ * The results of a load test: the throughput of the clients while the load ran, the latencies,
+ * the connection failures, and the threads, heap and queues of the server when it was run by the
+ * test.
+ */
+public class LoadReport {
+  private static final double NANOS_PER_SECOND = 1e9;
+  private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+  // The server metrics reported besides the threads and heap, by prefix
+  private static final String[] SERVER_METRIC_PREFIXES = {"connections.", "queue.", "bytes."};
+
+  private final String description;
+  private final long elapsedNanos;
+  private final MetricsSnapshot start;
+  private final MetricsSnapshot end;
+  private final MetricsSnapshot latencies;
+  private final ServerProcess server;
+
+  /**
+   * Create a report.
+   *
+   * @param description  The settings of the test
+   * @param elapsedNanos How long the load ran, in nanoseconds
+   * @param start        The metrics of the clients when the load started
+   * @param end          The metrics of the clients after the load, once the data sent had time
+   *                     to arrive
+   * @param latencies    The latencies of the traced sensor data
+   * @param server       The server the load was put on, or null when it wasn't run by the test
+   */
+  LoadReport(String description, long elapsedNanos, MetricsSnapshot start, MetricsSnapshot end,
+             MetricsSnapshot latencies, ServerProcess server) {
+    this.description = description;
+    this.elapsedNanos = elapsedNanos;
+    this.start = start;
+    this.end = end;
+    this.latencies = latencies;
+    this.server = server;
+  }
+
+  /**
+   * Get the number of times something was counted while the load ran.
+   *
+   * @param name The name of the counter, such as "sensor.received"
+   * @return The count
+   */
+  public long getCount(String name) {
+    return end.getCounter(name) - start.getCounter(name);
+  }
+
+  /**
+   * Get the rate at which something was counted while the load ran.
+   *
+   * @param name The name of the counter, such as "sensor.received"
+   * @return The count per second
+   */
+  public double getRate(String name) {
+    return getCount(name) * NANOS_PER_SECOND / elapsedNanos;
+  }
+
+  /**
+   * Get the number of attempts of the clients to connect to the server which failed, during the
+   * whole test.
+   *
+   * @return The number of failed attempts
+   */
+  public long getConnectionFailures() {
+    return end.getGauge("connections.failed");
+  }
+
+  /**
+   * Describe the results, on several lines.
+   *
+   * @return The description
+   */
+  public String format() {
+    StringBuilder text = new StringBuilder();
+    line(text, String.format("Load test of %s, for %.1f s", description,
+        elapsedNanos / NANOS_PER_SECOND));
+    line(text, "Sensor data: sent " + throughput("sensor.sent") + ", received by the panels "
+        + throughput("sensor.received"));
+    line(text, "Actuator commands: sent " + throughput("actuator.sent") + ", applied by the nodes "
+        + throughput("actuator.applied") + ", updates received by the panels "
+        + throughput("actuator.received"));
+    line(text, "Images: sent " + throughput("image.sent") + ", received by the panels "
+        + throughput("image.received"));
+    line(text, "Connection failures: " + getConnectionFailures());
+    line(text, "Latencies:");
+    line(text, "  actuator.roundTrip " + end.getHistogram("actuator.roundTrip"));
+    for (Map.Entry<String, LatencyHistogram.Snapshot> histogram
+        : latencies.getHistograms().entrySet()) {
+      if (histogram.getValue().getCount() > 0) {
+        line(text, "  " + histogram.getKey() + " " + histogram.getValue());
+      }
+    }
+    if (server != null) {
+      formatServer(text);
+    }
+    return text.toString();
+  }
+
+  private void formatServer(StringBuilder text) {
+    if (server.isAlive()) {
+      line(text, "Server: threads " + server.getLatest("jvm.threads") + " (peak "
+          + server.getPeak("jvm.threads") + "), heap used "
+          + formatMegabytes(server.getLatest("jvm.heap.used")) + " (peak "
+          + formatMegabytes(server.getPeak("jvm.heap.used")) + ")");
+    } else {
+      line(text, "Server: exited with code " + server.getExitCode() + ", peak threads "
+          + server.getPeak("jvm.threads") + ", peak heap used "
+          + formatMegabytes(server.getPeak("jvm.heap.used")));
+    }
+    for (Map.Entry<String, Long> metric : server.getLatestValues().entrySet()) {
+      if (isReportedServerMetric(metric.getKey())) {
+        line(text, "  " + metric.getKey() + " " + metric.getValue());
+      }
+    }
+  }
+
+  private static boolean isReportedServerMetric(String name) {
+    boolean reported = false;
+    for (String prefix : SERVER_METRIC_PREFIXES) {
+      reported |= name.startsWith(prefix);
+    }
+    return reported;
+  }
+
+  private String throughput(String name) {
+    return String.format("%d (%.1f/s)", getCount(name), getRate(name));
+  }
+
+  /**
+   * Format a number of bytes in megabytes.
+   *
+   * @param bytes The number of bytes
+   * @return The megabytes, with one decimal
+   */
+  static String formatMegabytes(long bytes) {
+    return String.format("%.1f MB", bytes / BYTES_PER_MEGABYTE);
+  }
+
+  private static void line(StringBuilder text, String line) {
+    text.append(line).append(System.lineSeparator());
+  }
+}
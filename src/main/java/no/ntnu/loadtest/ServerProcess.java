@@ -0,0 +1,183 @@
+package no.ntnu.loadtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import no.ntnu.run.GreenhouseServerStarter;
+import no.ntnu.server.TcpServer;
+import no.ntnu.tools.Logger;
+
+/**
+ * A greenhouse server run in a JVM of its own, so that the load on it can be measured apart from
+ * the load generator, and a server which falls over doesn't take the generator with it. The
+ * server logs its metrics every second; the process keeps the latest value and the peak of every
+ * counter and gauge, such as the threads and heap of the server, from the lines on the form
+ * "name value". Everything else the server prints is dropped.
+ */
+public class ServerProcess {
+  private static final long START_TIMEOUT_MILLIS = 10000;
+  private static final long START_POLL_MILLIS = 100;
+
+  private final List<String> serverArguments;
+  private final String maxHeap;
+  private final ConcurrentMap<String, Long> latest = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Long> peaks = new ConcurrentHashMap<>();
+  private Process process;
+
+  /**
+   * Create a server process, not started yet.
+   *
+   * @param serverArguments The arguments of {@link GreenhouseServerStarter}, such as the mode and
+   *                        the queue settings. The metrics setting is added.
+   * @param maxHeap         The maximum heap of the server, such as "512m", or null for the default
+   *                        of the JVM
+   */
+  public ServerProcess(List<String> serverArguments, String maxHeap) {
+    this.serverArguments = new ArrayList<>(serverArguments);
+    this.maxHeap = maxHeap;
+  }
+
+  /**
+   * Start the server and wait until it accepts connections on {@link TcpServer#PORT_NUMBER}.
+   *
+   * @throws IOException When the server can't be started, or doesn't accept connections in time
+   */
+  public void start() throws IOException {
+    List<String> command = new ArrayList<>();
+    command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+    if (maxHeap != null) {
+      command.add("-Xmx" + maxHeap);
+    }
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(GreenhouseServerStarter.class.getName());
+    command.addAll(serverArguments);
+    command.add("metrics=1");
+    process = new ProcessBuilder(command).redirectErrorStream(true).start();
+    Thread reader = new Thread(this::readOutput, "server-output");
+    reader.setDaemon(true);
+    reader.start();
+    Logger.info("Started server process " + process.pid() + ": " + String.join(" ",
+        serverArguments));
+    awaitConnections();
+  }
+
+  private void awaitConnections() throws IOException {
+    long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+    boolean accepting = false;
+    while (!accepting) {
+      try {
+        new Socket("127.0.0.1", TcpServer.PORT_NUMBER).close();
+        accepting = true;
+      } catch (IOException e) {
+        if (!process.isAlive() || System.currentTimeMillis() > deadline) {
+          stop();
+          throw new IOException("The server did not start accepting connections", e);
+        }
+        sleep(START_POLL_MILLIS);
+      }
+    }
+  }
+
+  private static void sleep(long millis) throws IOException {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the server", e);
+    }
+  }
+
+  /**
+   * Read what the server prints, for as long as it runs. The output must be read, or the server
+   * blocks once the pipe is full.
+   */
+  private void readOutput() {
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+      String line = reader.readLine();
+      while (line != null) {
+        parseMetric(line);
+        line = reader.readLine();
+      }
+    } catch (IOException e) {
+      Logger.error("Error reading the output of the server: " + e.getMessage());
+    }
+  }
+
+  private void parseMetric(String line) {
+    String[] parts = line.trim().split(" ");
+    if (parts.length == 2) {
+      try {
+        long value = Long.parseLong(parts[1]);
+        latest.put(parts[0], value);
+        peaks.merge(parts[0], value, Math::max);
+      } catch (NumberFormatException e) {
+        // Not a counter or gauge, such as a log message of two words
+      }
+    }
+  }
+
+  /**
+   * Check whether the server is still running.
+   *
+   * @return True when it runs, false when it has exited, for example after running out of memory
+   */
+  public boolean isAlive() {
+    return process != null && process.isAlive();
+  }
+
+  /**
+   * Get the exit code of the server.
+   *
+   * @return The exit code, or -1 when the server is still running or hasn't been started
+   */
+  public int getExitCode() {
+    return process == null || process.isAlive() ? -1 : process.exitValue();
+  }
+
+  /**
+   * Get the latest value the server has logged of a counter or gauge.
+   *
+   * @param name The name of the metric, such as "jvm.threads"
+   * @return The value, or zero when it hasn't been logged yet
+   */
+  public long getLatest(String name) {
+    return latest.getOrDefault(name, 0L);
+  }
+
+  /**
+   * Get the highest value the server has logged of a counter or gauge.
+   *
+   * @param name The name of the metric, such as "jvm.heap.used"
+   * @return The value, or zero when it hasn't been logged yet
+   */
+  public long getPeak(String name) {
+    return peaks.getOrDefault(name, 0L);
+  }
+
+  /**
+   * Get the latest values the server has logged of all its counters and gauges.
+   *
+   * @return The values, sorted by name
+   */
+  public Map<String, Long> getLatestValues() {
+    return new TreeMap<>(latest);
+  }
+
+  /** Stop the server, if it runs. */
+  public void stop() {
+    if (process != null) {
+      process.destroy();
+    }
+  }
+}
@@ -0,0 +1,461 @@
+package no.ntnu.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import no.ntnu.greenhouse.SensorReading;
+
+/**
+ * Translates between the text protocol and binary frames.
+ *
+ * <p>A binary frame is a varint with the length of the payload, followed by the payload: one
+ * opcode byte and the fields of the command. Node and actuator IDs are varints, sensor values are
+ * raw doubles and camera images are the raw image bytes instead of base64. Commands without an
+ * opcode of their own, and text which doesn't follow the format of its command, are sent as
+ * {@link Opcode#TEXT} frames, so that any text message survives a round trip unchanged. See
+ * protocol.md for the layout of every frame.
+ */
+public class BinaryCodec {
+  /** The largest payload a frame may have. */
+  public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+  /** The largest number of image bytes sent in one {@link Opcode#IMAGE_CHUNK} frame. */
+  public static final int IMAGE_CHUNK_SIZE = 16 * 1024;
+
+  /** The command with which a client asks to switch protocol, and the server confirms it. */
+  public static final String SET_PROTOCOL_COMMAND = "setProtocol";
+
+  /** The argument of {@link #SET_PROTOCOL_COMMAND} for the binary protocol. */
+  public static final String BINARY = "binary";
+
+  /** The argument of {@link #SET_PROTOCOL_COMMAND} for the text protocol. */
+  public static final String TEXT = "text";
+
+  private BinaryCodec() {
+  }
+
+  /**
+   * Encode a text command as a binary frame.
+   *
+   * @param command The command, on the format "command-nodeId;arguments"
+   * @return The frame
+   */
+  public static byte[] encode(String command) {
+    byte[] frame;
+    try {
+      frame = encodeCommand(command);
+    } catch (IllegalArgumentException e) {
+      frame = null;
+    }
+    if (frame == null) {
+      byte[] text = command.getBytes(StandardCharsets.UTF_8);
+      frame = new FrameWriter(Opcode.TEXT, text.length).writeBytes(text, 0, text.length).toFrame();
+    }
+    return frame;
+  }
+
+  /**
+   * Encode a command with an opcode of its own.
+   *
+   * @param command The command
+   * @return The frame, or null when the command must be sent as text
+   * @throws IllegalArgumentException When the arguments don't follow the format of the command
+   */
+  private static byte[] encodeCommand(String command) {
+    int dash = command.indexOf('-');
+    String name = dash < 0 ? command : command.substring(0, dash);
+    String arguments = dash < 0 ? null : command.substring(dash + 1);
+    Opcode opcode = Opcode.fromCommand(name);
+    byte[] frame = null;
+    switch (opcode) {
+      case SET_NODE_TYPE:
+        if (arguments != null) {
+          frame = new FrameWriter(opcode).writeString(arguments).toFrame();
+        }
+        break;
+      case SET_ID:
+      case NODE_REMOVED:
+        if (arguments != null) {
+          frame = new FrameWriter(opcode).writeVarint(parseId(arguments)).toFrame();
+        }
+        break;
+      case UPDATE_SENSOR_DATA:
+        if (arguments != null) {
+          frame = encodeSensorData(arguments);
+        }
+        break;
+      case NODE_ADDED:
+        if (arguments != null) {
+          frame = encodeNodeAdded(arguments);
+        }
+        break;
+      case ACTUATOR_UPDATED:
+      case CONTROL_PANEL_UPDATE_ACTUATOR:
+        if (arguments != null) {
+          frame = encodeActuatorState(opcode, arguments);
+        }
+        break;
+      case SEND_CAMERA_IMAGE:
+        if (arguments != null) {
+          frame = encodeCameraImage(arguments);
+        }
+        break;
+      case CONTROL_PANEL_ADDED:
+      case CHECK_CONNECTION:
+      case UNKNOWN_COMMAND_ERROR:
+        if (arguments == null) {
+          frame = new FrameWriter(opcode, 0).toFrame();
+        }
+        break;
+      default:
+        break;
+    }
+    return frame;
+  }
+
+  /**
+   * Encode sensor readings as a binary frame.
+   *
+   * @param nodeId   The ID of the node the readings come from
+   * @param readings The readings
+   * @return The frame
+   */
+  public static byte[] encodeSensorData(int nodeId, List<SensorReading> readings) {
+    return encodeSensorData(nodeId, readings, null);
+  }
+
+  /**
+   * Encode sensor readings as a binary frame, with a trace of their way from the node.
+   *
+   * @param nodeId   The ID of the node the readings come from
+   * @param readings The readings
+   * @param trace    The trace, or null when the readings aren't traced
+   * @return The frame
+   */
+  public static byte[] encodeSensorData(int nodeId, List<SensorReading> readings,
+                                        SensorTrace trace) {
+    FrameWriter writer = new FrameWriter(Opcode.UPDATE_SENSOR_DATA, 8 + readings.size() * 12);
+    writer.writeVarint(nodeId).writeVarint(readings.size());
+    List<String> written = new ArrayList<>(4);
+    for (SensorReading reading : readings) {
+      writeStringReference(writer, reading.getType(), written);
+      writer.writeDouble(reading.getValue());
+      writeStringReference(writer, reading.getUnit(), written);
+    }
+    if (trace != null) {
+      trace.write(writer);
+    }
+    return writer.toFrame();
+  }
+
+  /**
+   * Write a string which is likely to repeat within the frame, such as a sensor type. The first
+   * occurrence is written as 0 followed by the string, later ones as a varint with the position of
+   * the first occurrence among the strings written this way, starting at 1.
+   *
+   * @param writer  The frame to write to
+   * @param value   The string
+   * @param written The strings written so far
+   */
+  private static void writeStringReference(FrameWriter writer, String value, List<String> written) {
+    int index = written.indexOf(value);
+    if (index >= 0) {
+      writer.writeVarint(index + 1);
+    } else {
+      writer.writeVarint(0).writeString(value);
+      written.add(value);
+    }
+  }
+
+  private static String readStringReference(FrameReader frame, List<String> read) {
+    int reference = frame.readVarint();
+    String value;
+    if (reference == 0) {
+      value = frame.readString();
+      read.add(value);
+    } else if (reference <= read.size()) {
+      value = read.get(reference - 1);
+    } else {
+      throw new IllegalArgumentException("Invalid string reference: " + reference);
+    }
+    return value;
+  }
+
+  /**
+   * Read the sensor readings of an {@link Opcode#UPDATE_SENSOR_DATA} frame. The trace which may
+   * follow them can be read with {@link SensorTrace#read(FrameReader)}.
+   *
+   * @param frame The frame, positioned after the node ID
+   * @return The readings
+   */
+  public static List<SensorReading> readSensorReadings(FrameReader frame) {
+    int count = frame.readVarint();
+    List<SensorReading> readings = new ArrayList<>(Math.min(count, 64));
+    List<String> read = new ArrayList<>(4);
+    for (int i = 0; i < count; ++i) {
+      String type = readStringReference(frame, read);
+      double value = frame.readDouble();
+      String unit = readStringReference(frame, read);
+      readings.add(new SensorReading(type, value, unit));
+    }
+    return readings;
+  }
+
+  /**
+   * Format sensor readings as an "updateSensorData" command of the text protocol.
+   *
+   * @param nodeId   The ID of the node the readings come from
+   * @param readings The readings
+   * @return The command
+   */
+  public static String formatSensorData(int nodeId, List<SensorReading> readings) {
+    return formatSensorData(nodeId, readings, null);
+  }
+
+  /**
+   * Format sensor readings as an "updateSensorData" command of the text protocol, with a trace of
+   * their way from the node.
+   *
+   * @param nodeId   The ID of the node the readings come from
+   * @param readings The readings
+   * @param trace    The trace, or null when the readings aren't traced
+   * @return The command
+   */
+  public static String formatSensorData(int nodeId, List<SensorReading> readings,
+                                        SensorTrace trace) {
+    StringBuilder builder = new StringBuilder(32 + readings.size() * 24);
+    builder.append(Opcode.UPDATE_SENSOR_DATA.getCommand()).append('-').append(nodeId).append(';');
+    appendSensorReadings(builder, readings);
+    if (trace != null) {
+      builder.append(trace.format());
+    }
+    return builder.toString();
+  }
+
+  private static void appendSensorReadings(StringBuilder builder, List<SensorReading> readings) {
+    for (SensorReading reading : readings) {
+      builder.append(reading.getType()).append('=').append(reading.getValue())
+          .append(' ').append(reading.getUnit()).append(',');
+    }
+  }
+
+  private static byte[] encodeSensorData(String arguments) {
+    int separator = arguments.indexOf(';');
+    if (separator < 0) {
+      throw new IllegalArgumentException("Missing readings");
+    }
+    int nodeId = parseId(arguments.substring(0, separator));
+    SensorTrace trace = SensorTrace.parse(arguments);
+    int readingsEnd = trace != null ? SensorTrace.indexIn(arguments) : arguments.length();
+    List<SensorReading> readings = new ArrayList<>();
+    int start = separator + 1;
+    while (start < readingsEnd) {
+      int end = arguments.indexOf(',', start);
+      if (end < 0 || end > readingsEnd) {
+        end = readingsEnd;
+      }
+      int equals = arguments.indexOf('=', start);
+      int space = arguments.indexOf(' ', equals + 1);
+      if (equals < 0 || space < 0 || space > end) {
+        throw new IllegalArgumentException("Invalid sensor reading");
+      }
+      readings.add(new SensorReading(arguments.substring(start, equals),
+          Double.parseDouble(arguments.substring(equals + 1, space)),
+          arguments.substring(space + 1, end)));
+      start = end + 1;
+    }
+    return encodeSensorData(nodeId, readings, trace);
+  }
+
+  private static byte[] encodeNodeAdded(String arguments) {
+    int separator = arguments.indexOf(';');
+    String nodeId = separator < 0 ? arguments : arguments.substring(0, separator);
+    FrameWriter writer = new FrameWriter(Opcode.NODE_ADDED);
+    writer.writeVarint(parseId(nodeId));
+    List<String> actuators = new ArrayList<>();
+    if (separator >= 0) {
+      for (String actuator : arguments.substring(separator + 1).split(" ")) {
+        if (!actuator.isEmpty()) {
+          actuators.add(actuator);
+        }
+      }
+    }
+    writer.writeVarint(actuators.size());
+    for (String actuator : actuators) {
+      int underscore = actuator.lastIndexOf('_');
+      if (underscore < 0) {
+        throw new IllegalArgumentException("Invalid actuator");
+      }
+      writer.writeVarint(parseId(actuator.substring(underscore + 1)))
+          .writeString(actuator.substring(0, underscore));
+    }
+    return writer.toFrame();
+  }
+
+  private static byte[] encodeActuatorState(Opcode opcode, String arguments) {
+    int separator = arguments.indexOf(';');
+    int equals = arguments.indexOf('=', separator + 1);
+    if (separator < 0 || equals < 0) {
+      throw new IllegalArgumentException("Invalid actuator state");
+    }
+    return new FrameWriter(opcode)
+        .writeVarint(parseId(arguments.substring(0, separator)))
+        .writeVarint(parseId(arguments.substring(separator + 1, equals)))
+        .writeBoolean(parseBoolean(arguments.substring(equals + 1)))
+        .toFrame();
+  }
+
+  private static byte[] encodeCameraImage(String arguments) {
+    int separator = arguments.indexOf(';');
+    if (separator < 0) {
+      throw new IllegalArgumentException("Missing image");
+    }
+    int nodeId = parseId(arguments.substring(0, separator));
+    String base64 = arguments.substring(separator + 1);
+    byte[] image = Base64.getDecoder().decode(base64);
+    if (!Base64.getEncoder().encodeToString(image).equals(base64)) {
+      throw new IllegalArgumentException("Image is not in canonical base64");
+    }
+    return new FrameWriter(Opcode.SEND_CAMERA_IMAGE, image.length + 5)
+        .writeVarint(nodeId)
+        .writeBytes(image, 0, image.length)
+        .toFrame();
+  }
+
+  /**
+   * Encode one chunk of a camera image as a binary frame. An image is sent as chunks of at most
+   * {@link #IMAGE_CHUNK_SIZE} bytes, one frame each, so that other frames can be sent between
+   * them.
+   *
+   * @param nodeId     The ID of the node the image comes from
+   * @param transferId Identifies the image among the images sent by the node
+   * @param image      The whole image
+   * @param offset     Where in the image the chunk starts
+   * @return The frame, with the chunk starting at the offset and as long as allowed
+   */
+  public static byte[] encodeImageChunk(int nodeId, int transferId, byte[] image, int offset) {
+    if (offset < 0 || offset > image.length) {
+      throw new IllegalArgumentException("Invalid chunk offset: " + offset);
+    }
+    int length = Math.min(IMAGE_CHUNK_SIZE, image.length - offset);
+    return new FrameWriter(Opcode.IMAGE_CHUNK, length + 20)
+        .writeVarint(nodeId)
+        .writeVarint(transferId)
+        .writeVarint(offset)
+        .writeVarint(image.length)
+        .writeBytes(image, offset, length)
+        .toFrame();
+  }
+
+  /**
+   * Read an {@link Opcode#IMAGE_CHUNK} frame.
+   *
+   * @param frame The frame, positioned after the opcode
+   * @return The chunk
+   * @throws IllegalArgumentException When the frame is malformed
+   */
+  public static ImageChunk readImageChunk(FrameReader frame) {
+    int nodeId = frame.readVarint();
+    int transferId = frame.readVarint();
+    int offset = frame.readVarint();
+    int imageSize = frame.readVarint();
+    return new ImageChunk(nodeId, transferId, offset, imageSize, frame.readRemainingBytes());
+  }
+
+  /**
+   * Decode a binary frame to the corresponding text command.
+   *
+   * @param payload The payload of the frame, starting with the opcode
+   * @return The command, on the format "command-nodeId;arguments"
+   * @throws IllegalArgumentException When the frame is malformed
+   */
+  public static String decode(ByteBuffer payload) {
+    FrameReader frame = new FrameReader(payload);
+    Opcode opcode = frame.getOpcode();
+    if (opcode == Opcode.TEXT) {
+      return new String(frame.readRemainingBytes(), StandardCharsets.UTF_8);
+    }
+    StringBuilder builder = new StringBuilder(opcode.getCommand());
+    switch (opcode) {
+      case SET_NODE_TYPE:
+        builder.append('-').append(frame.readString());
+        break;
+      case SET_ID:
+      case NODE_REMOVED:
+        builder.append('-').append(frame.readVarint());
+        break;
+      case UPDATE_SENSOR_DATA:
+        builder.append('-').append(frame.readVarint()).append(';');
+        appendSensorReadings(builder, readSensorReadings(frame));
+        SensorTrace trace = SensorTrace.read(frame);
+        if (trace != null) {
+          builder.append(trace.format());
+        }
+        break;
+      case NODE_ADDED:
+        builder.append('-').append(frame.readVarint()).append(';');
+        int actuatorCount = frame.readVarint();
+        for (int i = 0; i < actuatorCount; ++i) {
+          int actuatorId = frame.readVarint();
+          builder.append(frame.readString()).append('_').append(actuatorId).append(' ');
+        }
+        break;
+      case ACTUATOR_UPDATED:
+      case CONTROL_PANEL_UPDATE_ACTUATOR:
+        builder.append('-').append(frame.readVarint()).append(';')
+            .append(frame.readVarint()).append('=').append(frame.readBoolean());
+        break;
+      case SEND_CAMERA_IMAGE:
+        builder.append('-').append(frame.readVarint()).append(';')
+            .append(Base64.getEncoder().encodeToString(frame.readRemainingBytes()));
+        break;
+      case IMAGE_CHUNK:
+        ImageChunk chunk = readImageChunk(frame);
+        builder.append('-').append(chunk.getNodeId()).append(';').append(chunk.getTransferId())
+            .append(';').append(chunk.getOffset()).append(';').append(chunk.getImageSize())
+            .append(';').append(Base64.getEncoder().encodeToString(chunk.getData()));
+        break;
+      default:
+        break;
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Rebuild a complete frame from its payload, for forwarding a received frame as it is.
+   *
+   * @param payload The payload of the frame, starting with the opcode. Its position is unchanged.
+   * @return The frame, including the length prefix
+   */
+  public static byte[] toFrame(ByteBuffer payload) {
+    int length = payload.remaining();
+    int prefixLength = FrameWriter.varintSize(length);
+    byte[] frame = new byte[prefixLength + length];
+    int offset = 0;
+    int value = length;
+    while ((value & ~0x7F) != 0) {
+      frame[offset++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    frame[offset] = (byte) value;
+    payload.duplicate().get(frame, prefixLength, length);
+    return frame;
+  }
+
+  private static int parseId(String value) {
+    int id = Integer.parseInt(value);
+    if (id < 0) {
+      throw new IllegalArgumentException("Negative ID: " + id);
+    }
+    return id;
+  }
+
+  private static boolean parseBoolean(String value) {
+    if (!value.equals("true") && !value.equals("false")) {
+      throw new IllegalArgumentException("Invalid boolean: " + value);
+    }
+    return value.equals("true");
+  }
+}
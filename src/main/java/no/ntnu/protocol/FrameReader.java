@@ -0,0 +1,168 @@
+package no.ntnu.protocol;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the fields of one binary frame, in the encoding written by {@link FrameWriter}.
+ */
+public class FrameReader {
+  private final ByteBuffer payload;
+  private final Opcode opcode;
+
+  /**
+   * Start reading a frame.
+   *
+   * @param payload The payload of the frame, starting with the opcode and without the length
+   *                prefix
+   * @throws IllegalArgumentException When the frame is empty or has an unknown opcode
+   */
+  public FrameReader(ByteBuffer payload) {
+    if (payload == null || !payload.hasRemaining()) {
+      throw new IllegalArgumentException("Empty frame");
+    }
+    this.payload = payload;
+    this.opcode = Opcode.fromCode(payload.get() & 0xFF);
+  }
+
+  /**
+   * Get the opcode of the frame.
+   *
+   * @return The opcode
+   */
+  public Opcode getOpcode() {
+    return opcode;
+  }
+
+  /**
+   * Check whether there are more fields to read.
+   *
+   * @return True when there are unread bytes left in the frame
+   */
+  public boolean hasRemaining() {
+    return payload.hasRemaining();
+  }
+
+  /**
+   * Read a single byte.
+   *
+   * @return The byte, 0 to 255
+   */
+  public int readByte() {
+    return get() & 0xFF;
+  }
+
+  /**
+   * Read a boolean written as a single byte.
+   *
+   * @return The value
+   */
+  public boolean readBoolean() {
+    return readByte() != 0;
+  }
+
+  /**
+   * Read a varint.
+   *
+   * @return The value
+   * @throws IllegalArgumentException When the varint is malformed or the frame ends
+   */
+  public int readVarint() {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = get();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        if (value < 0) {
+          throw new IllegalArgumentException("Varint out of range");
+        }
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed varint");
+  }
+
+  /**
+   * Read a long written as a varint.
+   *
+   * @return The value
+   * @throws IllegalArgumentException When the varint is malformed or the frame ends
+   */
+  public long readVarlong() {
+    long value = 0;
+    for (int shift = 0; shift < 63; shift += 7) {
+      int b = get();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed varint");
+  }
+
+  /**
+   * Read a signed integer written as a zigzag varint.
+   *
+   * @return The value
+   * @throws IllegalArgumentException When the varint is malformed or the frame ends
+   */
+  public int readSignedVarint() {
+    int zigzag = readVarint();
+    return (zigzag >>> 1) ^ -(zigzag & 1);
+  }
+
+  /**
+   * Read a double.
+   *
+   * @return The value
+   */
+  public double readDouble() {
+    if (payload.remaining() < 8) {
+      throw new IllegalArgumentException("Frame ended in the middle of a field");
+    }
+    return payload.getDouble();
+  }
+
+  /**
+   * Read a string.
+   *
+   * @return The string
+   */
+  public String readString() {
+    int length = readVarint();
+    if (length > payload.remaining()) {
+      throw new IllegalArgumentException("Frame ended in the middle of a field");
+    }
+    String value;
+    if (payload.hasArray()) {
+      value = new String(payload.array(), payload.arrayOffset() + payload.position(), length,
+          StandardCharsets.UTF_8);
+      payload.position(payload.position() + length);
+    } else {
+      byte[] bytes = new byte[length];
+      payload.get(bytes);
+      value = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return value;
+  }
+
+  /**
+   * Read the rest of the frame as raw bytes.
+   *
+   * @return The remaining bytes
+   */
+  public byte[] readRemainingBytes() {
+    byte[] bytes = new byte[payload.remaining()];
+    payload.get(bytes);
+    return bytes;
+  }
+
+  private byte get() {
+    try {
+      return payload.get();
+    } catch (BufferUnderflowException e) {
+      throw new IllegalArgumentException("Frame ended in the middle of a field");
+    }
+  }
+}
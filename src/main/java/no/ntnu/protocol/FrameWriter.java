@@ -0,0 +1,207 @@
+package no.ntnu.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Builds one binary frame: the payload length as a varint, followed by the opcode and the
+ * payload. Integers are written as unsigned varints (7 bits per byte, least significant group
+ * first), doubles as their 8 raw IEEE 754 bytes and strings as a varint length followed by the
+ * UTF-8 bytes.
+ */
+public class FrameWriter {
+  /** The smallest value {@link #writeSignedVarint(int)} accepts. */
+  public static final int MIN_SIGNED_VARINT = -(1 << 30);
+
+  /** The largest value {@link #writeSignedVarint(int)} accepts. */
+  public static final int MAX_SIGNED_VARINT = (1 << 30) - 1;
+
+  private static final int MAX_VARINT_BYTES = 5;
+  private static final int MAX_VARLONG_BYTES = 9;
+
+  // The payload starts after room for the longest possible length prefix
+  private byte[] buffer;
+  private int position = MAX_VARINT_BYTES;
+
+  /**
+   * Start a frame.
+   *
+   * @param opcode The opcode of the frame
+   */
+  public FrameWriter(Opcode opcode) {
+    this(opcode, 64);
+  }
+
+  /**
+   * Start a frame.
+   *
+   * @param opcode       The opcode of the frame
+   * @param expectedSize The expected size of the payload, to avoid growing the buffer
+   */
+  public FrameWriter(Opcode opcode, int expectedSize) {
+    if (opcode == null) {
+      throw new IllegalArgumentException("Opcode cannot be null");
+    }
+    buffer = new byte[MAX_VARINT_BYTES + 1 + Math.max(expectedSize, 0)];
+    writeByte(opcode.getCode());
+  }
+
+  /**
+   * Write a single byte.
+   *
+   * @param value The byte, only the lowest 8 bits are written
+   * @return This writer
+   */
+  public FrameWriter writeByte(int value) {
+    ensureRoom(1);
+    buffer[position++] = (byte) value;
+    return this;
+  }
+
+  /**
+   * Write a boolean as a single byte.
+   *
+   * @param value The value
+   * @return This writer
+   */
+  public FrameWriter writeBoolean(boolean value) {
+    return writeByte(value ? 1 : 0);
+  }
+
+  /**
+   * Write a non-negative integer as a varint.
+   *
+   * @param value The value
+   * @return This writer
+   */
+  public FrameWriter writeVarint(int value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("Varints can't be negative: " + value);
+    }
+    ensureRoom(MAX_VARINT_BYTES);
+    position = putVarint(buffer, position, value);
+    return this;
+  }
+
+  /**
+   * Write a non-negative long, such as a timestamp, as a varint of up to 9 bytes.
+   *
+   * @param value The value
+   * @return This writer
+   */
+  public FrameWriter writeVarlong(long value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("Varints can't be negative: " + value);
+    }
+    ensureRoom(MAX_VARLONG_BYTES);
+    while ((value & ~0x7FL) != 0) {
+      buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buffer[position++] = (byte) value;
+    return this;
+  }
+
+  /**
+   * Write a signed integer as a zigzag varint: 0, -1, 1, -2, 2... are written as 0, 1, 2, 3, 4...,
+   * so that small negative numbers take as few bytes as small positive ones.
+   *
+   * @param value The value, between -2^30 and 2^30 - 1
+   * @return This writer
+   */
+  public FrameWriter writeSignedVarint(int value) {
+    if (value < MIN_SIGNED_VARINT || value > MAX_SIGNED_VARINT) {
+      throw new IllegalArgumentException("Signed varint out of range: " + value);
+    }
+    return writeVarint((value << 1) ^ (value >> 31));
+  }
+
+  /**
+   * Write a double as its 8 raw bytes, most significant byte first.
+   *
+   * @param value The value
+   * @return This writer
+   */
+  public FrameWriter writeDouble(double value) {
+    ensureRoom(8);
+    long bits = Double.doubleToRawLongBits(value);
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      buffer[position++] = (byte) (bits >>> shift);
+    }
+    return this;
+  }
+
+  /**
+   * Write a string as its length followed by its UTF-8 bytes.
+   *
+   * @param value The string
+   * @return This writer
+   */
+  public FrameWriter writeString(String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarint(bytes.length);
+    return writeBytes(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Write raw bytes, without a length. Only for the last field of a frame.
+   *
+   * @param bytes  The bytes
+   * @param offset Where in the array to start
+   * @param length The number of bytes to write
+   * @return This writer
+   */
+  public FrameWriter writeBytes(byte[] bytes, int offset, int length) {
+    ensureRoom(length);
+    System.arraycopy(bytes, offset, buffer, position, length);
+    position += length;
+    return this;
+  }
+
+  /**
+   * Finish the frame.
+   *
+   * @return The complete frame, ready to be written to a socket
+   * @throws IllegalArgumentException When the payload is larger than a frame may be
+   */
+  public byte[] toFrame() {
+    int payloadLength = position - MAX_VARINT_BYTES;
+    if (payloadLength > BinaryCodec.MAX_FRAME_SIZE) {
+      throw new IllegalArgumentException("Frame too large: " + payloadLength + " bytes");
+    }
+    int prefixLength = varintSize(payloadLength);
+    int start = MAX_VARINT_BYTES - prefixLength;
+    putVarint(buffer, start, payloadLength);
+    return Arrays.copyOfRange(buffer, start, position);
+  }
+
+  private void ensureRoom(int bytes) {
+    if (position + bytes > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+    }
+  }
+
+  /**
+   * Get the number of bytes of a value written as a varint.
+   *
+   * @param value A non-negative value
+   * @return The number of bytes, 1 to 5
+   */
+  static int varintSize(int value) {
+    int size = 1;
+    while ((value & ~0x7F) != 0) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  private static int putVarint(byte[] target, int offset, int value) {
+    while ((value & ~0x7F) != 0) {
+      target[offset++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    target[offset++] = (byte) value;
+    return offset;
+  }
+}
@@ -0,0 +1,80 @@
+package no.ntnu.protocol;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Puts the chunks of camera images back together. Every node has at most one image in transfer:
+ * the chunks of a node arrive in order, so a chunk of a new transfer means the previous one was
+ * abandoned, and a chunk which doesn't continue where the previous one ended means chunks were
+ * lost. In both cases the incomplete image is dropped.
+ *
+ * <p>An assembler is meant to be used by a single thread, the one reading the chunks.
+ */
+public class ImageAssembler {
+  /** The largest number of images being put together at the same time. */
+  public static final int MAX_TRANSFERS = 64;
+
+  private final Map<Integer, Transfer> transfers = new HashMap<>();
+
+  /**
+   * Add a chunk.
+   *
+   * @param chunk The chunk
+   * @return The complete image when this was its last chunk, otherwise null
+   */
+  public byte[] add(ImageChunk chunk) {
+    Transfer transfer = transfers.get(chunk.getNodeId());
+    if (transfer != null && !transfer.continuesWith(chunk)) {
+      transfers.remove(chunk.getNodeId());
+      transfer = null;
+    }
+    byte[] image = null;
+    if (transfer == null && chunk.getOffset() == 0) {
+      if (chunk.isLast()) {
+        image = chunk.getData();
+      } else if (transfers.size() < MAX_TRANSFERS) {
+        transfer = new Transfer(chunk.getTransferId(), chunk.getImageSize());
+        transfers.put(chunk.getNodeId(), transfer);
+      }
+    }
+    if (transfer != null) {
+      byte[] data = chunk.getData();
+      System.arraycopy(data, 0, transfer.image, transfer.received, data.length);
+      transfer.received += data.length;
+      if (chunk.isLast()) {
+        transfers.remove(chunk.getNodeId());
+        image = transfer.image;
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Drop the incomplete image of a node, for example when the node has been removed.
+   *
+   * @param nodeId The ID of the node
+   */
+  public void forgetNode(int nodeId) {
+    transfers.remove(nodeId);
+  }
+
+  /**
+   * An image being put together.
+   */
+  private static class Transfer {
+    private final int transferId;
+    private final byte[] image;
+    private int received = 0;
+
+    private Transfer(int transferId, int imageSize) {
+      this.transferId = transferId;
+      this.image = new byte[imageSize];
+    }
+
+    private boolean continuesWith(ImageChunk chunk) {
+      return chunk.getTransferId() == transferId && chunk.getOffset() == received
+          && chunk.getImageSize() == image.length;
+    }
+  }
+}
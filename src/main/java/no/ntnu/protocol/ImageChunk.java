@@ -0,0 +1,96 @@
+package no.ntnu.protocol;
+
+/**
+ * One piece of a camera image sent in several frames. All the chunks of an image have the same
+ * transfer ID, and are sent in order.
+ */
+public class ImageChunk {
+  private final int nodeId;
+  private final int transferId;
+  private final int offset;
+  private final int imageSize;
+  private final byte[] data;
+
+  /**
+   * Create a chunk.
+   *
+   * @param nodeId     The ID of the node the image comes from
+   * @param transferId Identifies the image among the images sent by the node
+   * @param offset     Where in the image the chunk starts
+   * @param imageSize  The size of the whole image, in bytes
+   * @param data       The bytes of the chunk
+   * @throws IllegalArgumentException When the chunk doesn't fit within the image, or the image is
+   *                                  larger than a frame may be
+   */
+  public ImageChunk(int nodeId, int transferId, int offset, int imageSize, byte[] data) {
+    if (data == null) {
+      throw new IllegalArgumentException("Chunk data cannot be null");
+    }
+    if (imageSize > BinaryCodec.MAX_FRAME_SIZE) {
+      throw new IllegalArgumentException("Image too large: " + imageSize + " bytes");
+    }
+    if (offset < 0 || imageSize < 0 || data.length > imageSize - offset) {
+      throw new IllegalArgumentException("Chunk at " + offset + " with " + data.length
+          + " bytes doesn't fit in an image of " + imageSize + " bytes");
+    }
+    this.nodeId = nodeId;
+    this.transferId = transferId;
+    this.offset = offset;
+    this.imageSize = imageSize;
+    this.data = data;
+  }
+
+  /**
+   * Get the ID of the node the image comes from.
+   *
+   * @return The node ID
+   */
+  public int getNodeId() {
+    return nodeId;
+  }
+
+  /**
+   * Get the ID of the transfer the chunk belongs to.
+   *
+   * @return The transfer ID
+   */
+  public int getTransferId() {
+    return transferId;
+  }
+
+  /**
+   * Get where in the image the chunk starts.
+   *
+   * @return The offset, in bytes
+   */
+  public int getOffset() {
+    return offset;
+  }
+
+  /**
+   * Get the size of the whole image.
+   *
+   * @return The number of bytes
+   */
+  public int getImageSize() {
+    return imageSize;
+  }
+
+  /**
+   * Get the bytes of the chunk.
+   *
+   * @return The bytes, not copied
+   */
+  public byte[] getData() {
+    return data;
+  }
+
+  /**
+   * Check whether this is the last chunk of the image.
+   *
+   * @return True when the chunk reaches the end of the image
+   */
+  public boolean isLast() {
+    return offset + data.length == imageSize;
+  }
+}
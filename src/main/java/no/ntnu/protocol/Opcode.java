@@ -0,0 +1,87 @@
+package no.ntnu.protocol;
+
+/**
+ * The numeric codes identifying the commands in binary frames. Every opcode corresponds to one
+ * command of the text protocol, except {@link #TEXT}, which carries any text command as is.
+ */
+public enum Opcode {
+  TEXT(0, null),
+  SET_NODE_TYPE(1, "setNodeType"),
+  SET_ID(2, "setId"),
+  UPDATE_SENSOR_DATA(3, "updateSensorData"),
+  NODE_ADDED(4, "nodeAdded"),
+  CONTROL_PANEL_ADDED(5, "controlPanelAdded"),
+  ACTUATOR_UPDATED(6, "actuatorUpdated"),
+  CONTROL_PANEL_UPDATE_ACTUATOR(7, "controlPanelUpdateActuator"),
+  NODE_REMOVED(8, "nodeRemoved"),
+  CHECK_CONNECTION(9, "checkConnection"),
+  SEND_CAMERA_IMAGE(10, "sendCameraImage"),
+  UNKNOWN_COMMAND_ERROR(11, "unknownCommandError"),
+  IMAGE_CHUNK(12, "imageChunk"),
+  SENSOR_LAYOUT(13, "sensorLayout"),
+  SENSOR_KEYFRAME(14, "sensorKeyframe"),
+  SENSOR_DELTA(15, "sensorDelta");
+
+  private static final Opcode[] BY_CODE = new Opcode[values().length];
+
+  static {
+    for (Opcode opcode : values()) {
+      BY_CODE[opcode.code] = opcode;
+    }
+  }
+
+  private final int code;
+  private final String command;
+
+  Opcode(int code, String command) {
+    this.code = code;
+    this.command = command;
+  }
+
+  /**
+   * Get the numeric code.
+   *
+   * @return The code, as written in the frames
+   */
+  public int getCode() {
+    return code;
+  }
+
+  /**
+   * Get the corresponding command of the text protocol.
+   *
+   * @return The command, null for {@link #TEXT}
+   */
+  public String getCommand() {
+    return command;
+  }
+
+  /**
+   * Find the opcode with the given numeric code.
+   *
+   * @param code The code
+   * @return The opcode
+   * @throws IllegalArgumentException When there is no opcode with the given code
+   */
+  public static Opcode fromCode(int code) {
+    if (code < 0 || code >= BY_CODE.length) {
+      throw new IllegalArgumentException("Unknown opcode: " + code);
+    }
+    return BY_CODE[code];
+  }
+
+  /**
+   * Find the opcode of a text command.
+   *
+   * @param command The command, the part of a text message before the first dash
+   * @return The opcode, {@link #TEXT} when the command has no opcode of its own
+   */
+  public static Opcode fromCommand(String command) {
+    for (Opcode opcode : values()) {
+      if (command.equals(opcode.command)) {
+        return opcode;
+      }
+    }
+    return TEXT;
+  }
+}
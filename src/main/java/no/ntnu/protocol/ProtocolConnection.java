@@ -0,0 +1,192 @@
+package no.ntnu.protocol;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The client end of a connection to the server, speaking either protocol. A connection starts in
+ * text; {@link #negotiateBinary()} asks the server to switch both directions to binary frames.
+ * Commands are sent as text strings in either case and translated when the connection is binary,
+ * so the code building them doesn't have to care.
+ */
+public class ProtocolConnection {
+  private static final String SET_PROTOCOL_REQUEST =
+      BinaryCodec.SET_PROTOCOL_COMMAND + "-" + BinaryCodec.BINARY;
+
+  private final ProtocolInputStream input;
+  private final OutputStream output;
+  private final Object sendLock = new Object();
+
+  private volatile WireFormat format = WireFormat.TEXT;
+  private boolean negotiating = false;
+
+  /**
+   * Create a connection.
+   *
+   * @param in  The input stream of the socket
+   * @param out The output stream of the socket
+   */
+  public ProtocolConnection(InputStream in, OutputStream out) {
+    if (out == null) {
+      throw new IllegalArgumentException("Output stream cannot be null");
+    }
+    this.input = new ProtocolInputStream(in);
+    this.output = new BufferedOutputStream(out, 8192);
+  }
+
+  /**
+   * Ask the server to switch to the binary protocol. Must be called by the thread which reads
+   * from the connection, before it starts reading; other threads sending meanwhile wait until the
+   * server has answered, since the server reads everything after the request as frames.
+   *
+   * @return The messages which arrived before the answer, in the text protocol
+   * @throws IOException When sending or reading fails
+   */
+  public List<String> negotiateBinary() throws IOException {
+    synchronized (sendLock) {
+      write(SET_PROTOCOL_REQUEST);
+      negotiating = true;
+    }
+    List<String> received = new ArrayList<>();
+    WireFormat negotiated = WireFormat.TEXT;
+    try {
+      String line = readLine();
+      while (!isProtocolAnswer(line)) {
+        received.add(line);
+        line = readLine();
+      }
+      if (line.equals(SET_PROTOCOL_REQUEST)) {
+        negotiated = WireFormat.BINARY;
+      }
+    } finally {
+      synchronized (sendLock) {
+        format = negotiated;
+        negotiating = false;
+        sendLock.notifyAll();
+      }
+    }
+    return received;
+  }
+
+  private static boolean isProtocolAnswer(String line) {
+    // A server without binary support answers with an error instead
+    return line.startsWith(BinaryCodec.SET_PROTOCOL_COMMAND + "-")
+        || line.equals(Opcode.UNKNOWN_COMMAND_ERROR.getCommand());
+  }
+
+  /**
+   * Check whether the connection uses the binary protocol.
+   *
+   * @return True when binary frames are sent and received
+   */
+  public boolean isBinary() {
+    return format == WireFormat.BINARY;
+  }
+
+  /**
+   * Send a command, translated to a frame when the connection is binary.
+   *
+   * @param command The command, on the format "command-nodeId;arguments"
+   * @throws IOException When sending fails
+   */
+  public void send(String command) throws IOException {
+    synchronized (sendLock) {
+      awaitNegotiation();
+      if (format == WireFormat.BINARY) {
+        output.write(BinaryCodec.encode(command));
+        output.flush();
+      } else {
+        write(command);
+      }
+    }
+  }
+
+  /**
+   * Send a binary frame.
+   *
+   * @param frame The complete frame, as built by {@link FrameWriter}
+   * @throws IOException           When sending fails
+   * @throws IllegalStateException When the connection doesn't use the binary protocol
+   */
+  public void sendFrame(byte[] frame) throws IOException {
+    synchronized (sendLock) {
+      awaitNegotiation();
+      if (format != WireFormat.BINARY) {
+        throw new IllegalStateException("The connection doesn't use the binary protocol");
+      }
+      output.write(frame);
+      output.flush();
+    }
+  }
+
+  private void awaitNegotiation() throws IOException {
+    try {
+      while (negotiating) {
+        sendLock.wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for protocol negotiation");
+    }
+  }
+
+  private void write(String line) throws IOException {
+    output.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+    output.flush();
+  }
+
+  /**
+   * Read the next line of a text connection.
+   *
+   * @return The line
+   * @throws IOException When reading fails or the server has closed the connection
+   */
+  public String readLine() throws IOException {
+    String line = input.readLine();
+    if (line == null) {
+      throw new EOFException("Connection closed by the server");
+    }
+    return line;
+  }
+
+  /**
+   * Read the next frame of a binary connection.
+   *
+   * @return The payload of the frame, starting with the opcode
+   * @throws IOException When reading fails or the server has closed the connection
+   */
+  public ByteBuffer readFrame() throws IOException {
+    ByteBuffer frame = input.readFrame();
+    if (frame == null) {
+      throw new EOFException("Connection closed by the server");
+    }
+    return frame;
+  }
+
+  /**
+   * Read the next command, decoded to text when the connection is binary.
+   *
+   * @return The command, on the format "command-nodeId;arguments"
+   * @throws IOException When reading fails or the server has closed the connection
+   */
+  public String readCommand() throws IOException {
+    String command;
+    if (isBinary()) {
+      try {
+        command = BinaryCodec.decode(readFrame());
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Malformed frame: " + e.getMessage());
+      }
+    } else {
+      command = readLine();
+    }
+    return command;
+  }
+}
@@ -0,0 +1,122 @@
+package no.ntnu.protocol;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads text lines and binary frames from the same stream. A reader which decodes characters,
+ * such as a BufferedReader, reads ahead and would swallow the first frames after the switch from
+ * text to binary, so both are read at the byte level from one shared buffer.
+ */
+public class ProtocolInputStream {
+  private static final int MAX_LINE_LENGTH = BinaryCodec.MAX_FRAME_SIZE;
+
+  private final InputStream in;
+  private byte[] lineBuffer = new byte[256];
+  private long bytesRead = 0;
+
+  /**
+   * Create a protocol input stream.
+   *
+   * @param in The stream to read from, typically the input stream of a socket
+   */
+  public ProtocolInputStream(InputStream in) {
+    if (in == null) {
+      throw new IllegalArgumentException("Input stream cannot be null");
+    }
+    this.in = new BufferedInputStream(in, 8192);
+  }
+
+  /**
+   * Read a line of text.
+   *
+   * @return The line, decoded as UTF-8 and without the line ending; null at the end of the stream
+   * @throws IOException When reading fails or the line is too long
+   */
+  public String readLine() throws IOException {
+    int length = 0;
+    int b = in.read();
+    if (b < 0) {
+      return null;
+    }
+    while (b >= 0 && b != '\n') {
+      if (length == lineBuffer.length) {
+        if (length >= MAX_LINE_LENGTH) {
+          throw new IOException("Line too long");
+        }
+        lineBuffer = Arrays.copyOf(lineBuffer, length * 2);
+      }
+      lineBuffer[length++] = (byte) b;
+      b = in.read();
+    }
+    // The line ending is counted too, when the line has one
+    bytesRead += b < 0 ? length : length + 1;
+    if (length > 0 && lineBuffer[length - 1] == '\r') {
+      length--;
+    }
+    return new String(lineBuffer, 0, length, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Read a binary frame.
+   *
+   * @return The payload of the frame, starting with the opcode; null at the end of the stream
+   * @throws IOException When reading fails, the stream ends inside a frame or the frame is too
+   *                     large
+   */
+  public ByteBuffer readFrame() throws IOException {
+    int length = 0;
+    int shift = 0;
+    int b;
+    do {
+      b = in.read();
+      if (b < 0) {
+        if (shift == 0) {
+          return null;
+        }
+        throw new EOFException("Stream ended inside a frame");
+      }
+      length |= (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0 && shift < 35);
+    if ((b & 0x80) != 0 || length <= 0 || length > BinaryCodec.MAX_FRAME_SIZE) {
+      throw new IOException("Invalid frame length: " + length);
+    }
+    byte[] payload = new byte[length];
+    int read = 0;
+    while (read < length) {
+      int n = in.read(payload, read, length - read);
+      if (n < 0) {
+        throw new EOFException("Stream ended inside a frame");
+      }
+      read += n;
+    }
+    // Every byte of the length prefix holds seven bits of it
+    bytesRead += shift / 7 + length;
+    return ByteBuffer.wrap(payload);
+  }
+
+  /**
+   * Get the number of bytes of the lines and frames read so far, including the line endings and
+   * length prefixes.
+   *
+   * @return The number of bytes
+   */
+  public long getBytesRead() {
+    return bytesRead;
+  }
+
+  /**
+   * Close the underlying stream.
+   *
+   * @throws IOException When closing fails
+   */
+  public void close() throws IOException {
+    in.close();
+  }
+}
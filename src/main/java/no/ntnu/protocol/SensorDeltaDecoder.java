@@ -0,0 +1,138 @@
+package no.ntnu.protocol;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import no.ntnu.greenhouse.SensorReading;
+
+/**
+ * Turns the frames written by a {@link SensorDeltaEncoder} back into complete sensor readings, by
+ * keeping the sensor types, units and latest values of every node.
+ *
+ * <p>A decoder is meant to be used by a single thread, the one reading the frames of a
+ * connection.
+ */
+public class SensorDeltaDecoder {
+  /** The largest number of nodes whose sensors are kept track of. */
+  public static final int MAX_NODES = 64;
+
+  private final Map<Integer, NodeSensors> nodes = new HashMap<>();
+
+  /**
+   * Read an {@link Opcode#SENSOR_LAYOUT}, {@link Opcode#SENSOR_KEYFRAME} or
+   * {@link Opcode#SENSOR_DELTA} frame.
+   *
+   * @param nodeId The ID of the node
+   * @param frame  The frame, positioned after the node ID. Left positioned after the values, where
+   *               a {@link SensorTrace} may follow.
+   * @return The current readings of all the sensors of the node, or null for a layout frame
+   * @throws IllegalArgumentException When the frame is malformed, or doesn't follow a layout, or a
+   *                                  delta doesn't follow a keyframe
+   */
+  public List<SensorReading> read(int nodeId, FrameReader frame) {
+    List<SensorReading> readings = null;
+    switch (frame.getOpcode()) {
+      case SENSOR_LAYOUT:
+        readLayout(nodeId, frame);
+        break;
+      case SENSOR_KEYFRAME:
+        readings = getNode(nodeId).readKeyframe(frame);
+        break;
+      case SENSOR_DELTA:
+        readings = getNode(nodeId).readDelta(frame);
+        break;
+      default:
+        throw new IllegalArgumentException("Not a sensor delta frame: " + frame.getOpcode());
+    }
+    return readings;
+  }
+
+  private void readLayout(int nodeId, FrameReader frame) {
+    if (!nodes.containsKey(nodeId) && nodes.size() >= MAX_NODES) {
+      throw new IllegalArgumentException("Too many nodes");
+    }
+    int count = frame.readVarint();
+    // Every sensor takes at least two bytes, which bounds the count before allocating
+    if (count > BinaryCodec.MAX_FRAME_SIZE / 2) {
+      throw new IllegalArgumentException("Too many sensors: " + count);
+    }
+    String[] types = new String[count];
+    String[] units = new String[count];
+    for (int i = 0; i < count; ++i) {
+      types[i] = frame.readString();
+      units[i] = frame.readString();
+    }
+    nodes.put(nodeId, new NodeSensors(types, units));
+  }
+
+  private NodeSensors getNode(int nodeId) {
+    NodeSensors sensors = nodes.get(nodeId);
+    if (sensors == null) {
+      throw new IllegalArgumentException("No sensor layout for node " + nodeId);
+    }
+    return sensors;
+  }
+
+  /**
+   * Forget the sensors of a node, for example when the node has been removed.
+   *
+   * @param nodeId The ID of the node
+   */
+  public void forgetNode(int nodeId) {
+    nodes.remove(nodeId);
+  }
+
+  /**
+   * The sensors of one node.
+   */
+  private static class NodeSensors {
+    private final String[] types;
+    private final String[] units;
+    // In hundredths, null until the first keyframe
+    private int[] values;
+
+    private NodeSensors(String[] types, String[] units) {
+      this.types = types;
+      this.units = units;
+    }
+
+    private List<SensorReading> readKeyframe(FrameReader frame) {
+      int count = frame.readVarint();
+      if (count != types.length) {
+        throw new IllegalArgumentException("Keyframe has " + count + " sensors, layout has "
+            + types.length);
+      }
+      int[] keyframe = new int[count];
+      for (int i = 0; i < count; ++i) {
+        keyframe[i] = frame.readSignedVarint();
+      }
+      values = keyframe;
+      return toReadings();
+    }
+
+    private List<SensorReading> readDelta(FrameReader frame) {
+      if (values == null) {
+        throw new IllegalArgumentException("Sensor delta before keyframe");
+      }
+      int changed = frame.readVarint();
+      for (int i = 0; i < changed; ++i) {
+        int index = frame.readVarint();
+        if (index >= values.length) {
+          throw new IllegalArgumentException("Invalid sensor index: " + index);
+        }
+        values[index] += frame.readSignedVarint();
+      }
+      return toReadings();
+    }
+
+    private List<SensorReading> toReadings() {
+      List<SensorReading> readings = new ArrayList<>(values.length);
+      for (int i = 0; i < values.length; ++i) {
+        readings.add(new SensorReading(types[i], (double) values[i] / SensorDeltaEncoder.SCALE,
+            units[i]));
+      }
+      return readings;
+    }
+  }
+}
@@ -0,0 +1,169 @@
+package no.ntnu.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+import no.ntnu.greenhouse.SensorReading;
+
+/**
+ * Encodes the sensor data of a node as changes since the previous update, instead of every
+ * sensor with its type, value and unit every time. The types and units are sent once, in an
+ * {@link Opcode#SENSOR_LAYOUT} frame, and the values as integers in hundredths: all of them in an
+ * {@link Opcode#SENSOR_KEYFRAME} frame, and after that only the ones which changed, as the
+ * difference from the value sent before, in {@link Opcode#SENSOR_DELTA} frames. A keyframe is
+ * sent every {@link #KEYFRAME_INTERVAL} updates, so that the receiver gets back in step even if
+ * it lost track of the values.
+ *
+ * <p>Values which can't be sent as whole hundredths without losing precision are sent as a plain
+ * {@link Opcode#UPDATE_SENSOR_DATA} frame, followed by a keyframe the next time.
+ *
+ * <p>An encoder holds the values the receiver knows, so it must be used for one connection only:
+ * a new connection needs a new encoder.
+ */
+public class SensorDeltaEncoder {
+  /** The number of updates between two keyframes. */
+  public static final int KEYFRAME_INTERVAL = 12;
+
+  /** The values are sent as whole multiples of one over this. */
+  public static final int SCALE = 100;
+
+  private String[] types;
+  private String[] units;
+  // The values the receiver has, in hundredths, null when it needs a keyframe
+  private int[] baseline;
+  private int updatesSinceKeyframe = 0;
+
+  /**
+   * Encode the sensor data of a node.
+   *
+   * @param nodeId   The ID of the node
+   * @param readings The current readings of all the sensors of the node
+   * @return The frames to send, in order
+   */
+  public List<byte[]> encode(int nodeId, List<SensorReading> readings) {
+    return encode(nodeId, readings, null);
+  }
+
+  /**
+   * Encode the sensor data of a node, with a trace of its way from the node. The trace goes at
+   * the end of the frame with the values.
+   *
+   * @param nodeId   The ID of the node
+   * @param readings The current readings of all the sensors of the node
+   * @param trace    The trace, or null when the readings aren't traced
+   * @return The frames to send, in order
+   */
+  public synchronized List<byte[]> encode(int nodeId, List<SensorReading> readings,
+                                          SensorTrace trace) {
+    List<byte[]> frames = new ArrayList<>(2);
+    int[] values = quantize(readings);
+    if (values == null) {
+      frames.add(BinaryCodec.encodeSensorData(nodeId, readings, trace));
+      baseline = null;
+    } else {
+      if (!hasLayout(readings)) {
+        frames.add(encodeLayout(nodeId, readings));
+        baseline = null;
+      }
+      if (baseline == null || updatesSinceKeyframe >= KEYFRAME_INTERVAL
+          || !differencesFit(values)) {
+        frames.add(encodeKeyframe(nodeId, values, trace));
+        updatesSinceKeyframe = 0;
+      } else {
+        frames.add(encodeDelta(nodeId, values, trace));
+        ++updatesSinceKeyframe;
+      }
+      baseline = values;
+    }
+    return frames;
+  }
+
+  /**
+   * Convert the values to hundredths.
+   *
+   * @param readings The readings
+   * @return The values, or null when any of them is not a whole number of hundredths within range
+   */
+  private static int[] quantize(List<SensorReading> readings) {
+    int[] values = new int[readings.size()];
+    boolean exact = true;
+    for (int i = 0; i < values.length && exact; ++i) {
+      double value = readings.get(i).getValue();
+      long quantized = Math.round(value * SCALE);
+      exact = quantized >= FrameWriter.MIN_SIGNED_VARINT
+          && quantized <= FrameWriter.MAX_SIGNED_VARINT && (double) quantized / SCALE == value;
+      values[i] = (int) quantized;
+    }
+    return exact ? values : null;
+  }
+
+  private boolean hasLayout(List<SensorReading> readings) {
+    boolean same = types != null && types.length == readings.size();
+    for (int i = 0; same && i < types.length; ++i) {
+      SensorReading reading = readings.get(i);
+      same = types[i].equals(reading.getType()) && units[i].equals(reading.getUnit());
+    }
+    return same;
+  }
+
+  private byte[] encodeLayout(int nodeId, List<SensorReading> readings) {
+    types = new String[readings.size()];
+    units = new String[readings.size()];
+    FrameWriter writer = new FrameWriter(Opcode.SENSOR_LAYOUT, 8 + readings.size() * 16);
+    writer.writeVarint(nodeId).writeVarint(readings.size());
+    for (int i = 0; i < types.length; ++i) {
+      types[i] = readings.get(i).getType();
+      units[i] = readings.get(i).getUnit();
+      writer.writeString(types[i]).writeString(units[i]);
+    }
+    return writer.toFrame();
+  }
+
+  private static byte[] encodeKeyframe(int nodeId, int[] values, SensorTrace trace) {
+    FrameWriter writer = new FrameWriter(Opcode.SENSOR_KEYFRAME, 8 + values.length * 3);
+    writer.writeVarint(nodeId).writeVarint(values.length);
+    for (int value : values) {
+      writer.writeSignedVarint(value);
+    }
+    if (trace != null) {
+      trace.write(writer);
+    }
+    return writer.toFrame();
+  }
+
+  /**
+   * Check whether the changes since the previous update can be written as signed varints. The
+   * values are within range, but a jump from one end of the range to the other is not.
+   *
+   * @param values The new values
+   * @return True when every difference fits
+   */
+  private boolean differencesFit(int[] values) {
+    boolean fit = true;
+    for (int i = 0; i < values.length && fit; ++i) {
+      long difference = (long) values[i] - baseline[i];
+      fit = difference >= FrameWriter.MIN_SIGNED_VARINT
+          && difference <= FrameWriter.MAX_SIGNED_VARINT;
+    }
+    return fit;
+  }
+
+  private byte[] encodeDelta(int nodeId, int[] values, SensorTrace trace) {
+    int changed = 0;
+    for (int i = 0; i < values.length; ++i) {
+      if (values[i] != baseline[i]) {
+        ++changed;
+      }
+    }
+    FrameWriter writer = new FrameWriter(Opcode.SENSOR_DELTA, 8 + changed * 3);
+    writer.writeVarint(nodeId).writeVarint(changed);
+    for (int i = 0; i < values.length; ++i) {
+      if (values[i] != baseline[i]) {
+        writer.writeVarint(i).writeSignedVarint(values[i] - baseline[i]);
+      }
+    }
+    if (trace != null) {
+      trace.write(writer);
+    }
+    return writer.toFrame();
+  }
+}
@@ -0,0 +1,199 @@
+package no.ntnu.protocol;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * The timestamps of one sensor data message on its way from a sensor node to the control panels,
+ * for measuring the latency of every hop: when the node took the readings, and when the server
+ * received and forwarded them. The control panels add their own timestamps locally, see
+ * {@code no.ntnu.controlpanel.SensorTracer}.
+ *
+ * <p>Tracing is optional, and off unless the system property {@value #ENABLED_PROPERTY} is true.
+ * The timestamps are microseconds since the epoch, so the hops between two machines are only
+ * meaningful when their clocks are synchronized. A traced "updateSensorData" command ends with
+ * ";trace=origin[,serverReceived,serverForwarded]"; a traced binary frame ends with a varint with
+ * the number of timestamps, followed by the timestamps as varints. Untraced messages are exactly as
+ * they were, and readers which don't know about tracing skip the trace.
+ */
+public class SensorTrace {
+  /** The system property which turns tracing on. */
+  public static final String ENABLED_PROPERTY = "greenhouse.trace";
+
+  /** The index of the time the node took the readings. */
+  public static final int ORIGIN = 0;
+
+  /** The index of the time the server started handling the readings. */
+  public static final int SERVER_RECEIVED = 1;
+
+  /** The index of the time the server queued the readings for the control panels. */
+  public static final int SERVER_FORWARDED = 2;
+
+  private static final String PREFIX = "trace=";
+  // More than the trace has today, so that hops can be added without breaking older readers
+  private static final int MAX_STAMPS = 8;
+
+  private final long[] stamps;
+
+  private SensorTrace(long[] stamps) {
+    this.stamps = stamps;
+  }
+
+  /**
+   * Check whether tracing is turned on for this process.
+   *
+   * @return True when the system property {@value #ENABLED_PROPERTY} is true
+   */
+  public static boolean isEnabled() {
+    return Boolean.getBoolean(ENABLED_PROPERTY);
+  }
+
+  /**
+   * Get the current time, as the timestamps are given.
+   *
+   * @return Microseconds since the epoch
+   */
+  public static long nowMicros() {
+    Instant now = Instant.now();
+    return now.getEpochSecond() * 1_000_000 + now.getNano() / 1000;
+  }
+
+  /**
+   * Start a trace at the node, now.
+   *
+   * @return A trace with only the origin timestamp
+   */
+  public static SensorTrace start() {
+    return new SensorTrace(new long[] {nowMicros()});
+  }
+
+  /**
+   * Add the timestamps of the server to the trace.
+   *
+   * @param receivedMicros  When the server started handling the readings
+   * @param forwardedMicros When the server queued the readings for the control panels
+   * @return A new trace with the origin of this trace and the given timestamps
+   */
+  public SensorTrace withServerStamps(long receivedMicros, long forwardedMicros) {
+    return new SensorTrace(new long[] {stamps[ORIGIN], receivedMicros, forwardedMicros});
+  }
+
+  /**
+   * Get the number of timestamps in the trace.
+   *
+   * @return The number of timestamps, at least 1
+   */
+  public int getStampCount() {
+    return stamps.length;
+  }
+
+  /**
+   * Get a timestamp.
+   *
+   * @param index The index of the timestamp, such as {@link #ORIGIN}
+   * @return The timestamp, in microseconds since the epoch
+   * @throws IllegalArgumentException When the trace has no such timestamp
+   */
+  public long getStamp(int index) {
+    if (index < 0 || index >= stamps.length) {
+      throw new IllegalArgumentException("No timestamp " + index + " in the trace");
+    }
+    return stamps[index];
+  }
+
+  /**
+   * Format the trace as the end of an "updateSensorData" command.
+   *
+   * @return The trace, on the format ";trace=origin[,serverReceived,serverForwarded]"
+   */
+  public String format() {
+    StringBuilder builder = new StringBuilder(8 + stamps.length * 17);
+    builder.append(';').append(PREFIX);
+    for (int i = 0; i < stamps.length; ++i) {
+      if (i > 0) {
+        builder.append(',');
+      }
+      builder.append(stamps[i]);
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Find where the trace of an "updateSensorData" command starts.
+   *
+   * @param command The command, or the arguments of the command
+   * @return The index of the ';' in front of the trace, or -1 when the command isn't traced
+   */
+  public static int indexIn(String command) {
+    int separator = command.lastIndexOf(';');
+    return separator >= 0 && command.startsWith(PREFIX, separator + 1) ? separator : -1;
+  }
+
+  /**
+   * Read the trace at the end of an "updateSensorData" command.
+   *
+   * @param command The command, or the arguments of the command
+   * @return The trace, or null when the command isn't traced
+   * @throws IllegalArgumentException When the trace is malformed
+   */
+  public static SensorTrace parse(String command) {
+    int separator = indexIn(command);
+    SensorTrace trace = null;
+    if (separator >= 0) {
+      String[] values = command.substring(separator + 1 + PREFIX.length()).split(",");
+      if (values.length > MAX_STAMPS) {
+        throw new IllegalArgumentException("Too many timestamps in the trace");
+      }
+      long[] stamps = new long[values.length];
+      try {
+        for (int i = 0; i < values.length; ++i) {
+          stamps[i] = Long.parseLong(values[i]);
+        }
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid timestamp in the trace");
+      }
+      trace = new SensorTrace(stamps);
+    }
+    return trace;
+  }
+
+  /**
+   * Write the trace at the end of a binary frame.
+   *
+   * @param writer The frame, after its other fields
+   */
+  public void write(FrameWriter writer) {
+    writer.writeVarint(stamps.length);
+    for (long stamp : stamps) {
+      writer.writeVarlong(Math.max(stamp, 0));
+    }
+  }
+
+  /**
+   * Read the trace at the end of a binary frame.
+   *
+   * @param frame The frame, positioned after its other fields
+   * @return The trace, or null when the frame isn't traced
+   * @throws IllegalArgumentException When the trace is malformed
+   */
+  public static SensorTrace read(FrameReader frame) {
+    SensorTrace trace = null;
+    if (frame.hasRemaining()) {
+      int count = frame.readVarint();
+      if (count == 0 || count > MAX_STAMPS) {
+        throw new IllegalArgumentException("Invalid number of timestamps: " + count);
+      }
+      long[] stamps = new long[count];
+      for (int i = 0; i < count; ++i) {
+        stamps[i] = frame.readVarlong();
+      }
+      trace = new SensorTrace(stamps);
+    }
+    return trace;
+  }
+
+  @Override
+  public String toString() {
+    return "SensorTrace" + Arrays.toString(stamps);
+  }
+}
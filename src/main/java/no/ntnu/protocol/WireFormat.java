@@ -0,0 +1,11 @@
+package no.ntnu.protocol;
+
+/**
+ * The formats a message can have on the wire.
+ */
+public enum WireFormat {
+  /** One command per line, on the format "command-nodeId;arguments". */
+  TEXT,
+  /** Length-prefixed binary frames with numeric opcodes, see {@link BinaryCodec}. */
+  BINARY
+}
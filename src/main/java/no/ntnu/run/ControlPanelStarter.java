@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import no.ntnu.controlpanel.ControlPanelLogic;
 import no.ntnu.gui.controlpanel.ControlPanelApplication;
 import no.ntnu.gui.controlpanel.TcpControlpanelNodeClient;
+import no.ntnu.protocol.SensorTrace;
 import no.ntnu.tools.Logger;
 
 /**
@@ -11,6 +12,8 @@ import no.ntnu.tools.Logger;
  * then we would have issues with the debugger (JavaFX modules not found)
  */
 public class ControlPanelStarter {
+  private static final long TRACE_REPORT_PERIOD_MILLIS = 10000;
+
   private final ArrayList<TcpControlpanelNodeClient> nodeClients = new ArrayList<>();
 
   /**
@@ -36,12 +39,18 @@ public class ControlPanelStarter {
    */
   public void start() {
     ControlPanelLogic logic = new ControlPanelLogic();
+    if (SensorTrace.isEnabled()) {
+      // The latencies of the sensor data the nodes trace, hop by hop
+      logic.getSensorTracer().getMetrics().startSnapshots(TRACE_REPORT_PERIOD_MILLIS,
+          snapshot -> Logger.infoNoNewline(snapshot.format()));
+    }
     initiateCommunication(logic);
     ControlPanelApplication.startApp(logic);
     // This code is reached only after the GUI-window is closed
     for (TcpControlpanelNodeClient client : nodeClients) {
       client.stop();
     }
+    logic.getSensorTracer().getMetrics().stopSnapshots();
     Logger.info("Exiting the control panel application");
   }
 
@@ -51,6 +60,10 @@ public class ControlPanelStarter {
             () -> {
               TcpControlpanelNodeClient client =
                   new TcpControlpanelNodeClient("127.0.0.1", 10020, logic);
+              // The panel only shows the latest state, so updates it can't keep up with may go
+              client.setConflation(true);
+              // Nodes in hidden tabs are caught up on by the server when their tab is selected
+              client.setShownNodesOnly(true);
 
               nodeClients.add(client);
               System.out.println(
@@ -1,16 +1,139 @@
 package no.ntnu.run;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Path;
+import no.ntnu.server.OverflowPolicy;
+import no.ntnu.server.ServerMode;
+import no.ntnu.server.StreamRecorder;
 import no.ntnu.server.TcpServer;
+import no.ntnu.tools.Logger;
+import no.ntnu.tools.Parser;
 
-/** Starter class for the greenhouse server. */
+/**
+ * Starter class for the greenhouse server. While the server runs, typing "metrics" on the
+ * console prints its current metrics.
+ */
 public class GreenhouseServerStarter {
   /**
    * Entrypoint for the greenhouse server.
    *
-   * @param args Command line arguments, not used.
+   * @param args Command line arguments. The first one selects how clients are handled: "nio" uses
+   *     a small pool of non-blocking selector loops, "virtual" runs every client on two virtual
+   *     threads (Java 21+), "threads" (the default) uses two platform threads per client, one
+   *     reading and one writing. The following arguments are optional settings on the form
+   *     key=value:
+   *     loops=[number of selector loops in nio mode],
+   *     overflow=[drop_oldest|coalesce|disconnect] for clients which can't keep up,
+   *     queue=[maximum number of messages queued per client],
+   *     queueBytes=[maximum size of the messages queued per client],
+   *     directBuffers=[true|false] to encode broadcasts into direct buffers,
+   *     record=[directory] to record the sensor data and actuator updates to segment files,
+   *     metrics=[seconds] to log the metrics of the server periodically.
    */
   public static void main(String[] args) {
     TcpServer server = TcpServer.getInstance();
+    for (int i = 0; i < args.length; ++i) {
+      if (i == 0 && !args[i].contains("=")) {
+        server.setMode(parseMode(args[i]));
+      } else {
+        applySetting(server, args[i]);
+      }
+    }
+    startConsole(server);
     server.startServer(TcpServer.PORT_NUMBER);
   }
+
+  /**
+   * Read commands from the console on a thread of its own, for as long as the program runs.
+   *
+   * @param server The server the commands are about
+   */
+  private static void startConsole(TcpServer server) {
+    Thread console = new Thread(() -> readConsole(server), "server-console");
+    console.setDaemon(true);
+    console.start();
+  }
+
+  private static void readConsole(TcpServer server) {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+    try {
+      String line = reader.readLine();
+      while (line != null) {
+        if (line.trim().equals("metrics")) {
+          Logger.infoNoNewline(server.dumpMetrics());
+        } else if (!line.isBlank()) {
+          Logger.error("Unknown console command: " + line.trim());
+        }
+        line = reader.readLine();
+      }
+    } catch (IOException e) {
+      Logger.error("Error reading the console: " + e.getMessage());
+    }
+  }
+
+  private static ServerMode parseMode(String arg) {
+    ServerMode mode;
+    switch (arg.toLowerCase()) {
+      case "nio":
+        mode = ServerMode.NIO;
+        break;
+      case "virtual":
+        mode = ServerMode.VIRTUAL_THREADS;
+        break;
+      default:
+        mode = ServerMode.THREAD_PER_CLIENT;
+    }
+    return mode;
+  }
+
+  private static void applySetting(TcpServer server, String arg) {
+    String[] parts = arg.split("=", 2);
+    if (parts.length != 2) {
+      throw new IllegalArgumentException("Invalid setting, expected key=value: " + arg);
+    }
+    switch (parts[0]) {
+      case "loops":
+        server.setEventLoopCount(
+            Parser.parseIntegerOrError(parts[1], "Invalid event loop count: " + parts[1]));
+        break;
+      case "overflow":
+        server.setOverflowPolicy(OverflowPolicy.valueOf(parts[1].toUpperCase()));
+        break;
+      case "queue":
+        server.setMaxQueuedMessages(
+            Parser.parseIntegerOrError(parts[1], "Invalid queue size: " + parts[1]));
+        break;
+      case "queueBytes":
+        server.setMaxQueuedBytes(
+            Parser.parseIntegerOrError(parts[1], "Invalid queue size: " + parts[1]));
+        break;
+      case "directBuffers":
+        server.setDirectBroadcastBuffers(Boolean.parseBoolean(parts[1]));
+        break;
+      case "record":
+        server.setRecorder(createRecorder(parts[1]));
+        break;
+      case "metrics":
+        int seconds = Parser.parseIntegerOrError(parts[1], "Invalid metrics period: " + parts[1]);
+        server.getMetrics().startSnapshots(seconds * 1000L,
+            snapshot -> Logger.infoNoNewline(snapshot.format()));
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown setting: " + parts[0]);
+    }
+  }
+
+  private static StreamRecorder createRecorder(String directory) {
+    StreamRecorder recorder;
+    try {
+      recorder = new StreamRecorder(Path.of(directory));
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot record to " + directory, e);
+    }
+    recorder.start();
+    Logger.info("Recording to " + directory);
+    return recorder;
+  }
 }
@@ -0,0 +1,167 @@
+package no.ntnu.run;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import no.ntnu.loadtest.LoadGenerator;
+import no.ntnu.loadtest.LoadReport;
+import no.ntnu.loadtest.ServerProcess;
+import no.ntnu.server.TcpServer;
+import no.ntnu.tools.Logger;
+import no.ntnu.tools.Parser;
+
+/**
+ * Starter class for the load test: starts a greenhouse server in a process of its own, puts the
+ * load of many simulated nodes and control panels on it, without a GUI, and logs the report.
+ */
+public class LoadTestStarter {
+  private static final String SERVER_SETTING_PREFIX = "server.";
+
+  private final LoadGenerator generator = new LoadGenerator();
+  private final List<String> serverArguments = new ArrayList<>();
+  private String serverMode;
+  private String serverHeap;
+  private boolean externalServer = false;
+  private String host = "127.0.0.1";
+  private int port = TcpServer.PORT_NUMBER;
+  private int nodeCount = 10;
+  private int panelCount = 2;
+  private int sensorsPerNode = 4;
+  private int actuatorsPerNode = 3;
+  private int rampUpSeconds = 5;
+  private int durationSeconds = 30;
+  private int progressSeconds = 5;
+
+  /**
+   * Entrypoint for the load test.
+   *
+   * @param args Optional settings on the form key=value:
+   *     nodes=[number of sensor/actuator nodes], panels=[number of control panels],
+   *     sensors=[sensors per node], actuators=[actuators per node],
+   *     sensorRate=[sensor updates per second per node],
+   *     actuatorRate=[actuator commands per second per panel],
+   *     imageRate=[camera images per second per node],
+   *     binary=[true|false] for the protocol of the clients,
+   *     rampUp=[seconds to connect the clients over], duration=[seconds of load],
+   *     progress=[seconds between progress messages],
+   *     serverHeap=[maximum heap of the server, such as 512m],
+   *     server.mode=[threads|nio|virtual] and server.[setting]=[value] for the settings of
+   *     {@link GreenhouseServerStarter}, such as server.overflow=coalesce,
+   *     server=external to put the load on a server which is already running instead, with
+   *     host=[address] and port=[port number] of that server.
+   * @throws IOException          When the server can't be started
+   * @throws InterruptedException When interrupted while the test runs
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    LoadTestStarter starter = new LoadTestStarter();
+    for (String arg : args) {
+      starter.applySetting(arg);
+    }
+    starter.start();
+  }
+
+  private void applySetting(String arg) {
+    String[] parts = arg.split("=", 2);
+    if (parts.length != 2) {
+      throw new IllegalArgumentException("Invalid setting, expected key=value: " + arg);
+    }
+    String value = parts[1];
+    switch (parts[0]) {
+      case "nodes":
+        nodeCount = Parser.parseIntegerOrError(value, "Invalid node count: " + value);
+        break;
+      case "panels":
+        panelCount = Parser.parseIntegerOrError(value, "Invalid panel count: " + value);
+        break;
+      case "sensors":
+        sensorsPerNode = Parser.parseIntegerOrError(value, "Invalid sensor count: " + value);
+        break;
+      case "actuators":
+        actuatorsPerNode = Parser.parseIntegerOrError(value, "Invalid actuator count: " + value);
+        break;
+      case "sensorRate":
+        generator.setSensorRate(Parser.parseDoubleOrError(value, "Invalid rate: " + value));
+        break;
+      case "actuatorRate":
+        generator.setActuatorRate(Parser.parseDoubleOrError(value, "Invalid rate: " + value));
+        break;
+      case "imageRate":
+        generator.setImageRate(Parser.parseDoubleOrError(value, "Invalid rate: " + value));
+        break;
+      case "binary":
+        generator.setBinaryProtocol(Boolean.parseBoolean(value));
+        break;
+      case "rampUp":
+        rampUpSeconds = Parser.parseIntegerOrError(value, "Invalid ramp-up time: " + value);
+        break;
+      case "duration":
+        durationSeconds = Parser.parseIntegerOrError(value, "Invalid duration: " + value);
+        break;
+      case "progress":
+        progressSeconds = Parser.parseIntegerOrError(value, "Invalid progress period: " + value);
+        break;
+      case "serverHeap":
+        serverHeap = value;
+        break;
+      case "server":
+        externalServer = parseServer(value);
+        break;
+      case "host":
+        host = value;
+        break;
+      case "port":
+        port = Parser.parseIntegerOrError(value, "Invalid port number: " + value);
+        break;
+      default:
+        applyServerSetting(parts[0], value);
+    }
+  }
+
+  private static boolean parseServer(String value) {
+    if (!value.equals("spawn") && !value.equals("external")) {
+      throw new IllegalArgumentException("Invalid server, expected spawn or external: " + value);
+    }
+    return value.equals("external");
+  }
+
+  private void applyServerSetting(String key, String value) {
+    if (!key.startsWith(SERVER_SETTING_PREFIX)) {
+      throw new IllegalArgumentException("Unknown setting: " + key);
+    }
+    String serverKey = key.substring(SERVER_SETTING_PREFIX.length());
+    if (serverKey.equals("mode")) {
+      serverMode = value;
+    } else {
+      serverArguments.add(serverKey + "=" + value);
+    }
+  }
+
+  /**
+   * Start the server, unless an external one is used, run the test and log the report.
+   */
+  private void start() throws IOException, InterruptedException {
+    generator.setClientCounts(nodeCount, panelCount);
+    generator.setDevicesPerNode(sensorsPerNode, actuatorsPerNode);
+    generator.setTimes(rampUpSeconds, durationSeconds, progressSeconds);
+    ServerProcess server = null;
+    if (externalServer) {
+      generator.setAddress(host, port);
+    } else {
+      if (serverMode != null) {
+        // The mode must come first
+        serverArguments.add(0, serverMode);
+      }
+      server = new ServerProcess(serverArguments, serverHeap);
+      server.start();
+      generator.setServer(server);
+    }
+    try {
+      LoadReport report = generator.run();
+      Logger.infoNoNewline(report.format());
+    } finally {
+      if (server != null) {
+        server.stop();
+      }
+    }
+  }
+}
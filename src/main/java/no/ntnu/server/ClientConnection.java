@@ -0,0 +1,566 @@
+package no.ntnu.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import no.ntnu.greenhouse.SensorReading;
+import no.ntnu.protocol.BinaryCodec;
+import no.ntnu.protocol.FrameReader;
+import no.ntnu.protocol.ImageAssembler;
+import no.ntnu.protocol.ImageChunk;
+import no.ntnu.protocol.Opcode;
+import no.ntnu.protocol.SensorDeltaDecoder;
+import no.ntnu.protocol.SensorTrace;
+import no.ntnu.protocol.WireFormat;
+import no.ntnu.tools.Logger;
+
+/**
+ * A connection between the server and a single client. Holds the state the server knows about the
+ * client (node type and ID) and dispatches the commands received from it. How the bytes are read
+ * from and written to the socket is left to the subclasses.
+ *
+ * <p>A connection starts in the text protocol. A client may ask to switch to binary frames with
+ * "setProtocol-binary", after which the subclasses read frames and hand them to
+ * {@link #handleFrame(ByteBuffer)}. Messages are forwarded between clients regardless of the
+ * protocol each of them uses.
+ *
+ * <p>What the nodes send about their state is also kept in the {@link NodeStateCache} of the
+ * server, which a control panel gets when it joins ("controlPanelAdded") instead of the nodes being
+ * asked.
+ *
+ * <p>Updates from a node go to the control panels subscribed to it ("subscribe-3,5"), or to all
+ * nodes, which every panel is until it unsubscribes ("unsubscribe-*"). Nodes being added and
+ * removed go to all panels.
+ *
+ * <p>Binary nodes may send their sensor data as changes since the previous update. The server
+ * keeps the latest values and forwards complete sensor data, so that the control panels, and the
+ * cache, don't depend on having seen the previous updates.
+ *
+ * <p>Sensor data may carry a {@link SensorTrace} from the node. The server adds the times it
+ * received and forwarded the data to the trace it forwards to the control panels, and keeps the
+ * trace out of the cache and the recording, where it would be stale.
+ *
+ * <p>Sensor data and actuator updates are also recorded, when the server has a
+ * {@link StreamRecorder}. The time taken to handle each command, and the bytes the subclasses
+ * read and write, are recorded in the {@link ServerMetrics} of the server.
+ *
+ * <p>Binary nodes send camera images in chunks. The chunks are forwarded as they are to the
+ * control panels using binary frames, and put together into a single "sendCameraImage" message
+ * for the ones using text.
+ */
+public abstract class ClientConnection {
+  // The argument of subscribe and unsubscribe meaning all nodes
+  private static final String ALL_NODES = "*";
+  protected final TcpServer server;
+  protected final OutboundQueue outboundQueue;
+  private volatile NodeType nodeType = NodeType.UNDEFINED;
+  private volatile int id;
+  private final AtomicBoolean evicted = new AtomicBoolean(false);
+  // Only used by the thread reading from the client
+  private WireFormat inputFormat = WireFormat.TEXT;
+  // The protocol the client receives messages in, once the answer to setProtocol is queued
+  private volatile WireFormat protocol = WireFormat.TEXT;
+  // Only used by the thread reading from the client, created by the first image chunk
+  private ImageAssembler imageAssembler;
+  // Only used by the thread reading from the client, created by the first sensor delta frame
+  private SensorDeltaDecoder sensorDecoder;
+  // Only updated by the thread reading from the client
+  private volatile long bytesReceived = 0;
+  // Only updated by the thread writing to the client
+  private volatile long bytesSent = 0;
+
+  /**
+   * Create a new client connection.
+   *
+   * @param server The server the client is connected to
+   */
+  protected ClientConnection(TcpServer server) {
+    if (server == null) {
+      throw new IllegalArgumentException("Server cannot be null");
+    }
+    this.server = server;
+    this.outboundQueue = server.createOutboundQueue();
+  }
+
+  /**
+   * Handle the input from the client (TCP socket).
+   *
+   * @param inputLine The input from the client
+   */
+  protected void handleInput(String inputLine) {
+    handleCommand(inputLine, null);
+  }
+
+  /**
+   * Handle a binary frame from the client.
+   *
+   * @param payload The payload of the frame, starting with the opcode
+   * @throws IOException When the frame is malformed
+   */
+  protected void handleFrame(ByteBuffer payload) throws IOException {
+    byte[] frame = BinaryCodec.toFrame(payload);
+    String command = null;
+    ImageChunk chunk = null;
+    try {
+      FrameReader reader = new FrameReader(payload.duplicate());
+      Opcode opcode = reader.getOpcode();
+      if (opcode == Opcode.IMAGE_CHUNK) {
+        chunk = BinaryCodec.readImageChunk(reader);
+      } else if (opcode == Opcode.SENSOR_LAYOUT || opcode == Opcode.SENSOR_KEYFRAME
+          || opcode == Opcode.SENSOR_DELTA) {
+        int nodeId = reader.readVarint();
+        List<SensorReading> readings = readSensorDelta(nodeId, reader);
+        if (readings != null) {
+          SensorTrace trace = SensorTrace.read(reader);
+          command = BinaryCodec.formatSensorData(nodeId, readings, trace);
+          frame = BinaryCodec.encodeSensorData(nodeId, readings, trace);
+        }
+      } else {
+        command = BinaryCodec.decode(payload);
+      }
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Malformed frame: " + e.getMessage());
+    }
+    if (chunk != null) {
+      long start = System.nanoTime();
+      forwardImageChunk(chunk, frame);
+      server.getServerMetrics().commandHandled(Opcode.IMAGE_CHUNK.getCommand(), start);
+    } else if (command != null) {
+      handleCommand(command, frame);
+    }
+  }
+
+  /**
+   * Read a frame of delta-encoded sensor data, into the complete sensor data to forward.
+   *
+   * @param nodeId The ID of the node
+   * @param reader The frame, positioned after the node ID
+   * @return The current readings of the node, or null when there is nothing to forward
+   * @throws IllegalArgumentException When the frame is malformed or out of sequence
+   */
+  private List<SensorReading> readSensorDelta(int nodeId, FrameReader reader) {
+    if (sensorDecoder == null) {
+      sensorDecoder = new SensorDeltaDecoder();
+    }
+    return sensorDecoder.read(nodeId, reader);
+  }
+
+  /**
+   * Forward a chunk of a camera image to the control panels: as it is to the ones using binary
+   * frames, and as a complete image, once all the chunks have arrived, to the ones using text.
+   *
+   * @param chunk The chunk
+   * @param frame The chunk as it arrived, including the length prefix
+   */
+  private void forwardImageChunk(ImageChunk chunk, byte[] frame) {
+    String description = Opcode.IMAGE_CHUNK.getCommand() + "-" + chunk.getNodeId() + ";"
+        + chunk.getTransferId() + ";" + chunk.getOffset() + ";" + chunk.getImageSize();
+    server.sendNodeUpdateToControlPanels(chunk.getNodeId(),
+        server.createMessage(description, frame), WireFormat.BINARY);
+    if (imageAssembler == null) {
+      imageAssembler = new ImageAssembler();
+    }
+    byte[] image = imageAssembler.add(chunk);
+    if (image != null) {
+      OutboundMessage message = server.createMessage("sendCameraImage-" + chunk.getNodeId() + ";"
+          + Base64.getEncoder().encodeToString(image), null);
+      server.getNodeStates().imageUpdated(chunk.getNodeId(), message,
+          () -> server.sendNodeUpdateToControlPanels(chunk.getNodeId(), message, WireFormat.TEXT));
+    }
+  }
+
+  /**
+   * Find the node ID in a message on the format "command-nodeId;arguments".
+   *
+   * @param message The message
+   * @return The node ID, or -1 when the message has none
+   */
+  private static int parseNodeId(String message) {
+    int start = message.indexOf('-') + 1;
+    int end = message.indexOf(';', start);
+    return parseNumber(message, start, end < 0 ? message.length() : end);
+  }
+
+  /**
+   * Find the actuator ID in a message on the format "command-nodeId;actuatorId=state".
+   *
+   * @param message The message
+   * @return The actuator ID, or -1 when the message has none
+   */
+  private static int parseActuatorId(String message) {
+    int start = message.indexOf(';') + 1;
+    int end = message.indexOf('=', start);
+    return start == 0 || end < 0 ? -1 : parseNumber(message, start, end);
+  }
+
+  private static int parseNumber(String text, int start, int end) {
+    int number;
+    try {
+      number = Integer.parseInt(text, start, end, 10);
+    } catch (NumberFormatException e) {
+      number = -1;
+    }
+    return number;
+  }
+
+  /**
+   * Handle a command from the client.
+   *
+   * @param inputLine The command, in the text protocol
+   * @param frame     The command as it arrived in a binary frame, or null when it arrived as text
+   */
+  private void handleCommand(String inputLine, byte[] frame) {
+    long start = System.nanoTime();
+    Logger.debug(() -> "Received: " + inputLine);
+    List<String> inputParts = List.of(inputLine.split("-"));
+    String command = inputParts.get(0);
+    switch (command) {
+      case "setNodeType":
+        setNodeType(inputParts.get(1));
+        break;
+      case "setId":
+        setId(inputParts.get(1));
+        break;
+      case "setProtocol":
+        setProtocol(inputParts.size() > 1 ? inputParts.get(1) : "");
+        break;
+      case "setConflation":
+        outboundQueue.setConflating(inputParts.size() > 1 && inputParts.get(1).equals("true"));
+        break;
+      case "updateSensorData":
+        forwardSensorData(inputLine, frame);
+        break;
+      case "nodeAdded":
+        OutboundMessage nodeAdded = server.createMessage(inputLine, frame);
+        server.getNodeStates().nodeAdded(parseNodeId(inputLine), nodeAdded,
+            () -> server.sendMessageToControlPanels(nodeAdded));
+        break;
+      case "controlPanelAdded":
+        server.sendNodeStates(this);
+        break;
+      case "subscribe":
+        subscribe(inputParts.size() > 1 ? inputParts.get(1) : "");
+        break;
+      case "unsubscribe":
+        unsubscribe(inputParts.size() > 1 ? inputParts.get(1) : "");
+        break;
+      case "actuatorUpdated":
+        OutboundMessage actuatorUpdated = server.createMessage(inputLine, frame);
+        int actuatorNodeId = parseNodeId(inputLine);
+        server.getNodeStates().actuatorUpdated(actuatorNodeId, parseActuatorId(inputLine),
+            actuatorUpdated,
+            () -> server.sendNodeUpdateToControlPanels(actuatorNodeId, actuatorUpdated));
+        server.record(actuatorUpdated);
+        break;
+      case "controlPanelUpdateActuator":
+        server.sendMessageToSensorActuatorNode(server.createMessage(inputLine, frame),
+            extractNodeId(inputLine));
+        break;
+      case "nodeRemoved":
+        OutboundMessage nodeRemoved = server.createMessage(inputLine, frame);
+        server.getNodeStates().nodeRemoved(parseNodeId(inputLine),
+            () -> server.sendMessageToControlPanels(nodeRemoved));
+        stopHandler();
+        break;
+      case "checkConnection":
+        break;
+      case "sendCameraImage":
+        OutboundMessage image = server.createMessage(inputLine, frame);
+        int imageNodeId = parseNodeId(inputLine);
+        server.getNodeStates().imageUpdated(imageNodeId, image,
+            () -> server.sendNodeUpdateToControlPanels(imageNodeId, image));
+        break;
+      default:
+        Logger.error("Unknown command: " + command);
+        sendToClient("unknownCommandError");
+        command = ServerMetrics.UNKNOWN_COMMAND;
+    }
+    server.getServerMetrics().commandHandled(command, start);
+  }
+
+  /**
+   * Forward sensor data to the control panels, and keep it in the cache and the recording. When
+   * the data is traced, the trace is left out of the cache and the recording, and the server adds
+   * its timestamps to the trace it forwards. Since a message is encoded once for all its
+   * recipients, the forward timestamp is the time the message is handed to their queues, not the
+   * time it is written to each of them.
+   *
+   * @param inputLine The command, in the text protocol
+   * @param frame     The command as it arrived in a binary frame, or null when it arrived as text
+   */
+  private void forwardSensorData(String inputLine, byte[] frame) {
+    int nodeId = parseNodeId(inputLine);
+    SensorTrace trace = null;
+    try {
+      trace = SensorTrace.parse(inputLine);
+    } catch (IllegalArgumentException e) {
+      Logger.debug(() -> "Forwarding sensor data with malformed trace: " + e.getMessage());
+    }
+    OutboundMessage sensorData;
+    if (trace == null) {
+      sensorData = server.createMessage(inputLine, frame);
+      OutboundMessage forwarded = sensorData;
+      server.getNodeStates().sensorDataUpdated(nodeId, sensorData,
+          () -> server.sendNodeUpdateToControlPanels(nodeId, forwarded));
+    } else {
+      long receivedMicros = SensorTrace.nowMicros();
+      String readings = inputLine.substring(0, SensorTrace.indexIn(inputLine));
+      sensorData = server.createMessage(readings, null);
+      SensorTrace received = trace;
+      server.getNodeStates().sensorDataUpdated(nodeId, sensorData, () -> {
+        SensorTrace forwarded = received.withServerStamps(receivedMicros, SensorTrace.nowMicros());
+        server.sendNodeUpdateToControlPanels(nodeId,
+            server.createMessage(readings + forwarded.format(), null));
+      });
+    }
+    server.record(sensorData);
+  }
+
+  /**
+   * Subscribe the client to the updates of nodes.
+   *
+   * @param nodes "*" for all nodes, or a comma-separated list of node IDs
+   */
+  private void subscribe(String nodes) {
+    if (nodes.equals(ALL_NODES)) {
+      server.getSubscriptions().subscribeToAll(this);
+    } else {
+      server.subscribe(this, parseNodeIds(nodes));
+    }
+  }
+
+  /**
+   * Unsubscribe the client from the updates of nodes.
+   *
+   * @param nodes "*" for all nodes, or a comma-separated list of node IDs
+   */
+  private void unsubscribe(String nodes) {
+    if (nodes.equals(ALL_NODES)) {
+      server.getSubscriptions().unsubscribeFromAll(this);
+    } else {
+      for (int nodeId : parseNodeIds(nodes)) {
+        server.getSubscriptions().unsubscribe(this, nodeId);
+      }
+    }
+  }
+
+  /**
+   * Parse a comma-separated list of node IDs, skipping the ones which are not valid.
+   *
+   * @param nodes The list
+   * @return The node IDs
+   */
+  private static List<Integer> parseNodeIds(String nodes) {
+    List<Integer> nodeIds = new ArrayList<>();
+    int start = 0;
+    while (start < nodes.length()) {
+      int end = nodes.indexOf(',', start);
+      if (end < 0) {
+        end = nodes.length();
+      }
+      int nodeId = parseNumber(nodes, start, end);
+      if (nodeId >= 0) {
+        nodeIds.add(nodeId);
+      }
+      start = end + 1;
+    }
+    return nodeIds;
+  }
+
+  /**
+   * Extract the node ID from the input string.
+   *
+   * @param input The input string
+   * @return The node ID
+   */
+  private int extractNodeId(String input) {
+    String[] parts = input.split("-");
+    if (parts.length < 2)  {
+      throw new IllegalArgumentException("Invalid input");
+    }
+    int id;
+    try {
+      id = Integer.parseInt(parts[1].split(";")[0]);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid input");
+    }
+
+    return id;
+  }
+
+  /**
+   * Set the node type.
+   *
+   * @param nodeType The node type
+   */
+  private void setNodeType(String nodeType) {
+    NodeType previousType = this.nodeType;
+    if (nodeType.equals("SensorActuator")) {
+      this.nodeType = NodeType.SENSORACTUATOR;
+    } else if (nodeType.equals("ControlPanel")) {
+      this.nodeType = NodeType.CONTROLPANEL;
+    }
+    if (this.nodeType != previousType) {
+      server.clientNodeTypeChanged(this, previousType);
+    }
+  }
+
+  /**
+   * Switch the connection to the protocol the client asked for. The input switches right away,
+   * since the client sends nothing more until it has the answer; the output switches once the
+   * answer, which is still text, has been written.
+   *
+   * @param protocol The requested protocol, "binary" or "text"
+   */
+  private void setProtocol(String protocol) {
+    WireFormat format = protocol.equals(BinaryCodec.BINARY) ? WireFormat.BINARY : WireFormat.TEXT;
+    inputFormat = format;
+    sendToClient(OutboundMessage.protocolAnswer(format));
+    this.protocol = format;
+  }
+
+  /**
+   * Get the protocol the client sends its commands in.
+   *
+   * @return The protocol of the input from the client
+   */
+  protected WireFormat getInputFormat() {
+    return inputFormat;
+  }
+
+  /**
+   * Get the protocol the client receives messages in. Messages queued for the client from now on
+   * are written in this protocol.
+   *
+   * @return The protocol of the output to the client
+   */
+  public WireFormat getProtocol() {
+    return protocol;
+  }
+
+  /**
+   * Set the ID of the node.
+   *
+   * @param id The ID of the node
+   */
+  private void setId(String id) {
+    try {
+      int id1 = Integer.parseInt(id);
+      if (id1 < 0) {
+      } else {
+        int previousId = this.id;
+        this.id = id1;
+        Logger.info("Node ID set to: " + this.id);
+        server.clientIdChanged(this, previousId);
+      }
+    } catch (NumberFormatException e) {
+      Logger.error("Invalid ID: " + id);
+    }
+  }
+
+  /**
+   * Send a response from the server to the client.
+   *
+   * @param message The message to sent to the client
+   */
+  public void sendToClient(String message) {
+    sendToClient(new OutboundMessage(message));
+  }
+
+  /**
+   * Queue a message for the client. Never blocks: when the client can't keep up, the overflow
+   * policy of the server decides whether old messages are dropped or the client is disconnected.
+   *
+   * @param message The message to sent to the client
+   */
+  public void sendToClient(OutboundMessage message) {
+    if (outboundQueue.offer(message)) {
+      onMessageQueued();
+    } else if (evicted.compareAndSet(false, true)) {
+      Logger.info("Client " + nodeType + " " + id + " can't keep up, disconnecting");
+      disconnect();
+    }
+  }
+
+  /**
+   * Count bytes received from the client. Must only be called by the thread reading from the
+   * client.
+   *
+   * @param bytes The number of bytes
+   */
+  protected void countBytesReceived(long bytes) {
+    bytesReceived += bytes;
+    server.getServerMetrics().bytesReceived(bytes);
+  }
+
+  /**
+   * Count bytes sent to the client. Must only be called by the thread writing to the client.
+   *
+   * @param bytes The number of bytes
+   */
+  protected void countBytesSent(long bytes) {
+    bytesSent += bytes;
+    server.getServerMetrics().bytesSent(bytes);
+  }
+
+  /**
+   * Get the number of bytes received from the client so far.
+   *
+   * @return The number of bytes
+   */
+  public long getBytesReceived() {
+    return bytesReceived;
+  }
+
+  /**
+   * Get the number of bytes sent to the client so far.
+   *
+   * @return The number of bytes
+   */
+  public long getBytesSent() {
+    return bytesSent;
+  }
+
+  /**
+   * Called after a message has been added to the outbound queue.
+   */
+  protected abstract void onMessageQueued();
+
+  /**
+   * Close the connection to the client right away. May be called from any thread.
+   */
+  protected abstract void disconnect();
+
+  /** Stop handling the client. */
+  public abstract void stopHandler();
+
+  /**
+   * Get the queue of messages waiting to be sent to the client.
+   *
+   * @return The outbound queue, with the counters of queued and dropped messages
+   */
+  public OutboundQueue getOutboundQueue() {
+    return outboundQueue;
+  }
+
+  /**
+   * Returns the node type.
+   *
+   * @return The node type
+   */
+  public NodeType getNodeType() {
+    return nodeType;
+  }
+
+  /**
+   * Returns the ID of the node.
+   *
+   * @return The ID of the node
+   */
+  public int getHandlerId() {
+    return id;
+  }
+}
@@ -1,22 +1,30 @@
 package no.ntnu.server;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.Socket;
-import java.util.List;
-
-/** The class that handles the communication between the server and a client. */
-public class ClientHandler extends Thread {
+import java.nio.ByteBuffer;
+import no.ntnu.protocol.ProtocolInputStream;
+import no.ntnu.protocol.WireFormat;
+import no.ntnu.tools.LogLevel;
+import no.ntnu.tools.Logger;
+
+/**
+ * Handles the communication between the server and a client with blocking socket I/O. Each
+ * handler reads the commands from the client on one thread, and writes the queued messages to the
+ * client on another, so a client which does not read can't block the server.
+ */
+public class ClientHandler extends ClientConnection implements Runnable {
   private final Socket clientSocket;
-  private final TcpServer server;
-  private NodeType nodeType = NodeType.UNDEFINED;
-  private int id;
-  private boolean running = false;
+  private volatile boolean running = false;
+
+  private static final int WRITE_CHUNK_SIZE = 8192;
 
-  private final BufferedReader socketReader;
-  private final PrintWriter socketWriter;
+  private final ProtocolInputStream socketReader;
+  private final OutputStream socketOutput;
+  // The bytes read from the socket reader when they were last counted
+  private long countedBytes = 0;
 
   /**
    * Create a new client handler.
@@ -28,21 +36,21 @@ public class ClientHandler extends Thread {
    *     shutdownInput(), or the socket output has been shutdown using shutdownOutput().
    */
   public ClientHandler(Socket clientSocket, TcpServer server) throws IOException {
-    if (clientSocket == null || server == null) {
+    super(server);
+    if (clientSocket == null) {
       throw new IllegalArgumentException("Socket, server or node type cannot be null");
     }
 
     this.clientSocket = clientSocket;
-    this.server = server;
-    socketReader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-    socketWriter = new PrintWriter(clientSocket.getOutputStream(), true);
+    socketReader = new ProtocolInputStream(clientSocket.getInputStream());
+    socketOutput = new BufferedOutputStream(clientSocket.getOutputStream(), WRITE_CHUNK_SIZE);
   }
 
   /** Run the client handler. */
   @Override
   public void run() {
     this.running = true;
-    System.out.println("Processing client on thread: " + Thread.currentThread().getName());
+    Logger.info("Processing client on thread: " + Thread.currentThread().getName());
 
     while (this.running) {
       if (clientSocket.isClosed()) {
@@ -55,144 +63,109 @@ public class ClientHandler extends Thread {
   /** Receive a command from the client (TCP socket). */
   private void receiveCommand() {
     try {
-      String command = socketReader.readLine();
-      if (command != null) {
-        handleInput(command);
+      boolean received;
+      if (getInputFormat() == WireFormat.BINARY) {
+        ByteBuffer frame = socketReader.readFrame();
+        received = frame != null;
+        if (received) {
+          handleFrame(frame);
+        }
+      } else {
+        String command = socketReader.readLine();
+        received = command != null;
+        if (received) {
+          handleInput(command);
+        }
       }
-    } catch (IOException e) {
-      System.out.println("Error reading command: " + e.getMessage());
+      countBytesReceived(socketReader.getBytesRead() - countedBytes);
+      countedBytes = socketReader.getBytesRead();
+      if (!received) {
+        // End of stream, the client has disconnected
+        this.running = false;
+      }
+    } catch (IOException | RuntimeException e) {
+      // A malformed command must not leave the client registered with a writer waiting forever
+      Logger.error("Error reading command: " + e.getMessage());
       this.running = false;
     }
-  }
-
-  /**
-   * Handle the input from the client (TCP socket).
-   *
-   * @param inputLine The input from the client
-   */
-  private void handleInput(String inputLine) {
-    System.out.println("Received: " + inputLine);
-    List<String> inputParts = List.of(inputLine.split("-"));
-    switch (inputParts.get(0)) {
-      case "setNodeType":
-        setNodeType(inputParts.get(1));
-        break;
-      case "setId":
-        setId(inputParts.get(1));
-        break;
-      case "updateSensorData":
-        server.sendMessageToControlPanels(inputLine);
-        break;
-      case "nodeAdded":
-        server.sendMessageToControlPanels(inputLine);
-        break;
-      case "controlPanelAdded":
-        server.sendMessageToSensorActuatorNodes(inputLine);
-        break;
-      case "actuatorUpdated":
-        server.sendMessageToControlPanels(inputLine);
-        break;
-      case "controlPanelUpdateActuator":
-        server.sendMessageToSensorActuatorNode(inputLine, extractNodeId(inputLine));
-        break;
-      case "nodeRemoved":
-        server.sendMessageToControlPanels(inputLine);
-        running = false;
-        break;
-      case "checkConnection":
-        break;
-      case "sendCameraImage":
-        server.sendMessageToControlPanels(inputLine);
-        break;
-      default:
-        System.out.println("Unknown command: " + inputParts.get(0));
-        sendToClient("unknownCommandError");
+    if (!this.running) {
+      close();
     }
   }
 
   /**
-   * Extract the node ID from the input string.
-   *
-   * @param input The input string
-   * @return The node ID
+   * Write the queued messages to the client until the connection is closed. The socket is flushed
+   * only when the queue has been emptied, so a burst of messages is sent in as few packets as
+   * possible.
    */
-  private int extractNodeId(String input) {
-    String[] parts = input.split("-");
-    if (parts.length < 2)  {
-      throw new IllegalArgumentException("Invalid input");
-    }
-    int id;
+  void runWriter() {
+    byte[] chunk = new byte[WRITE_CHUNK_SIZE];
+    WireFormat outputFormat = WireFormat.TEXT;
     try {
-      id = Integer.parseInt(parts[1].split(";")[0]);
-    } catch (NumberFormatException e) {
-      throw new IllegalArgumentException("Invalid input");
-    }
-
-    return id;
-  }
-
-  /**
-   * Set the node type.
-   *
-   * @param nodeType The node type
-   */
-  private void setNodeType(String nodeType) {
-    if (nodeType.equals("SensorActuator")) {
-      this.nodeType = NodeType.SENSORACTUATOR;
-    } else if (nodeType.equals("ControlPanel")) {
-      this.nodeType = NodeType.CONTROLPANEL;
+      OutboundMessage message = outboundQueue.take();
+      while (message != null) {
+        write(message.getBytes(outputFormat), chunk);
+        if (message.getSwitchFormat() != null) {
+          outputFormat = message.getSwitchFormat();
+        }
+        if (Logger.isEnabled(LogLevel.DEBUG)) {
+          Logger.debug("Sent: " + message.getText());
+        }
+        if (outboundQueue.isEmpty()) {
+          socketOutput.flush();
+        }
+        message = outboundQueue.take();
+      }
+    } catch (IOException e) {
+      Logger.error("Error writing to client: " + e.getMessage());
+      disconnect();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
   }
 
   /**
-   * Set the ID of the node.
+   * Write an encoded message to the socket. The message bytes are shared with the other
+   * recipients and can't be accessed as an array, so they are copied through a chunk buffer
+   * owned by this writer.
    *
-   * @param id The ID of the node
+   * @param bytes The encoded message
+   * @param chunk The buffer to copy the bytes through
+   * @throws IOException If writing to the socket fails
    */
-  private void setId(String id) {
-    try {
-      int id1 = Integer.parseInt(id);
-      if (id1 < 0) {
-      } else {
-        this.id = id1;
-        System.out.println("Node ID set to: " + this.id);
-      }
-    } catch (NumberFormatException e) {
-      System.err.println("Invalid ID: " + id);
+  private void write(ByteBuffer bytes, byte[] chunk) throws IOException {
+    countBytesSent(bytes.remaining());
+    while (bytes.hasRemaining()) {
+      int length = Math.min(chunk.length, bytes.remaining());
+      bytes.get(chunk, 0, length);
+      socketOutput.write(chunk, 0, length);
     }
   }
 
-  /**
-   * Send a response from the server to the client by using the TCP socket.
-   *
-   * @param message The message to sent to the client
-   */
-  public void sendToClient(String message) {
-    if (socketWriter != null) {
-      socketWriter.println(message);
-      System.out.println("Sent: " + message);
-    }
+  /** Close the socket and forget the client. */
+  private void close() {
+    disconnect();
+    server.removeClient(this);
   }
 
-  /**
-   * Returns the node type.
-   *
-   * @return The node type
-   */
-  public NodeType getNodeType() {
-    return nodeType;
+  @Override
+  protected void onMessageQueued() {
+    // The writer thread is woken up by the queue itself
   }
 
-  /**
-   * Returns the ID of the node.
-   *
-   * @return The ID of the node
-   */
-  public int getHandlerId() {
-    return id;
+  @Override
+  protected void disconnect() {
+    this.running = false;
+    outboundQueue.close();
+    try {
+      clientSocket.close();
+    } catch (IOException e) {
+      Logger.error("Error closing client socket: " + e.getMessage());
+    }
   }
 
   /** Stop the handler. */
+  @Override
   public void stopHandler() {
     this.running = false;
   }
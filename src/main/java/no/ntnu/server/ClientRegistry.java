@@ -0,0 +1,114 @@
+package no.ntnu.server;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import no.ntnu.tools.Logger;
+
+/**
+ * The clients connected to the server, partitioned by node type and indexed by node ID. Clients
+ * are registered, moved and removed rarely compared to how often messages are routed to them, so
+ * the updates are serialized while the lookups are lock-free: each partition is a copy-on-write
+ * list, iterating it always sees a consistent snapshot, even while clients connect and disconnect.
+ */
+public class ClientRegistry {
+  private final Map<NodeType, List<ClientConnection>> clientsByType =
+      new EnumMap<>(NodeType.class);
+  private final ConcurrentMap<Integer, ClientConnection> sensorActuatorNodesById =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Create an empty registry.
+   */
+  public ClientRegistry() {
+    for (NodeType nodeType : NodeType.values()) {
+      clientsByType.put(nodeType, new CopyOnWriteArrayList<>());
+    }
+  }
+
+  /**
+   * Register a newly connected client.
+   *
+   * @param client The client connection
+   */
+  public synchronized void add(ClientConnection client) {
+    clientsByType.get(client.getNodeType()).add(client);
+    index(client);
+  }
+
+  /**
+   * Forget a disconnected client.
+   *
+   * @param client The client connection
+   */
+  public synchronized void remove(ClientConnection client) {
+    clientsByType.get(client.getNodeType()).remove(client);
+    unindex(client, client.getHandlerId());
+  }
+
+  /**
+   * Move a client to the partition of its new node type.
+   *
+   * @param client       The client connection, already having the new node type
+   * @param previousType The node type the client had before
+   */
+  public synchronized void nodeTypeChanged(ClientConnection client, NodeType previousType) {
+    if (clientsByType.get(previousType).remove(client)) {
+      clientsByType.get(client.getNodeType()).add(client);
+      sensorActuatorNodesById.remove(client.getHandlerId(), client);
+      index(client);
+    }
+  }
+
+  /**
+   * Re-index a client under its new ID.
+   *
+   * @param client     The client connection, already having the new ID
+   * @param previousId The ID the client had before
+   */
+  public synchronized void idChanged(ClientConnection client, int previousId) {
+    if (clientsByType.get(client.getNodeType()).contains(client)) {
+      unindex(client, previousId);
+      index(client);
+    }
+  }
+
+  private void index(ClientConnection client) {
+    if (client.getNodeType() == NodeType.SENSORACTUATOR) {
+      ClientConnection previous = sensorActuatorNodesById.put(client.getHandlerId(), client);
+      if (previous != null && previous != client) {
+        Logger.info("Node " + client.getHandlerId() + " reconnected, routing to the "
+            + "newest connection");
+      }
+    }
+  }
+
+  private void unindex(ClientConnection client, int id) {
+    // Only remove the mapping if it still points to this client, not to a newer connection
+    sensorActuatorNodesById.remove(id, client);
+  }
+
+  /**
+   * Get all the clients of a given node type.
+   *
+   * @param nodeType The node type
+   * @return A read-only view of the clients, safe to iterate while clients come and go
+   */
+  public List<ClientConnection> getClients(NodeType nodeType) {
+    return Collections.unmodifiableList(clientsByType.get(nodeType));
+  }
+
+  /**
+   * Find the connection of a sensor/actuator node.
+   *
+   * @param id The ID of the node
+   * @return The connection, or null if no node with this ID is connected
+   */
+  public ClientConnection getSensorActuatorNode(int id) {
+    return sensorActuatorNodesById.get(id);
+  }
+}
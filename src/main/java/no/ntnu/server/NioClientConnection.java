@@ -0,0 +1,265 @@
+package no.ntnu.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+import no.ntnu.protocol.BinaryCodec;
+import no.ntnu.protocol.WireFormat;
+import no.ntnu.tools.Logger;
+
+/**
+ * A client connection served by a {@link NioEventLoop}. Incoming bytes are split into lines or
+ * binary frames (commands) directly from the read buffer, outgoing messages are queued and written
+ * whenever the socket accepts more data. All the socket I/O happens on the loop thread.
+ */
+public class NioClientConnection extends ClientConnection {
+  private static final int READ_BUFFER_SIZE = 8192;
+  // The largest frame, with room for its length prefix
+  private static final int MAX_MESSAGE_LENGTH = BinaryCodec.MAX_FRAME_SIZE + 5;
+
+  private final SocketChannel channel;
+  private final NioEventLoop eventLoop;
+  private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+  private SelectionKey selectionKey;
+  // The message currently being written, when the socket did not accept all of it at once
+  private ByteBuffer pendingWrite;
+
+  // The received bytes not handled yet, in write mode between reads. Grows to fit a large message.
+  private ByteBuffer inbound = ByteBuffer.allocate(READ_BUFFER_SIZE);
+  // How much of the unhandled text has been searched for a line ending already
+  private int scannedLength = 0;
+  private WireFormat outputFormat = WireFormat.TEXT;
+  private volatile boolean closed = false;
+
+  /**
+   * Create a new connection.
+   *
+   * @param channel   The (non-blocking) channel to the client
+   * @param eventLoop The loop serving this connection
+   * @param server    The server
+   */
+  public NioClientConnection(SocketChannel channel, NioEventLoop eventLoop, TcpServer server) {
+    super(server);
+    if (channel == null || eventLoop == null) {
+      throw new IllegalArgumentException("Channel and event loop cannot be null");
+    }
+    this.channel = channel;
+    this.eventLoop = eventLoop;
+  }
+
+  /**
+   * Set the key of the channel registration in the selector.
+   *
+   * @param selectionKey The selection key
+   */
+  void setSelectionKey(SelectionKey selectionKey) {
+    this.selectionKey = selectionKey;
+  }
+
+  /**
+   * Read the available bytes from the socket and handle all the complete commands.
+   *
+   * @throws IOException If reading from the socket fails
+   */
+  void onReadable() throws IOException {
+    if (!inbound.hasRemaining()) {
+      growInbound();
+    }
+    int bytesRead = channel.read(inbound);
+    if (bytesRead < 0) {
+      close();
+      return;
+    }
+    countBytesReceived(bytesRead);
+    inbound.flip();
+    boolean handled = true;
+    while (handled && !closed) {
+      if (getInputFormat() == WireFormat.BINARY) {
+        handled = handleNextFrame();
+      } else {
+        handled = handleNextLine();
+      }
+    }
+    inbound.compact();
+    if (inbound.position() == 0 && inbound.capacity() > READ_BUFFER_SIZE) {
+      // Don't hold on to the room for a large message once it has been handled
+      inbound = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    }
+  }
+
+  /**
+   * Handle the next line in the inbound buffer, if it is complete.
+   *
+   * @return True when a line was handled, false when more bytes are needed
+   */
+  private boolean handleNextLine() {
+    byte[] bytes = inbound.array();
+    int start = inbound.position();
+    int end = inbound.limit();
+    for (int i = start + scannedLength; i < end; ++i) {
+      if (bytes[i] == '\n') {
+        scannedLength = 0;
+        inbound.position(i + 1);
+        handleInput(decodeLine(bytes, start, i));
+        return true;
+      }
+    }
+    // Resume the search where it ended when more bytes arrive
+    scannedLength = end - start;
+    return false;
+  }
+
+  private static String decodeLine(byte[] bytes, int start, int end) {
+    if (end > start && bytes[end - 1] == '\r') {
+      end--;
+    }
+    return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Handle the next binary frame in the inbound buffer, if it is complete.
+   *
+   * @return True when a frame was handled, false when more bytes are needed
+   * @throws IOException When the frame is malformed or too large
+   */
+  private boolean handleNextFrame() throws IOException {
+    byte[] bytes = inbound.array();
+    int i = inbound.position();
+    int end = inbound.limit();
+    int length = 0;
+    int shift = 0;
+    int b;
+    do {
+      if (i == end) {
+        return false;
+      }
+      b = bytes[i++];
+      length |= (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0 && shift < 35);
+    if ((b & 0x80) != 0 || length <= 0 || length > BinaryCodec.MAX_FRAME_SIZE) {
+      throw new IOException("Invalid frame length: " + length);
+    }
+    if (end - i < length) {
+      return false;
+    }
+    inbound.position(i + length);
+    handleFrame(ByteBuffer.wrap(bytes, i, length).slice());
+    return true;
+  }
+
+  private void growInbound() throws IOException {
+    if (inbound.capacity() >= MAX_MESSAGE_LENGTH) {
+      throw new IOException("Command exceeds " + MAX_MESSAGE_LENGTH + " bytes");
+    }
+    ByteBuffer larger =
+        ByteBuffer.allocate(Math.min(inbound.capacity() * 2, MAX_MESSAGE_LENGTH));
+    inbound.flip();
+    larger.put(inbound);
+    inbound = larger;
+  }
+
+  /**
+   * Write as much of the queued data as the socket accepts.
+   *
+   * @throws IOException If writing to the socket fails
+   */
+  void onWritable() throws IOException {
+    flush();
+  }
+
+  private void flush() throws IOException {
+    while (true) {
+      if (pendingWrite == null) {
+        OutboundMessage message = outboundQueue.poll();
+        if (message == null) {
+          break;
+        }
+        pendingWrite = message.getBytes(outputFormat);
+        if (message.getSwitchFormat() != null) {
+          outputFormat = message.getSwitchFormat();
+        }
+        Logger.debug(() -> "Sent: " + message.getText());
+      }
+      countBytesSent(channel.write(pendingWrite));
+      if (pendingWrite.hasRemaining()) {
+        selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+        return;
+      }
+      pendingWrite = null;
+    }
+    selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
+  }
+
+  /**
+   * Make sure the queued messages get written. Several messages queued in a row from other
+   * threads result in a single flush task on the loop.
+   */
+  @Override
+  protected void onMessageQueued() {
+    if (eventLoop.inEventLoop()) {
+      flushOrClose();
+    } else if (flushScheduled.compareAndSet(false, true)) {
+      eventLoop.execute(this::flushOrClose);
+    }
+  }
+
+  @Override
+  protected void disconnect() {
+    outboundQueue.close();
+    if (eventLoop.inEventLoop()) {
+      close();
+    } else {
+      eventLoop.execute(this::close);
+    }
+  }
+
+  private void flushOrClose() {
+    flushScheduled.set(false);
+    if (closed) {
+      return;
+    }
+    try {
+      flush();
+    } catch (IOException e) {
+      Logger.error("Error writing to client: " + e.getMessage());
+      close();
+    }
+  }
+
+  /** Stop handling the client: flush what can be written and close the connection. */
+  @Override
+  public void stopHandler() {
+    if (eventLoop.inEventLoop()) {
+      flushOrClose();
+      close();
+    } else {
+      eventLoop.execute(() -> {
+        flushOrClose();
+        close();
+      });
+    }
+  }
+
+  /** Close the connection and forget the client. Must be called on the loop thread. */
+  void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    outboundQueue.close();
+    pendingWrite = null;
+    if (selectionKey != null) {
+      selectionKey.cancel();
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      Logger.error("Error closing client channel: " + e.getMessage());
+    }
+    server.removeClient(this);
+  }
+}
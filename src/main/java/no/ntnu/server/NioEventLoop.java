@@ -0,0 +1,156 @@
+package no.ntnu.server;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import no.ntnu.tools.Logger;
+
+/**
+ * A single-threaded, non-blocking I/O loop. The loop owns one {@link Selector} and serves all the
+ * client channels registered with it. Other threads never touch the selector directly, they
+ * submit tasks which the loop runs between the selections.
+ */
+public class NioEventLoop implements Runnable {
+  private final TcpServer server;
+  private final Selector selector;
+  private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+  private final Thread thread;
+  private volatile boolean running = false;
+
+  /**
+   * Create a new event loop.
+   *
+   * @param server The server the clients are connected to
+   * @param name   Name of the thread running the loop
+   * @throws IOException If the selector could not be opened
+   */
+  public NioEventLoop(TcpServer server, String name) throws IOException {
+    this.server = server;
+    this.selector = Selector.open();
+    this.thread = new Thread(this, name);
+  }
+
+  /** Start the loop on its own thread. */
+  public void start() {
+    running = true;
+    thread.start();
+  }
+
+  /** Stop the loop and close all the channels served by it. */
+  public void stop() {
+    running = false;
+    selector.wakeup();
+  }
+
+  /**
+   * Check whether the calling thread is the thread of this loop.
+   *
+   * @return True when called from the loop thread, false otherwise
+   */
+  public boolean inEventLoop() {
+    return Thread.currentThread() == thread;
+  }
+
+  /**
+   * Run a task on the loop thread, as soon as possible.
+   *
+   * @param task The task to run
+   */
+  public void execute(Runnable task) {
+    pendingTasks.add(task);
+    selector.wakeup();
+  }
+
+  /**
+   * Hand a newly accepted client channel over to this loop.
+   *
+   * @param channel The channel to the client
+   */
+  public void register(SocketChannel channel) {
+    execute(() -> {
+      try {
+        channel.configureBlocking(false);
+        NioClientConnection connection = new NioClientConnection(channel, this, server);
+        connection.setSelectionKey(channel.register(selector, SelectionKey.OP_READ, connection));
+        server.addClient(connection);
+      } catch (IOException e) {
+        Logger.error("Error registering client: " + e.getMessage());
+        closeQuietly(channel);
+      }
+    });
+  }
+
+  /** Run the loop. */
+  @Override
+  public void run() {
+    Logger.info("Processing clients on thread: " + thread.getName());
+    while (running) {
+      try {
+        selector.select();
+        runPendingTasks();
+        processSelectedKeys();
+      } catch (IOException e) {
+        Logger.error("Error in event loop: " + e.getMessage());
+      }
+    }
+    closeAll();
+  }
+
+  private void runPendingTasks() {
+    Runnable task = pendingTasks.poll();
+    while (task != null) {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        Logger.error("Error running event loop task: " + e.getMessage());
+      }
+      task = pendingTasks.poll();
+    }
+  }
+
+  private void processSelectedKeys() {
+    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+    while (keys.hasNext()) {
+      SelectionKey key = keys.next();
+      keys.remove();
+      NioClientConnection connection = (NioClientConnection) key.attachment();
+      try {
+        if (key.isValid() && key.isReadable()) {
+          connection.onReadable();
+        }
+        if (key.isValid() && key.isWritable()) {
+          connection.onWritable();
+        }
+      } catch (IOException | RuntimeException e) {
+        // A failing client must not take the whole loop (and its other clients) down with it
+        Logger.error("Error processing client: " + e.getMessage());
+        connection.close();
+      }
+    }
+  }
+
+  private void closeAll() {
+    for (SelectionKey key : selector.keys()) {
+      if (key.attachment() instanceof NioClientConnection connection) {
+        connection.close();
+      }
+    }
+    try {
+      selector.close();
+    } catch (IOException e) {
+      Logger.error("Error closing selector: " + e.getMessage());
+    }
+  }
+
+  private static void closeQuietly(SocketChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // Nothing more we can do
+    }
+  }
+}
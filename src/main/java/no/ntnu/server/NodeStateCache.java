@@ -0,0 +1,365 @@
+package no.ntnu.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+
+/**
+ * The latest known state of every connected sensor/actuator node, kept as the last messages the
+ * node sent: its description ("nodeAdded"), its sensor data, the state of each actuator and its
+ * camera image. A control panel joining gets these messages from the cache, instead of every node
+ * being asked to send them again.
+ *
+ * <p>Every node has a lock. A message is cached and broadcast under the lock of its node, and a
+ * snapshot holds the locks of the nodes in it until their messages have been queued for the
+ * panel. A panel taking a snapshot while a message is being broadcast then gets the message either
+ * in the snapshot, the broadcast or both, and never an older state after a newer one. A snapshot
+ * takes the locks in the order of the node IDs, so two snapshots can't deadlock.
+ *
+ * <p>A panel which has subscribed to single nodes gets the state of those nodes only, and the
+ * state of other nodes when it subscribes to them.
+ *
+ * <p>Camera images are large, so they are held up to a total size; the least recently updated
+ * images are evicted first. A snapshot tells which nodes have an image which is no longer cached.
+ */
+public class NodeStateCache {
+  /** The default total size of the cached images, in bytes. */
+  public static final long DEFAULT_MAX_IMAGE_BYTES = 64L * 1024 * 1024;
+
+  private final ConcurrentMap<Integer, NodeState> nodes = new ConcurrentHashMap<>();
+  private final long maxImageBytes;
+  // Node ID to image message, the least recently updated first. Guarded by itself.
+  private final LinkedHashMap<Integer, OutboundMessage> images = new LinkedHashMap<>();
+  private long imageBytes = 0;
+
+  /**
+   * Create an empty cache.
+   *
+   * @param maxImageBytes The largest total size of the cached images, in bytes
+   */
+  public NodeStateCache(long maxImageBytes) {
+    if (maxImageBytes < 0) {
+      throw new IllegalArgumentException("Image cache size cannot be negative: " + maxImageBytes);
+    }
+    this.maxImageBytes = maxImageBytes;
+  }
+
+  /**
+   * Remember the description of a node, and broadcast it. The node is only cached from its first
+   * description on; what it sends before that is ignored, as are messages without a valid node
+   * ID.
+   *
+   * @param nodeId    The ID of the node
+   * @param message   The "nodeAdded" message
+   * @param broadcast Sends the message to the control panels, run while the node is locked
+   */
+  public void nodeAdded(int nodeId, OutboundMessage message, Runnable broadcast) {
+    if (nodeId >= 0) {
+      NodeState state = lockNodeAdded(nodeId);
+      try {
+        state.nodeAdded = message;
+        broadcast.run();
+      } finally {
+        state.lock.unlock();
+      }
+    } else {
+      broadcast.run();
+    }
+  }
+
+  /**
+   * Lock the state of a node, creating it the first time.
+   *
+   * @param nodeId The ID of the node
+   * @return The state, locked and still in the cache
+   */
+  private NodeState lockNodeAdded(int nodeId) {
+    NodeState state = nodes.computeIfAbsent(nodeId, id -> new NodeState());
+    state.lock.lock();
+    while (state.removed) {
+      // Removed while being locked, so it has been replaced by a new one or is about to be
+      state.lock.unlock();
+      state = nodes.computeIfAbsent(nodeId, id -> new NodeState());
+      state.lock.lock();
+    }
+    return state;
+  }
+
+  /**
+   * Remember the latest sensor data of a node, and broadcast it.
+   *
+   * @param nodeId    The ID of the node
+   * @param message   The "updateSensorData" message
+   * @param broadcast Sends the sensor data to the control panels, run while the node is locked
+   */
+  public void sensorDataUpdated(int nodeId, OutboundMessage message, Runnable broadcast) {
+    update(nodeId, state -> state.sensorData = message, broadcast);
+  }
+
+  /**
+   * Remember the latest state of an actuator, and broadcast it.
+   *
+   * @param nodeId     The ID of the node
+   * @param actuatorId The ID of the actuator
+   * @param message    The "actuatorUpdated" message
+   * @param broadcast  Sends the message to the control panels, run while the node is locked
+   */
+  public void actuatorUpdated(int nodeId, int actuatorId, OutboundMessage message,
+      Runnable broadcast) {
+    update(nodeId, state -> state.actuators.put(actuatorId, message), broadcast);
+  }
+
+  /**
+   * Remember the latest camera image of a node, and broadcast it.
+   *
+   * @param nodeId    The ID of the node
+   * @param message   The "sendCameraImage" message
+   * @param broadcast Sends the image to the control panels, run while the node is locked
+   */
+  public void imageUpdated(int nodeId, OutboundMessage message, Runnable broadcast) {
+    update(nodeId, state -> {
+      state.hasImage = true;
+      synchronized (images) {
+        removeImage(nodeId);
+        if (message.getSize() <= maxImageBytes) {
+          images.put(nodeId, message);
+          imageBytes += message.getSize();
+          evictImages();
+        }
+      }
+    }, broadcast);
+  }
+
+  /**
+   * Update the state of a cached node and broadcast the update while the node is locked. Updates
+   * of nodes which are not cached are only broadcast.
+   *
+   * @param nodeId    The ID of the node
+   * @param update    Updates the state
+   * @param broadcast Sends the update to the control panels
+   */
+  private void update(int nodeId, Consumer<NodeState> update,
+      Runnable broadcast) {
+    NodeState state = nodes.get(nodeId);
+    if (state != null) {
+      state.lock.lock();
+      try {
+        if (!state.removed) {
+          update.accept(state);
+        }
+        broadcast.run();
+      } finally {
+        state.lock.unlock();
+      }
+    } else {
+      broadcast.run();
+    }
+  }
+
+  /**
+   * Forget a node which has been removed or has disconnected, and broadcast the removal.
+   *
+   * @param nodeId    The ID of the node
+   * @param broadcast Sends the removal to the control panels, run while the node is locked
+   */
+  public void nodeRemoved(int nodeId, Runnable broadcast) {
+    NodeState state = nodes.get(nodeId);
+    if (state != null) {
+      state.lock.lock();
+      try {
+        state.removed = true;
+        nodes.remove(nodeId, state);
+        synchronized (images) {
+          removeImage(nodeId);
+        }
+        broadcast.run();
+      } finally {
+        state.lock.unlock();
+      }
+    } else {
+      broadcast.run();
+    }
+  }
+
+  private void removeImage(int nodeId) {
+    OutboundMessage removed = images.remove(nodeId);
+    if (removed != null) {
+      imageBytes -= removed.getSize();
+    }
+  }
+
+  private void evictImages() {
+    Iterator<OutboundMessage> oldest = images.values().iterator();
+    while (imageBytes > maxImageBytes && oldest.hasNext()) {
+      imageBytes -= oldest.next().getSize();
+      oldest.remove();
+    }
+  }
+
+  /**
+   * Queue the state of all the nodes for a control panel which has just joined. For every node,
+   * its description comes first, then the state of its actuators, its sensor data and its camera
+   * image.
+   *
+   * @param withState     Tells which nodes to include the state of; the other ones only get
+   *                      their description
+   * @param missingImages Gets the IDs of the nodes which have sent an image which is no longer
+   *                      cached
+   * @param writer        Queues the messages for the panel
+   */
+  public void snapshot(IntPredicate withState, List<Integer> missingImages,
+      SnapshotWriter writer) {
+    snapshot(nodes.keySet(), true, withState, missingImages, writer);
+  }
+
+  /**
+   * Queue the state of some nodes, without their description, for a control panel which has just
+   * subscribed to them. Nodes which are not cached are skipped.
+   *
+   * @param nodeIds       The IDs of the nodes
+   * @param missingImages Gets the IDs of the nodes which have sent an image which is no longer
+   *                      cached
+   * @param writer        Queues the messages for the panel
+   */
+  public void nodeSnapshot(Collection<Integer> nodeIds, List<Integer> missingImages,
+      SnapshotWriter writer) {
+    snapshot(nodeIds, false, nodeId -> true, missingImages, writer);
+  }
+
+  /**
+   * Queue the state of nodes, holding the lock of every node until its messages are queued. The
+   * locks are taken in the order of the node IDs.
+   */
+  private void snapshot(Collection<Integer> nodeIds, boolean withNodeAdded,
+      IntPredicate withState, List<Integer> missingImages, SnapshotWriter writer) {
+    List<Integer> sortedIds = new ArrayList<>(nodeIds);
+    sortedIds.sort(null);
+    List<NodeState> locked = new ArrayList<>();
+    try {
+      for (int nodeId : sortedIds) {
+        NodeState state = nodes.get(nodeId);
+        if (state != null) {
+          state.lock.lock();
+          locked.add(state);
+          if (!state.removed && state.addMessagesTo(writer, withNodeAdded,
+              withState.test(nodeId))) {
+            addImage(nodeId, writer, missingImages);
+          }
+          if (writer.isFlushed()) {
+            unlockAll(locked);
+          }
+        }
+      }
+      writer.flush();
+    } finally {
+      unlockAll(locked);
+    }
+  }
+
+  private static void unlockAll(List<NodeState> locked) {
+    for (NodeState state : locked) {
+      state.lock.unlock();
+    }
+    locked.clear();
+  }
+
+  private void addImage(int nodeId, SnapshotWriter writer, List<Integer> missingImages) {
+    OutboundMessage image;
+    synchronized (images) {
+      image = images.get(nodeId);
+    }
+    if (image != null) {
+      writer.add(image);
+    } else {
+      missingImages.add(nodeId);
+    }
+  }
+
+  /**
+   * Get the number of nodes in the cache.
+   *
+   * @return The number of nodes
+   */
+  public int size() {
+    return nodes.size();
+  }
+
+  /**
+   * Get the total size of the cached images.
+   *
+   * @return The number of bytes
+   */
+  public long getImageBytes() {
+    synchronized (images) {
+      return imageBytes;
+    }
+  }
+
+  /**
+   * Queues the messages of a snapshot for a control panel, possibly several of them together.
+   */
+  public interface SnapshotWriter {
+    /**
+     * Add a message to the snapshot.
+     *
+     * @param message The message
+     */
+    void add(OutboundMessage message);
+
+    /**
+     * Check whether all the messages added so far have been queued.
+     *
+     * @return True when no message is waiting to be queued
+     */
+    boolean isFlushed();
+
+    /** Queue the messages added and not queued yet. */
+    void flush();
+  }
+
+  /**
+   * The latest messages of one node. Guarded by its lock.
+   */
+  private static class NodeState {
+    private final ReentrantLock lock = new ReentrantLock();
+    private OutboundMessage nodeAdded;
+    private OutboundMessage sensorData;
+    // In the order the actuators were first updated
+    private final Map<Integer, OutboundMessage> actuators = new LinkedHashMap<>();
+    private boolean hasImage = false;
+    // Set when the node is removed, so that a snapshot which found it before leaves it out
+    private boolean removed = false;
+
+    /**
+     * Add the messages of the node to a snapshot.
+     *
+     * @param writer        The snapshot
+     * @param withNodeAdded Whether to add the description of the node
+     * @param withState     Whether to add the state of the actuators and the sensor data
+     * @return True when the state is added and the node has sent a camera image
+     */
+    private boolean addMessagesTo(SnapshotWriter writer, boolean withNodeAdded,
+        boolean withState) {
+      if (withNodeAdded) {
+        writer.add(nodeAdded);
+      }
+      if (withState) {
+        for (OutboundMessage actuator : actuators.values()) {
+          writer.add(actuator);
+        }
+        if (sensorData != null) {
+          writer.add(sensorData);
+        }
+      }
+      return withState && hasImage;
+    }
+  }
+}
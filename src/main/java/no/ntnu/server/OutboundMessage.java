@@ -0,0 +1,259 @@
+package no.ntnu.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import no.ntnu.protocol.BinaryCodec;
+import no.ntnu.protocol.WireFormat;
+
+/**
+ * A message on its way from the server to one or more clients. A broadcast creates a single
+ * message which is queued for every recipient: the message is classified and encoded to bytes
+ * only once, and every recipient gets its own read-only view of the same bytes. The binary
+ * encoding is made the first time a recipient using the binary protocol needs it, and then shared
+ * the same way.
+ */
+public class OutboundMessage {
+  private final String text;
+  private final String replacementKey;
+  private final String conflationKey;
+  private final ByteBuffer encoded;
+  private final boolean direct;
+  private final WireFormat switchFormat;
+  // The messages a batch consists of, null for a single message
+  private final List<OutboundMessage> parts;
+  private volatile ByteBuffer binaryEncoded;
+
+  /**
+   * Create an outbound message, encoded in a heap buffer.
+   *
+   * @param text The message, a single command without the line ending
+   */
+  public OutboundMessage(String text) {
+    this(text, false);
+  }
+
+  /**
+   * Create an outbound message.
+   *
+   * @param text   The message, a single command without the line ending
+   * @param direct When true, the message is encoded in a direct buffer, which socket channels can
+   *               write without copying it first. Worth it for messages written to many clients.
+   */
+  public OutboundMessage(String text, boolean direct) {
+    this(text, null, direct, null, null);
+  }
+
+  /**
+   * Create an outbound message which arrived as a binary frame, so that binary recipients get the
+   * original frame instead of a new encoding of the text.
+   *
+   * @param text   The message, a single command without the line ending
+   * @param frame  The message as a binary frame, including the length prefix
+   * @param direct When true, the message is encoded in direct buffers
+   */
+  public OutboundMessage(String text, byte[] frame, boolean direct) {
+    this(text, frame, direct, null, null);
+  }
+
+  private OutboundMessage(String text, byte[] frame, boolean direct, WireFormat switchFormat,
+                          List<OutboundMessage> parts) {
+    if (text == null) {
+      throw new IllegalArgumentException("Message cannot be null");
+    }
+    this.text = text;
+    this.parts = parts;
+    this.replacementKey = parts == null ? findReplacementKey(text) : null;
+    this.conflationKey = parts == null ? findConflationKey(text, replacementKey) : null;
+    this.encoded = wrap((text + "\n").getBytes(StandardCharsets.UTF_8), direct);
+    this.direct = direct;
+    this.switchFormat = switchFormat;
+    if (frame != null) {
+      this.binaryEncoded = wrap(frame, direct);
+    }
+  }
+
+  /**
+   * Create the answer to a client asking to switch protocol. The answer itself is sent in the
+   * text protocol, the messages after it in the given format.
+   *
+   * @param format The protocol the connection switches to
+   * @return The answer
+   */
+  public static OutboundMessage protocolAnswer(WireFormat format) {
+    String protocol = format == WireFormat.BINARY ? BinaryCodec.BINARY : BinaryCodec.TEXT;
+    return new OutboundMessage(BinaryCodec.SET_PROTOCOL_COMMAND + "-" + protocol, null, false,
+        format, null);
+  }
+
+  /**
+   * Create a message consisting of several messages, written one after the other. Used to send
+   * many small messages at once without filling the queue of the recipient with them. A batch is
+   * never dropped or replaced when the recipient falls behind, even if its parts could be.
+   *
+   * @param parts  The messages, in the order they are to be written
+   * @param direct When true, the message is encoded in direct buffers
+   * @return The batch
+   */
+  public static OutboundMessage batch(List<OutboundMessage> parts, boolean direct) {
+    if (parts == null || parts.isEmpty()) {
+      throw new IllegalArgumentException("A batch needs at least one message");
+    }
+    StringBuilder text = new StringBuilder();
+    for (OutboundMessage part : parts) {
+      if (text.length() > 0) {
+        text.append('\n');
+      }
+      text.append(part.getText());
+    }
+    return new OutboundMessage(text.toString(), null, direct, null, List.copyOf(parts));
+  }
+
+  private static ByteBuffer wrap(byte[] bytes, boolean direct) {
+    ByteBuffer buffer;
+    if (direct) {
+      buffer = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+    } else {
+      buffer = ByteBuffer.wrap(bytes);
+    }
+    return buffer.asReadOnlyBuffer();
+  }
+
+  /**
+   * Find the key of a message which only carries the latest state of something, and therefore
+   * can be replaced by (or dropped in favour of) a newer message with the same key.
+   *
+   * @param text The message
+   * @return The command and node ID of sensor data and camera images, null for other messages
+   */
+  private static String findReplacementKey(String text) {
+    String key = null;
+    if (text.startsWith("updateSensorData-") || text.startsWith("sendCameraImage-")) {
+      int end = text.indexOf(';');
+      key = end > 0 ? text.substring(0, end) : text;
+    }
+    return key;
+  }
+
+  /**
+   * Find the key of a message which supersedes any earlier message with the same key: the
+   * replaceable messages, and actuator updates, where only the latest state of each actuator
+   * matters. Unlike the replaceable messages, actuator updates are never dropped.
+   *
+   * @param text           The message
+   * @param replacementKey The replacement key of the message
+   * @return The command, node ID and for actuator updates the actuator ID, null for other messages
+   */
+  private static String findConflationKey(String text, String replacementKey) {
+    String key = replacementKey;
+    if (key == null && text.startsWith("actuatorUpdated-")) {
+      int end = text.indexOf('=');
+      key = end > 0 ? text.substring(0, end) : text;
+    }
+    return key;
+  }
+
+  /**
+   * Get the message text.
+   *
+   * @return The message, without the line ending
+   */
+  public String getText() {
+    return text;
+  }
+
+  /**
+   * Get the encoded message, ready to be written to a socket.
+   *
+   * @return A new read-only view of the encoded message, including the line ending. The view has
+   *     its own position, so each recipient can write it at its own pace; the bytes are shared.
+   */
+  public ByteBuffer getBytes() {
+    return encoded.duplicate();
+  }
+
+  /**
+   * Get the message encoded in the given protocol, ready to be written to a socket.
+   *
+   * @param format The protocol used by the recipient
+   * @return A new read-only view of the encoded message, as for {@link #getBytes()}
+   */
+  public ByteBuffer getBytes(WireFormat format) {
+    if (format == WireFormat.TEXT || switchFormat != null) {
+      return getBytes();
+    }
+    ByteBuffer binary = binaryEncoded;
+    if (binary == null) {
+      // Encoding twice in a race is harmless, both threads get the same bytes
+      binary = wrap(parts == null ? BinaryCodec.encode(text) : encodeParts(), direct);
+      binaryEncoded = binary;
+    }
+    return binary.duplicate();
+  }
+
+  /**
+   * Encode the parts of a batch as consecutive frames.
+   *
+   * @return The frames
+   */
+  private byte[] encodeParts() {
+    int size = 0;
+    ByteBuffer[] frames = new ByteBuffer[parts.size()];
+    for (int i = 0; i < frames.length; ++i) {
+      frames[i] = parts.get(i).getBytes(WireFormat.BINARY);
+      size += frames[i].remaining();
+    }
+    ByteBuffer encoded = ByteBuffer.allocate(size);
+    for (ByteBuffer frame : frames) {
+      encoded.put(frame);
+    }
+    return encoded.array();
+  }
+
+  /**
+   * Get the protocol the connection switches to after this message.
+   *
+   * @return The new protocol when the message answers a request to switch protocol, else null
+   */
+  public WireFormat getSwitchFormat() {
+    return switchFormat;
+  }
+
+  /**
+   * Get the size of the message on the wire, in the text protocol. Used to limit the queues, where
+   * the binary encoding is at most a few bytes larger.
+   *
+   * @return The number of bytes, including the line ending
+   */
+  public int getSize() {
+    return encoded.capacity();
+  }
+
+  /**
+   * Check whether the message may be dropped or replaced when the recipient falls behind.
+   *
+   * @return True for sensor data and camera images, false otherwise
+   */
+  public boolean isReplaceable() {
+    return replacementKey != null;
+  }
+
+  /**
+   * Get the key identifying which messages this message may replace.
+   *
+   * @return The key, or null when the message is not replaceable
+   */
+  public String getReplacementKey() {
+    return replacementKey;
+  }
+
+  /**
+   * Get the key identifying which queued message this message supersedes, when the queue of the
+   * recipient conflates or coalesces.
+   *
+   * @return The key, or null when the message supersedes no other message
+   */
+  public String getConflationKey() {
+    return conflationKey;
+  }
+}
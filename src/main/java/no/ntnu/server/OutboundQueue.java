@@ -0,0 +1,336 @@
+package no.ntnu.server;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded queue of the messages waiting to be written to one client. Any thread may add
+ * messages, the writer of the connection takes them out. When the client falls behind and the
+ * queue is full, the {@link OverflowPolicy} decides what happens.
+ *
+ * <p>A queue may also conflate: a new message which supersedes a queued one, such as newer sensor
+ * data from the same node, then takes the place of the queued message instead of being added
+ * after it, whether the queue is full or not. A client which falls behind then gets at most one
+ * message per node (and per actuator) to catch up on, all of them up to date.
+ */
+public class OutboundQueue {
+  // A lock rather than a monitor, so that a writer waiting on a virtual thread doesn't pin its
+  // carrier thread
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition messageAvailable = lock.newCondition();
+  private final ArrayDeque<Slot> messages = new ArrayDeque<>();
+  // The queued messages which newer messages may take the place of, by their conflation key
+  private final Map<String, Slot> conflatable = new HashMap<>();
+  private final int maxMessages;
+  private final long maxBytes;
+  private final OverflowPolicy policy;
+
+  private long queuedBytes = 0;
+  private long droppedMessages = 0;
+  private long replacedMessages = 0;
+  private boolean closed = false;
+  private boolean conflating = false;
+
+  /**
+   * Create an outbound queue.
+   *
+   * @param maxMessages The maximum number of queued messages
+   * @param maxBytes    The maximum total size of the queued messages
+   * @param policy      What to do when the queue is full
+   */
+  public OutboundQueue(int maxMessages, long maxBytes, OverflowPolicy policy) {
+    if (maxMessages < 1 || maxBytes < 1) {
+      throw new IllegalArgumentException("Queue limits must be positive");
+    }
+    if (policy == null) {
+      throw new IllegalArgumentException("Overflow policy cannot be null");
+    }
+    this.maxMessages = maxMessages;
+    this.maxBytes = maxBytes;
+    this.policy = policy;
+  }
+
+  /**
+   * Add a message to the queue.
+   *
+   * @param message The message to add
+   * @return True when the message was queued, replaced an older one or was dropped according to
+   *     the overflow policy; false when the queue is (or has now been) closed because the client
+   *     can't keep up
+   */
+  public boolean offer(OutboundMessage message) {
+    lock.lock();
+    try {
+      if (closed) {
+        return false;
+      }
+      if (conflating && replaceQueued(message)) {
+        return true;
+      }
+      if (!hasRoomFor(message)) {
+        if (policy == OverflowPolicy.DISCONNECT) {
+          close();
+          return false;
+        }
+        if (policy == OverflowPolicy.COALESCE && replaceQueued(message)) {
+          return true;
+        }
+        while (!hasRoomFor(message) && dropOldestReplaceable()) {
+          droppedMessages++;
+        }
+        if (!hasRoomFor(message)) {
+          if (message.isReplaceable()) {
+            droppedMessages++;
+            return true;
+          }
+          close();
+          return false;
+        }
+      }
+      Slot slot = new Slot(message);
+      messages.addLast(slot);
+      if (message.getConflationKey() != null && (conflating || policy == OverflowPolicy.COALESCE)) {
+        conflatable.put(message.getConflationKey(), slot);
+      }
+      queuedBytes += message.getSize();
+      messageAvailable.signalAll();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Set whether the queue conflates, see the description of the class.
+   *
+   * @param conflating True to let newer messages take the place of the ones they supersede
+   */
+  public void setConflating(boolean conflating) {
+    lock.lock();
+    try {
+      this.conflating = conflating;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Check whether the queue conflates.
+   *
+   * @return True when newer messages take the place of the ones they supersede
+   */
+  public boolean isConflating() {
+    lock.lock();
+    try {
+      return conflating;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean hasRoomFor(OutboundMessage message) {
+    return messages.size() < maxMessages
+        && (messages.isEmpty() || queuedBytes + message.getSize() <= maxBytes);
+  }
+
+  /**
+   * Replace the queued message which the given message supersedes, keeping its position in the
+   * queue.
+   *
+   * @param message The new message
+   * @return True when a message was replaced, false when there was none with the same key
+   */
+  private boolean replaceQueued(OutboundMessage message) {
+    boolean replaced = false;
+    String key = message.getConflationKey();
+    Slot slot = key != null ? conflatable.get(key) : null;
+    if (slot != null) {
+      queuedBytes += message.getSize() - slot.message.getSize();
+      slot.message = message;
+      replacedMessages++;
+      replaced = true;
+    }
+    return replaced;
+  }
+
+  private boolean dropOldestReplaceable() {
+    Iterator<Slot> it = messages.iterator();
+    while (it.hasNext()) {
+      Slot queued = it.next();
+      if (queued.message.isReplaceable()) {
+        it.remove();
+        forget(queued);
+        queuedBytes -= queued.message.getSize();
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Remove a slot which has left the queue from the conflation index.
+   *
+   * @param slot The slot
+   */
+  private void forget(Slot slot) {
+    String key = slot.message.getConflationKey();
+    if (key != null) {
+      conflatable.remove(key, slot);
+    }
+  }
+
+  /**
+   * Take the next message, waiting until there is one.
+   *
+   * @return The next message, or null when the queue has been closed
+   * @throws InterruptedException If interrupted while waiting
+   */
+  public OutboundMessage take() throws InterruptedException {
+    lock.lock();
+    try {
+      while (messages.isEmpty() && !closed) {
+        messageAvailable.await();
+      }
+      return poll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Take the next message, if there is one.
+   *
+   * @return The next message, or null when the queue is empty or closed
+   */
+  public OutboundMessage poll() {
+    lock.lock();
+    try {
+      if (closed) {
+        return null;
+      }
+      Slot slot = messages.pollFirst();
+      OutboundMessage message = null;
+      if (slot != null) {
+        forget(slot);
+        message = slot.message;
+        queuedBytes -= message.getSize();
+      }
+      return message;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Check whether there are no messages waiting.
+   *
+   * @return True when the queue is empty
+   */
+  public boolean isEmpty() {
+    lock.lock();
+    try {
+      return messages.isEmpty();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Close the queue, discarding the queued messages and releasing a waiting writer. */
+  public void close() {
+    lock.lock();
+    try {
+      closed = true;
+      messages.clear();
+      conflatable.clear();
+      queuedBytes = 0;
+      messageAvailable.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Check whether the queue has been closed.
+   *
+   * @return True when closed
+   */
+  public boolean isClosed() {
+    lock.lock();
+    try {
+      return closed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of queued messages.
+   *
+   * @return The number of messages waiting to be written
+   */
+  public int getQueuedMessages() {
+    lock.lock();
+    try {
+      return messages.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the size of the queued messages.
+   *
+   * @return The total size of the messages waiting to be written
+   */
+  public long getQueuedBytes() {
+    lock.lock();
+    try {
+      return queuedBytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of messages dropped because the client fell behind.
+   *
+   * @return The number of dropped messages since the connection was opened
+   */
+  public long getDroppedMessages() {
+    lock.lock();
+    try {
+      return droppedMessages;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Get the number of queued messages which were replaced by a newer one.
+   *
+   * @return The number of replaced messages since the connection was opened
+   */
+  public long getReplacedMessages() {
+    lock.lock();
+    try {
+      return replacedMessages;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * A place in the queue, holding the message to write there.
+   */
+  private static class Slot {
+    private OutboundMessage message;
+
+    private Slot(OutboundMessage message) {
+      this.message = message;
+    }
+  }
+}
@@ -0,0 +1,22 @@
+package no.ntnu.server;
+
+/**
+ * What to do when a client does not read its messages as fast as the server sends them, and its
+ * outbound queue is full.
+ */
+public enum OverflowPolicy {
+  /**
+   * Drop the oldest queued sensor data or camera image to make room. Messages which can't be
+   * replaced by a newer one (node added/removed, actuator changes) are never dropped; when only
+   * those are queued, the client is disconnected.
+   */
+  DROP_OLDEST,
+  /**
+   * Replace the queued sensor data or camera image of the same node, or the queued state of the
+   * same actuator, with the new one. Falls back to {@link #DROP_OLDEST} when there is nothing to
+   * replace.
+   */
+  COALESCE,
+  /** Disconnect the client. */
+  DISCONNECT
+}
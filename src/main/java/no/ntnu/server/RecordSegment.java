@@ -0,0 +1,214 @@
+package no.ntnu.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+import no.ntnu.tools.Logger;
+
+/**
+ * One file of recorded messages, written through a memory mapping.
+ *
+ * <p>The file starts with a header: the magic number "GHRS", the format version and the time the
+ * segment was created. Then come the records, each one being the length of the rest of the
+ * record, a CRC32C checksum of the rest, the time the message was received, in milliseconds since
+ * the epoch, and the message as the payload of a binary protocol frame (the opcode and the
+ * fields, see protocol.md). The file is created at its full size, so the records end at the first
+ * length of zero, or at a record which doesn't match its checksum: the tail of a segment which was
+ * being written when the server or the machine stopped.
+ *
+ * <p>A segment is written by a single thread.
+ */
+public class RecordSegment {
+  /** The first four bytes of a segment file. */
+  public static final int MAGIC = 0x47485253;
+
+  /** The version of the file format. */
+  public static final int VERSION = 1;
+
+  // Magic, version and creation time
+  private static final int HEADER_SIZE = 16;
+  // Length, checksum and time
+  private static final int RECORD_HEADER_SIZE = 16;
+  private static final int TIME_SIZE = 8;
+
+  private final Path file;
+  private final FileChannel channel;
+  private final MappedByteBuffer buffer;
+  private final long createdMillis;
+  private final CRC32C checksum = new CRC32C();
+
+  /**
+   * Receives the records read from a segment.
+   */
+  @FunctionalInterface
+  public interface RecordHandler {
+    /**
+     * Called with every valid record, in the order they were written.
+     *
+     * @param timeMillis The time the message was received, in milliseconds since the epoch
+     * @param payload    The message, as the payload of a binary frame, starting with the opcode
+     */
+    void accept(long timeMillis, ByteBuffer payload);
+  }
+
+  private RecordSegment(Path file, FileChannel channel, MappedByteBuffer buffer,
+                        long createdMillis) {
+    this.file = file;
+    this.channel = channel;
+    this.buffer = buffer;
+    this.createdMillis = createdMillis;
+  }
+
+  /**
+   * Create a new segment file, mapped for writing.
+   *
+   * @param file          The file, which must not exist
+   * @param size          The size of the file, the most that can be written to it
+   * @param createdMillis The time the segment is created, in milliseconds since the epoch
+   * @return The segment, empty
+   * @throws IOException When the file can't be created or mapped
+   */
+  public static RecordSegment create(Path file, int size, long createdMillis) throws IOException {
+    if (size <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+      throw new IllegalArgumentException("Segment size too small: " + size);
+    }
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    MappedByteBuffer buffer;
+    try {
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    buffer.putInt(MAGIC).putInt(VERSION).putLong(createdMillis);
+    return new RecordSegment(file, channel, buffer, createdMillis);
+  }
+
+  /**
+   * Get the file of the segment.
+   *
+   * @return The file
+   */
+  public Path getFile() {
+    return file;
+  }
+
+  /**
+   * Get the time the segment was created.
+   *
+   * @return The time, in milliseconds since the epoch
+   */
+  public long getCreatedMillis() {
+    return createdMillis;
+  }
+
+  /**
+   * Get the number of bytes written, including the header.
+   *
+   * @return The size of the contents
+   */
+  public int getSize() {
+    return buffer.position();
+  }
+
+  /**
+   * Append a record. The length is written last, so a reader never sees a record whose length is
+   * set before the rest of it is in place.
+   *
+   * @param timeMillis The time the message was received, in milliseconds since the epoch
+   * @param payload    The message, as the payload of a binary frame. Its position is not changed.
+   * @return True when the record was written, false when the segment has no room left for it
+   */
+  public boolean append(long timeMillis, ByteBuffer payload) {
+    int start = buffer.position();
+    int bodySize = TIME_SIZE + payload.remaining();
+    // Leave room for the four zero bytes marking the end
+    boolean fits = buffer.remaining() >= RECORD_HEADER_SIZE + payload.remaining() + 4;
+    if (fits) {
+      buffer.position(start + RECORD_HEADER_SIZE - TIME_SIZE);
+      buffer.putLong(timeMillis).put(payload.duplicate());
+      checksum.reset();
+      checksum.update(buffer.slice(start + RECORD_HEADER_SIZE - TIME_SIZE, bodySize));
+      buffer.putInt(start + 4, (int) checksum.getValue());
+      buffer.putInt(start, bodySize);
+    }
+    return fits;
+  }
+
+  /**
+   * Write the records to the storage device, so that they survive the machine stopping. Records
+   * survive the server stopping as soon as they are appended.
+   */
+  public void force() {
+    buffer.force();
+  }
+
+  /**
+   * Write the records to the storage device and close the file. The file is cut to the size of
+   * its contents where the platform allows a mapped file to be cut, which it doesn't on Windows;
+   * there, the unused part stays as zeros.
+   *
+   * @throws IOException When the file can't be closed
+   */
+  public void close() throws IOException {
+    try {
+      buffer.force();
+      channel.truncate(buffer.position());
+    } catch (IOException e) {
+      Logger.error("Could not cut segment " + file + ": " + e.getMessage());
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Read the records of a segment file.
+   *
+   * @param file    The file
+   * @param handler Receives the records
+   * @return The size of the valid contents, up to the first missing or damaged record
+   * @throws IOException When the file can't be read, or is not a segment
+   */
+  public static long read(Path file, RecordHandler handler) throws IOException {
+    int end;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Segment too large: " + file);
+      }
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+        throw new IOException("Not a segment file: " + file);
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported segment version " + version + ": " + file);
+      }
+      buffer.getLong();
+      CRC32C checksum = new CRC32C();
+      end = buffer.position();
+      boolean valid = true;
+      while (valid && buffer.remaining() >= RECORD_HEADER_SIZE) {
+        int bodySize = buffer.getInt(end);
+        int bodyStart = end + RECORD_HEADER_SIZE - TIME_SIZE;
+        valid = bodySize > TIME_SIZE && bodySize <= buffer.limit() - bodyStart;
+        if (valid) {
+          ByteBuffer body = buffer.slice(bodyStart, bodySize);
+          checksum.reset();
+          checksum.update(body.duplicate());
+          valid = (int) checksum.getValue() == buffer.getInt(end + 4);
+          if (valid) {
+            handler.accept(body.getLong(), body.slice());
+            end = bodyStart + bodySize;
+            buffer.position(end);
+          }
+        }
+      }
+    }
+    return end;
+  }
+}
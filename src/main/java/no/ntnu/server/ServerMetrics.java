@@ -0,0 +1,163 @@
+package no.ntnu.server;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.ToLongFunction;
+import no.ntnu.tools.Counter;
+import no.ntnu.tools.LatencyHistogram;
+import no.ntnu.tools.MetricsRegistry;
+
+/**
+ * The metrics the server records, in a {@link MetricsRegistry}:
+ * <ul>
+ *   <li>command.[command]: the time taken to handle each command from the clients, with
+ *   "unknown" for the commands the server doesn't know</li>
+ *   <li>broadcast.[kind]: the time taken to queue a message for all its recipients, and
+ *   broadcast.[kind].recipients the number of messages queued</li>
+ *   <li>connections.opened, connections.closed and connections.[node type]: the number of clients
+ *   which have connected and disconnected, and which are connected now</li>
+ *   <li>bytes.in and bytes.out: the bytes received from and sent to all the clients, the bytes of
+ *   each client are counted by its {@link ClientConnection}</li>
+ *   <li>queue.messages, queue.bytes and queue.dropped: the messages waiting to be sent to all the
+ *   clients, their size, and the messages the clients which are connected now have missed</li>
+ *   <li>jvm.threads and jvm.heap.used: the live threads of the JVM of the server, and the bytes of
+ *   heap in use, including garbage not collected yet</li>
+ * </ul>
+ */
+class ServerMetrics {
+  /** The name under which the commands the server doesn't know are counted. */
+  static final String UNKNOWN_COMMAND = "unknown";
+
+  private final MetricsRegistry registry;
+  // Only the commands the server knows are added, so the map stays small
+  private final ConcurrentMap<String, LatencyHistogram> commands = new ConcurrentHashMap<>();
+  private final Counter bytesIn;
+  private final Counter bytesOut;
+  private final Counter connectionsOpened;
+  private final Counter connectionsClosed;
+
+  /**
+   * Create the metrics of a server.
+   *
+   * @param registry The registry to record them in
+   * @param clients  The clients of the server, for the connection counts and queue gauges
+   */
+  ServerMetrics(MetricsRegistry registry, ClientRegistry clients) {
+    this.registry = registry;
+    bytesIn = registry.counter("bytes.in");
+    bytesOut = registry.counter("bytes.out");
+    connectionsOpened = registry.counter("connections.opened");
+    connectionsClosed = registry.counter("connections.closed");
+    for (NodeType nodeType : NodeType.values()) {
+      registry.gauge("connections." + nodeType.name().toLowerCase(),
+          () -> clients.getClients(nodeType).size());
+    }
+    registry.gauge("queue.messages", () -> sumQueues(clients, OutboundQueue::getQueuedMessages));
+    registry.gauge("queue.bytes", () -> sumQueues(clients, OutboundQueue::getQueuedBytes));
+    registry.gauge("queue.dropped", () -> sumQueues(clients, OutboundQueue::getDroppedMessages));
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    registry.gauge("jvm.threads", threads::getThreadCount);
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    registry.gauge("jvm.heap.used", () -> memory.getHeapMemoryUsage().getUsed());
+  }
+
+  private static long sumQueues(ClientRegistry clients, ToLongFunction<OutboundQueue> value) {
+    long sum = 0;
+    for (NodeType nodeType : NodeType.values()) {
+      for (ClientConnection client : clients.getClients(nodeType)) {
+        sum += value.applyAsLong(client.getOutboundQueue());
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Get the registry the metrics are recorded in.
+   *
+   * @return The registry
+   */
+  MetricsRegistry getRegistry() {
+    return registry;
+  }
+
+  /**
+   * Record the time taken to handle a command.
+   *
+   * @param command    The command, one the server knows, or {@link #UNKNOWN_COMMAND}
+   * @param startNanos The time handling started, from {@link System#nanoTime()}
+   */
+  void commandHandled(String command, long startNanos) {
+    LatencyHistogram histogram = commands.get(command);
+    if (histogram == null) {
+      histogram = commands.computeIfAbsent(command,
+          key -> registry.histogram("command." + key));
+    }
+    histogram.recordSince(startNanos);
+  }
+
+  /**
+   * Get the metrics of a kind of broadcast.
+   *
+   * @param kind The kind, such as "nodeUpdate"
+   * @return The metrics, to keep and record every broadcast of the kind in
+   */
+  Broadcast broadcast(String kind) {
+    return new Broadcast(registry.histogram("broadcast." + kind),
+        registry.counter("broadcast." + kind + ".recipients"));
+  }
+
+  /**
+   * Count bytes received from a client.
+   *
+   * @param bytes The number of bytes
+   */
+  void bytesReceived(long bytes) {
+    bytesIn.add(bytes);
+  }
+
+  /**
+   * Count bytes sent to a client.
+   *
+   * @param bytes The number of bytes
+   */
+  void bytesSent(long bytes) {
+    bytesOut.add(bytes);
+  }
+
+  /** Count a client which has connected. */
+  void connectionOpened() {
+    connectionsOpened.increment();
+  }
+
+  /** Count a client which has disconnected. */
+  void connectionClosed() {
+    connectionsClosed.increment();
+  }
+
+  /**
+   * The metrics of one kind of broadcast.
+   */
+  static class Broadcast {
+    private final LatencyHistogram latency;
+    private final Counter recipients;
+
+    private Broadcast(LatencyHistogram latency, Counter recipients) {
+      this.latency = latency;
+      this.recipients = recipients;
+    }
+
+    /**
+     * Record a broadcast.
+     *
+     * @param startNanos     The time the broadcast started, from {@link System#nanoTime()}
+     * @param recipientCount The number of clients the message was queued for
+     */
+    void record(long startNanos, int recipientCount) {
+      latency.recordSince(startNanos);
+      recipients.add(recipientCount);
+    }
+  }
+}
@@ -0,0 +1,19 @@
+package no.ntnu.server;
+
+/**
+ * The different ways the server can handle the connected clients.
+ */
+public enum ServerMode {
+  /**
+   * Every client is handled by a {@link ClientHandler} on two platform threads of its own, one
+   * reading from the client and one writing to it.
+   */
+  THREAD_PER_CLIENT,
+  /**
+   * Every client is handled by a {@link ClientHandler} with blocking I/O, but on two virtual
+   * threads. Requires Java 21 or newer at runtime.
+   */
+  VIRTUAL_THREADS,
+  /** All clients are multiplexed over a small, fixed pool of non-blocking selector loops. */
+  NIO
+}
@@ -0,0 +1,307 @@
+package no.ntnu.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import no.ntnu.protocol.WireFormat;
+import no.ntnu.tools.Logger;
+
+/**
+ * Records the sensor data and actuator updates passing through the server to
+ * {@link RecordSegment} files in a directory, named segment-[sequence number].rec.
+ *
+ * <p>The threads routing the messages only put them in a queue, which a thread of the recorder
+ * empties in batches, writing the messages in their binary encoding. When the queue is full, the
+ * messages are dropped and counted instead of holding up the routing. A new segment is started
+ * when the current one is full, or has been written to for longer than the segment duration.
+ *
+ * <p>The records are forced to the storage device about once a second. When the recorder is
+ * created, the tail of the latest segment is checked, and the file is cut after the last complete
+ * record; the recording continues in a new segment.
+ */
+public class StreamRecorder {
+  /** The size of a segment file by default. */
+  public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+  /** How long a segment is written to by default, in milliseconds. */
+  public static final long DEFAULT_SEGMENT_MILLIS = 60 * 60 * 1000;
+
+  /** The number of messages which may wait to be written by default. */
+  public static final int DEFAULT_QUEUE_CAPACITY = 64 * 1024;
+
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".rec";
+  private static final long FORCE_INTERVAL_MILLIS = 1000;
+  // How long the writer waits for messages before checking whether to force or stop
+  private static final long POLL_MILLIS = 100;
+  private static final int MAX_BATCH = 4096;
+
+  private final Path directory;
+  private final int segmentBytes;
+  private final long segmentMillis;
+  private final BlockingQueue<Entry> queue;
+  private final Thread thread;
+  private final AtomicLong dropped = new AtomicLong();
+  private volatile long written = 0;
+  private volatile boolean running = false;
+  // Only used by the writer thread
+  private RecordSegment segment;
+  private long nextSequence;
+  private long lastForceMillis;
+  private boolean forcePending = false;
+
+  /**
+   * Create a recorder with the default segment size, duration and queue capacity.
+   *
+   * @param directory The directory of the segment files, created when missing
+   * @throws IOException When the directory can't be created or the latest segment recovered
+   */
+  public StreamRecorder(Path directory) throws IOException {
+    this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_SEGMENT_MILLIS, DEFAULT_QUEUE_CAPACITY);
+  }
+
+  /**
+   * Create a recorder.
+   *
+   * @param directory     The directory of the segment files, created when missing
+   * @param segmentBytes  The size of a segment file
+   * @param segmentMillis How long a segment is written to before starting a new one
+   * @param queueCapacity The number of messages which may wait to be written
+   * @throws IOException When the directory can't be created or the latest segment recovered
+   */
+  public StreamRecorder(Path directory, int segmentBytes, long segmentMillis, int queueCapacity)
+      throws IOException {
+    if (segmentMillis <= 0) {
+      throw new IllegalArgumentException("Segment duration must be positive");
+    }
+    if (queueCapacity <= 0) {
+      throw new IllegalArgumentException("Queue capacity must be positive");
+    }
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.segmentMillis = segmentMillis;
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    this.thread = new Thread(this::run, "stream-recorder");
+    this.thread.setDaemon(true);
+    Files.createDirectories(directory);
+    nextSequence = recoverLatestSegment() + 1;
+  }
+
+  /** Start writing the recorded messages, on the thread of the recorder. */
+  public void start() {
+    running = true;
+    lastForceMillis = System.currentTimeMillis();
+    thread.start();
+  }
+
+  /**
+   * Record a message. Returns right away: the message is written later by the recorder thread.
+   *
+   * @param message The message, received now
+   */
+  public void record(OutboundMessage message) {
+    if (!queue.offer(new Entry(System.currentTimeMillis(), message))) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  /**
+   * Get the number of messages written so far.
+   *
+   * @return The number of records written
+   */
+  public long getWrittenCount() {
+    return written;
+  }
+
+  /**
+   * Get the number of messages dropped so far, because the queue was full or they could not be
+   * written.
+   *
+   * @return The number of messages not recorded
+   */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  /**
+   * Write the messages still in the queue, close the current segment and stop the recorder
+   * thread. Messages recorded after this are not written.
+   */
+  public void close() {
+    running = false;
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Find the latest segment, and cut off any tail of records which were not completely written.
+   *
+   * @return The sequence number of the latest segment, or zero when there is none
+   * @throws IOException When the directory can't be listed
+   */
+  private long recoverLatestSegment() throws IOException {
+    long latest = 0;
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        latest = Math.max(latest, parseSequence(file.getFileName().toString()));
+      }
+    }
+    if (latest > 0) {
+      recoverSegment(segmentFile(latest));
+    }
+    return latest;
+  }
+
+  private static void recoverSegment(Path file) {
+    try {
+      long end = RecordSegment.read(file, (time, payload) -> { });
+      if (end < Files.size(file)) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+          channel.truncate(end);
+        }
+        Logger.info("Recovered segment " + file + ", " + end + " bytes of records");
+      }
+    } catch (IOException e) {
+      // Such as a segment whose header never reached the disk, it is left as it is
+      Logger.error("Could not recover segment " + file + ": " + e.getMessage());
+    }
+  }
+
+  private static long parseSequence(String fileName) {
+    long sequence = 0;
+    if (fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_SUFFIX)) {
+      try {
+        sequence = Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(),
+            fileName.length() - SEGMENT_SUFFIX.length()));
+      } catch (NumberFormatException e) {
+        sequence = 0;
+      }
+    }
+    return sequence;
+  }
+
+  private Path segmentFile(long sequence) {
+    return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence,
+        SEGMENT_SUFFIX));
+  }
+
+  /**
+   * Write the queued messages in batches until the recorder is closed.
+   */
+  private void run() {
+    List<Entry> batch = new ArrayList<>(MAX_BATCH);
+    while (running || !queue.isEmpty()) {
+      try {
+        Entry first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (first != null) {
+          batch.add(first);
+          queue.drainTo(batch, MAX_BATCH - 1);
+          writeBatch(batch);
+          batch.clear();
+        }
+      } catch (InterruptedException e) {
+        running = false;
+      }
+      forceIfDue();
+    }
+    closeSegment();
+  }
+
+  private void writeBatch(List<Entry> batch) {
+    long count = 0;
+    for (Entry entry : batch) {
+      if (write(entry)) {
+        ++count;
+      } else {
+        dropped.incrementAndGet();
+      }
+    }
+    written += count;
+    forcePending = true;
+  }
+
+  /**
+   * Write one message, starting a new segment when needed.
+   *
+   * @return True when it was written
+   */
+  private boolean write(Entry entry) {
+    ByteBuffer payload = toPayload(entry.message.getBytes(WireFormat.BINARY));
+    boolean done = segment != null
+        && entry.timeMillis - segment.getCreatedMillis() < segmentMillis
+        && segment.append(entry.timeMillis, payload);
+    if (!done) {
+      closeSegment();
+      try {
+        segment = RecordSegment.create(segmentFile(nextSequence++), segmentBytes,
+            entry.timeMillis);
+        done = segment.append(entry.timeMillis, payload);
+      } catch (IOException e) {
+        Logger.error("Could not start a new segment: " + e.getMessage());
+      }
+    }
+    return done;
+  }
+
+  /**
+   * Skip the length prefix of a frame.
+   *
+   * @param frame The frame, starting with the varint length
+   * @return The payload, starting with the opcode
+   */
+  private static ByteBuffer toPayload(ByteBuffer frame) {
+    while ((frame.get() & 0x80) != 0) {
+      // The high bit is set on every byte of the varint except the last
+    }
+    return frame;
+  }
+
+  private void forceIfDue() {
+    long now = System.currentTimeMillis();
+    if (forcePending && segment != null && now - lastForceMillis >= FORCE_INTERVAL_MILLIS) {
+      segment.force();
+      forcePending = false;
+      lastForceMillis = now;
+    }
+  }
+
+  private void closeSegment() {
+    if (segment != null) {
+      try {
+        segment.close();
+      } catch (IOException e) {
+        Logger.error("Could not close segment " + segment.getFile() + ": "
+            + e.getMessage());
+      }
+      segment = null;
+      forcePending = false;
+    }
+  }
+
+  /**
+   * A message waiting to be written, with the time it was received.
+   */
+  private static class Entry {
+    private final long timeMillis;
+    private final OutboundMessage message;
+
+    private Entry(long timeMillis, OutboundMessage message) {
+      this.timeMillis = timeMillis;
+      this.message = message;
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package no.ntnu.server;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Which control panels want the updates of which nodes. A panel starts out subscribed to all the
+ * nodes, and may instead subscribe to single nodes, such as the ones it is showing. The updates of
+ * a node then only go to the panels subscribed to all nodes and to the ones subscribed to this
+ * node, without looking at the other panels.
+ *
+ * <p>Like the {@link ClientRegistry}, the updates are serialized while the lookups are lock-free:
+ * the subscribers of a node are a copy-on-write list, safe to iterate while panels subscribe and
+ * unsubscribe. The panels subscribed to all nodes are also kept in a concurrent set, so that
+ * checking a single panel doesn't scan the list of all of them.
+ */
+public class SubscriptionIndex {
+  private final List<ClientConnection> allNodesSubscribers = new CopyOnWriteArrayList<>();
+  // The same panels as allNodesSubscribers, for looking one up
+  private final Set<ClientConnection> allNodesSubscriberSet = ConcurrentHashMap.newKeySet();
+  private final ConcurrentMap<Integer, List<ClientConnection>> subscribersByNode =
+      new ConcurrentHashMap<>();
+  // The single nodes each panel is subscribed to, empty when subscribed to all. Guarded by this.
+  private final Map<ClientConnection, Set<Integer>> nodesByPanel = new HashMap<>();
+
+  /**
+   * Register a control panel, subscribed to all nodes.
+   *
+   * @param panel The connection of the control panel
+   */
+  public synchronized void addPanel(ClientConnection panel) {
+    if (!nodesByPanel.containsKey(panel)) {
+      nodesByPanel.put(panel, new HashSet<>());
+      addAllNodesSubscriber(panel);
+    }
+  }
+
+  /**
+   * Forget a control panel and all its subscriptions.
+   *
+   * @param panel The connection of the control panel
+   */
+  public synchronized void removePanel(ClientConnection panel) {
+    Set<Integer> nodes = nodesByPanel.remove(panel);
+    if (nodes != null) {
+      removeSubscriptions(panel, nodes);
+      removeAllNodesSubscriber(panel);
+    }
+  }
+
+  /**
+   * Subscribe a control panel to all nodes, replacing its subscriptions to single nodes.
+   *
+   * @param panel The connection of the control panel
+   */
+  public synchronized void subscribeToAll(ClientConnection panel) {
+    Set<Integer> nodes = nodesByPanel.get(panel);
+    if (nodes != null && !allNodesSubscriberSet.contains(panel)) {
+      removeSubscriptions(panel, nodes);
+      addAllNodesSubscriber(panel);
+    }
+  }
+
+  /**
+   * Unsubscribe a control panel from all nodes, whether it was subscribed to all of them or to
+   * single ones. The panel still gets the nodes being added and removed.
+   *
+   * @param panel The connection of the control panel
+   */
+  public synchronized void unsubscribeFromAll(ClientConnection panel) {
+    Set<Integer> nodes = nodesByPanel.get(panel);
+    if (nodes != null) {
+      removeSubscriptions(panel, nodes);
+      removeAllNodesSubscriber(panel);
+    }
+  }
+
+  /**
+   * Subscribe a control panel to a single node. Has no effect on a panel which is subscribed to
+   * all nodes.
+   *
+   * @param panel  The connection of the control panel
+   * @param nodeId The ID of the node
+   * @return True when the panel was not getting the updates of the node before
+   */
+  public synchronized boolean subscribe(ClientConnection panel, int nodeId) {
+    Set<Integer> nodes = nodesByPanel.get(panel);
+    boolean subscribed = nodes != null && !allNodesSubscriberSet.contains(panel)
+        && nodes.add(nodeId);
+    if (subscribed) {
+      subscribersByNode.computeIfAbsent(nodeId, id -> new CopyOnWriteArrayList<>()).add(panel);
+    }
+    return subscribed;
+  }
+
+  /**
+   * Unsubscribe a control panel from a single node it has subscribed to. A panel which is
+   * subscribed to all nodes must unsubscribe from all of them instead.
+   *
+   * @param panel  The connection of the control panel
+   * @param nodeId The ID of the node
+   */
+  public synchronized void unsubscribe(ClientConnection panel, int nodeId) {
+    Set<Integer> nodes = nodesByPanel.get(panel);
+    if (nodes != null && nodes.remove(nodeId)) {
+      removeSubscriber(nodeId, panel);
+    }
+  }
+
+  private void addAllNodesSubscriber(ClientConnection panel) {
+    allNodesSubscribers.add(panel);
+    allNodesSubscriberSet.add(panel);
+  }
+
+  private void removeAllNodesSubscriber(ClientConnection panel) {
+    allNodesSubscriberSet.remove(panel);
+    allNodesSubscribers.remove(panel);
+  }
+
+  private void removeSubscriptions(ClientConnection panel, Set<Integer> nodes) {
+    for (int nodeId : nodes) {
+      removeSubscriber(nodeId, panel);
+    }
+    nodes.clear();
+  }
+
+  private void removeSubscriber(int nodeId, ClientConnection panel) {
+    List<ClientConnection> subscribers = subscribersByNode.get(nodeId);
+    if (subscribers != null) {
+      subscribers.remove(panel);
+      if (subscribers.isEmpty()) {
+        subscribersByNode.remove(nodeId);
+      }
+    }
+  }
+
+  /**
+   * Check whether a control panel gets the updates of a node.
+   *
+   * @param panel  The connection of the control panel
+   * @param nodeId The ID of the node
+   * @return True when the panel is subscribed to the node or to all nodes
+   */
+  public boolean isSubscribed(ClientConnection panel, int nodeId) {
+    return allNodesSubscriberSet.contains(panel) || getSubscribers(nodeId).contains(panel);
+  }
+
+  /**
+   * Get the control panels subscribed to all nodes.
+   *
+   * @return A read-only view of the panels, safe to iterate while panels subscribe
+   */
+  public List<ClientConnection> getAllNodesSubscribers() {
+    return Collections.unmodifiableList(allNodesSubscribers);
+  }
+
+  /**
+   * Get the control panels subscribed to a single node, not counting the ones subscribed to all
+   * nodes.
+   *
+   * @param nodeId The ID of the node
+   * @return A read-only view of the panels, safe to iterate while panels subscribe
+   */
+  public List<ClientConnection> getSubscribers(int nodeId) {
+    List<ClientConnection> subscribers = subscribersByNode.get(nodeId);
+    return subscribers != null ? Collections.unmodifiableList(subscribers) : List.of();
+  }
+}
@@ -1,17 +1,51 @@
 package no.ntnu.server;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import no.ntnu.protocol.WireFormat;
+import no.ntnu.tools.Logger;
+import no.ntnu.tools.MetricsRegistry;
+import no.ntnu.tools.MetricsSnapshot;
+import no.ntnu.tools.VirtualThreads;
 
 /** A TCP server for clients to connect to. */
 public class TcpServer {
   public static final int PORT_NUMBER = 10020;
+  // Large enough for thousands of nodes connecting at once, e.g. after a server restart
+  private static final int ACCEPT_BACKLOG = 1024;
+  private static final int DEFAULT_MAX_QUEUED_MESSAGES = 1000;
+  private static final long DEFAULT_MAX_QUEUED_BYTES = 16L * 1024 * 1024;
+  // Node states are sent to a new control panel in batches of about this many bytes
+  private static final int SNAPSHOT_BATCH_BYTES = 64 * 1024;
   private ServerSocket serverSocket;
-  private boolean running = false;
+  private ServerSocketChannel serverChannel;
+  private NioEventLoop[] eventLoops;
+  private volatile boolean running = false;
   private static TcpServer instance;
-  private ArrayList<ClientHandler> clientsHandlers = new ArrayList<>();
+  private ServerMode mode = ServerMode.THREAD_PER_CLIENT;
+  private int eventLoopCount = Runtime.getRuntime().availableProcessors();
+  private ThreadFactory clientThreadFactory;
+  private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+  private int maxQueuedMessages = DEFAULT_MAX_QUEUED_MESSAGES;
+  private long maxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+  private boolean directBroadcastBuffers = false;
+  private final ClientRegistry clients = new ClientRegistry();
+  private final NodeStateCache nodeStates =
+      new NodeStateCache(NodeStateCache.DEFAULT_MAX_IMAGE_BYTES);
+  private final SubscriptionIndex subscriptions = new SubscriptionIndex();
+  private StreamRecorder recorder;
+  private final ServerMetrics metrics = new ServerMetrics(new MetricsRegistry(), clients);
+  private final ServerMetrics.Broadcast controlPanelBroadcasts =
+      metrics.broadcast("controlPanels");
+  private final ServerMetrics.Broadcast nodeUpdateBroadcasts = metrics.broadcast("nodeUpdate");
+  private final ServerMetrics.Broadcast nodeBroadcasts = metrics.broadcast("sensorActuatorNodes");
 
   /** Creates an instance of a TCP server. */
   private TcpServer() {}
@@ -28,16 +62,165 @@ public class TcpServer {
     return instance;
   }
 
+  /**
+   * Set how the clients are handled. Must be called before the server is started.
+   *
+   * @param mode The server mode
+   */
+  public void setMode(ServerMode mode) {
+    if (mode == null) {
+      throw new IllegalArgumentException("Server mode cannot be null");
+    }
+    this.mode = mode;
+  }
+
+  /**
+   * Set the number of selector loops used in {@link ServerMode#NIO} mode. Must be called before
+   * the server is started.
+   *
+   * @param eventLoopCount The number of loops, at least one
+   */
+  public void setEventLoopCount(int eventLoopCount) {
+    if (eventLoopCount < 1) {
+      throw new IllegalArgumentException("At least one event loop is required");
+    }
+    this.eventLoopCount = eventLoopCount;
+  }
+
+  /**
+   * Set what happens when a client can't keep up with the messages sent to it. Applies to the
+   * clients connecting after the call.
+   *
+   * @param overflowPolicy The overflow policy
+   */
+  public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+    if (overflowPolicy == null) {
+      throw new IllegalArgumentException("Overflow policy cannot be null");
+    }
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  /**
+   * Set how many messages may wait to be written to a single client. Applies to the clients
+   * connecting after the call.
+   *
+   * @param maxMessages The maximum number of queued messages per client
+   */
+  public void setMaxQueuedMessages(int maxMessages) {
+    if (maxMessages < 1) {
+      throw new IllegalArgumentException("Queue limit must be positive");
+    }
+    this.maxQueuedMessages = maxMessages;
+  }
+
+  /**
+   * Set the total size of the messages that may wait to be written to a single client. Applies to
+   * the clients connecting after the call.
+   *
+   * @param maxBytes The maximum size of the queued messages per client
+   */
+  public void setMaxQueuedBytes(long maxBytes) {
+    if (maxBytes < 1) {
+      throw new IllegalArgumentException("Queue limit must be positive");
+    }
+    this.maxQueuedBytes = maxBytes;
+  }
+
+  /**
+   * Set whether broadcast messages are encoded into direct buffers. Direct buffers are written by
+   * the selector loops without an extra copy, but are more expensive to allocate, so they pay off
+   * in {@link ServerMode#NIO} mode with many recipients per message.
+   *
+   * @param directBroadcastBuffers True to use direct buffers, false for heap buffers
+   */
+  public void setDirectBroadcastBuffers(boolean directBroadcastBuffers) {
+    this.directBroadcastBuffers = directBroadcastBuffers;
+  }
+
+  /**
+   * Set the recorder of the sensor data and actuator updates passing through the server. Must be
+   * called before the server is started. The recorder is closed when the server stops.
+   *
+   * @param recorder The recorder, started, or null to record nothing
+   */
+  public void setRecorder(StreamRecorder recorder) {
+    this.recorder = recorder;
+  }
+
+  /**
+   * Record a message from a node, if the server has a recorder.
+   *
+   * @param message The message
+   */
+  void record(OutboundMessage message) {
+    if (recorder != null) {
+      recorder.record(message);
+    }
+  }
+
+  /**
+   * Get the metrics of the server, see {@link ServerMetrics} for what is recorded.
+   *
+   * @return The registry of the metrics
+   */
+  public MetricsRegistry getMetrics() {
+    return metrics.getRegistry();
+  }
+
+  /**
+   * Get the metrics of the server, for the connections to record in.
+   *
+   * @return The metrics
+   */
+  ServerMetrics getServerMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Describe the current metrics of the server, followed by the bytes sent and received and the
+   * queue of every connected client, one per line.
+   *
+   * @return The description
+   */
+  public String dumpMetrics() {
+    MetricsSnapshot snapshot = metrics.getRegistry().snapshot();
+    StringBuilder text = new StringBuilder(snapshot.format());
+    for (NodeType nodeType : NodeType.values()) {
+      for (ClientConnection client : clients.getClients(nodeType)) {
+        OutboundQueue queue = client.getOutboundQueue();
+        text.append(String.format("client %s %d %s in=%d out=%d queued=%d dropped=%d%n",
+            nodeType.name().toLowerCase(), client.getHandlerId(),
+            client.getProtocol().name().toLowerCase(), client.getBytesReceived(),
+            client.getBytesSent(), queue.getQueuedMessages(), queue.getDroppedMessages()));
+      }
+    }
+    return text.toString();
+  }
+
+  /**
+   * Create the queue for the messages to a new client, according to the current settings.
+   *
+   * @return An empty outbound queue
+   */
+  OutboundQueue createOutboundQueue() {
+    return new OutboundQueue(maxQueuedMessages, maxQueuedBytes, overflowPolicy);
+  }
+
   /**
    * Starts the server on the specified port.
    *
    * @param port The port to start the server on
    */
   public void startServer(int port) {
+    if (mode == ServerMode.NIO) {
+      startNioServer(port);
+      return;
+    }
+    clientThreadFactory = createClientThreadFactory();
     try {
-      serverSocket = new ServerSocket(port);
+      serverSocket = new ServerSocket(port, ACCEPT_BACKLOG);
       running = true;
-      System.out.println("Server started on port " + port + ".");
+      Logger.info("Server started on port " + port + " in " + mode + " mode.");
 
       while (running) {
         acceptNewClient();
@@ -55,15 +238,242 @@ public class TcpServer {
     try {
       clientSocket = serverSocket.accept();
       if (clientSocket != null) {
-        System.out.println("Client connected: " + clientSocket.getInetAddress().getHostAddress());
+        Logger.info("Client connected: " + clientSocket.getInetAddress().getHostAddress());
         ClientHandler clientHandler = new ClientHandler(clientSocket, this);
-        Thread clientProcessor = new Thread(clientHandler::run);
+        addClient(clientHandler);
+        // Two threads per client: the reader, and the writer draining its outbound queue
+        Thread clientProcessor = clientThreadFactory.newThread(clientHandler);
         clientProcessor.start();
-        clientsHandlers.add(clientHandler);
+        Thread clientWriter = clientThreadFactory.newThread(clientHandler::runWriter);
+        clientWriter.start();
+      }
+    } catch (IOException e) {
+      if (running) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  /**
+   * Create the factory for the threads running the client handlers.
+   *
+   * @return Thread factory matching the server mode
+   */
+  private ThreadFactory createClientThreadFactory() {
+    ThreadFactory factory;
+    if (mode == ServerMode.VIRTUAL_THREADS) {
+      factory = VirtualThreads.createFactory("client-handler-");
+    } else {
+      factory = Thread::new;
+    }
+    return factory;
+  }
+
+  /**
+   * Starts the server in non-blocking mode. The calling thread accepts the new clients and hands
+   * them over to the selector loops in a round-robin fashion.
+   *
+   * @param port The port to start the server on
+   */
+  private void startNioServer(int port) {
+    try {
+      serverChannel = ServerSocketChannel.open();
+      serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+      startEventLoops();
+      running = true;
+      Logger.info("Server started on port " + port + " with " + eventLoops.length
+          + " event loops.");
+
+      int nextLoop = 0;
+      while (running) {
+        SocketChannel clientChannel = serverChannel.accept();
+        Logger.info("Client connected: " + clientChannel.getRemoteAddress());
+        eventLoops[nextLoop].register(clientChannel);
+        nextLoop = (nextLoop + 1) % eventLoops.length;
       }
     } catch (IOException e) {
-      throw new RuntimeException(e);
+      if (running) {
+        throw new RuntimeException("Cannot open port", e);
+      }
+    } finally {
+      stopServer();
+    }
+  }
+
+  private void startEventLoops() throws IOException {
+    eventLoops = new NioEventLoop[eventLoopCount];
+    for (int i = 0; i < eventLoops.length; ++i) {
+      eventLoops[i] = new NioEventLoop(this, "nio-event-loop-" + i);
+      eventLoops[i].start();
+    }
+  }
+
+  /**
+   * Register a connected client. Called for every connection the server accepts, and by whoever
+   * creates connections some other way, such as in-process clients.
+   *
+   * @param client The client connection
+   */
+  public void addClient(ClientConnection client) {
+    clients.add(client);
+    metrics.connectionOpened();
+  }
+
+  /**
+   * Forget a client which has disconnected.
+   *
+   * @param client The client connection
+   */
+  public void removeClient(ClientConnection client) {
+    clients.remove(client);
+    metrics.connectionClosed();
+    subscriptions.removePanel(client);
+    if (client.getNodeType() == NodeType.SENSORACTUATOR
+        && clients.getSensorActuatorNode(client.getHandlerId()) == null) {
+      nodeStates.nodeRemoved(client.getHandlerId(), () -> { });
+    }
+  }
+
+  /**
+   * Get the latest known state of the connected nodes.
+   *
+   * @return The cache of node states
+   */
+  NodeStateCache getNodeStates() {
+    return nodeStates;
+  }
+
+  /**
+   * Send the latest known state of every node to a control panel which has just joined, from the
+   * cache, without asking the nodes. A panel which has subscribed to single nodes only gets the
+   * state of those, and the description of the others. Only nodes whose camera image is no longer
+   * cached are asked to send it again.
+   *
+   * @param controlPanel The connection of the control panel
+   */
+  void sendNodeStates(ClientConnection controlPanel) {
+    List<Integer> missingImages = new ArrayList<>();
+    nodeStates.snapshot(nodeId -> subscriptions.isSubscribed(controlPanel, nodeId),
+        missingImages, new SnapshotBatcher(controlPanel));
+    requestImages(missingImages);
+  }
+
+  /**
+   * Subscribe a control panel to single nodes, and send it the latest known state of the nodes it
+   * was not subscribed to before.
+   *
+   * @param controlPanel The connection of the control panel
+   * @param nodeIds      The IDs of the nodes
+   */
+  void subscribe(ClientConnection controlPanel, List<Integer> nodeIds) {
+    List<Integer> newNodeIds = new ArrayList<>();
+    for (int nodeId : nodeIds) {
+      // Subscribed before the state is taken, so that no update falls in between
+      if (subscriptions.subscribe(controlPanel, nodeId)) {
+        newNodeIds.add(nodeId);
+      }
     }
+    List<Integer> missingImages = new ArrayList<>();
+    nodeStates.nodeSnapshot(newNodeIds, missingImages, new SnapshotBatcher(controlPanel));
+    requestImages(missingImages);
+  }
+
+  /**
+   * Get which control panels want the updates of which nodes.
+   *
+   * @return The subscription index
+   */
+  SubscriptionIndex getSubscriptions() {
+    return subscriptions;
+  }
+
+  /**
+   * Ask nodes to send their camera image again, since it is no longer cached.
+   *
+   * @param nodeIds The IDs of the nodes
+   */
+  private void requestImages(List<Integer> nodeIds) {
+    for (int nodeId : nodeIds) {
+      sendMessageToSensorActuatorNode("controlPanelAdded", nodeId);
+    }
+  }
+
+  /**
+   * Queues cached node states for a control panel. The small messages are sent in batches, so a
+   * large greenhouse doesn't fill the queue of the panel with thousands of messages.
+   */
+  private class SnapshotBatcher implements NodeStateCache.SnapshotWriter {
+    private final ClientConnection controlPanel;
+    private final List<OutboundMessage> batch = new ArrayList<>();
+    private int batchBytes = 0;
+
+    private SnapshotBatcher(ClientConnection controlPanel) {
+      this.controlPanel = controlPanel;
+    }
+
+    @Override
+    public void add(OutboundMessage message) {
+      if (message.getSize() >= SNAPSHOT_BATCH_BYTES) {
+        flush();
+        controlPanel.sendToClient(message);
+      } else {
+        batch.add(message);
+        batchBytes += message.getSize();
+        if (batchBytes >= SNAPSHOT_BATCH_BYTES) {
+          flush();
+        }
+      }
+    }
+
+    @Override
+    public boolean isFlushed() {
+      return batch.isEmpty();
+    }
+
+    @Override
+    public void flush() {
+      if (!batch.isEmpty()) {
+        controlPanel.sendToClient(OutboundMessage.batch(batch, directBroadcastBuffers));
+        batch.clear();
+      }
+      batchBytes = 0;
+    }
+  }
+
+  /**
+   * Called when a client has told which type of node it is.
+   *
+   * @param client       The client connection
+   * @param previousType The node type the client had before
+   */
+  void clientNodeTypeChanged(ClientConnection client, NodeType previousType) {
+    clients.nodeTypeChanged(client, previousType);
+    if (client.getNodeType() == NodeType.CONTROLPANEL) {
+      subscriptions.addPanel(client);
+    } else if (previousType == NodeType.CONTROLPANEL) {
+      subscriptions.removePanel(client);
+    }
+  }
+
+  /**
+   * Called when a client has told its node ID.
+   *
+   * @param client     The client connection
+   * @param previousId The ID the client had before
+   */
+  void clientIdChanged(ClientConnection client, int previousId) {
+    clients.idChanged(client, previousId);
+  }
+
+  /**
+   * Create a message to forward to other clients.
+   *
+   * @param text  The message, in the text protocol
+   * @param frame The message as it arrived in a binary frame, or null when it arrived as text
+   * @return The message, encoded according to the current settings
+   */
+  OutboundMessage createMessage(String text, byte[] frame) {
+    return new OutboundMessage(text, frame, directBroadcastBuffers);
   }
 
   /**
@@ -72,24 +482,107 @@ public class TcpServer {
    * @param message The message to send
    */
   public void sendMessageToControlPanels(String message) {
-    for (ClientHandler clientHandler : clientsHandlers) {
-      if (clientHandler.getNodeType().equals(NodeType.CONTROLPANEL)) {
+    sendMessageToControlPanels(createMessage(message, null));
+  }
+
+  /**
+   * Sends a message to all control panel clients.
+   *
+   * @param message The message to send
+   */
+  public void sendMessageToControlPanels(OutboundMessage message) {
+    long start = System.nanoTime();
+    int recipients = 0;
+    for (ClientConnection clientHandler : clients.getClients(NodeType.CONTROLPANEL)) {
+      clientHandler.sendToClient(message);
+      ++recipients;
+    }
+    controlPanelBroadcasts.record(start, recipients);
+  }
+
+  /**
+   * Sends an update from a node to the control panels subscribed to the node, or to all nodes.
+   *
+   * @param nodeId  The ID of the node the update is about
+   * @param message The message to send
+   */
+  public void sendNodeUpdateToControlPanels(int nodeId, OutboundMessage message) {
+    long start = System.nanoTime();
+    int recipients = 0;
+    for (ClientConnection clientHandler : subscriptions.getAllNodesSubscribers()) {
+      clientHandler.sendToClient(message);
+      ++recipients;
+    }
+    for (ClientConnection clientHandler : subscriptions.getSubscribers(nodeId)) {
+      clientHandler.sendToClient(message);
+      ++recipients;
+    }
+    nodeUpdateBroadcasts.record(start, recipients);
+  }
+
+  /**
+   * Sends an update from a node to the control panels subscribed to the node, or to all nodes,
+   * which use the given protocol.
+   *
+   * @param nodeId  The ID of the node the update is about
+   * @param message The message to send
+   * @param format  The protocol of the recipients
+   */
+  public void sendNodeUpdateToControlPanels(int nodeId, OutboundMessage message,
+      WireFormat format) {
+    long start = System.nanoTime();
+    int recipients = 0;
+    for (ClientConnection clientHandler : subscriptions.getAllNodesSubscribers()) {
+      if (clientHandler.getProtocol() == format) {
+        clientHandler.sendToClient(message);
+        ++recipients;
+      }
+    }
+    for (ClientConnection clientHandler : subscriptions.getSubscribers(nodeId)) {
+      if (clientHandler.getProtocol() == format) {
         clientHandler.sendToClient(message);
+        ++recipients;
       }
     }
+    nodeUpdateBroadcasts.record(start, recipients);
+  }
+
+  /**
+   * Check whether any control panel client uses the given protocol.
+   *
+   * @param format The protocol
+   * @return True when at least one control panel uses the protocol
+   */
+  public boolean hasControlPanels(WireFormat format) {
+    boolean found = false;
+    for (ClientConnection clientHandler : clients.getClients(NodeType.CONTROLPANEL)) {
+      found = found || clientHandler.getProtocol() == format;
+    }
+    return found;
   }
 
   /**
-   * Sends a message to a single control panel client.
+   * Sends a message to all sensor/actuator nodes.
    *
    * @param message The message to send
    */
   public void sendMessageToSensorActuatorNodes(String message) {
-    for (ClientHandler clientHandler : clientsHandlers) {
-      if (clientHandler.getNodeType().equals(NodeType.SENSORACTUATOR)) {
-        clientHandler.sendToClient(message);
-      }
+    sendMessageToSensorActuatorNodes(createMessage(message, null));
+  }
+
+  /**
+   * Sends a message to all sensor/actuator nodes.
+   *
+   * @param message The message to send
+   */
+  public void sendMessageToSensorActuatorNodes(OutboundMessage message) {
+    long start = System.nanoTime();
+    int recipients = 0;
+    for (ClientConnection clientHandler : clients.getClients(NodeType.SENSORACTUATOR)) {
+      clientHandler.sendToClient(message);
+      ++recipients;
     }
+    nodeBroadcasts.record(start, recipients);
   }
 
   /**
@@ -99,24 +592,49 @@ public class TcpServer {
    * @param id The id of the node to send the message to
    */
   public void sendMessageToSensorActuatorNode(String message, int id) {
-    for (ClientHandler clientHandler : clientsHandlers) {
-      if (clientHandler.getNodeType().equals(NodeType.SENSORACTUATOR)
-          && clientHandler.getHandlerId() == id) {
-        clientHandler.sendToClient(message);
-      }
+    sendMessageToSensorActuatorNode(new OutboundMessage(message), id);
+  }
+
+  /**
+   * Sends a message to a single sensor/actuator node.
+   *
+   * @param message The message to send
+   * @param id The id of the node to send the message to
+   */
+  public void sendMessageToSensorActuatorNode(OutboundMessage message, int id) {
+    ClientConnection clientHandler = clients.getSensorActuatorNode(id);
+    if (clientHandler != null) {
+      clientHandler.sendToClient(message);
+    } else {
+      Logger.info("No sensor/actuator node with ID " + id + " is connected");
     }
   }
 
   /** Stops the server. */
   public void stopServer() {
     running = false;
+    if (eventLoops != null) {
+      for (NioEventLoop eventLoop : eventLoops) {
+        eventLoop.stop();
+      }
+      eventLoops = null;
+    }
     try {
       if (serverSocket != null && !serverSocket.isClosed()) {
         serverSocket.close();
-        System.out.println("Server stopped.");
+        Logger.info("Server stopped.");
+      }
+      if (serverChannel != null && serverChannel.isOpen()) {
+        serverChannel.close();
+        Logger.info("Server stopped.");
       }
     } catch (IOException e) {
       throw new RuntimeException("Error closing server", e);
+    } finally {
+      metrics.getRegistry().stopSnapshots();
+      if (recorder != null) {
+        recorder.close();
+      }
     }
   }
 }
@@ -0,0 +1,158 @@
+package no.ntnu.tools;
+
+import java.io.PrintStream;
+
+/**
+ * Writes log messages to the console on a thread of its own, so that the threads logging don't
+ * wait for the console. The messages wait in a ring buffer of fixed capacity; when it is full,
+ * new messages are dropped and counted, and the number dropped is written when there is room
+ * again. The messages are written in the order they were appended, in batches.
+ */
+public class AsyncAppender {
+  // A batch text larger than this is not kept for the next batch
+  private static final int MAX_KEPT_TEXT = 64 * 1024;
+
+  private final PrintStream out;
+  private final PrintStream err;
+  private final String[] messages;
+  private final boolean[] errors;
+  // The first message waiting, and the number of messages waiting
+  private int head = 0;
+  private int size = 0;
+  private long dropped = 0;
+  private long droppedWritten = 0;
+  // Held while taking messages out of the buffer and writing them, so that batches stay in order
+  private final Object writeLock = new Object();
+  // Only used while holding the write lock
+  private final String[] batch;
+  private final boolean[] batchErrors;
+  private final StringBuilder text = new StringBuilder();
+
+  /**
+   * Create an appender and start its thread.
+   *
+   * @param capacity The largest number of messages which may wait to be written
+   * @param out      Where the information messages are written
+   * @param err      Where the error messages are written
+   */
+  public AsyncAppender(int capacity, PrintStream out, PrintStream err) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    this.out = out;
+    this.err = err;
+    this.messages = new String[capacity];
+    this.errors = new boolean[capacity];
+    this.batch = new String[capacity];
+    this.batchErrors = new boolean[capacity];
+    Thread thread = new Thread(this::run, "log-appender");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Append a message. Returns right away, the message is written later.
+   *
+   * @param message The message, including any line ending
+   * @param error   True for an error message, false for an information message
+   * @return True when the message was appended, false when it was dropped
+   */
+  public synchronized boolean append(String message, boolean error) {
+    boolean appended = size < messages.length;
+    if (appended) {
+      int tail = (head + size) % messages.length;
+      messages[tail] = message;
+      errors[tail] = error;
+      if (size++ == 0) {
+        notifyAll();
+      }
+    } else {
+      ++dropped;
+    }
+    return appended;
+  }
+
+  /**
+   * Get the number of messages dropped because the buffer was full.
+   *
+   * @return The number of messages dropped so far
+   */
+  public synchronized long getDroppedCount() {
+    return dropped;
+  }
+
+  /**
+   * Write the waiting messages now, on the calling thread. Used when the program exits.
+   */
+  public void flush() {
+    synchronized (writeLock) {
+      int count = takeWaiting();
+      long newlyDropped = dropped();
+      int start = 0;
+      for (int i = 1; i <= count; ++i) {
+        if (i == count || batchErrors[i] != batchErrors[start]) {
+          write(start, i);
+          start = i;
+        }
+      }
+      if (newlyDropped > 0) {
+        err.println("(" + newlyDropped + " log messages dropped)");
+      }
+    }
+  }
+
+  private synchronized int takeWaiting() {
+    int count = size;
+    for (int i = 0; i < count; ++i) {
+      int position = (head + i) % messages.length;
+      batch[i] = messages[position];
+      batchErrors[i] = errors[position];
+      messages[position] = null;
+    }
+    head = (head + count) % messages.length;
+    size = 0;
+    return count;
+  }
+
+  private synchronized long dropped() {
+    long newlyDropped = dropped - droppedWritten;
+    droppedWritten = dropped;
+    return newlyDropped;
+  }
+
+  /**
+   * Write messages of the same kind from the batch with one call.
+   */
+  private void write(int from, int to) {
+    text.setLength(0);
+    for (int i = from; i < to; ++i) {
+      text.append(batch[i]);
+      batch[i] = null;
+    }
+    PrintStream stream = batchErrors[from] ? err : out;
+    stream.print(text);
+    stream.flush();
+    if (text.capacity() > MAX_KEPT_TEXT) {
+      text.setLength(0);
+      text.trimToSize();
+    }
+  }
+
+  private void run() {
+    boolean running = true;
+    while (running) {
+      try {
+        waitForMessages();
+        flush();
+      } catch (InterruptedException e) {
+        running = false;
+      }
+    }
+  }
+
+  private synchronized void waitForMessages() throws InterruptedException {
+    while (size == 0) {
+      wait();
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package no.ntnu.tools;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter, for retrying something which failed, such as connecting to the
+ * server. The delay doubles after every failed attempt, up to a maximum, and a random part of it
+ * is taken away, so that many clients losing the server at the same time don't all come back at
+ * the same moment.
+ */
+public class Backoff {
+  private final long initialDelayMillis;
+  private final long maxDelayMillis;
+  private long delayMillis;
+
+  /**
+   * Create a backoff.
+   *
+   * @param initialDelayMillis The delay after the first failed attempt, in milliseconds
+   * @param maxDelayMillis     The longest delay, in milliseconds
+   */
+  public Backoff(long initialDelayMillis, long maxDelayMillis) {
+    if (initialDelayMillis <= 0 || maxDelayMillis < initialDelayMillis) {
+      throw new IllegalArgumentException("Invalid backoff delays: " + initialDelayMillis + ", "
+          + maxDelayMillis);
+    }
+    this.initialDelayMillis = initialDelayMillis;
+    this.maxDelayMillis = maxDelayMillis;
+    this.delayMillis = initialDelayMillis;
+  }
+
+  /**
+   * Get the delay before the next attempt, and double it for the attempt after.
+   *
+   * @return The delay in milliseconds, between half of the current delay and all of it
+   */
+  public long nextDelayMillis() {
+    long delay = delayMillis / 2 + ThreadLocalRandom.current().nextLong(delayMillis / 2 + 1);
+    delayMillis = Math.min(delayMillis * 2, maxDelayMillis);
+    return delay;
+  }
+
+  /**
+   * Wait before the next attempt.
+   *
+   * @throws InterruptedException If interrupted while waiting
+   */
+  public void await() throws InterruptedException {
+    Thread.sleep(nextDelayMillis());
+  }
+
+  /** Start from the initial delay again, after an attempt succeeded. */
+  public void reset() {
+    delayMillis = initialDelayMillis;
+  }
+}
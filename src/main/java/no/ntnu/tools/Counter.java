@@ -0,0 +1,36 @@
+package no.ntnu.tools;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count which many threads add to at the same time, such as the number of bytes received by the
+ * server. The count is striped: threads which would contend for the same value are spread over
+ * separate cells, which are only summed when the count is read. Adding never blocks and rarely
+ * touches memory another thread is writing to; reading is slower, and meant for snapshots.
+ */
+public class Counter {
+  private final LongAdder count = new LongAdder();
+
+  /** Add one to the count. */
+  public void increment() {
+    count.increment();
+  }
+
+  /**
+   * Add to the count.
+   *
+   * @param amount The amount to add
+   */
+  public void add(long amount) {
+    count.add(amount);
+  }
+
+  /**
+   * Get the count. Additions happening at the same time may or may not be included.
+   *
+   * @return The sum of all the additions
+   */
+  public long get() {
+    return count.sum();
+  }
+}
@@ -0,0 +1,204 @@
+package no.ntnu.tools;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The distribution of durations, such as the time the server takes to handle a command, recorded
+ * by many threads at the same time.
+ *
+ * <p>The buckets are log-linear: every power of two is split into 16 buckets of equal width, so a
+ * duration is known to within about 6 %, from nanoseconds up to about 18 minutes, in under 600
+ * buckets. Longer durations are counted in the last bucket. The counts are striped: every thread
+ * records to one of a few copies of the buckets, picked by its ID, so threads rarely contend for
+ * the same counts. Recording never blocks; the copies are summed when a snapshot is taken.
+ */
+public class LatencyHistogram {
+  // Every power of two is split into 1 << SUB_BUCKET_BITS buckets
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // Durations of 1 << (MAX_EXPONENT + 1) nanoseconds and more go to the last bucket
+  private static final int MAX_EXPONENT = 39;
+  private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+  // Before the buckets of a stripe: the sum of the durations and the longest one. They are
+  // written every time, so they are kept away from the next stripe in memory.
+  private static final int SUM = 0;
+  private static final int MAX = 1;
+  private static final int FIRST_BUCKET = 2;
+  private static final int STRIPES = Integer.highestOneBit(
+      Math.min(Runtime.getRuntime().availableProcessors(), 8) * 2 - 1);
+
+  private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+
+  /** Create an empty histogram. */
+  public LatencyHistogram() {
+    for (int i = 0; i < stripes.length; ++i) {
+      stripes[i] = new AtomicLongArray(FIRST_BUCKET + BUCKETS);
+    }
+  }
+
+  /**
+   * Record a duration.
+   *
+   * @param nanos The duration in nanoseconds, negative durations are counted as zero
+   */
+  public void record(long nanos) {
+    long duration = Math.max(nanos, 0);
+    AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+    stripe.incrementAndGet(FIRST_BUCKET + bucketOf(duration));
+    stripe.addAndGet(SUM, duration);
+    long max = stripe.get(MAX);
+    while (duration > max && !stripe.compareAndSet(MAX, max, duration)) {
+      max = stripe.get(MAX);
+    }
+  }
+
+  /**
+   * Record the time since a start time.
+   *
+   * @param startNanos The start time, from {@link System#nanoTime()}
+   */
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Take a snapshot of the durations recorded so far. Durations being recorded at the same time
+   * may or may not be included.
+   *
+   * @return The snapshot
+   */
+  public Snapshot snapshot() {
+    long[] counts = new long[BUCKETS];
+    long sum = 0;
+    long max = 0;
+    for (AtomicLongArray stripe : stripes) {
+      for (int i = 0; i < BUCKETS; ++i) {
+        counts[i] += stripe.get(FIRST_BUCKET + i);
+      }
+      sum += stripe.get(SUM);
+      max = Math.max(max, stripe.get(MAX));
+    }
+    return new Snapshot(counts, sum, max);
+  }
+
+  /**
+   * Find the bucket of a duration.
+   *
+   * @param nanos The duration, not negative
+   * @return The index of the bucket
+   */
+  private static int bucketOf(long nanos) {
+    int bucket;
+    if (nanos < SUB_BUCKETS) {
+      bucket = (int) nanos;
+    } else {
+      int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+      if (exponent > MAX_EXPONENT) {
+        bucket = BUCKETS - 1;
+      } else {
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        bucket = (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+      }
+    }
+    return bucket;
+  }
+
+  /**
+   * Find the longest duration counted in a bucket.
+   *
+   * @param bucket The index of the bucket
+   * @return The duration in nanoseconds
+   */
+  private static long highestOf(int bucket) {
+    long highest;
+    if (bucket < SUB_BUCKETS) {
+      highest = bucket;
+    } else {
+      int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+      long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+      highest = lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+    return highest;
+  }
+
+  /**
+   * The durations recorded in a histogram up to some moment.
+   */
+  public static class Snapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    private Snapshot(long[] counts, long sum, long max) {
+      long total = 0;
+      for (long bucketCount : counts) {
+        total += bucketCount;
+      }
+      this.counts = counts;
+      this.count = total;
+      this.sum = sum;
+      this.max = max;
+    }
+
+    /**
+     * Get the number of durations recorded.
+     *
+     * @return The number of durations
+     */
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * Get the average duration.
+     *
+     * @return The average in nanoseconds, zero when nothing was recorded
+     */
+    public long getMean() {
+      return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * Get the longest duration.
+     *
+     * @return The longest duration in nanoseconds, zero when nothing was recorded
+     */
+    public long getMax() {
+      return max;
+    }
+
+    /**
+     * Get the duration which the given share of the durations don't exceed, to within the width
+     * of a bucket.
+     *
+     * @param percentile The share, in percent, such as 99 or 99.9
+     * @return The duration in nanoseconds, zero when nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+      if (percentile < 0 || percentile > 100) {
+        throw new IllegalArgumentException("Invalid percentile: " + percentile);
+      }
+      long rank = Math.max((long) Math.ceil(count * percentile / 100), 1);
+      long seen = 0;
+      int bucket = 0;
+      while (bucket < counts.length - 1 && seen + counts[bucket] < rank) {
+        seen += counts[bucket];
+        ++bucket;
+      }
+      return count == 0 ? 0 : Math.min(highestOf(bucket), max);
+    }
+
+    /**
+     * Describe the durations, in microseconds.
+     *
+     * @return The count, average, median, 99th and 99.9th percentile and longest duration
+     */
+    @Override
+    public String toString() {
+      return String.format("count=%d mean=%.1fus p50=%.1fus p99=%.1fus p999=%.1fus max=%.1fus",
+          count, getMean() / 1000.0, getPercentile(50) / 1000.0, getPercentile(99) / 1000.0,
+          getPercentile(99.9) / 1000.0, max / 1000.0);
+    }
+  }
+}
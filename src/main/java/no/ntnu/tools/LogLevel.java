@@ -0,0 +1,16 @@
+package no.ntnu.tools;
+
+/**
+ * How important a log message is. A logger set to a level writes the messages of that level and
+ * the ones above it.
+ */
+public enum LogLevel {
+  /** Details of every message sent and received, for following the traffic. */
+  DEBUG,
+  /** What is happening: clients connecting, nodes starting, actuators changing. */
+  INFO,
+  /** Something went wrong. */
+  ERROR,
+  /** Nothing is written. */
+  OFF
+}
@@ -1,24 +1,127 @@
 package no.ntnu.tools;
 
+import java.util.Locale;
+import java.util.function.Supplier;
+
 /**
  * A logger class for encapsulating all the logging. We can either reduce the number of SonarLint
  * warnings, or implement it properly. This class makes sure we sue the same logging in all
  * places of our code.
+ *
+ * <p>Messages below the current {@link LogLevel} are skipped; the level is INFO unless the system
+ * property "greenhouse.log.level" says otherwise. Messages which are expensive to build can be
+ * given as a supplier, which is only called when the level is enabled. The messages are written
+ * to the console by an {@link AsyncAppender}, so logging never waits for the console; when the
+ * console can't keep up, messages are dropped and counted.
  */
 public class Logger {
+  private static final int BUFFER_CAPACITY = 8192;
+  private static final AsyncAppender appender =
+      new AsyncAppender(BUFFER_CAPACITY, System.out, System.err);
+  private static volatile LogLevel level = parseLevel(System.getProperty("greenhouse.log.level"));
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread(appender::flush, "log-flush"));
+  }
+
   /**
    * Not allowed to create an instance of this class.
    */
   private Logger() {
   }
 
+  private static LogLevel parseLevel(String name) {
+    LogLevel parsed = LogLevel.INFO;
+    if (name != null) {
+      try {
+        parsed = LogLevel.valueOf(name.toUpperCase(Locale.ROOT));
+      } catch (IllegalArgumentException e) {
+        System.err.println("Unknown log level: " + name);
+      }
+    }
+    return parsed;
+  }
+
+  /**
+   * Set the lowest level of the messages which are logged.
+   *
+   * @param newLevel The level
+   */
+  public static void setLevel(LogLevel newLevel) {
+    if (newLevel == null) {
+      throw new IllegalArgumentException("Log level cannot be null");
+    }
+    level = newLevel;
+  }
+
+  /**
+   * Check whether messages of a level are logged.
+   *
+   * @param messageLevel The level of the messages
+   * @return True when they are logged
+   */
+  public static boolean isEnabled(LogLevel messageLevel) {
+    return messageLevel.compareTo(level) >= 0 && messageLevel != LogLevel.OFF;
+  }
+
+  /**
+   * Get the number of messages dropped because the console could not keep up.
+   *
+   * @return The number of messages dropped so far
+   */
+  public static long getDroppedCount() {
+    return appender.getDroppedCount();
+  }
+
+  /**
+   * Write the messages still waiting to the console, before returning.
+   */
+  public static void flush() {
+    appender.flush();
+  }
+
+  /**
+   * Log a debug message, such as a message sent or received.
+   *
+   * @param message The message to log. A newline is appended automatically.
+   */
+  public static void debug(String message) {
+    if (isEnabled(LogLevel.DEBUG)) {
+      appender.append(message + System.lineSeparator(), false);
+    }
+  }
+
+  /**
+   * Log a debug message, building it only when debug messages are logged.
+   *
+   * @param message Builds the message to log
+   */
+  public static void debug(Supplier<String> message) {
+    if (isEnabled(LogLevel.DEBUG)) {
+      appender.append(message.get() + System.lineSeparator(), false);
+    }
+  }
+
   /**
    * Log an information message.
    *
    * @param message The message to log. A newline is appended automatically.
    */
   public static void info(String message) {
-    System.out.println(message);
+    if (isEnabled(LogLevel.INFO)) {
+      appender.append(message + System.lineSeparator(), false);
+    }
+  }
+
+  /**
+   * Log an information message, building it only when information messages are logged.
+   *
+   * @param message Builds the message to log
+   */
+  public static void info(Supplier<String> message) {
+    if (isEnabled(LogLevel.INFO)) {
+      appender.append(message.get() + System.lineSeparator(), false);
+    }
   }
 
   /**
@@ -27,7 +130,9 @@ public class Logger {
    * @param message The message to log
    */
   public static void infoNoNewline(String message) {
-    System.out.print(message);
+    if (isEnabled(LogLevel.INFO)) {
+      appender.append(message, false);
+    }
   }
 
   /**
@@ -36,6 +141,8 @@ public class Logger {
    * @param message The error message to log
    */
   public static void error(String message) {
-    System.err.println(message);
+    if (isEnabled(LogLevel.ERROR)) {
+      appender.append(message + System.lineSeparator(), true);
+    }
   }
 }
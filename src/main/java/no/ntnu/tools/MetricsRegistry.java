@@ -0,0 +1,131 @@
+package no.ntnu.tools;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * The metrics of a component, such as the server, by name: {@link Counter}s, gauges, which are
+ * read when a snapshot is taken, and {@link LatencyHistogram}s. The metrics are created on first
+ * use; the code recording them should look them up once and keep them, since recording is meant
+ * to be cheap and looking up is not.
+ *
+ * <p>Snapshots of all the metrics can be taken at any time, and periodically, on a thread of the
+ * registry, for whoever wants to watch them.
+ */
+public class MetricsRegistry {
+  private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+  private ScheduledThreadPoolExecutor snapshotExecutor;
+  private volatile MetricsSnapshot latestSnapshot;
+
+  /**
+   * Get a counter, creating it the first time.
+   *
+   * @param name The name of the counter
+   * @return The counter
+   */
+  public Counter counter(String name) {
+    return counters.computeIfAbsent(name, key -> new Counter());
+  }
+
+  /**
+   * Get a histogram, creating it the first time.
+   *
+   * @param name The name of the histogram
+   * @return The histogram
+   */
+  public LatencyHistogram histogram(String name) {
+    return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+  }
+
+  /**
+   * Add a gauge, replacing any gauge with the same name.
+   *
+   * @param name  The name of the gauge
+   * @param value Gives the current value when a snapshot is taken. May be called from any thread.
+   */
+  public void gauge(String name, LongSupplier value) {
+    if (value == null) {
+      throw new IllegalArgumentException("Gauge value cannot be null");
+    }
+    gauges.put(name, value);
+  }
+
+  /**
+   * Take a snapshot of all the metrics now.
+   *
+   * @return The snapshot
+   */
+  public MetricsSnapshot snapshot() {
+    TreeMap<String, Long> counterValues = new TreeMap<>();
+    for (Map.Entry<String, Counter> counter : counters.entrySet()) {
+      counterValues.put(counter.getKey(), counter.getValue().get());
+    }
+    TreeMap<String, Long> gaugeValues = new TreeMap<>();
+    for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+      gaugeValues.put(gauge.getKey(), gauge.getValue().getAsLong());
+    }
+    TreeMap<String, LatencyHistogram.Snapshot> histogramValues = new TreeMap<>();
+    for (Map.Entry<String, LatencyHistogram> histogram : histograms.entrySet()) {
+      histogramValues.put(histogram.getKey(), histogram.getValue().snapshot());
+    }
+    return new MetricsSnapshot(System.currentTimeMillis(), counterValues, gaugeValues,
+        histogramValues);
+  }
+
+  /**
+   * Start taking a snapshot periodically, on a thread of the registry. Stops the snapshots
+   * started before, if any.
+   *
+   * @param periodMillis The time between two snapshots, in milliseconds
+   * @param listener     Gets every snapshot, or null when the snapshots are only read with
+   *                     {@link #getLatestSnapshot()}
+   */
+  public synchronized void startSnapshots(long periodMillis, Consumer<MetricsSnapshot> listener) {
+    if (periodMillis <= 0) {
+      throw new IllegalArgumentException("Snapshot period must be positive");
+    }
+    stopSnapshots();
+    snapshotExecutor = new ScheduledThreadPoolExecutor(1, task -> {
+      Thread thread = new Thread(task, "metrics-snapshots");
+      thread.setDaemon(true);
+      return thread;
+    });
+    snapshotExecutor.scheduleAtFixedRate(() -> {
+      MetricsSnapshot snapshot = snapshot();
+      latestSnapshot = snapshot;
+      if (listener != null) {
+        try {
+          listener.accept(snapshot);
+        } catch (RuntimeException e) {
+          // An exception would stop the periodic snapshots
+          Logger.error("Error handling metrics snapshot: " + e.getMessage());
+        }
+      }
+    }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /** Stop taking snapshots periodically. The latest snapshot can still be read. */
+  public synchronized void stopSnapshots() {
+    if (snapshotExecutor != null) {
+      snapshotExecutor.shutdownNow();
+      snapshotExecutor = null;
+    }
+  }
+
+  /**
+   * Get the latest periodic snapshot.
+   *
+   * @return The snapshot, or null when none has been taken yet
+   */
+  public MetricsSnapshot getLatestSnapshot() {
+    return latestSnapshot;
+  }
+}
@@ -0,0 +1,121 @@
+package no.ntnu.tools;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * The values of all the metrics of a {@link MetricsRegistry} at one moment, which can be read
+ * and compared without the metrics changing underneath.
+ */
+public class MetricsSnapshot {
+  private final long timeMillis;
+  private final SortedMap<String, Long> counters;
+  private final SortedMap<String, Long> gauges;
+  private final SortedMap<String, LatencyHistogram.Snapshot> histograms;
+
+  /**
+   * Create a snapshot.
+   *
+   * @param timeMillis The time the snapshot was taken, in milliseconds since the epoch
+   * @param counters   The counts, by name
+   * @param gauges     The gauge values, by name
+   * @param histograms The histograms, by name
+   */
+  MetricsSnapshot(long timeMillis, SortedMap<String, Long> counters,
+                  SortedMap<String, Long> gauges,
+                  SortedMap<String, LatencyHistogram.Snapshot> histograms) {
+    this.timeMillis = timeMillis;
+    this.counters = Collections.unmodifiableSortedMap(counters);
+    this.gauges = Collections.unmodifiableSortedMap(gauges);
+    this.histograms = Collections.unmodifiableSortedMap(histograms);
+  }
+
+  /**
+   * Get the time the snapshot was taken.
+   *
+   * @return The time, in milliseconds since the epoch
+   */
+  public long getTimeMillis() {
+    return timeMillis;
+  }
+
+  /**
+   * Get a count.
+   *
+   * @param name The name of the counter
+   * @return The count, zero when there is no such counter
+   */
+  public long getCounter(String name) {
+    return counters.getOrDefault(name, 0L);
+  }
+
+  /**
+   * Get the value of a gauge.
+   *
+   * @param name The name of the gauge
+   * @return The value, zero when there is no such gauge
+   */
+  public long getGauge(String name) {
+    return gauges.getOrDefault(name, 0L);
+  }
+
+  /**
+   * Get a histogram.
+   *
+   * @param name The name of the histogram
+   * @return The durations recorded, or null when there is no such histogram
+   */
+  public LatencyHistogram.Snapshot getHistogram(String name) {
+    return histograms.get(name);
+  }
+
+  /**
+   * Get all the counts.
+   *
+   * @return The counts by name, sorted by name
+   */
+  public Map<String, Long> getCounters() {
+    return counters;
+  }
+
+  /**
+   * Get all the gauge values.
+   *
+   * @return The values by name, sorted by name
+   */
+  public Map<String, Long> getGauges() {
+    return gauges;
+  }
+
+  /**
+   * Get all the histograms.
+   *
+   * @return The histograms by name, sorted by name
+   */
+  public Map<String, LatencyHistogram.Snapshot> getHistograms() {
+    return histograms;
+  }
+
+  /**
+   * Describe the metrics, one per line: the counters, then the gauges, then the histograms.
+   *
+   * @return The description, with lines on the form "name value"
+   */
+  public String format() {
+    StringBuilder text = new StringBuilder();
+    for (Map.Entry<String, Long> counter : counters.entrySet()) {
+      text.append(counter.getKey()).append(' ').append(counter.getValue())
+          .append(System.lineSeparator());
+    }
+    for (Map.Entry<String, Long> gauge : gauges.entrySet()) {
+      text.append(gauge.getKey()).append(' ').append(gauge.getValue())
+          .append(System.lineSeparator());
+    }
+    for (Map.Entry<String, LatencyHistogram.Snapshot> histogram : histograms.entrySet()) {
+      text.append(histogram.getKey()).append(' ').append(histogram.getValue())
+          .append(System.lineSeparator());
+    }
+    return text.toString();
+  }
+}
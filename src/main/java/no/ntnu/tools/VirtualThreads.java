@@ -0,0 +1,54 @@
+package no.ntnu.tools;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads. The project is still built for Java 17, so the Java 21 API is looked
+ * up at runtime: virtual threads are available when the application runs on Java 21 or newer.
+ */
+public class VirtualThreads {
+  /**
+   * Not allowed to create instances of this class.
+   */
+  private VirtualThreads() {
+  }
+
+  /**
+   * Check whether the running JVM supports virtual threads.
+   *
+   * @return True when virtual threads can be created, false otherwise
+   */
+  public static boolean isSupported() {
+    try {
+      Thread.class.getMethod("ofVirtual");
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Create a factory of virtual threads. The threads are named with the given prefix, followed by
+   * a sequence number.
+   *
+   * @param namePrefix The prefix of the thread names
+   * @return A factory creating unstarted virtual threads
+   * @throws IllegalStateException When the running JVM does not support virtual threads
+   */
+  public static ThreadFactory createFactory(String namePrefix) {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Method name = builderClass.getMethod("name", String.class, long.class);
+      builder = name.invoke(builder, namePrefix, 0L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (NoSuchMethodException | ClassNotFoundException e) {
+      throw new IllegalStateException("Virtual threads require Java 21 or newer, running on "
+          + System.getProperty("java.version"), e);
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      throw new IllegalStateException("Could not create virtual thread factory", e);
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package no.ntnu.controlpanel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests of the {@link EventDispatcher}: the order of the events of a node, the independence of the
+ * nodes, the single delivery thread and the shutdown.
+ */
+public class EventDispatcherTest {
+  private static final long TIMEOUT_MILLIS = 5000;
+  // The delay of the sensor data in the control panel client
+  private static final long SLOW_DELAY_MILLIS = 1000;
+
+  private final EventDispatcher dispatcher = new EventDispatcher("test-events");
+  private final List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+  private final Set<Thread> threads = Collections.synchronizedSet(new HashSet<>());
+
+  @After
+  public void stopDispatcher() throws InterruptedException {
+    dispatcher.shutdown();
+    dispatcher.awaitTermination(TIMEOUT_MILLIS);
+  }
+
+  private Runnable record(String event) {
+    return () -> {
+      threads.add(Thread.currentThread());
+      delivered.add(event);
+    };
+  }
+
+  @Test
+  public void eventsOfOneNodeAreDeliveredInOrder() throws InterruptedException {
+    dispatcher.schedule(1, record("delayed"), 100);
+    dispatcher.execute(1, record("immediate"));
+    dispatcher.schedule(1, record("shorter delay"), 10);
+    for (int i = 0; i < 100; ++i) {
+      dispatcher.execute(1, record("event " + i));
+    }
+    dispatcher.shutdown();
+
+    assertTrue(dispatcher.awaitTermination(TIMEOUT_MILLIS));
+    List<String> expected = new ArrayList<>(List.of("delayed", "immediate", "shorter delay"));
+    for (int i = 0; i < 100; ++i) {
+      expected.add("event " + i);
+    }
+    assertEquals(expected, delivered);
+    assertEquals(1, threads.size());
+  }
+
+  @Test
+  public void eventsOfDifferentNodesDontWaitForEachOther() throws InterruptedException {
+    CountDownLatch otherNodeDelivered = new CountDownLatch(1);
+    dispatcher.schedule(1, record("slow node"), SLOW_DELAY_MILLIS);
+    dispatcher.execute(2, otherNodeDelivered::countDown);
+
+    assertTrue(otherNodeDelivered.await(SLOW_DELAY_MILLIS / 2, TimeUnit.MILLISECONDS));
+    assertTrue(delivered.isEmpty());
+  }
+
+  @Test
+  public void eventsOfAllNodesAreDeliveredOnOneThread() throws InterruptedException {
+    for (int nodeId = 0; nodeId < 10; ++nodeId) {
+      dispatcher.schedule(nodeId, record("node " + nodeId), nodeId);
+    }
+    dispatcher.shutdown();
+
+    assertTrue(dispatcher.awaitTermination(TIMEOUT_MILLIS));
+    assertEquals(10, delivered.size());
+    assertEquals(1, threads.size());
+  }
+
+  @Test
+  public void shutdownDeliversTheQueuedEvents() throws InterruptedException {
+    for (int i = 0; i < 100; ++i) {
+      dispatcher.schedule(i % 10, record("event " + i), 50);
+    }
+    dispatcher.shutdown();
+    dispatcher.execute(0, record("after shutdown"));
+
+    assertTrue(dispatcher.awaitTermination(TIMEOUT_MILLIS));
+    assertEquals(100, delivered.size());
+    assertFalse(delivered.contains("after shutdown"));
+  }
+}